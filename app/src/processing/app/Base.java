@@ -757,6 +757,9 @@ public class Base {
    * @return true if succeeded in closing, false if canceled.
    */
   public boolean handleClose(Editor editor) {
+    // Let a save that's still being written finish first
+    editor.getSketch().waitForSave();
+
     // Check if modified
 //    boolean immediate = editors.size() == 1;
     if (!editor.checkModified()) {
@@ -864,6 +867,8 @@ public class Base {
   protected boolean handleQuitEach() {
     int index = 0;
     for (Editor editor : editors) {
+      // don't quit in the middle of writing the sketch
+      editor.getSketch().waitForSave();
       if (editor.checkModified()) {
         // Update to the new/final sketch path for this fella
         storeSketchPath(editor, index);
@@ -1517,6 +1522,15 @@ public class Base {
   }
 
 
+  /**
+   * Returns the folder of the library that provides a header file,
+   * or null if no library has a header by that name.
+   */
+  static public File getLibraryFolder(String header) {
+    return importToLibraryTable.get(header);
+  }
+
+
   static public String getExamplesPath() {
     return examplesFolder.getAbsolutePath();
   }
@@ -2212,11 +2226,36 @@ public class Base {
    * Spew the contents of a String object out to a file.
    */
   static public void saveFile(String str, File file) throws IOException {
+    // Write everything to a temporary file in the same folder first, and
+    // make sure it has hit the disk, so that a crash or a full disk can never
+    // leave a half-written sketch behind. Then move it over the original.
     File temp = File.createTempFile(file.getName(), null, file.getParentFile());
-    PApplet.saveStrings(temp, new String[] { str });
+    FileOutputStream output = new FileOutputStream(temp);
+    try {
+      PrintWriter writer = PApplet.createWriter(output);
+      writer.println(str);
+      writer.flush();
+      if (writer.checkError()) {
+        throw new IOException(
+          I18n.format(_("Could not write {0}"), temp.getAbsolutePath()));
+      }
+      output.getFD().sync();
+    } catch (IOException e) {
+      output.close();
+      temp.delete();
+      throw e;
+    }
+    output.close();
+
+    // Renaming over an existing file replaces it in a single step on
+    // Mac OS X and Linux. On Windows that fails, so delete the old one.
+    if (temp.renameTo(file)) {
+      return;
+    }
     if (file.exists()) {
       boolean result = file.delete();
       if (!result) {
+        temp.delete();
         throw new IOException(
 	  I18n.format(
 	    _("Could not remove old version of {0}"),
@@ -142,6 +142,10 @@ public class Editor extends JFrame implements RunnerListener {
 
   FindReplace find;
 
+  // checks for errors while typing, null when turned off in the prefs
+  SyntaxChecker syntaxChecker;
+  javax.swing.Timer syntaxCheckTimer;
+
   Runnable runHandler;
   Runnable presentHandler;
   Runnable stopHandler;
@@ -163,6 +167,12 @@ public class Editor extends JFrame implements RunnerListener {
         public void windowClosing(WindowEvent e) {
           base.handleClose(Editor.this);
         }
+
+        public void windowClosed(WindowEvent e) {
+          if (syntaxChecker != null) {
+            stopSyntaxCheck();
+          }
+        }
       });
     // don't close the window when clicked, the app will take care
     // of that via the handleQuitInternal() methods
@@ -304,6 +314,23 @@ public class Editor extends JFrame implements RunnerListener {
     boolean loaded = handleOpenInternal(path);
     if (!loaded) sketch = null;
 
+    // Periodically journal unsaved changes, so they survive a crash.
+    int interval = Preferences.getInteger("editor.journal.interval");
+    if (interval > 0) {
+      final javax.swing.Timer journalTimer =
+        new javax.swing.Timer(interval * 1000, null);
+      journalTimer.addActionListener(new ActionListener() {
+          public void actionPerformed(ActionEvent e) {
+            if (!isDisplayable()) {
+              journalTimer.stop();  // this window has been closed
+            } else if (sketch != null) {
+              sketch.writeJournal();
+            }
+          }
+        });
+      journalTimer.start();
+    }
+
 //    System.out.println("t5");
 
     // All set, now show the window
@@ -433,6 +460,25 @@ public class Editor extends JFrame implements RunnerListener {
     
     textarea.setDisplayLineNumbers(Preferences.getBoolean("editor.linenumbers"));
 
+    // check the code in the background after typing stops
+    if (Preferences.getBoolean("editor.syntax_check")) {
+      if (syntaxChecker == null) {
+        syntaxChecker = new SyntaxChecker();
+        syntaxCheckTimer = new javax.swing.Timer(0, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+              handleSyntaxCheck();
+            }
+          });
+        syntaxCheckTimer.setRepeats(false);
+        if (sketch != null) {
+          scheduleSyntaxCheck();
+        }
+      }
+      syntaxCheckTimer.setInitialDelay(Preferences.getInteger("editor.syntax_check.delay"));
+    } else if (syntaxChecker != null) {
+      stopSyntaxCheck();
+    }
+
     TextAreaPainter painter = textarea.getPainter();
     if (external) {
       // disable line highlight and turn off the caret when disabling
@@ -1590,7 +1636,7 @@ public class Editor extends JFrame implements RunnerListener {
    * single undo. Use stopCompoundEdit() once finished.
    */
   public void startCompoundEdit() {
-    compoundEdit = new CompoundEdit();
+    compoundEdit = new SketchUndoManager.Group();
   }
 
 
@@ -1622,22 +1668,43 @@ public class Editor extends JFrame implements RunnerListener {
     SyntaxDocument document = (SyntaxDocument) code.getDocument();
 
     if (document == null) {  // this document not yet inited
-      document = new SyntaxDocument();
-      code.setDocument(document);
+      if (code.isLarge()) {
+        // large tabs share their text with the document, nothing to insert
+        document = new SyntaxDocument(code.getContent());
+        code.setDocument(document);
+        document.setTokenMarker(new PdeKeywords());
+
+      } else {
+        document = new SyntaxDocument();
+        code.setDocument(document);
 
-      // turn on syntax highlighting
-      document.setTokenMarker(new PdeKeywords());
+        // turn on syntax highlighting
+        document.setTokenMarker(new PdeKeywords());
 
-      // insert the program text into the document object
-      try {
-        document.insertString(0, code.getProgram(), null);
-      } catch (BadLocationException bl) {
-        bl.printStackTrace();
+        // insert the program text into the document object
+        try {
+          document.insertString(0, code.getProgram(), null);
+        } catch (BadLocationException bl) {
+          bl.printStackTrace();
+        }
       }
 
       // set up this guy's own undo manager
 //      code.undo = new UndoManager();
 
+      // check the code again once typing stops
+      document.addDocumentListener(new DocumentListener() {
+          public void insertUpdate(DocumentEvent e) {
+            scheduleSyntaxCheck();
+          }
+
+          public void removeUpdate(DocumentEvent e) {
+            scheduleSyntaxCheck();
+          }
+
+          public void changedUpdate(DocumentEvent e) { }
+        });
+
       // connect the undo listener to the editor
       document.addUndoableEditListener(new UndoableEditListener() {
           public void undoableEditHappened(UndoableEditEvent e) {
@@ -1663,6 +1730,56 @@ public class Editor extends JFrame implements RunnerListener {
     this.undo = code.getUndo();
     undoAction.updateUndoState();
     redoAction.updateRedoState();
+
+    // markers from the previous tab were cleared along with its document
+    scheduleSyntaxCheck();
+  }
+
+
+  /**
+   * Restart the countdown to the next syntax check, and cancel the check
+   * that is running, since its results will be out of date.
+   */
+  protected void scheduleSyntaxCheck() {
+    if (syntaxChecker != null) {
+      syntaxChecker.cancel();
+      syntaxCheckTimer.restart();
+    }
+  }
+
+
+  /**
+   * Check the current tab for errors in the background, and mark the
+   * lines that have them.
+   */
+  protected void handleSyntaxCheck() {
+    if (syntaxChecker == null || sketch == null) return;
+
+    final SketchCode code = sketch.getCurrentCode();
+    syntaxChecker.check(sketch, code, getText(), new SyntaxChecker.Listener() {
+        public void syntaxChecked(java.util.List<RunnerException> errors) {
+          if (sketch.getCurrentCode() != code) return;
+
+          HashMap<Integer, String> markers = new HashMap<Integer, String>();
+          for (RunnerException e : errors) {
+            Integer line = new Integer(e.getCodeLine());
+            // only the first error on each line, the rest often follow from it
+            if (sketch.getCode(e.getCodeIndex()) == code &&
+                !markers.containsKey(line)) {
+              markers.put(line, e.getMessage());
+            }
+          }
+          textarea.setLineMarkers(markers);
+        }
+      });
+  }
+
+
+  protected void stopSyntaxCheck() {
+    syntaxCheckTimer.stop();
+    syntaxChecker.dispose();
+    syntaxChecker = null;
+    textarea.setLineMarkers(new HashMap<Integer, String>());
   }
 
 
@@ -2018,6 +2135,7 @@ public class Editor extends JFrame implements RunnerListener {
         return handleSave(true);
 
       } else if (result == JOptionPane.NO_OPTION) {
+        sketch.discardJournal();
         return true;  // ok to continue
 
       } else if (result == JOptionPane.CANCEL_OPTION) {
@@ -2070,6 +2188,7 @@ public class Editor extends JFrame implements RunnerListener {
         return handleSave(true);
 
       } else if (result == options[2]) {  // don't save (still close/quit)
+        sketch.discardJournal();
         return true;
 
       } else {  // cancel?
@@ -2225,9 +2344,10 @@ public class Editor extends JFrame implements RunnerListener {
 
   /**
    * Actually handle the save command. If 'immediately' is set to false,
-   * this will happen in another thread so that the message area
-   * will update and the save button will stay highlighted while the
-   * save is happening. If 'immediately' is true, then it will happen
+   * the files will be written in the background so that the editor
+   * stays responsive while the save is happening (which can take a
+   * while for sketches on a network drive). If 'immediately' is true,
+   * then it will happen
    * immediately. This is used during a quit, because invokeLater()
    * won't run properly while a quit is happening. This fixes
    * <A HREF="http://dev.processing.org/bugs/show_bug.cgi?id=276">Bug 276</A>.
@@ -2246,7 +2366,7 @@ public class Editor extends JFrame implements RunnerListener {
     } else {
       SwingUtilities.invokeLater(new Runnable() {
           public void run() {
-            handleSave2();
+            handleSaveInBackground();
           }
         });
     }
@@ -2254,6 +2374,26 @@ public class Editor extends JFrame implements RunnerListener {
   }
 
 
+  protected void handleSaveInBackground() {
+    toolbar.activate(EditorToolbar.SAVE);
+    statusNotice(_("Saving..."));
+    try {
+      boolean saving = sketch.saveInBackground(new Runnable() {
+          public void run() {
+            statusNotice(_("Done Saving."));
+          }
+        });
+      if (!saving) {
+        statusEmpty();
+      }
+    } catch (Exception e) {
+      // show the error as a message in the window
+      statusError(e);
+    }
+    toolbar.deactivate(EditorToolbar.SAVE);
+  }
+
+
   protected boolean handleSave2() {
     toolbar.activate(EditorToolbar.SAVE);
     statusNotice(_("Saving..."));
@@ -25,12 +25,18 @@ package processing.app;
 import static processing.app.I18n._;
 
 import java.awt.*;
-import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
 import javax.swing.*;
 import javax.swing.text.*;
 
 import java.util.*;
+import java.util.Timer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -69,7 +75,34 @@ public class EditorConsole extends JScrollPane {
   static OutputStream stderrFile;
 
   static EditorConsole currentConsole;
-  
+
+  /**
+   * Upper limit on the number of bytes waiting to be shown. If a sketch or
+   * the compiler produces output faster than it can be displayed, the oldest
+   * pending chunks are dropped instead of letting the queue grow forever.
+   * They still go to the real stdout/stderr and the log files.
+   */
+  static final int MAX_PENDING_BYTES = 1 << 20;
+
+  /** How often (in ms) pending output is decoded and posted to the console. */
+  static final int FLUSH_INTERVAL = 250;
+
+  /** Shared background thread that drains every console's queue. */
+  static Timer flusher;
+
+  // Output chunks written by any thread, drained by the flusher. Writers
+  // don't wait for the console, they only append to the queue.
+  final ConcurrentLinkedQueue<Chunk> pending = new ConcurrentLinkedQueue<Chunk>();
+  final AtomicInteger pendingBytes = new AtomicInteger();
+  final AtomicBoolean insertScheduled = new AtomicBoolean();
+
+  /** This console's job on the flusher, cancelled by handleQuit(). */
+  TimerTask flushTask;
+
+  // only touched from inside drain()
+  final ChunkDecoder outDecoder = new ChunkDecoder();
+  final ChunkDecoder errDecoder = new ChunkDecoder();
+
 
   public EditorConsole(Editor editor) {
     this.editor = editor;
@@ -139,21 +172,27 @@ public class EditorConsole extends JScrollPane {
         if (outFileName != null) {
           outFile = new File(tempFolder, outFileName);
           outFile.deleteOnExit();
-          stdoutFile = new FileOutputStream(outFile);
+          stdoutFile = new BufferedOutputStream(new FileOutputStream(outFile));
         }
 
         String errFileName = Preferences.get("console.error.file");
         if (errFileName != null) {
           errFile = new File(tempFolder, errFileName);
           errFile.deleteOnExit();
-          stderrFile = new FileOutputStream(errFile);
+          stderrFile = new BufferedOutputStream(new FileOutputStream(errFile));
         }
       } catch (IOException e) {
         Base.showWarning(_("Console Error"),
                          _("A problem occurred while trying to open the\nfiles used to store the console output."), e);
       }
-      consoleOut = new PrintStream(new EditorConsoleStream(false));
-      consoleErr = new PrintStream(new EditorConsoleStream(true));
+      // encode as UTF-8 so that the flusher knows how to decode the bytes
+      try {
+        consoleOut = new PrintStream(new EditorConsoleStream(false), false, "UTF-8");
+        consoleErr = new PrintStream(new EditorConsoleStream(true), false, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        consoleOut = new PrintStream(new EditorConsoleStream(false));
+        consoleErr = new PrintStream(new EditorConsoleStream(true));
+      }
     
       if (Preferences.getBoolean("console")) {
         try {
@@ -171,19 +210,20 @@ public class EditorConsole extends JScrollPane {
       setBorder(null);
     }
 
-    // periodically post buffered messages to the console
+    // periodically decode the buffered output (off the event thread),
+    // and post it to the console in a single batch
     // should the interval come from the preferences file?
-    new javax.swing.Timer(250, new ActionListener() {
-      public void actionPerformed(ActionEvent evt) {
-        // only if new text has been added
-        if (consoleDoc.hasAppendage) {
-          // insert the text that's been added in the meantime
-          consoleDoc.insertAll();
-          // always move to the end of the text as it's added
-          consoleTextPane.setCaretPosition(consoleDoc.getLength());
-        }
+    synchronized (EditorConsole.class) {
+      if (flusher == null) {
+        flusher = new Timer("Console flusher", true);
+      }
+    }
+    flushTask = new TimerTask() {
+      public void run() {
+        drain();
       }
-    }).start();
+    };
+    flusher.schedule(flushTask, FLUSH_INTERVAL, FLUSH_INTERVAL);
   }
 
   
@@ -205,6 +245,12 @@ public class EditorConsole extends JScrollPane {
     System.setOut(systemOut);
     System.setErr(systemErr);
 
+    // stop the flusher, then write out whatever is still waiting in the
+    // queue (if the flusher is in the middle of a drain(), this waits
+    // for it to finish)
+    flushTask.cancel();
+    drain();
+
     // close the PrintStream
     consoleOut.close();
     consoleErr.close();
@@ -224,56 +270,126 @@ public class EditorConsole extends JScrollPane {
   }
 
 
+  /**
+   * Queue a piece of output for the console. Safe to call from any thread.
+   * The bytes go to stdout/stderr and the log files right away, and a copy
+   * is picked up by the flusher for the console itself.
+   */
   public void write(byte b[], int offset, int length, boolean err) {
-    // we could do some cross platform CR/LF mangling here before outputting
-    // add text to output document
-    message(new String(b, offset, length), err, false);
+    echo(b, offset, length, err);
+
+    byte[] copy = new byte[length];
+    System.arraycopy(b, offset, copy, 0, length);
+    pending.offer(new Chunk(copy, err));
+
+    // too much output waiting? throw away the oldest chunks, they've
+    // only been left out of the console
+    if (pendingBytes.addAndGet(length) > MAX_PENDING_BYTES) {
+      while (pendingBytes.get() > MAX_PENDING_BYTES) {
+        Chunk dropped = pending.poll();
+        if (dropped == null) break;
+        pendingBytes.addAndGet(-dropped.bytes.length);
+      }
+    }
   }
 
 
-  // added sync for 0091.. not sure if it helps or hinders
-  synchronized public void message(String what, boolean err, boolean advance) {
-    if (err) {
-      systemErr.print(what);
-      //systemErr.print("CE" + what);
-    } else {
-      systemOut.print(what);
-      //systemOut.print("CO" + what);
-    }
-
+  public void message(String what, boolean err, boolean advance) {
     if (advance) {
-      appendText("\n", err);
-      if (err) {
-        systemErr.println();
-      } else {
-        systemOut.println();
-      }
+      what += "\n";
     }
-
-    // to console display    
-    appendText(what, err);
-    // moved down here since something is punting
+    byte[] b;
+    try {
+      b = what.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      b = what.getBytes();
+    }
+    write(b, 0, b.length, err);
   }
 
 
   /**
-   * Append a piece of text to the console.
+   * Move everything queued so far to the console document.
    * <P>
    * Swing components are NOT thread-safe, and since the MessageSiphon
    * instantiates new threads, and in those callbacks, they often print
    * output to stdout and stderr, which are wrapped by EditorConsoleStream
-   * and eventually leads to EditorConsole.appendText(), which directly
-   * updates the Swing text components, causing deadlock.
+   * and eventually end up here. The bytes are decoded and split into lines
+   * on the flusher thread, so that the only work left for Swing's
+   * event-dispatching thread is a single batched insert.
+   * (originally a patch by David Mellis)
    * <P>
-   * Updates are buffered to the console and displayed at regular
-   * intervals on Swing's event-dispatching thread. (patch by David Mellis)
+   * Synchronized because handleQuit() calls this on its own thread, and
+   * the decoders can only be used by one thread at a time.
+   */
+  synchronized void drain() {
+    Chunk chunk;
+    while ((chunk = pending.poll()) != null) {
+      pendingBytes.addAndGet(-chunk.bytes.length);
+
+      ChunkDecoder decoder = chunk.err ? errDecoder : outDecoder;
+      CharBuffer text = decoder.decode(chunk.bytes);
+      consoleDoc.appendString(text.array(), 0, text.limit(),
+                              chunk.err ? errStyle : stdStyle);
+    }
+    // the log files are written by write(), but only flushed here
+    flushEcho(stdoutFile);
+    flushEcho(stderrFile);
+
+    // only if new text has been added (otherwise the console would
+    // update every 250 ms when an app isn't even running.. see bug 180),
+    // and only once until the event thread catches up
+    if (consoleDoc.hasAppendage && insertScheduled.compareAndSet(false, true)) {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          insertScheduled.set(false);
+          // insert the text that's been added in the meantime
+          consoleDoc.insertAll();
+          // always move to the end of the text as it's added
+          consoleTextPane.setCaretPosition(consoleDoc.getLength());
+        }
+      });
+    }
+  }
+
+
+  /**
+   * Pass output on to the real stdout or stderr, and to its log file.
    */
-  synchronized private void appendText(String txt, boolean e) {
-    consoleDoc.appendString(txt, e ? errStyle : stdStyle);
+  static private void echo(byte b[], int offset, int length, boolean err) {
+    if (err) {
+      systemErr.write(b, offset, length);
+    } else {
+      systemOut.write(b, offset, length);
+    }
+    OutputStream echo = err ? stderrFile : stdoutFile;
+    if (echo != null) {
+      try {
+        echo.write(b, offset, length);
+      } catch (IOException e) {
+        e.printStackTrace(systemErr);
+      }
+    }
+  }
+
+
+  static private void flushEcho(OutputStream echo) {
+    if (echo != null) {
+      try {
+        echo.flush();
+      } catch (IOException e) {
+        e.printStackTrace(systemErr);
+      }
+    }
   }
 
 
   public void clear() {
+    Chunk chunk;
+    while ((chunk = pending.poll()) != null) {
+      pendingBytes.addAndGet(-chunk.bytes.length);
+    }
+    consoleDoc.discardPending();
     try {
       consoleDoc.remove(0, consoleDoc.getLength());
     } catch (BadLocationException e) {
@@ -286,10 +402,53 @@ public class EditorConsole extends JScrollPane {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
   
   
+  private static class Chunk {
+    final byte[] bytes;
+    final boolean err;
+
+    Chunk(byte[] bytes, boolean err) {
+      this.bytes = bytes;
+      this.err = err;
+    }
+  }
+
+
+  /**
+   * Decodes the UTF-8 bytes of one stream. A multi-byte character may be
+   * split across two writes, so the trailing bytes of an incomplete
+   * sequence are carried over to the next chunk.
+   */
+  private static class ChunkDecoder {
+    final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    final ByteBuffer carry = ByteBuffer.allocate(8);
+
+    CharBuffer decode(byte[] b) {
+      ByteBuffer in;
+      if (carry.position() == 0) {
+        in = ByteBuffer.wrap(b);
+      } else {
+        carry.flip();
+        in = ByteBuffer.allocate(carry.remaining() + b.length);
+        in.put(carry);
+        in.put(b);
+        in.flip();
+        carry.clear();
+      }
+      // UTF-8 never yields more chars than bytes, so this is large enough
+      CharBuffer out = CharBuffer.allocate(in.remaining());
+      decoder.decode(in, out, false);
+      carry.put(in);
+      out.flip();
+      return out;
+    }
+  }
+
+
   private static class EditorConsoleStream extends OutputStream {
     //static EditorConsole current;
     final boolean err; // whether stderr or stdout
-    final byte single[] = new byte[1];
 
     public EditorConsoleStream(boolean err) {
       this.err = err;
@@ -300,74 +459,22 @@ public class EditorConsole extends JScrollPane {
     public void flush() { }
 
     public void write(byte b[]) {  // appears never to be used
-      if (currentConsole != null) {
-        currentConsole.write(b, 0, b.length, err);
-      } else {
-        try {
-          if (err) {
-            systemErr.write(b);
-          } else {
-            systemOut.write(b);
-          }
-        } catch (IOException e) { }  // just ignore, where would we write?
-      }
-
-      OutputStream echo = err ? stderrFile : stdoutFile;
-      if (echo != null) {
-        try {
-          echo.write(b);
-          echo.flush();
-        } catch (IOException e) {
-          e.printStackTrace();
-          echo = null;
-        }
-      }
+      write(b, 0, b.length);
     }
 
     public void write(byte b[], int offset, int length) {
-      if (currentConsole != null) {
-        currentConsole.write(b, offset, length, err);
-      } else {
-        try {
-          if (err) {
-            systemErr.write(b);
-          } else {
-            systemOut.write(b);
-          }
-        } catch (IOException e) { }  // just ignore, where would we write?
-      }
-
-      OutputStream echo = err ? stderrFile : stdoutFile;
-      if (echo != null) {
-        try {
-          echo.write(b, offset, length);
-          echo.flush();
-        } catch (IOException e) {
-          e.printStackTrace();
-          echo = null;
-        }
+      EditorConsole console = currentConsole;
+      if (console != null) {
+        // the console's flusher takes care of flushing the echo file
+        console.write(b, offset, length, err);
+        return;
       }
+      echo(b, offset, length, err);
+      flushEcho(err ? stderrFile : stdoutFile);
     }
 
     public void write(int b) {
-      single[0] = (byte)b;
-      if (currentConsole != null) {
-        currentConsole.write(single, 0, 1, err);
-      } else {
-        // redirect for all the extra handling above
-        write(new byte[] { (byte) b }, 0, 1);
-      }
-
-      OutputStream echo = err ? stderrFile : stdoutFile;
-      if (echo != null) {
-        try {
-          echo.write(b);
-          echo.flush();
-        } catch (IOException e) {
-          e.printStackTrace();
-          echo = null;
-        }
-      }
+      write(new byte[] { (byte) b }, 0, 1);
     }
   }
 }
@@ -380,58 +487,114 @@ public class EditorConsole extends JScrollPane {
  * Buffer updates to the console and output them in batches. For info, see:
  * http://java.sun.com/products/jfc/tsc/articles/text/element_buffer and
  * http://javatechniques.com/public/java/docs/gui/jtextpane-speed-part2.html
- * appendString() is called from multiple threads, and insertAll from the
- * swing event thread, so they need to be synchronized
+ * appendString() is called from the console's flusher thread, and insertAll
+ * from the swing event thread, so they need to be synchronized. No more than
+ * maxLineCount lines are ever held back: older ones are dropped from the
+ * head of the buffer since they would be trimmed on insert anyway.
  */
 class BufferedStyledDocument extends DefaultStyledDocument {
   ArrayList<ElementSpec> elements = new ArrayList<ElementSpec>();
+  int head;  // index of the first element still waiting to be inserted
+  int pendingLines;  // number of line breaks between head and the end
   int maxLineLength, maxLineCount;
   int currentLineLength = 0;
   boolean needLineBreak = false;
-  boolean hasAppendage = false;
+  volatile boolean hasAppendage = false;
 
   public BufferedStyledDocument(int maxLineLength, int maxLineCount) {
     this.maxLineLength = maxLineLength;
-    this.maxLineCount = maxLineCount;
+    this.maxLineCount = Math.max(1, maxLineCount);
   }
 
   /** buffer a string for insertion at the end of the DefaultStyledDocument */
-  public synchronized void appendString(String str, AttributeSet a) {
-    // do this so that it's only updated when needed (otherwise console
-    // updates every 250 ms when an app isn't even running.. see bug 180)
+  public void appendString(String str, AttributeSet a) {
+    appendString(str.toCharArray(), 0, str.length(), a);
+  }
+
+  /**
+   * Buffer a range of characters for insertion. The array is shared by the
+   * elements that are created, so it must not be modified afterwards.
+   */
+  public synchronized void appendString(char[] chars, int offset, int length,
+                                        AttributeSet a) {
+    int stop = offset + length;
+    if (offset == stop) return;
+
     hasAppendage = true;
 
     // process each line of the string
-    while (str.length() > 0) {
+    while (offset < stop) {
       // newlines within an element have (almost) no effect, so we need to
       // replace them with proper paragraph breaks (start and end tags)
       if (needLineBreak || currentLineLength > maxLineLength) {
         elements.add(new ElementSpec(a, ElementSpec.EndTagType));
         elements.add(new ElementSpec(a, ElementSpec.StartTagType));
         currentLineLength = 0;
+        if (++pendingLines > maxLineCount) {
+          trimHead();
+        }
       }
 
-      if (str.indexOf('\n') == -1) {
+      int newline = offset;
+      while (newline < stop && chars[newline] != '\n') {
+        newline++;
+      }
+      if (newline == stop) {
         elements.add(new ElementSpec(a, ElementSpec.ContentType,
-          str.toCharArray(), 0, str.length()));
-        currentLineLength += str.length();
+                                     chars, offset, stop - offset));
+        currentLineLength += stop - offset;
         needLineBreak = false;
-        str = str.substring(str.length()); // eat the string
+        offset = stop;  // eat the string
       } else {
         elements.add(new ElementSpec(a, ElementSpec.ContentType,
-          str.toCharArray(), 0, str.indexOf('\n') + 1));
+                                     chars, offset, newline + 1 - offset));
         needLineBreak = true;
-        str = str.substring(str.indexOf('\n') + 1); // eat the line
+        offset = newline + 1;  // eat the line
       }
     }
   }
 
+  /**
+   * Drop the oldest buffered lines until only maxLineCount are left.
+   * Just moves the head forward, the list is compacted once in a while.
+   */
+  private void trimHead() {
+    while (pendingLines > maxLineCount) {
+      if (elements.get(head).getType() == ElementSpec.EndTagType) {
+        head++;
+        pendingLines--;
+      }
+      while (elements.get(head).getType() != ElementSpec.EndTagType) {
+        head++;
+      }
+    }
+    if (head > elements.size() / 2) {
+      elements.subList(0, head).clear();
+      head = 0;
+    }
+  }
+
+  /** throw away anything that has not been inserted yet */
+  public synchronized void discardPending() {
+    elements.clear();
+    head = 0;
+    pendingLines = 0;
+    hasAppendage = false;
+  }
+
   /** insert the buffered strings */
-  public synchronized void insertAll() {
-    ElementSpec[] elementArray = new ElementSpec[elements.size()];
-    elements.toArray(elementArray);
+  public void insertAll() {
+    ElementSpec[] elementArray;
+    synchronized (this) {
+      java.util.List<ElementSpec> live = elements.subList(head, elements.size());
+      elementArray = live.toArray(new ElementSpec[live.size()]);
+      discardPending();
+    }
+    if (elementArray.length == 0) return;
 
     try {
+      super.insert(super.getLength(), elementArray);
+
       // check how many lines have been used so far
       // if too many, shave off a few lines from the beginning
       Element element = super.getDefaultRootElement();
@@ -446,15 +609,11 @@ class BufferedStyledDocument extends DefaultStyledDocument {
 
         int endOffset = lineElement.getEndOffset();
         // remove to the end of the 200th line
-        super.remove(0, endOffset);
+        super.remove(0, Math.min(endOffset, super.getLength()));
       }
-      super.insert(super.getLength(), elementArray);
-
     } catch (BadLocationException e) {
       // ignore the error otherwise this will cause an infinite loop
       // maybe not a good idea in the long run?
     }
-    elements.clear();
-    hasAppendage = false;
   }
 }
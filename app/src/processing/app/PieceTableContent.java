@@ -0,0 +1,537 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  PieceTableContent - document storage for very large tabs
+  Part of the Arduino project - http://www.arduino.cc/
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.app;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import javax.swing.text.*;
+import javax.swing.undo.*;
+
+
+/**
+ * Document content for tabs loaded in large-file mode.
+ * <P>
+ * The text of the file is kept in a single array that is never modified.
+ * Everything typed goes to the end of a second, append-only array, and the
+ * document is described by a list of pieces that point into either one.
+ * Editing a huge generated table therefore doesn't copy it around, and the
+ * same arrays can be handed to the preprocessor and the build folder
+ * without ever turning the whole tab into a String.
+ * <P>
+ * Like the other Content implementations, there's always a trailing
+ * newline that can't be removed.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+  private final char[] original;
+  private char[] added = new char[1024];
+  private int addedLength;
+
+  // the pieces, as parallel arrays to keep the overhead per piece low
+  private boolean[] pieceAdded = new boolean[16];
+  private int[] pieceStart = new int[16];
+  private int[] pieceLength = new int[16];
+  private int pieceCount;
+
+  private int length;
+
+  /** number of inserts and removes so far, including undo and redo */
+  private int changes;
+
+  // last piece that was looked up, since reads tend to be sequential
+  private int cacheIndex;
+  private int cacheOffset;
+
+  private ArrayList<WeakReference<Mark>> marks =
+    new ArrayList<WeakReference<Mark>>();
+
+
+  /**
+   * Create content around an array of text. The array is used as is, so it
+   * must not be modified afterwards, and must end with a newline.
+   */
+  public PieceTableContent(char[] text) {
+    original = text;
+    length = text.length;
+    pieceStart[0] = 0;
+    pieceLength[0] = length;
+    pieceCount = 1;
+  }
+
+
+  /**
+   * Read a file as UTF-8 in a single pass, with the same line ending
+   * handling as Base.loadFile(): line breaks become \n, and the file
+   * doesn't need a trailing newline (one is added for the document).
+   */
+  static public PieceTableContent load(File file) throws IOException {
+    char[] text = new char[(int) file.length() + 1];
+    int count = 0;
+    Reader reader =
+      new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try {
+      int read;
+      while ((read = reader.read(text, count, text.length - count)) != -1) {
+        count += read;
+        if (count == text.length) {
+          char[] bigger = new char[text.length * 2];
+          System.arraycopy(text, 0, bigger, 0, count);
+          text = bigger;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    // normalize \r\n and \r to \n in place
+    int length = 0;
+    for (int i = 0; i < count; i++) {
+      char c = text[i];
+      if (c == '\r') {
+        if (i + 1 < count && text[i + 1] == '\n') i++;
+        c = '\n';
+      }
+      text[length++] = c;
+    }
+    if (length == 0 || text[length - 1] != '\n') {
+      text[length++] = '\n';
+    }
+    if (length != text.length) {
+      char[] exact = new char[length];
+      System.arraycopy(text, 0, exact, 0, length);
+      text = exact;
+    }
+    return new PieceTableContent(text);
+  }
+
+
+  public synchronized int length() {
+    return length;
+  }
+
+
+  /**
+   * Goes up with every change to the text, so that callers can tell
+   * whether the text is still the same without looking at all of it.
+   */
+  public synchronized int getChangeCount() {
+    return changes;
+  }
+
+
+  public synchronized Position createPosition(int offset)
+    throws BadLocationException {
+    Mark mark = new Mark(offset);
+    marks.add(new WeakReference<Mark>(mark));
+    return mark;
+  }
+
+
+  public synchronized UndoableEdit insertString(int where, String str)
+    throws BadLocationException {
+    if (where >= length || where < 0) {
+      throw new BadLocationException("Invalid insert", length);
+    }
+    insert(where, str);
+    return new InsertUndo(where, str.length());
+  }
+
+
+  public synchronized UndoableEdit remove(int where, int nitems)
+    throws BadLocationException {
+    if (where + nitems >= length || where < 0 || nitems < 0) {
+      throw new BadLocationException("Invalid remove", length);
+    }
+    String removed = getString(where, nitems);
+    MarkSnapshot snapshot = new MarkSnapshot(where, nitems);
+    delete(where, nitems);
+    return new RemoveUndo(where, removed, snapshot);
+  }
+
+
+  public synchronized String getString(int where, int len)
+    throws BadLocationException {
+    Segment segment = new Segment();
+    getChars(where, len, segment);
+    return new String(segment.array, segment.offset, segment.count);
+  }
+
+
+  /**
+   * Get a range of text. If it's all inside a single piece, the segment
+   * points straight into the backing array and nothing is copied.
+   */
+  public synchronized void getChars(int where, int len, Segment txt)
+    throws BadLocationException {
+    if (where < 0 || len < 0 || where + len > length) {
+      throw new BadLocationException("Invalid location", length);
+    }
+    int index = locate(where);
+    int inside = where - cacheOffset;
+    if (index < pieceCount && inside + len <= pieceLength[index]) {
+      txt.array = pieceAdded[index] ? added : original;
+      txt.offset = pieceStart[index] + inside;
+      txt.count = len;
+      return;
+    }
+    if (txt.isPartialReturn() && index < pieceCount) {
+      txt.array = pieceAdded[index] ? added : original;
+      txt.offset = pieceStart[index] + inside;
+      txt.count = pieceLength[index] - inside;
+      return;
+    }
+    char[] chars = new char[len];
+    copy(where, chars, 0, len);
+    txt.array = chars;
+    txt.offset = 0;
+    txt.count = len;
+  }
+
+
+  /**
+   * Append a range of text to a buffer, piece by piece.
+   */
+  public synchronized void appendTo(StringBuffer buffer, int where, int len) {
+    int index = locate(where);
+    int inside = where - cacheOffset;
+    while (len > 0) {
+      int count = Math.min(len, pieceLength[index] - inside);
+      buffer.append(pieceAdded[index] ? added : original,
+                    pieceStart[index] + inside, count);
+      len -= count;
+      inside = 0;
+      index++;
+    }
+  }
+
+
+  /**
+   * Write a range of text, piece by piece.
+   */
+  public synchronized void writeTo(Writer writer, int where, int len)
+    throws IOException {
+    int index = locate(where);
+    int inside = where - cacheOffset;
+    while (len > 0) {
+      int count = Math.min(len, pieceLength[index] - inside);
+      writer.write(pieceAdded[index] ? added : original,
+                   pieceStart[index] + inside, count);
+      len -= count;
+      inside = 0;
+      index++;
+    }
+  }
+
+
+  /**
+   * Number of lines in the text, not counting the trailing newline.
+   */
+  public synchronized int countLines() {
+    int count = 1;
+    for (int i = 0; i < pieceCount; i++) {
+      char[] array = pieceAdded[i] ? added : original;
+      int stop = pieceStart[i] + pieceLength[i];
+      for (int j = pieceStart[i]; j < stop; j++) {
+        if (array[j] == '\n') count++;
+      }
+    }
+    return count - 1;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Find the piece that contains an offset, and leave its start offset
+   * in cacheOffset. Returns pieceCount if the offset is at the very end.
+   */
+  private int locate(int offset) {
+    if (cacheIndex > pieceCount || offset < cacheOffset) {
+      cacheIndex = 0;
+      cacheOffset = 0;
+    }
+    while (cacheIndex < pieceCount &&
+           cacheOffset + pieceLength[cacheIndex] <= offset) {
+      cacheOffset += pieceLength[cacheIndex];
+      cacheIndex++;
+    }
+    return cacheIndex;
+  }
+
+
+  /**
+   * Make sure a piece starts at the given offset, splitting the piece
+   * that contains it if necessary. Returns the index of that piece.
+   */
+  private int splitAt(int offset) {
+    int index = locate(offset);
+    int inside = offset - cacheOffset;
+    if (inside == 0) {
+      return index;
+    }
+    makeRoom(index + 1, 1);
+    pieceAdded[index + 1] = pieceAdded[index];
+    pieceStart[index + 1] = pieceStart[index] + inside;
+    pieceLength[index + 1] = pieceLength[index] - inside;
+    pieceLength[index] = inside;
+    return index + 1;
+  }
+
+
+  /** Open up 'count' slots in the piece list at 'index'. */
+  private void makeRoom(int index, int count) {
+    if (pieceCount + count > pieceStart.length) {
+      int size = Math.max(pieceCount + count, pieceStart.length * 2);
+      boolean[] a = new boolean[size];
+      int[] s = new int[size];
+      int[] l = new int[size];
+      System.arraycopy(pieceAdded, 0, a, 0, pieceCount);
+      System.arraycopy(pieceStart, 0, s, 0, pieceCount);
+      System.arraycopy(pieceLength, 0, l, 0, pieceCount);
+      pieceAdded = a;
+      pieceStart = s;
+      pieceLength = l;
+    }
+    int moving = pieceCount - index;
+    System.arraycopy(pieceAdded, index, pieceAdded, index + count, moving);
+    System.arraycopy(pieceStart, index, pieceStart, index + count, moving);
+    System.arraycopy(pieceLength, index, pieceLength, index + count, moving);
+    pieceCount += count;
+  }
+
+
+  private void insert(int where, String str) {
+    int len = str.length();
+    if (len == 0) return;
+
+    if (addedLength + len > added.length) {
+      char[] bigger = new char[Math.max(addedLength + len, added.length * 2)];
+      System.arraycopy(added, 0, bigger, 0, addedLength);
+      added = bigger;
+    }
+    str.getChars(0, len, added, addedLength);
+
+    int index = splitAt(where);
+    if (index > 0 && pieceAdded[index - 1] &&
+        pieceStart[index - 1] + pieceLength[index - 1] == addedLength) {
+      // typing at the end of the last insert, just grow that piece
+      pieceLength[index - 1] += len;
+    } else {
+      makeRoom(index, 1);
+      pieceAdded[index] = true;
+      pieceStart[index] = addedLength;
+      pieceLength[index] = len;
+    }
+    addedLength += len;
+    length += len;
+    changes++;
+    cacheIndex = 0;
+    cacheOffset = 0;
+
+    // same rules as StringContent: a mark at zero never moves,
+    // otherwise marks at or after the insertion point are pushed along
+    int after = (where == 0) ? 1 : where;
+    int n = 0;
+    for (int i = 0; i < marks.size(); i++) {
+      WeakReference<Mark> ref = marks.get(i);
+      Mark mark = ref.get();
+      if (mark != null) {
+        if (mark.offset >= after) mark.offset += len;
+        marks.set(n++, ref);
+      }
+    }
+    trimMarks(n);
+  }
+
+
+  private void delete(int where, int len) {
+    if (len == 0) return;
+
+    int first = splitAt(where);
+    int last = splitAt(where + len);
+    int count = last - first;
+    System.arraycopy(pieceAdded, last, pieceAdded, first, pieceCount - last);
+    System.arraycopy(pieceStart, last, pieceStart, first, pieceCount - last);
+    System.arraycopy(pieceLength, last, pieceLength, first, pieceCount - last);
+    pieceCount -= count;
+    length -= len;
+    changes++;
+    cacheIndex = 0;
+    cacheOffset = 0;
+
+    int end = where + len;
+    int n = 0;
+    for (int i = 0; i < marks.size(); i++) {
+      WeakReference<Mark> ref = marks.get(i);
+      Mark mark = ref.get();
+      if (mark != null) {
+        if (mark.offset >= end) {
+          mark.offset -= len;
+        } else if (mark.offset >= where) {
+          mark.offset = where;
+        }
+        marks.set(n++, ref);
+      }
+    }
+    trimMarks(n);
+  }
+
+
+  /** Drop the references to marks that have been garbage collected. */
+  private void trimMarks(int n) {
+    if (n < marks.size()) {
+      marks.subList(n, marks.size()).clear();
+    }
+  }
+
+
+  private void copy(int where, char[] dest, int destOffset, int len) {
+    int index = locate(where);
+    int inside = where - cacheOffset;
+    while (len > 0) {
+      int count = Math.min(len, pieceLength[index] - inside);
+      System.arraycopy(pieceAdded[index] ? added : original,
+                       pieceStart[index] + inside, dest, destOffset, count);
+      destOffset += count;
+      len -= count;
+      inside = 0;
+      index++;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * The positions inside a range that is about to be removed, and where
+   * they were. Removing text collapses them, so undo (or redo) of the
+   * removal has to put them back like StringContent does.
+   */
+  class MarkSnapshot {
+    Mark[] saved;
+    int[] offsets;
+
+    MarkSnapshot(int where, int len) {
+      ArrayList<Mark> found = new ArrayList<Mark>();
+      for (int i = 0; i < marks.size(); i++) {
+        Mark mark = marks.get(i).get();
+        if (mark != null && mark.offset >= where && mark.offset <= where + len) {
+          found.add(mark);
+        }
+      }
+      saved = found.toArray(new Mark[found.size()]);
+      offsets = new int[saved.length];
+      for (int i = 0; i < saved.length; i++) {
+        offsets[i] = saved[i].offset;
+      }
+    }
+
+    void restore() {
+      for (int i = 0; i < saved.length; i++) {
+        saved[i].offset = offsets[i];
+      }
+    }
+  }
+
+
+  static class Mark implements Position {
+    int offset;
+
+    Mark(int offset) {
+      this.offset = offset;
+    }
+
+    public int getOffset() {
+      return offset;
+    }
+  }
+
+
+  class InsertUndo extends AbstractUndoableEdit {
+    static final long serialVersionUID = 1L;
+    int where;
+    int len;
+    String string;  // only kept while the insert is undone
+    MarkSnapshot snapshot;
+
+    InsertUndo(int where, int len) {
+      this.where = where;
+      this.len = len;
+    }
+
+    public void undo() throws CannotUndoException {
+      super.undo();
+      synchronized (PieceTableContent.this) {
+        try {
+          string = getString(where, len);
+        } catch (BadLocationException e) {
+          throw new CannotUndoException();
+        }
+        snapshot = new MarkSnapshot(where, len);
+        delete(where, len);
+      }
+    }
+
+    public void redo() throws CannotRedoException {
+      super.redo();
+      synchronized (PieceTableContent.this) {
+        insert(where, string);
+        snapshot.restore();
+        string = null;
+        snapshot = null;
+      }
+    }
+  }
+
+
+  class RemoveUndo extends AbstractUndoableEdit {
+    static final long serialVersionUID = 1L;
+    int where;
+    String string;
+    MarkSnapshot snapshot;
+
+    RemoveUndo(int where, String string, MarkSnapshot snapshot) {
+      this.where = where;
+      this.string = string;
+      this.snapshot = snapshot;
+    }
+
+    public void undo() throws CannotUndoException {
+      super.undo();
+      synchronized (PieceTableContent.this) {
+        insert(where, string);
+        snapshot.restore();
+      }
+    }
+
+    public void redo() throws CannotRedoException {
+      super.redo();
+      synchronized (PieceTableContent.this) {
+        snapshot = new MarkSnapshot(where, string.length());
+        delete(where, string.length());
+      }
+    }
+  }
+}
@@ -178,6 +178,7 @@ public class Preferences {
   JCheckBox verboseCompilationBox;
   JCheckBox verboseUploadBox;
   JCheckBox displayLineNumbersBox;
+  JCheckBox syntaxCheckBox;
   JCheckBox verifyUploadBox;
   JCheckBox externalEditorBox;
   JCheckBox memoryOverrideBox;
@@ -391,6 +392,15 @@ public class Preferences {
     displayLineNumbersBox.setBounds(left, top, d.width + 10, d.height);
     right = Math.max(right, left + d.width);
     top += d.height + GUI_BETWEEN;
+
+    // [ ] Check for errors while typing
+
+    syntaxCheckBox = new JCheckBox(_("Check for errors while typing"));
+    pain.add(syntaxCheckBox);
+    d = syntaxCheckBox.getPreferredSize();
+    syntaxCheckBox.setBounds(left, top, d.width + 10, d.height);
+    right = Math.max(right, left + d.width);
+    top += d.height + GUI_BETWEEN;
 	
     // [ ] Verify code after upload
     
@@ -582,6 +592,7 @@ public class Preferences {
     setBoolean("build.verbose", verboseCompilationBox.isSelected());
     setBoolean("upload.verbose", verboseUploadBox.isSelected());
     setBoolean("editor.linenumbers", displayLineNumbersBox.isSelected());
+    setBoolean("editor.syntax_check", syntaxCheckBox.isSelected());
     setBoolean("upload.verify", verifyUploadBox.isSelected());
     
 //    setBoolean("sketchbook.closing_last_window_quits",
@@ -646,6 +657,7 @@ public class Preferences {
     verboseCompilationBox.setSelected(getBoolean("build.verbose"));
     verboseUploadBox.setSelected(getBoolean("upload.verbose"));
     displayLineNumbersBox.setSelected(getBoolean("editor.linenumbers"));
+    syntaxCheckBox.setSelected(getBoolean("editor.syntax_check"));
     verifyUploadBox.setSelected(getBoolean("upload.verify"));
 
     //closingLastQuitsBox.
@@ -36,6 +36,7 @@ import java.awt.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
 
 import javax.swing.*;
 
@@ -46,6 +47,27 @@ import javax.swing.*;
 public class Sketch {
   static private File tempBuildFolder;
 
+  /**
+   * Saves and journal entries are written on this thread, so that a slow
+   * disk (or a sketchbook on a network share) doesn't freeze the editor.
+   * Using a single thread keeps the writes in the order they were made.
+   */
+  static private ExecutorService io =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Sketch I/O");
+        // saves on quit are waited for, so no need to hold up the exit
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  /** the last saveInBackground(), until it's been marked as done */
+  private SaveTask pendingSave;
+
+  /** set once the journal has been checked for unsaved edits */
+  private boolean journalChecked;
+
   private Editor editor;
 
   /** main pde file for this sketch. */
@@ -210,6 +232,12 @@ public class Sketch {
     // sort the entries at the top
     sortCode();
 
+    // offer to bring back anything that was left unsaved by a crash
+    if (editor != null && !journalChecked) {
+      journalChecked = true;
+      recoverJournal();
+    }
+
     // set the main file to be the current tab
     if (editor != null) {
       setCurrentCode(0);
@@ -217,6 +245,91 @@ public class Sketch {
   }
 
 
+  /**
+   * Check the autosave journal for edits that never made it to disk,
+   * and ask whether to restore them. Has to happen before the tabs are
+   * shown, since the documents are created from each tab's program text.
+   */
+  protected void recoverJournal() {
+    String[] recovered = new String[codeCount];
+    String names = "";
+    for (int i = 0; i < codeCount; i++) {
+      recovered[i] = code[i].loadJournal();
+      if (recovered[i] != null) {
+        names += "<br>" + code[i].getFileName();
+      }
+    }
+    if (names.length() == 0) return;
+
+    int result =
+      Base.showYesNoQuestion(editor, _("Recover"),
+                             _("Some tabs of this sketch have unsaved changes " +
+                               "from a previous session."),
+                             _("Restore them?") + names);
+    for (int i = 0; i < codeCount; i++) {
+      if (recovered[i] == null) continue;
+
+      if (result == JOptionPane.YES_OPTION) {
+        code[i].setProgram(recovered[i]);
+        code[i].setModified(true);
+      } else {
+        code[i].deleteJournal();
+      }
+    }
+    if (result == JOptionPane.YES_OPTION) {
+      modified = true;
+    }
+  }
+
+
+  /**
+   * Write the text of every modified tab to the journal, on the I/O thread.
+   * Called periodically by the Editor, only tabs whose text actually changed
+   * since the last entry get written.
+   */
+  public void writeJournal() {
+    if (current == null || !modified) return;
+
+    if (current.isModified()) {
+      storeCurrentProgram();
+    }
+    for (int i = 0; i < codeCount; i++) {
+      if (!code[i].isModified() || !code[i].needsJournal()) continue;
+
+      final SketchCode sc = code[i];
+      final String text = sc.getProgram();
+      final int changes = sc.getChangeCount();
+      io.submit(new Runnable() {
+        public void run() {
+          try {
+            sc.writeJournal(text, changes);
+          } catch (IOException e) {
+            // not fatal, the journal is only a safety net
+            e.printStackTrace();
+          }
+        }
+      });
+    }
+  }
+
+
+  /**
+   * Throw away the journal, used when the user decides to close
+   * the sketch without saving.
+   */
+  public void discardJournal() {
+    final SketchCode[] codes = code;
+    final int count = codeCount;
+    io.submit(new Runnable() {
+      public void run() {
+        for (int i = 0; i < count; i++) {
+          codes[i].deleteJournal();
+        }
+      }
+    });
+  }
+
+
   protected void replaceCode(SketchCode newCode) {
     for (int i = 0; i < codeCount; i++) {
       if (code[i].getFileName().equals(newCode.getFileName())) {
@@ -466,7 +579,7 @@ public class Sketch {
 
         // first get the contents of the editor text area
         if (current.isModified()) {
-          current.setProgram(editor.getText());
+          storeCurrentProgram();
           try {
             // save this new SketchCode
             current.save();
@@ -700,15 +813,126 @@ public class Sketch {
 
 
   /**
-   * Save all code in the current sketch.
+   * Save all code in the current sketch. Returns once everything is on disk.
    */
   public boolean save() throws IOException {
+    // finish up a background save first, so the writes stay in order
+    waitForSave();
+
+    SaveTask writer = prepareSave();
+    if (writer == null) return false;
+
+    Future<Object> result = io.submit(writer);
+    try {
+      result.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      writer.markSaved();
+      calcModified();
+    }
+    return true;
+  }
+
+
+  /**
+   * Save all code in the current sketch, writing the files on the sketch's
+   * I/O thread. The tabs stay marked as modified until their files have
+   * been written. If a write fails, the error is shown in the status area.
+   * Otherwise 'done' is run on the event thread once all is on disk.
+   * Use waitForSave() before closing the sketch or quitting.
+   * @return false if the save was canceled by the user
+   */
+  public boolean saveInBackground(final Runnable done) throws IOException {
+    waitForSave();
+
+    final SaveTask writer = prepareSave();
+    if (writer == null) return false;
+
+    pendingSave = writer;
+    writer.result = io.submit(new Runnable() {
+      public void run() {
+        try {
+          writer.call();
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              finishSave(writer);
+              if (done != null) {
+                done.run();
+              }
+            }
+          });
+        } catch (final Exception e) {
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              finishSave(writer);
+              editor.statusError(e);
+            }
+          });
+        }
+      }
+    });
+    return true;
+  }
+
+
+  /**
+   * Wait for the last saveInBackground() to finish writing, and mark the
+   * tabs that made it to disk as saved. Must be called from the event
+   * thread, before the sketch is closed or the application quits, so that
+   * the write isn't cut off halfway.
+   */
+  public void waitForSave() {
+    SaveTask writer = pendingSave;
+    if (writer == null) return;
+
+    boolean interrupted = false;
+    while (true) {
+      try {
+        writer.result.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        break;  // already reported by saveInBackground()
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    finishSave(writer);
+  }
+
+
+  /** Called on the event thread once a background save is done. */
+  protected void finishSave(SaveTask writer) {
+    if (pendingSave == writer) {
+      pendingSave = null;
+      writer.markSaved();
+      calcModified();
+    }
+  }
+
+
+  /**
+   * Handle the user interaction needed for a save (read-only sketches,
+   * the .pde to .ino rename), and take a snapshot of the modified tabs.
+   * Must be called from the event thread.
+   * @return a task that writes the snapshot, or null if canceled
+   */
+  protected SaveTask prepareSave() throws IOException {
     // make sure the user didn't hide the sketch folder
     ensureExistence();
 
     // first get the contents of the editor text area
     if (current.isModified()) {
-      current.setProgram(editor.getText());
+      storeCurrentProgram();
     }
 
     // don't do anything if not actually modified
@@ -720,7 +944,7 @@ public class Sketch {
                        _("Some files are marked \"read-only\", so you'll\n" +
                          "need to re-save this sketch to another location."));
       // if the user cancels, give up on the save()
-      if (!saveAs()) return false;
+      if (!saveAs()) return null;
     } else {
       // rename .pde files to .ino
       File mainFile = new File(getMainFilePath());
@@ -749,7 +973,7 @@ public class Sketch {
                                                     options,
                                                     options[0]);
           
-          if (result != JOptionPane.OK_OPTION) return false; // save cancelled
+          if (result != JOptionPane.OK_OPTION) return null; // save cancelled
           
           Preferences.setBoolean("editor.update_extension", true);
         }
@@ -762,12 +986,58 @@ public class Sketch {
       }
     }
 
+    // Only the text is captured here, the actual writing (and the check
+    // whether the contents changed at all) happens on the I/O thread.
+    SaveTask writer = new SaveTask();
     for (int i = 0; i < codeCount; i++) {
-      if (code[i].isModified()) 
-        code[i].save();
+      if (code[i].isModified()) {
+        writer.saving.add(code[i]);
+        writer.texts.add(code[i].getProgram());
+        writer.changes.add(code[i].getChangeCount());
+      }
+    }
+    return writer;
+  }
+
+
+  /**
+   * Writes a snapshot of the modified tabs. The tabs aren't marked as
+   * saved until markSaved() is called on the event thread after the
+   * write, and then only the ones that were written and haven't been
+   * edited again in the meantime.
+   */
+  protected class SaveTask implements Callable<Object> {
+    final List<SketchCode> saving = new ArrayList<SketchCode>();
+    final List<String> texts = new ArrayList<String>();
+    final List<Integer> changes = new ArrayList<Integer>();
+    /** number of tabs written so far */
+    volatile int written;
+    /** set by saveInBackground() */
+    Future<?> result;
+
+    public Object call() throws IOException {
+      for (int i = 0; i < saving.size(); i++) {
+        saving.get(i).write(texts.get(i), changes.get(i));
+        written = i + 1;
+      }
+      return null;
+    }
+
+    void markSaved() {
+      if (current != null && current.isModified()) {
+        storeCurrentProgram();
+      }
+      for (int i = 0; i < written; i++) {
+        SketchCode sc = saving.get(i);
+        // large tabs aren't copied again just to compare them
+        boolean same = sc.isLarge() ?
+          (changes.get(i) == sc.getChangeCount()) :
+          texts.get(i).equals(sc.getProgram());
+        if (same) {
+          sc.setModified(false);
+        }
+      }
     }
-    calcModified();
-    return true;
   }
 
   
@@ -900,7 +1170,7 @@ public class Sketch {
     // grab the contents of the current tab before saving
     // first get the contents of the editor text area
     if (current.isModified()) {
-      current.setProgram(editor.getText());
+      storeCurrentProgram();
     }
 
     // save the other tabs to their new location
@@ -1168,7 +1438,8 @@ public class Sketch {
 
     // get the text currently being edited
     if (current != null) {
-      current.setState(editor.getText(),
+      // large tabs share their text with the document already
+      current.setState(current.isLarge() ? null : editor.getText(),
                        editor.getSelectionStart(),
                        editor.getSelectionStop(),
                        editor.getScrollPosition());
@@ -1182,6 +1453,17 @@ public class Sketch {
   }
 
 
+  /**
+   * Copy the text being edited back to the current tab. Not needed for
+   * tabs in large-file mode, the editor works on their text directly.
+   */
+  protected void storeCurrentProgram() {
+    if (!current.isLarge()) {
+      current.setProgram(editor.getText());
+    }
+  }
+
+
   /**
    * Internal helper function to set the current tab based on a name.
    * @param findName the file name (not pretty name) to be shown
@@ -1284,7 +1566,7 @@ public class Sketch {
     // make sure the user didn't hide the sketch folder
     ensureExistence();
 
-    current.setProgram(editor.getText());
+    storeCurrentProgram();
 
     // TODO record history here
     //current.history.record(program, SketchHistory.RUN);
@@ -1371,7 +1653,7 @@ public class Sketch {
         // These #line directives help the compiler report errors with
         // correct the filename and line number (issue 281 & 907)
         bigCode.append("#line 1 \"" + sc.getFileName() + "\"\n");
-        bigCode.append(sc.getProgram());
+        sc.appendProgram(bigCode);
         bigCode.append('\n');
         bigCount += sc.getLineCount();
       }
@@ -1457,7 +1739,7 @@ public class Sketch {
         // shtuff so that unicode bunk is properly handled
         String filename = sc.getFileName(); //code[i].name + ".java";
         try {
-          Base.saveFile(sc.getProgram(), new File(buildPath, filename));
+          sc.copyTo(new File(buildPath, filename));
         } catch (IOException e) {
           e.printStackTrace();
           throw new RunnerException(I18n.format(_("Problem moving {0} to the build folder"), filename));
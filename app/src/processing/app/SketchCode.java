@@ -25,8 +25,14 @@
 package processing.app;
 
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
+import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+
+import processing.core.PApplet;
 import javax.swing.undo.*;
 import static processing.app.I18n._;
 
@@ -44,9 +50,27 @@ public class SketchCode {
   /** Extension for this file (no dots, and in lowercase). */ 
   private String extension;
 
+  /**
+   * Tabs bigger than this (in bytes) are opened in large-file mode: the file
+   * is only read when the tab is first needed, and the text is kept in a
+   * PieceTableContent that is shared by the editor, the preprocessor and
+   * the build folder copy, instead of in a String and a separate Document.
+   */
+  static final int LARGE_FILE_SIZE =
+    kilobytes("editor.large_file.size", 256);
+
+  /** Memory (in bytes) that the undo history of a tab may hold on to. */
+  static final int UNDO_SIZE = kilobytes("editor.undo.size", 4096);
+
   /** Text of the program text for this tab */
   private String program;
 
+  /** True if this tab is in large-file mode */
+  private boolean large;
+
+  /** Text of a large tab, null until it's first needed */
+  private PieceTableContent content;
+
   /** Document object for this tab. Currently this is a SyntaxDocument. */
   private Document document;
 
@@ -55,14 +79,32 @@ public class SketchCode {
    * Editor.undo will be set to this object when this code is the tab
    * that's currently the front.
    */
-  private UndoManager undo = new UndoManager();
+  private UndoManager undo = new SketchUndoManager(UNDO_SIZE);
 
   // saved positions from last time this tab was used
   private int selectionStart;
   private int selectionStop;
   private int scrollPosition;
 
-  private boolean modified;
+  private volatile boolean modified;
+
+  /**
+   * Digest of the text as it was last loaded from or written to disk,
+   * and as it was last written to the journal. Used to skip writes when
+   * the contents haven't actually changed.
+   */
+  private byte[] savedDigest;
+  private byte[] journalDigest;
+
+  /**
+   * For tabs in large-file mode, the change count of the content (see
+   * PieceTableContent.getChangeCount()) as it was last loaded or written,
+   * and as it was last written to the journal, or -1 if unknown. Used
+   * instead of the digests, so that the text is never copied into a String
+   * just to find out whether it changed.
+   */
+  private int savedChanges;
+  private int journalChanges = -1;
 
   /** name of .java file after preproc */
 //  private String preprocName; 
@@ -113,6 +155,7 @@ public class SketchCode {
   
   
   protected boolean renameTo(File what, String ext) {
+    deleteJournal();
     boolean success = file.renameTo(what);
     if (success) {
       file = what;
@@ -124,7 +167,22 @@ public class SketchCode {
   
   
   protected void copyTo(File dest) throws IOException {
-    Base.saveFile(program, dest);
+    if (large) {
+      // stream the pieces, the build folder doesn't need an atomic write
+      PieceTableContent content = getContent();
+      PrintWriter writer = PApplet.createWriter(dest);
+      content.writeTo(writer, 0, content.length() - 1);
+      writer.println();
+      writer.flush();
+      boolean failed = writer.checkError();
+      writer.close();
+      if (failed) {
+        throw new IOException(
+          I18n.format(_("Could not write {0}"), dest.getAbsolutePath()));
+      }
+    } else {
+      Base.saveFile(program, dest);
+    }
   }
   
 
@@ -148,17 +206,122 @@ public class SketchCode {
   }
   
   
+  /**
+   * Returns the text of this tab. For tabs in large-file mode, this makes
+   * a copy of the entire text, so use appendProgram() or copyTo() instead
+   * when possible.
+   */
   public String getProgram() {
+    if (large) {
+      PieceTableContent content = getContent();
+      try {
+        return content.getString(0, content.length() - 1);
+      } catch (BadLocationException e) {
+        throw new RuntimeException(e);
+      }
+    }
     return program;
   }
   
   
   public void setProgram(String replacement) {
+    if (large) {
+      if (document == null) {
+        char[] text = new char[replacement.length() + 1];
+        replacement.getChars(0, replacement.length(), text, 0);
+        text[text.length - 1] = '\n';
+        synchronized (this) {
+          content = new PieceTableContent(text);
+          savedChanges = -1;  // not what's in the file
+          journalChanges = -1;
+        }
+      } else {
+        // the document shares its content with this tab, so replace the
+        // text through the document, which keeps the views and undo in step
+        try {
+          document.remove(0, document.getLength());
+          document.insertString(0, replacement, null);
+        } catch (BadLocationException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return;
+    }
     program = replacement;
   }
+
+
+  /**
+   * Append the text of this tab to a buffer, without making an extra
+   * copy of large tabs. Used to put the sketch together for preprocessing.
+   */
+  public void appendProgram(StringBuffer buffer) {
+    if (large) {
+      PieceTableContent content = getContent();
+      content.appendTo(buffer, 0, content.length() - 1);
+    } else {
+      buffer.append(program);
+    }
+  }
+
+
+  /**
+   * True if this tab was opened in large-file mode, in which case the
+   * document returned by getDocument() shares its text with this object.
+   */
+  public boolean isLarge() {
+    return large;
+  }
+
+
+  /**
+   * Returns the text of a tab in large-file mode, reading it from the
+   * file the first time it's needed.
+   */
+  public synchronized PieceTableContent getContent() {
+    if (content == null) {
+      try {
+        content = PieceTableContent.load(file);
+      } catch (IOException e) {
+        System.err.println(
+          I18n.format(_("Error while loading code {0}"), file.getName()));
+        content = new PieceTableContent(new char[] { '\n' });
+      }
+      savedChanges = content.getChangeCount();
+      journalChanges = -1;
+    }
+    return content;
+  }
+
+
+  /**
+   * For tabs in large-file mode, the number of changes made to the text
+   * (see PieceTableContent.getChangeCount()), to be passed to write() and
+   * writeJournal() along with a copy of the text. Always 0 for other tabs.
+   */
+  public int getChangeCount() {
+    return large ? getContent().getChangeCount() : 0;
+  }
+
+
+  /**
+   * True if the text should go to the journal, which for tabs in large-file
+   * mode is only when it changed since it was last saved or journaled.
+   * Checked before copying the text for writeJournal().
+   */
+  protected synchronized boolean needsJournal() {
+    if (!large) {
+      return true;  // writeJournal() compares the digests
+    }
+    int changes = getChangeCount();
+    return changes != savedChanges && changes != journalChanges;
+  }
   
   
   public int getLineCount() {
+    if (large) {
+      return getContent().countLines();
+    }
     return Base.countLines(program);
   }
   
@@ -236,7 +399,9 @@ public class SketchCode {
   
   
   protected void setState(String p, int start, int stop, int pos) {
-    program = p;
+    if (!large) {
+      program = p;
+    }
     selectionStart = start;
     selectionStop = stop;
     scrollPosition = pos;
@@ -250,6 +415,28 @@ public class SketchCode {
    * Load this piece of code from a file.
    */
   public void load() throws IOException {
+    if (document == null) {
+      large = file.length() > LARGE_FILE_SIZE;
+    }
+    if (large) {
+      program = null;
+      if (document == null) {
+        // don't read anything until the tab is actually used
+        synchronized (this) {
+          content = null;
+        }
+      } else {
+        // the document shares the content, so the text has to be
+        // replaced through it
+        setProgram(Base.loadFile(file));
+        synchronized (this) {
+          savedChanges = content.getChangeCount();
+          journalChanges = -1;
+        }
+      }
+      setModified(false);
+      return;
+    }
     program = Base.loadFile(file);
 
     if (program.indexOf('\uFFFD') != -1) {
@@ -266,6 +453,7 @@ public class SketchCode {
       System.err.println();
     }
     
+    savedDigest = digest(program);
     setModified(false);
   }
 
@@ -278,15 +466,190 @@ public class SketchCode {
     // TODO re-enable history
     //history.record(s, SketchHistory.SAVE);
 
-    Base.saveFile(program, file);
+    write(getProgram(), getChangeCount());
     setModified(false);
   }
 
 
+  /**
+   * Write a snapshot of this tab's text to its file. This doesn't touch
+   * the modified flag, so that it can be called from the sketch's I/O
+   * thread. The write is skipped if the file is still there and already
+   * has exactly these contents (or for tabs in large-file mode, if the
+   * text hasn't been changed since it was loaded or written).
+   * @param changes getChangeCount() at the time the snapshot was taken
+   */
+  protected void write(String text, int changes) throws IOException {
+    byte[] textDigest = large ? null : digest(text);
+    synchronized (this) {
+      boolean same = large ?
+        (changes == savedChanges) : Arrays.equals(textDigest, savedDigest);
+      if (file.exists() && same) {
+        deleteJournal();
+        return;
+      }
+    }
+    Base.saveFile(text, file);
+    synchronized (this) {
+      savedDigest = textDigest;
+      savedChanges = large ? changes : 0;
+      journalDigest = null;
+      journalChanges = -1;
+    }
+    deleteJournal();
+  }
+
+
   /**
    * Save this file to another location, used by Sketch.saveAs()
    */
   public void saveAs(File newFile) throws IOException {
-    Base.saveFile(program, newFile);
+    Base.saveFile(getProgram(), newFile);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . 
+
+
+  /**
+   * Location of the autosave journal for this tab. Journals live in the
+   * settings folder (not next to the sketch, which may be on a slow network
+   * share), and are named after a digest of the sketch file's path.
+   */
+  protected File getJournalFile() {
+    File folder = new File(Base.getSettingsFolder(), "journal");
+    return new File(folder, toHex(digest(file.getAbsolutePath())) +
+                    "." + extension);
+  }
+
+
+  /**
+   * Record unsaved text in the journal, so that it can be recovered after
+   * a crash. Skipped when the text is unchanged since the last journal entry
+   * or the last save. Called from the sketch's I/O thread.
+   * @param changes getChangeCount() at the time the snapshot was taken
+   */
+  protected void writeJournal(String text, int changes) throws IOException {
+    byte[] textDigest = large ? null : digest(text);
+    synchronized (this) {
+      boolean same = large ?
+        (changes == journalChanges || changes == savedChanges) :
+        (Arrays.equals(textDigest, journalDigest) ||
+         Arrays.equals(textDigest, savedDigest));
+      if (same) {
+        return;
+      }
+    }
+    File journal = getJournalFile();
+    journal.getParentFile().mkdirs();
+    Base.saveFile(text, journal);
+    synchronized (this) {
+      journalDigest = textDigest;
+      journalChanges = large ? changes : -1;
+    }
+  }
+
+
+  /**
+   * Returns the text left behind in the journal, if it's newer than the
+   * file itself and actually differs from it. Otherwise returns null.
+   */
+  protected String loadJournal() {
+    File journal = getJournalFile();
+    if (!journal.exists() || journal.lastModified() < file.lastModified()) {
+      return null;
+    }
+    try {
+      String text = Base.loadFile(journal);
+      if (text != null && !sameText(text)) {
+        return text;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+
+  /**
+   * True if 'text' is the same as the text of this tab. Large tabs are
+   * compared by their digests, so that the text isn't copied into a String.
+   */
+  private boolean sameText(String text) {
+    if (large) {
+      return Arrays.equals(digest(text), digest(getContent()));
+    }
+    return text.equals(program);
+  }
+
+
+  protected void deleteJournal() {
+    File journal = getJournalFile();
+    if (journal.exists()) {
+      journal.delete();
+    }
+    synchronized (this) {
+      journalDigest = null;
+      journalChanges = -1;
+    }
+  }
+
+
+  static private int kilobytes(String attribute, int defaultValue) {
+    String value = Preferences.get(attribute);
+    try {
+      return 1024 * (value == null ? defaultValue : Integer.parseInt(value));
+    } catch (NumberFormatException e) {
+      return 1024 * defaultValue;
+    }
+  }
+
+
+  static private byte[] digest(String text) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      return md.digest(text.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /**
+   * Same as digest(String) for the text of a large tab, fed to the digest
+   * piece by piece.
+   */
+  static private byte[] digest(PieceTableContent content) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("MD5");
+      Writer writer = new OutputStreamWriter(new OutputStream() {
+        public void write(int b) {
+          md.update((byte) b);
+        }
+
+        public void write(byte[] b, int offset, int length) {
+          md.update(b, offset, length);
+        }
+      }, "UTF-8");
+      content.writeTo(writer, 0, content.length() - 1);
+      writer.flush();
+      return md.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  static private String toHex(byte[] bytes) {
+    StringBuffer buffer = new StringBuffer();
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.append(Integer.toHexString((bytes[i] >> 4) & 0xF));
+      buffer.append(Integer.toHexString(bytes[i] & 0xF));
+    }
+    return buffer.toString();
   }
 }
@@ -0,0 +1,112 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  SketchUndoManager - undo history limited by memory rather than count
+  Part of the Arduino project - http://www.arduino.cc/
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.app;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.undo.*;
+
+
+/**
+ * Undo manager for a tab that keeps as many edits as fit in a fixed
+ * amount of memory. Typing a few characters at a time gives a long
+ * history, while replacing a huge generated table won't pin several
+ * copies of it in memory. The oldest edits are dropped first.
+ */
+public class SketchUndoManager extends UndoManager {
+  static final long serialVersionUID = 1L;
+
+  /** Rough cost of an edit object, regardless of the text it holds. */
+  static final int EDIT_OVERHEAD = 64;
+
+  private int maxBytes;
+  private int bytes;
+
+
+  public SketchUndoManager(int maxBytes) {
+    this.maxBytes = maxBytes;
+    // the byte limit is what counts, not the number of edits
+    setLimit(Integer.MAX_VALUE);
+  }
+
+
+  public synchronized boolean addEdit(UndoableEdit edit) {
+    boolean added = super.addEdit(edit);
+    if (added) {
+      bytes += sizeOf(edit);
+      // drop edits from the front, but always keep the newest one
+      int drop = 0;
+      int remaining = bytes;
+      while (remaining > maxBytes && drop < edits.size() - 1) {
+        remaining -= sizeOf((UndoableEdit) edits.elementAt(drop));
+        drop++;
+      }
+      if (drop > 0) {
+        trimEdits(0, drop - 1);
+      }
+    }
+    return added;
+  }
+
+
+  public synchronized void discardAllEdits() {
+    super.discardAllEdits();
+    bytes = 0;
+  }
+
+
+  protected void trimEdits(int from, int to) {
+    for (int i = from; i <= to; i++) {
+      bytes -= sizeOf((UndoableEdit) edits.elementAt(i));
+    }
+    super.trimEdits(from, to);
+  }
+
+
+  /** Approximate number of bytes held on to by an edit. */
+  static int sizeOf(UndoableEdit edit) {
+    if (edit instanceof DocumentEvent) {
+      return EDIT_OVERHEAD + ((DocumentEvent) edit).getLength() * 2;
+    }
+    if (edit instanceof Group) {
+      return ((Group) edit).bytes;
+    }
+    return EDIT_OVERHEAD;
+  }
+
+
+  /**
+   * A compound edit (used by Editor.startCompoundEdit()) that keeps
+   * track of the size of the edits it holds.
+   */
+  static public class Group extends CompoundEdit {
+    static final long serialVersionUID = 1L;
+    int bytes = EDIT_OVERHEAD;
+
+    public boolean addEdit(UndoableEdit edit) {
+      boolean added = super.addEdit(edit);
+      if (added) {
+        bytes += sizeOf(edit);
+      }
+      return added;
+    }
+  }
+}
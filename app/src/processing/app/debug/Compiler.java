@@ -77,40 +77,8 @@ public class Compiler implements MessageConsumer {
 
     String avrBasePath = Base.getAvrBasePath();
     Map<String, String> boardPreferences = Base.getBoardPreferences();
-    String core = boardPreferences.get("build.core");
-    if (core == null) {
-    	RunnerException re = new RunnerException(_("No board selected; please choose a board from the Tools > Board menu."));
-      re.hideStackTrace();
-      throw re;
-    }
-    String corePath;
-    
-    if (core.indexOf(':') == -1) {
-      Target t = Base.getTarget();
-      File coreFolder = new File(new File(t.getFolder(), "cores"), core);
-      corePath = coreFolder.getAbsolutePath();
-    } else {
-      Target t = Base.targetsTable.get(core.substring(0, core.indexOf(':')));
-      File coreFolder = new File(t.getFolder(), "cores");
-      coreFolder = new File(coreFolder, core.substring(core.indexOf(':') + 1));
-      corePath = coreFolder.getAbsolutePath();
-    }
-
-    String variant = boardPreferences.get("build.variant");
-    String variantPath = null;
-    
-    if (variant != null) {
-      if (variant.indexOf(':') == -1) {
-	Target t = Base.getTarget();
-	File variantFolder = new File(new File(t.getFolder(), "variants"), variant);
-	variantPath = variantFolder.getAbsolutePath();
-      } else {
-	Target t = Base.targetsTable.get(variant.substring(0, variant.indexOf(':')));
-	File variantFolder = new File(t.getFolder(), "variants");
-	variantFolder = new File(variantFolder, variant.substring(variant.indexOf(':') + 1));
-	variantPath = variantFolder.getAbsolutePath();
-      }
-    }
+    String corePath = getCorePath(boardPreferences);
+    String variantPath = getVariantPath(boardPreferences);
 
     List<File> objectFiles = new ArrayList<File>();
 
@@ -121,13 +89,7 @@ public class Compiler implements MessageConsumer {
    includePaths.add(corePath);
    if (variantPath != null) includePaths.add(variantPath);
    for (File libFolder : sketch.getImportedLibraries()) {
-     // Forward compatibility with 1.5 library format
-     File propertiesFile = new File(libFolder, "library.properties");
-     File srcFolder = new File(libFolder, "src");
-     if (propertiesFile.isFile() && srcFolder.isDirectory())
-       includePaths.add(srcFolder.getPath());
-     else
-       includePaths.add(libFolder.getPath());
+     includePaths.add(getIncludePath(libFolder));
    }
 
    // 1. compile the sketch (already in the buildPath)
@@ -285,6 +247,66 @@ public class Compiler implements MessageConsumer {
     return true;
   }
 
+  /**
+   * Location of the core for a board, e.g. hardware/arduino/cores/arduino.
+   * @throws RunnerException if no board has been selected
+   */
+  static String getCorePath(Map<String, String> boardPreferences)
+    throws RunnerException {
+    String core = boardPreferences.get("build.core");
+    if (core == null) {
+      RunnerException re = new RunnerException(_("No board selected; please choose a board from the Tools > Board menu."));
+      re.hideStackTrace();
+      throw re;
+    }
+
+    if (core.indexOf(':') == -1) {
+      Target t = Base.getTarget();
+      File coreFolder = new File(new File(t.getFolder(), "cores"), core);
+      return coreFolder.getAbsolutePath();
+    } else {
+      Target t = Base.targetsTable.get(core.substring(0, core.indexOf(':')));
+      File coreFolder = new File(t.getFolder(), "cores");
+      coreFolder = new File(coreFolder, core.substring(core.indexOf(':') + 1));
+      return coreFolder.getAbsolutePath();
+    }
+  }
+
+
+  /**
+   * Location of the variant files for a board, or null if it has none.
+   */
+  static String getVariantPath(Map<String, String> boardPreferences) {
+    String variant = boardPreferences.get("build.variant");
+    if (variant == null) return null;
+
+    if (variant.indexOf(':') == -1) {
+      Target t = Base.getTarget();
+      File variantFolder = new File(new File(t.getFolder(), "variants"), variant);
+      return variantFolder.getAbsolutePath();
+    } else {
+      Target t = Base.targetsTable.get(variant.substring(0, variant.indexOf(':')));
+      File variantFolder = new File(t.getFolder(), "variants");
+      variantFolder = new File(variantFolder, variant.substring(variant.indexOf(':') + 1));
+      return variantFolder.getAbsolutePath();
+    }
+  }
+
+
+  /**
+   * The folder that sketches using a library need on their include path.
+   */
+  static String getIncludePath(File libFolder) {
+    // Forward compatibility with 1.5 library format
+    File propertiesFile = new File(libFolder, "library.properties");
+    File srcFolder = new File(libFolder, "src");
+    if (propertiesFile.isFile() && srcFolder.isDirectory())
+      return srcFolder.getPath();
+    else
+      return libFolder.getPath();
+  }
+
+
   private List<File> recursiveCompile(String avrBasePath, File srcFolder,
       File outputFolder, List<File> includePaths,
       Map<String, String> boardPreferences) throws RunnerException {
@@ -0,0 +1,357 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  SyntaxChecker - check a sketch for errors while it's being edited
+  Part of the Arduino project - http://www.arduino.cc/
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.app.debug;
+
+import processing.app.Base;
+import processing.app.Sketch;
+import processing.app.SketchCode;
+import processing.app.preproc.PdePreprocessor;
+import processing.core.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.SwingUtilities;
+
+
+/**
+ * Runs avr-gcc with -fsyntax-only over a sketch in the background, so
+ * that errors show up a moment after typing stops, without waiting for
+ * a full Verify. Nothing is compiled or linked, and the libraries and
+ * the core are only read for their headers.
+ * <P>
+ * Only the tab being edited is run through the preprocessor again. The
+ * prototypes and #includes found in the other tabs are kept from the
+ * previous check, as long as their text hasn't changed.
+ * <P>
+ * Starting a new check (or calling cancel) kills the one in progress,
+ * and its results are thrown away.
+ */
+public class SyntaxChecker {
+
+  /**
+   * Gets the errors found by a check, on the event thread. Only called
+   * for the most recent check, and only if it wasn't canceled.
+   */
+  public interface Listener {
+    void syntaxChecked(List<RunnerException> errors);
+  }
+
+  /**
+   * All checks run one after another on this thread, at low priority,
+   * so that they don't compete with the editor or with a Verify.
+   */
+  static private ExecutorService worker =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Syntax Check");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+
+  static final String ERROR_FORMAT =
+    "([\\w\\d_]+.\\w+):(\\d+):(?:\\d+:)?\\s*(?:fatal )?error:\\s*(.*)\\s*";
+
+  /** where the preprocessed code is written, created when first needed */
+  private File folder;
+
+  /** incremented for every check, so that stale results can be ignored */
+  private int generation;
+
+  private Future<?> running;
+  private volatile Process process;
+
+  // only used from the worker thread
+  private PdePreprocessor preprocessor;
+  private Map<SketchCode, Scan> scans = new HashMap<SketchCode, Scan>();
+  private Map<String, String> written = new HashMap<String, String>();
+
+
+  /**
+   * What the preprocessor found in a tab, along with the text it looked at.
+   */
+  static class Scan {
+    String program;
+    List<String> prototypes;
+    List<String> includes;
+  }
+
+
+  /**
+   * Check a sketch, using 'text' as the contents of the tab being edited.
+   * Must be called from the event thread, because the other tabs are read
+   * from the sketch here.
+   */
+  public void check(final Sketch sketch, SketchCode current, String text,
+                    final Listener listener) {
+    cancel();
+    final int checking = generation;
+
+    final String name = sketch.getName();
+    final SketchCode[] codes = sketch.getCode().clone();
+    final String[] programs = new String[codes.length];
+    for (int i = 0; i < codes.length; i++) {
+      programs[i] = (codes[i] == current) ? text : codes[i].getProgram();
+    }
+    final int currentIndex = sketch.getCodeIndex(current);
+
+    running = worker.submit(new Runnable() {
+      public void run() {
+        final List<String[]> found;
+        try {
+          found = checkCode(name, codes, programs, currentIndex);
+        } catch (Exception e) {
+          // not worth bothering anyone about, a Verify will report it
+          return;
+        }
+        if (found != null) {
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              if (generation == checking) {
+                listener.syntaxChecked(place(sketch, found));
+              }
+            }
+          });
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Stop the check in progress, if any. Must be called from the event thread.
+   */
+  public void cancel() {
+    generation++;
+    if (running != null) {
+      running.cancel(true);
+      running = null;
+    }
+    Process p = process;
+    if (p != null) {
+      p.destroy();
+    }
+  }
+
+
+  /**
+   * Cancel any check, and remove the files that were written for it.
+   */
+  public void dispose() {
+    cancel();
+    worker.submit(new Runnable() {
+      public void run() {
+        if (folder != null) {
+          Base.removeDir(folder);
+          folder = null;
+        }
+        scans.clear();
+        written.clear();
+      }
+    });
+  }
+
+
+  /**
+   * Write out the code and run the compiler over it.
+   * @return the errors found, or null if the check was canceled
+   */
+  private List<String[]> checkCode(String name, SketchCode[] codes,
+                                   String[] programs, int currentIndex)
+    throws IOException, RunnerException, InterruptedException {
+
+    if (folder == null || !folder.exists()) {
+      folder = Base.createTempFolder("check");
+      folder.deleteOnExit();
+      written.clear();
+    }
+    if (preprocessor == null) {
+      preprocessor = new PdePreprocessor();
+    }
+
+    StringBuffer bigCode = new StringBuffer();
+    List<String> prototypes = new ArrayList<String>();
+    List<String> includes = new ArrayList<String>();
+    Set<SketchCode> seen = new HashSet<SketchCode>();
+
+    for (int i = 0; i < codes.length; i++) {
+      SketchCode sc = codes[i];
+      seen.add(sc);
+      Scan scan = scans.get(sc);
+      if (scan == null || !scan.program.equals(programs[i])) {
+        scan = new Scan();
+        scan.program = programs[i];
+        // same hacks as PdePreprocessor.writePrefix(), the expressions
+        // can run away on a missing newline or an unterminated comment,
+        // which throws an exception here (and a Verify will report)
+        String program = programs[i] + "\n";
+        Sketch.scrubComments(program);
+        scan.includes = preprocessor.includes(program);
+        if (sc.isExtension("ino") || sc.isExtension("pde")) {
+          scan.prototypes = preprocessor.prototypes(program);
+        }
+        scans.put(sc, scan);
+      }
+      includes.addAll(scan.includes);
+
+      if (sc.isExtension("ino") || sc.isExtension("pde")) {
+        // same layout as Sketch.preprocess(), so the #line directives
+        // make the compiler report tab names and line numbers directly
+        bigCode.append("#line 1 \"" + sc.getFileName() + "\"\n");
+        bigCode.append(programs[i]);
+        bigCode.append('\n');
+        for (String prototype : scan.prototypes) {
+          if (!prototypes.contains(prototype)) {
+            prototypes.add(prototype);
+          }
+        }
+      } else if (i != currentIndex) {
+        // headers and other sources next to the sketch can be #included
+        writeIfChanged(new File(folder, sc.getFileName()), programs[i]);
+      }
+      if (Thread.currentThread().isInterrupted()) return null;
+    }
+    // forget about tabs that have been closed or renamed
+    scans.keySet().retainAll(seen);
+
+    File source;
+    SketchCode current = codes[currentIndex];
+    if (current.isExtension("ino") || current.isExtension("pde")) {
+      source = new File(folder, name + ".cpp");
+      preprocessor.write(source, bigCode.toString(), prototypes);
+      written.remove(source.getPath());
+    } else {
+      source = new File(folder, current.getFileName());
+      writeIfChanged(source, programs[currentIndex]);
+    }
+
+    List<String> command = getCommand(source, includes);
+    if (Thread.currentThread().isInterrupted()) return null;
+    return compile(command);
+  }
+
+
+  private void writeIfChanged(File file, String text) throws IOException {
+    String path = file.getPath();
+    if (!text.equals(written.get(path))) {
+      Base.saveFile(text, file);
+      written.put(path, text);
+    }
+  }
+
+
+  private List<String> getCommand(File source, List<String> includes)
+    throws RunnerException {
+    Map<String, String> boardPreferences = Base.getBoardPreferences();
+    String corePath = Compiler.getCorePath(boardPreferences);
+    String variantPath = Compiler.getVariantPath(boardPreferences);
+
+    boolean c = source.getName().endsWith(".c");
+    List<String> command = new ArrayList<String>();
+    command.add(Base.getAvrBasePath() + (c ? "avr-gcc" : "avr-g++"));
+    command.add("-fsyntax-only");
+    command.add("-w");  // only errors are shown
+    if (!c) {
+      command.add("-fno-exceptions");
+    }
+    command.add("-mmcu=" + boardPreferences.get("build.mcu"));
+    command.add("-DF_CPU=" + boardPreferences.get("build.f_cpu"));
+    command.add("-DUSB_VID=" + boardPreferences.get("build.vid"));
+    command.add("-DUSB_PID=" + boardPreferences.get("build.pid"));
+    command.add("-DARDUINO=" + Base.REVISION);
+
+    command.add("-I" + corePath);
+    if (variantPath != null) {
+      command.add("-I" + variantPath);
+    }
+    List<File> libraries = new ArrayList<File>();
+    for (String item : includes) {
+      File libFolder = Base.getLibraryFolder(item);
+      if (libFolder != null && !libraries.contains(libFolder)) {
+        libraries.add(libFolder);
+        command.add("-I" + Compiler.getIncludePath(libFolder));
+      }
+    }
+
+    if (source.getName().endsWith(".h")) {
+      command.add("-x");
+      command.add("c++");
+    }
+    command.add(source.getAbsolutePath());
+    return command;
+  }
+
+
+  /**
+   * Run the compiler, and collect the file name, line number and message
+   * of each error.
+   */
+  private List<String[]> compile(List<String> command)
+    throws IOException, InterruptedException {
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.directory(folder);
+    builder.redirectErrorStream(true);
+    process = builder.start();
+    try {
+      List<String[]> errors = new ArrayList<String[]>();
+      BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream()));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] pieces = PApplet.match(line, ERROR_FORMAT);
+        if (pieces != null) {
+          errors.add(pieces);
+        }
+      }
+      reader.close();
+      process.waitFor();
+      return Thread.currentThread().isInterrupted() ? null : errors;
+
+    } finally {
+      process.destroy();
+      process = null;
+    }
+  }
+
+
+  /**
+   * Map errors back to the tabs through Sketch.placeException(). Errors
+   * from the core or from libraries can't be placed, and are left out.
+   */
+  static private List<RunnerException> place(Sketch sketch,
+                                             List<String[]> found) {
+    List<RunnerException> errors = new ArrayList<RunnerException>();
+    for (String[] pieces : found) {
+      RunnerException e =
+        sketch.placeException(pieces[3], pieces[1],
+                              PApplet.parseInt(pieces[2]) - 1);
+      if (e != null) {
+        e.hideStackTrace();
+        errors.add(e);
+      }
+    }
+    return errors;
+  }
+}
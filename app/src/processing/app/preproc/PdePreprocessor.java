@@ -109,15 +109,7 @@ public class PdePreprocessor {
       program = substituteUnicode(program);
     }
 
-    //String importRegexp = "(?:^|\\s|;)(import\\s+)(\\S+)(\\s*;)";
-    String importRegexp = "^\\s*#include\\s*[<\"](\\S+)[\">]";
-    programImports = new ArrayList<String>();
-
-    String[][] pieces = PApplet.matchAll(program, importRegexp);
-
-    if (pieces != null)
-      for (int i = 0; i < pieces.length; i++)
-        programImports.add(pieces[i][1]);  // the package name
+    programImports = includes(program);
 
     codeFolderImports = new ArrayList<String>();
 //    if (codeFolderPackages != null) {
@@ -211,6 +203,25 @@ public class PdePreprocessor {
   }
 
 
+  /**
+   * Writes out a program whose prototypes have already been collected,
+   * for instance tab by tab, so that tabs which haven't changed don't
+   * need to be scanned again. Used by the background syntax check.
+   * @param file        the .cpp file to write
+   * @param program     the concatenated code from all tabs
+   * @param prototypes  prototypes for the functions in the program
+   */
+  public void write(File file, String program,
+                    List<String> prototypes) throws IOException {
+    PrintStream out = new PrintStream(new FileOutputStream(file));
+    writeProgram(out, program, prototypes);
+    out.close();
+    if (out.checkError()) {
+      throw new IOException("Could not write " + file);
+    }
+  }
+
+
   /**
    * Write any necessary closing text.
    *
@@ -224,6 +235,24 @@ public class PdePreprocessor {
   }
 
 
+  /**
+   * Returns the names of the headers #included by a program.
+   */
+  public ArrayList<String> includes(String in) {
+    //String importRegexp = "(?:^|\\s|;)(import\\s+)(\\S+)(\\s*;)";
+    String importRegexp = "^\\s*#include\\s*[<\"](\\S+)[\">]";
+    ArrayList<String> includes = new ArrayList<String>();
+
+    String[][] pieces = PApplet.matchAll(in, importRegexp);
+
+    if (pieces != null)
+      for (int i = 0; i < pieces.length; i++)
+        includes.add(pieces[i][1]);  // the header name
+
+    return includes;
+  }
+
+
 
 
 
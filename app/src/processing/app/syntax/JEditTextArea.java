@@ -22,6 +22,8 @@ import java.awt.datatransfer.*;
 import java.awt.event.*;
 import java.awt.*;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 import java.awt.im.InputMethodRequests;
 
@@ -744,6 +746,7 @@ public class JEditTextArea extends JComponent
     this.document = document;
 
     document.addDocumentListener(documentHandler);
+    lineMarkers.clear();
 
     select(0, 0);
     updateScrollBars();
@@ -764,6 +767,7 @@ public class JEditTextArea extends JComponent
     this.document = document;
 
     document.addDocumentListener(documentHandler);
+    lineMarkers.clear();
 
     select(start, stop);
     updateScrollBars();
@@ -1894,6 +1898,21 @@ public class JEditTextArea extends JComponent
         painter.invalidateLineRange(line,firstLine + visibleLines);
         updateScrollBars();
       }
+
+    // keep markers on the lines they were set for
+    if (count != 0 && !lineMarkers.isEmpty()) {
+      HashMap<Integer, String> shifted = new HashMap<Integer, String>();
+      for (Map.Entry<Integer, String> entry : lineMarkers.entrySet()) {
+        int markerLine = entry.getKey().intValue();
+        if (markerLine > line) {
+          markerLine += count;
+          if (markerLine <= line) continue;  // its line was removed
+        }
+        shifted.put(new Integer(markerLine), entry.getValue());
+      }
+      lineMarkers = shifted;
+      editorLineNumbers.repaint();
+    }
   }
 
   class ScrollLayout implements LayoutManager
@@ -2437,4 +2456,29 @@ public class JEditTextArea extends JComponent
   public void setDisplayLineNumbers(boolean displayLineNumbers) {
     editorLineNumbers.setDisplayLineNumbers(displayLineNumbers);
   }
+
+  /**
+   * Marks lines that have a problem, such as the errors found by the
+   * background syntax check. The markers are shown next to the line
+   * numbers and behind the text, with the message as a tool tip. They
+   * move along when lines are added or removed above them, and are
+   * cleared when the document is changed.
+   * @param markers messages, keyed by line number (zero-indexed)
+   */
+  public void setLineMarkers(Map<Integer, String> markers) {
+    lineMarkers = new HashMap<Integer, String>(markers);
+    painter.repaint();
+    editorLineNumbers.repaint();
+  }
+
+  /**
+   * Returns the marker message for a line, or null if it has none.
+   */
+  public String getLineMarker(int line) {
+    if (lineMarkers.isEmpty()) return null;
+    return lineMarkers.get(new Integer(line));
+  }
+
+  protected HashMap<Integer, String> lineMarkers =
+    new HashMap<Integer, String>();
 }
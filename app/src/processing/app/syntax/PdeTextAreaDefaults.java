@@ -206,5 +206,7 @@ public class PdeTextAreaDefaults extends TextAreaDefaults {
     eolMarkerColor = Theme.getColor("editor.eolmarkers.color");
 
     paintInvalid = Theme.getBoolean("editor.invalid");
+
+    errorColor = Theme.getColor("editor.error.color");
   }
 }
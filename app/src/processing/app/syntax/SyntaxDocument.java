@@ -22,6 +22,57 @@ import javax.swing.undo.UndoableEdit;
  */
 public class SyntaxDocument extends PlainDocument
 {
+        /**
+         * Creates an empty document.
+         */
+        public SyntaxDocument()
+        {
+        }
+
+        /**
+         * Creates a document around existing content, for instance the
+         * text of a tab that was loaded in large-file mode. The line
+         * map is built right away, instead of inserting all the text.
+         * @param content The content, ending with a newline
+         */
+        public SyntaxDocument(Content content)
+        {
+                super(content);
+
+                Segment text = new Segment();
+                text.setPartialReturn(true);
+                java.util.ArrayList<Element> lines =
+                        new java.util.ArrayList<Element>();
+                Element root = getDefaultRootElement();
+                int length = content.length();
+                int lineStart = 0;
+                int offset = 0;
+                try
+                {
+                        while(offset < length)
+                        {
+                                content.getChars(offset,length - offset,text);
+                                for(int i = 0; i < text.count; i++)
+                                {
+                                        if(text.array[text.offset + i] == '\n')
+                                        {
+                                                int lineEnd = offset + i + 1;
+                                                lines.add(createLeafElement(root,
+                                                        null,lineStart,lineEnd));
+                                                lineStart = lineEnd;
+                                        }
+                                }
+                                offset += text.count;
+                        }
+                }
+                catch(BadLocationException bl)
+                {
+                        bl.printStackTrace();
+                }
+                ((BranchElement)root).replace(0,root.getElementCount(),
+                        lines.toArray(new Element[lines.size()]));
+        }
+
         /**
          * Returns the token marker that is to be used to split lines
          * of this document up into tokens. May return null if this
@@ -43,6 +43,7 @@ public class TextAreaDefaults
   public Color eolMarkerColor;
   public boolean eolMarkers;
   public boolean paintInvalid;
+  public Color errorColor;
 
 
   // moved from TextAreaPainter [fry]
@@ -83,6 +84,7 @@ public class TextAreaDefaults
       DEFAULTS.eolMarkerColor = new Color(0x009999);
       DEFAULTS.eolMarkers = true;
       DEFAULTS.paintInvalid = true;
+      DEFAULTS.errorColor = new Color(0xffd8c8);
     }
 
     return DEFAULTS;
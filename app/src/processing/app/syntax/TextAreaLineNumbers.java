@@ -67,6 +67,12 @@ public class TextAreaLineNumbers extends TextAreaPainter {
     int y = textArea.lineToY(line);
     int startX = getBounds().x + getBounds().width;
     if (line >= 0 && line < textArea.getLineCount()) {
+      if (textArea.getLineMarker(line) != null) {
+        gfx.setColor(errorColor);
+        gfx.fillRect(0, y + fm.getLeading() + fm.getMaxDescent(),
+                     getWidth() - RIGHT_BORDER_WIDTH, fm.getHeight());
+        gfx.setColor(Color.GRAY);
+      }
       String lineNumberString = String.valueOf(line+1);
       int lineStartX = startX - RIGHT_BORDER_WIDTH - RIGHT_INDENT - fm.stringWidth(lineNumberString);
       gfx.drawString(lineNumberString,lineStartX,y + fm.getHeight());
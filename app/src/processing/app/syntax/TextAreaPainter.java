@@ -75,6 +75,7 @@ implements TabExpander, Printable
     paintInvalid = defaults.paintInvalid;
     eolMarkerColor = defaults.eolMarkerColor;
     eolMarkers = defaults.eolMarkers;
+    errorColor = defaults.errorColor;
   }
 
   /**
@@ -352,7 +353,10 @@ implements TabExpander, Printable
    */
   public String getToolTipText(MouseEvent evt)
   {
-    if(highlights != null)
+    String marker = textArea.getLineMarker(textArea.yToLine(evt.getY()));
+    if (marker != null)
+      return marker;
+    else if(highlights != null)
       return highlights.getToolTipText(evt);
     else
       return null;
@@ -571,6 +575,7 @@ implements TabExpander, Printable
   protected Color lineHighlightColor;
   protected Color bracketHighlightColor;
   protected Color eolMarkerColor;
+  protected Color errorColor;
 
   protected boolean blockCaret;
   protected boolean lineHighlight;
@@ -662,6 +667,9 @@ implements TabExpander, Printable
   protected void paintHighlight(Graphics gfx, int line, int y)
   {
     if (!printing) {
+      if (textArea.getLineMarker(line) != null)
+        paintMarkerHighlight(gfx,line,y);
+
       if (line >= textArea.getSelectionStartLine()
           && line <= textArea.getSelectionStopLine())
         paintLineHighlight(gfx,line,y);
@@ -677,6 +685,13 @@ implements TabExpander, Printable
     }
   }
 
+  protected void paintMarkerHighlight(Graphics gfx, int line, int y)
+  {
+    y += fm.getLeading() + fm.getMaxDescent();
+    gfx.setColor(errorColor);
+    gfx.fillRect(0,y,getWidth(),fm.getHeight());
+  }
+
   protected void paintLineHighlight(Graphics gfx, int line, int y)
   {
     int height = fm.getHeight();
@@ -29,6 +29,12 @@ import processing.core.PApplet;
 import static processing.app.I18n._;
 
 import java.io.*;
+import java.util.*;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
 
 
 /**
@@ -41,20 +47,28 @@ import java.io.*;
  * Which is itself based on code from Van Di-Han Ho:
  * http://www.geocities.com/~starkville/vancbj_idx.html
  * [Ben Fry, August 2009]
+ * <P>
+ * The formatter runs on a separate thread, working on a snapshot of the
+ * text. Only the lines that actually changed are replaced in the editor,
+ * as a single undo step, so the caret and scroll position are kept.
  */
 public class AutoFormat implements Tool {
   Editor editor;
 
   static final int BLOCK_MAXLEN = 1024;
 
+  /** Text being formatted, read one char at a time by getchr() */
+  char text[];
+  int textLength;
+
+  /** true while a format is running in the background */
+  boolean formatting;
+
   StringBuffer strOut;
   int indentValue;
   String indentChar;
   int EOF;
-  CharArrayReader reader;
-  int readCount, indexBlock, lineLength, lineNumber;
-  char chars[];
-  String strBlock;
+  int indexBlock, lineNumber;
   int s_level[];
   int c_level;
   int sp_flg[][];
@@ -64,7 +78,7 @@ public class AutoFormat implements Tool {
   int if_lev, if_flg, level;
   int ind[];
   int e_flg, paren;
-  static int p_flg[];
+  int p_flg[];
   char l_char, p_char;
   int a_flg, q_flg, ct;
   int s_tabs[][];
@@ -168,8 +182,7 @@ public class AutoFormat implements Tool {
         }
         a_flg = 0;
       }
-      String j_string = new String(string);
-      strOut.append(j_string.substring(0,j));
+      strOut.append(string, 0, j);
       for (int i=0; i<j; i++) string[i] = '\0';
       j = 0;
 
@@ -285,32 +298,15 @@ public class AutoFormat implements Tool {
     else                    /* read next char in string */
     {
       indexBlock++;
-      if (indexBlock >= lineLength)
+      if (indexBlock >= textLength)
       {
-        for (int ib=0; ib<readCount; ib++) chars[ib] = '\0';
-
-        lineLength = readCount = 0;
-        reader.mark(1);
-        if (reader.read() != -1)
-        {
-          reader.reset();  // back to the mark
-          readCount = reader.read(chars);
-          lineLength = readCount;
-          strBlock = new String(chars);
-          indexBlock = 0;
-          last_char = strBlock.charAt(indexBlock);
-          peek = -1;
-          peekc = '`';
-        }
-        else
-        {
-          EOF = 1;
-          peekc  = '\0';
-        }
+        indexBlock = textLength;
+        EOF = 1;
+        peekc  = '\0';
       }
       else
       {
-        last_char = strBlock.charAt(indexBlock);
+        last_char = text[indexBlock];
       }
     }
     peek = -1;
@@ -395,15 +391,12 @@ public class AutoFormat implements Tool {
   public int lookup (String keyword)
   {
     char r;
-    int  l,kk; //,k,i;
-    String j_string = new String(string);
+    int  kk; //,k,i;
 
     if (j<1) return (0);
     kk=0;
     while(string[kk] == ' ' && EOF == 0)kk++;
-    l=0;
-    l = j_string.indexOf(keyword);
-    if (l<0 || l!=kk)
+    if (!startsAt(keyword, kk))
     {
       return 0;
     }
@@ -418,15 +411,12 @@ public class AutoFormat implements Tool {
   public int lookup_com (String keyword)
   {
     //char r;
-    int  l,kk; //,k,i;
-    String j_string = new String(string);
+    int  kk; //,k,i;
 
     if (j<1) return (0);
     kk=0;
     while(string[kk] == ' ' && EOF == 0) kk++;
-    l=0;
-    l = j_string.indexOf(keyword);
-    if (l<0 || l!=kk)
+    if (!startsAt(keyword, kk))
     {
       return 0;
     }
@@ -434,13 +424,142 @@ public class AutoFormat implements Tool {
   }
 
 
+  /**
+   * True if the keyword is found at the given position of the line buffer.
+   * Since only spaces come before that position, this is the same as the
+   * keyword's first occurrence being there, without making a String of
+   * the entire buffer for every lookup.
+   */
+  private boolean startsAt(String keyword, int kk)
+  {
+    int len = keyword.length();
+    if (kk + len > string.length) return false;
+    for (int i = 0; i < len; i++)
+    {
+      if (string[kk + i] != keyword.charAt(i)) return false;
+    }
+    return true;
+  }
+
+
   public void run() {
+    if (formatting) return;  // still busy with the last one
+
+    final String originalText = editor.getText();
+    final int tabSize = Preferences.getInteger("editor.tabs.size");
+    final Document document =
+      editor.getSketch().getCurrentCode().getDocument();
+
+    // note any edits made while formatting, the result would be stale
+    final boolean[] edited = new boolean[1];
+    final DocumentListener listener = new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) { edited[0] = true; }
+        public void removeUpdate(DocumentEvent e) { edited[0] = true; }
+        public void changedUpdate(DocumentEvent e) { }
+      };
+    document.addDocumentListener(listener);
+
+    formatting = true;
+    editor.statusNotice(_("Auto Format..."));
+
+    Thread thread = new Thread(new Runnable() {
+        public void run() {
+          // use a fresh object, so there's no leftover state
+          final AutoFormat formatter = new AutoFormat();
+          final String formattedText = formatter.format(originalText, tabSize);
+          // work out the changed lines here as well, it's not free either
+          final List<LineDiff.Hunk> hunks =
+            (formatter.failure == null &&
+             formatter.paren == 0 && formatter.c_level == 0) ?
+            LineDiff.diff(originalText, formattedText) : null;
+          SwingUtilities.invokeLater(new Runnable() {
+              public void run() {
+                document.removeDocumentListener(listener);
+                formatting = false;
+                if (edited[0] ||
+                    document != editor.getSketch().getCurrentCode().getDocument()) {
+                  editor.statusNotice(_("Auto Format canceled, the text was edited."));
+                } else {
+                  finish(formatter, originalText, formattedText, hunks);
+                }
+              }
+            });
+        }
+      }, "Auto Format");
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+
+  /**
+   * Report the result of a format, and if all went well, put the
+   * changes into the editor.
+   */
+  protected void finish(AutoFormat formatter,
+                        String originalText, String formattedText,
+                        List<LineDiff.Hunk> hunks) {
+    if (formatter.failure != null) {
+      editor.statusError(formatter.failure);
+
+    } else if (formattedText.equals(originalText + "\n")) {
+      editor.statusNotice(_("No changes necessary for Auto Format."));
+
+    } else if (formatter.paren != 0) {
+      // warn user if there are too many parens in either direction
+      if (formatter.paren < 0) {
+        editor.statusError(
+          _("Auto Format Canceled: Too many right parentheses."));
+      } else {
+        editor.statusError(
+          _("Auto Format Canceled: Too many left parentheses."));
+      }
+
+    } else if (formatter.c_level != 0) {  // check braces only if parens are ok
+      if (formatter.c_level < 0) {
+        editor.statusError(
+          _("Auto Format Canceled: Too many right curly braces."));
+      } else {
+        editor.statusError(
+          _("Auto Format Canceled: Too many left curly braces."));
+      }
+
+    } else {
+      // replace only the lines that changed, as a single undo
+      int selectionStart = editor.getSelectionStart();
+      int selectionStop = editor.getSelectionStop();
+
+      editor.startCompoundEdit();
+      for (int i = hunks.size() - 1; i >= 0; i--) {
+        LineDiff.Hunk hunk = hunks.get(i);
+        editor.setSelection(hunk.start, hunk.stop);
+        editor.setSelectedText(hunk.replacement);
+      }
+      editor.stopCompoundEdit();
+
+      editor.setSelection(LineDiff.map(hunks, selectionStart),
+                          LineDiff.map(hunks, selectionStop));
+      editor.getSketch().setModified(true);
+      // mark as finished
+      editor.statusNotice(_("Auto Format finished."));
+    }
+  }
+
+
+  /** Exception thrown while formatting, if any */
+  Exception failure;
+
+
+  /**
+   * Format a piece of code. This only looks at the text it's given,
+   * so it can safely be called from any thread.
+   */
+  public String format(String code, int tabSize) {
     StringBuffer onechar;
 
     // Adding an additional newline as a hack around other errors
-    String originalText = editor.getText() + "\n";
-    strOut = new StringBuffer();
-    indentValue = Preferences.getInteger("editor.tabs.size");
+    String originalText = code + "\n";
+    strOut = new StringBuffer(originalText.length() + originalText.length() / 8);
+    indentValue = tabSize;
     indentChar = new String(" ");
 
     lineNumber = 0;
@@ -472,23 +591,12 @@ public class AutoFormat implements Tool {
     // read as long as there is something to read
     EOF = 0;  // = 1 set in getchr when EOF
 
-    chars = new char[BLOCK_MAXLEN];
     string = new char[BLOCK_MAXLEN];
     try {  // the whole process
-      // open for input
-      reader = new CharArrayReader(originalText.toCharArray());
-
-      // add buffering to that InputStream
-//      bin = new BufferedInputStream(in);
+      // read straight from the characters of the text
+      text = originalText.toCharArray();
+      textLength = text.length;
 
-      for (int ib = 0; ib < BLOCK_MAXLEN; ib++) chars[ib] = '\0';
-
-      lineLength = readCount = 0;
-      // read up a block - remember how many bytes read
-      readCount = reader.read(chars);
-      strBlock = new String(chars);
-
-      lineLength = readCount;
       lineNumber  = 1;
       indexBlock = -1;
       j = 0;
@@ -901,51 +1009,11 @@ public class AutoFormat implements Tool {
       }
       */
 
-      // save current (rough) selection point
-      int selectionEnd = editor.getSelectionStop();
-
-      // make sure the caret would be past the end of the text
-      if (strOut.length() < selectionEnd - 1) {
-        selectionEnd = strOut.length() - 1;
-      }
-
-      reader.close(); // close buff
-
-      String formattedText = strOut.toString();
-      if (formattedText.equals(originalText)) {
-        editor.statusNotice(_("No changes necessary for Auto Format."));
-
-      } else if (paren != 0) {
-        // warn user if there are too many parens in either direction
-	if (paren < 0) {
-	  editor.statusError(
-	    _("Auto Format Canceled: Too many right parentheses."));
-	} else {
-	  editor.statusError(
-	    _("Auto Format Canceled: Too many left parentheses."));
-	}
-
-      } else if (c_level != 0) {  // check braces only if parens are ok
-	if (c_level < 0) {
-	  editor.statusError(
-	    _("Auto Format Canceled: Too many right curly braces."));
-	} else {
-	  editor.statusError(
-	    _("Auto Format Canceled: Too many left curly braces."));
-	}
-
-      } else {
-        // replace with new bootiful text
-        // selectionEnd hopefully at least in the neighborhood
-        editor.setText(formattedText);
-        editor.setSelection(selectionEnd, selectionEnd);
-        editor.getSketch().setModified(true);
-        // mark as finished
-        editor.statusNotice(_("Auto Format finished."));
-      }
+      text = null;
 
     } catch (Exception e) {
-      editor.statusError(e);
+      failure = e;
     }
+    return strOut.toString();
   }
 }
@@ -0,0 +1,258 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  LineDiff - minimal line-based difference between two texts
+  Part of the Arduino project - http://www.arduino.cc/
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU General Public License for more details.
+
+  You should have received a copy of the GNU General Public License
+  along with this program; if not, write to the Free Software Foundation,
+  Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package processing.app.tools;
+
+import java.util.*;
+
+
+/**
+ * Works out which lines differ between two versions of a text, so that
+ * tools like Auto Format can replace just those lines in the editor
+ * rather than the entire document. Uses the O(ND) algorithm by Myers,
+ * after stripping the lines common to the start and the end. When the
+ * texts are too different, the changed region is replaced as one piece.
+ */
+class LineDiff {
+  /** Give up looking for the smallest diff past this many line edits */
+  static final int MAX_EDITS = 2000;
+
+
+  /**
+   * A range of characters in the old text, and what should replace it.
+   */
+  static class Hunk {
+    int start;
+    int stop;
+    String replacement;
+
+    Hunk(int start, int stop, String replacement) {
+      this.start = start;
+      this.stop = stop;
+      this.replacement = replacement;
+    }
+  }
+
+
+  /**
+   * Returns the changes needed to turn 'before' into 'after', in order.
+   */
+  static List<Hunk> diff(String before, String after) {
+    // a virtual newline at the end makes every line end with one
+    before += "\n";
+    after += "\n";
+    int[] oldStarts = lineStarts(before);
+    int[] newStarts = lineStarts(after);
+    int oldCount = oldStarts.length - 1;
+    int newCount = newStarts.length - 1;
+
+    // give each distinct line a number, comparing ints is a lot cheaper
+    HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    int[] a = number(before, oldStarts, ids);
+    int[] b = number(after, newStarts, ids);
+
+    int prefix = 0;
+    while (prefix < oldCount && prefix < newCount && a[prefix] == b[prefix]) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < oldCount - prefix && suffix < newCount - prefix &&
+           a[oldCount - 1 - suffix] == b[newCount - 1 - suffix]) {
+      suffix++;
+    }
+
+    // line ranges [oldStart, oldStop) replaced by [newStart, newStop)
+    ArrayList<int[]> ranges =
+      myers(a, prefix, oldCount - suffix, b, prefix, newCount - suffix);
+    if (ranges == null) {
+      ranges = new ArrayList<int[]>();
+      if (prefix < oldCount - suffix || prefix < newCount - suffix) {
+        ranges.add(new int[] {
+          prefix, oldCount - suffix, prefix, newCount - suffix
+        });
+      }
+    }
+
+    ArrayList<Hunk> hunks = new ArrayList<Hunk>();
+    int end = before.length() - 1;  // where the virtual newline sits
+    for (int[] range : ranges) {
+      int start = oldStarts[range[0]];
+      int stop = oldStarts[range[1]];
+      String replacement =
+        after.substring(newStarts[range[2]], newStarts[range[3]]);
+      if (stop > end) {
+        // This change runs up to the end of the text, so it would also
+        // touch the virtual newline. The result has to lose its last
+        // character too, which may be outside the replacement.
+        if (replacement.length() == 0) {
+          start = Math.max(0, start - 1);
+        } else if (start > end) {
+          start = end;
+          replacement = "\n" + replacement;
+        }
+        if (replacement.length() != 0) {
+          replacement = replacement.substring(0, replacement.length() - 1);
+        }
+        stop = end;
+      }
+      hunks.add(new Hunk(start, stop, replacement));
+    }
+    return hunks;
+  }
+
+
+  /**
+   * Where an offset in the old text ends up after the hunks are applied.
+   * Offsets inside a changed range are kept at the same distance from its
+   * start, as long as they fit into the replacement.
+   */
+  static int map(List<Hunk> hunks, int offset) {
+    int shift = 0;
+    for (Hunk hunk : hunks) {
+      if (hunk.start >= offset) break;
+      if (hunk.stop <= offset) {
+        shift += hunk.replacement.length() - (hunk.stop - hunk.start);
+      } else {
+        return hunk.start + shift +
+          Math.min(offset - hunk.start, hunk.replacement.length());
+      }
+    }
+    return offset + shift;
+  }
+
+
+  static private int[] lineStarts(String text) {
+    int count = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') count++;
+    }
+    int[] starts = new int[count + 1];
+    int line = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') starts[line++] = i + 1;
+    }
+    return starts;
+  }
+
+
+  static private int[] number(String text, int[] starts,
+                              HashMap<String, Integer> ids) {
+    int[] numbers = new int[starts.length - 1];
+    for (int i = 0; i < numbers.length; i++) {
+      String line = text.substring(starts[i], starts[i + 1]);
+      Integer id = ids.get(line);
+      if (id == null) {
+        id = new Integer(ids.size());
+        ids.put(line, id);
+      }
+      numbers[i] = id.intValue();
+    }
+    return numbers;
+  }
+
+
+  /**
+   * Shortest edit script between a[aStart, aStop) and b[bStart, bStop),
+   * as a list of changed ranges. Returns null if it needs more than
+   * MAX_EDITS insertions and deletions.
+   */
+  static private ArrayList<int[]> myers(int[] a, int aStart, int aStop,
+                                        int[] b, int bStart, int bStop) {
+    int n = aStop - aStart;
+    int m = bStop - bStart;
+    int max = Math.min(n + m, MAX_EDITS);
+    int offset = max + 1;
+    int[] v = new int[2 * max + 3];
+    ArrayList<int[]> trace = new ArrayList<int[]>();
+
+    int found = -1;
+    for (int d = 0; d <= max && found == -1; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x;
+        if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+          x = v[offset + k + 1];  // down: insertion
+        } else {
+          x = v[offset + k - 1] + 1;  // right: deletion
+        }
+        int y = x - k;
+        while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+          x++;
+          y++;
+        }
+        v[offset + k] = x;
+        if (x >= n && y >= m) {
+          found = d;
+          break;
+        }
+      }
+      // only the diagonals reachable in d steps are needed for backtracking
+      int[] snapshot = new int[2 * d + 1];
+      System.arraycopy(v, offset - d, snapshot, 0, 2 * d + 1);
+      trace.add(snapshot);
+    }
+    if (found == -1) return null;
+
+    // walk back from the end, collecting the matched lines
+    ArrayList<int[]> ranges = new ArrayList<int[]>();
+    int x = n;
+    int y = m;
+    int changeStopX = n;
+    int changeStopY = m;
+    for (int d = found; d > 0; d--) {
+      int[] prev = trace.get(d - 1);
+      int k = x - y;
+      int prevK;
+      if (k == -d || (k != d && prev[k - 1 + (d - 1)] < prev[k + 1 + (d - 1)])) {
+        prevK = k + 1;
+      } else {
+        prevK = k - 1;
+      }
+      int prevX = prev[prevK + (d - 1)];
+      int prevY = prevX - prevK;
+      // the diagonal (matching lines) between the step and (x, y)
+      int snakeX = (prevK == k + 1) ? prevX : prevX + 1;
+      int snakeY = snakeX - k;
+      if (snakeX < x) {
+        // matched lines end a change
+        if (x < changeStopX || y < changeStopY) {
+          ranges.add(new int[] { x, changeStopX, y, changeStopY });
+        }
+        changeStopX = snakeX;
+        changeStopY = snakeY;
+      }
+      x = prevX;
+      y = prevY;
+    }
+    // whatever is left before (x, y) is a common run from the start
+    if (x < changeStopX || y < changeStopY) {
+      ranges.add(new int[] { x, changeStopX, y, changeStopY });
+    }
+
+    Collections.reverse(ranges);
+    for (int[] range : ranges) {
+      range[0] += aStart;
+      range[1] += aStart;
+      range[2] += bStart;
+      range[3] += bStart;
+    }
+    return ranges;
+  }
+}
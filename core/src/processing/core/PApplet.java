@@ -30,6 +30,7 @@ import java.awt.image.*;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.channels.FileChannel;
 import java.text.*;
 import java.util.*;
 import java.util.regex.*;
@@ -243,8 +244,8 @@ public class PApplet extends Applet
    * Modifier flags for the shortcut key used to trigger menus.
    * (Cmd on Mac OS X, Ctrl on Linux and Windows)
    */
-  static public final int MENU_SHORTCUT =
-    Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
+  static public final int MENU_SHORTCUT = GraphicsEnvironment.isHeadless() ?
+    InputEvent.CTRL_MASK : Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
 
   /** The PGraphics renderer associated with this PApplet */
   public PGraphics g;
@@ -279,14 +280,20 @@ public class PApplet extends Applet
    * Use screenW and screenH instead.
    * @deprecated
    */
-  public Dimension screen =
-    Toolkit.getDefaultToolkit().getScreenSize();
+  public Dimension screen = GraphicsEnvironment.isHeadless() ?
+    new Dimension() : Toolkit.getDefaultToolkit().getScreenSize();
 
   /**
    * A leech graphics object that is echoing all events.
    */
   public PGraphics recorder;
 
+  /**
+   * Writes the images from saveFrame() in the background, once
+   * beginSaveFrames() has been called. Null otherwise.
+   */
+  public PFrameSaver frameSaver;
+
   /**
    * Command line options passed in from main().
    * <P>
@@ -557,6 +564,13 @@ public class PApplet extends Applet
   protected float frameRateTarget = 60;
   protected long frameRatePeriod = 1000000000L / 60L;
 
+  /** true while running without a window, inside runHeadless() */
+  protected boolean headless;
+  /** Simulated time per frame in runHeadless(), or 0 to use the clock */
+  protected long timestepNanos;
+  /** Simulated time since setup(), when timestepNanos is set */
+  protected long elapsedNanos;
+
   protected boolean looping;
 
   /** flag set to true when a redraw is asked for by the user */
@@ -681,13 +695,7 @@ public class PApplet extends Applet
     firstMouse = true;
 
     // these need to be inited before setup
-    sizeMethods = new RegisteredMethods();
-    preMethods = new RegisteredMethods();
-    drawMethods = new RegisteredMethods();
-    postMethods = new RegisteredMethods();
-    mouseEventMethods = new RegisteredMethods();
-    keyEventMethods = new RegisteredMethods();
-    disposeMethods = new RegisteredMethods();
+    initRegisteredMethods();
 
     try {
       getAppletContext();
@@ -733,6 +741,17 @@ public class PApplet extends Applet
   }
 
 
+  protected void initRegisteredMethods() {
+    sizeMethods = new RegisteredMethods();
+    preMethods = new RegisteredMethods();
+    drawMethods = new RegisteredMethods();
+    postMethods = new RegisteredMethods();
+    mouseEventMethods = new RegisteredMethods();
+    keyEventMethods = new RegisteredMethods();
+    disposeMethods = new RegisteredMethods();
+  }
+
+
   public int getSketchWidth() {
     return DEFAULT_WIDTH;
   }
@@ -784,6 +803,9 @@ public class PApplet extends Applet
     if (thread == null) return;
     thread = null;
 
+    // write out any frames still waiting to be saved
+    endSaveFrames();
+
     // call to shut down renderer, in case it needs it (pdf does)
     if (g != null) g.dispose();
 
@@ -1118,14 +1140,16 @@ public class PApplet extends Applet
    */
   public void size(final int iwidth, final int iheight,
                    String irenderer, String ipath) {
-    // Run this from the EDT, just cuz it's AWT stuff (or maybe later Swing)
-    SwingUtilities.invokeLater(new Runnable() {
-      public void run() {
-        // Set the preferred size so that the layout managers can handle it
-        setPreferredSize(new Dimension(iwidth, iheight));
-        setSize(iwidth, iheight);
-      }
-    });
+    if (!headless) {
+      // Run this from the EDT, just cuz it's AWT stuff (or maybe later Swing)
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          // Set the preferred size so that the layout managers can handle it
+          setPreferredSize(new Dimension(iwidth, iheight));
+          setSize(iwidth, iheight);
+        }
+      });
+    }
 
     // ensure that this is an absolute path
     if (ipath != null) ipath = savePath(ipath);
@@ -1547,6 +1571,100 @@ public class PApplet extends Applet
   }
 
 
+  /**
+   * Run the sketch on the current thread without a window, drawing into
+   * the renderer offscreen. Nothing is sent to the screen and there's no
+   * waiting between frames, so frames are drawn as fast as possible.
+   * Use saveFrame() inside draw() to keep the results. Use this instead
+   * of init() and main(), on a sketch that isn't in a window.
+   * <P>
+   * With a timestep, the sketch sees simulated time instead of the clock.
+   * millis() goes up by exactly the timestep with each frame, and
+   * frameRate is one over the timestep. An animation then comes out the
+   * same no matter how long each frame takes to draw.
+   * <P>
+   * Returns after the number of frames, or once exit() is called, or when
+   * noLoop() leaves nothing more to draw. Unlike in a window, exit() does
+   * not quit the VM.
+   * <P>
+   * PApplet is a java.applet.Applet, and the Applet constructor throws
+   * a HeadlessException whenever the AWT is headless. That's the case
+   * when java.awt.headless is true, and also when the JDK finds no
+   * display to use (on Linux, when DISPLAY isn't set). So the sketch
+   * object itself can only be made where there's a display, even though
+   * nothing is shown on it. On a server, give it a virtual one, e.g. by
+   * starting Java with xvfb-run. Don't use anything here that needs the
+   * screen, such as cursor(), frame, or the mouse and keys.
+   *
+   * @param frames number of frames to draw after setup(), or 0 for no limit
+   * @param timestep seconds of simulated time between frames,
+   *                 or 0 to use the clock
+   * @return the frames drawn per second, in real time
+   */
+  public float runHeadless(int frames, float timestep) {
+    headless = true;
+    timestepNanos = (long) (timestep * 1e9);
+    elapsedNanos = 0;
+    millisOffset = System.currentTimeMillis();
+
+    finished = false;
+    looping = true;
+    redraw = true;
+    initRegisteredMethods();
+    if (sketchPath == null) {
+      sketchPath = System.getProperty("user.dir");
+    }
+    defaultSize = true;
+    g = makeGraphics(getSketchWidth(), getSketchHeight(),
+                     getSketchRenderer(), null, true);
+    width = g.width;
+    height = g.height;
+    // stop() uses this to know that it has work to do
+    thread = Thread.currentThread();
+
+    long startTime = System.nanoTime();
+    int startCount = 0;
+    long spent;
+    int drawn;
+    try {
+      while (!finished && (looping || redraw) &&
+             (frames == 0 || frameCount <= frames)) {
+        if (resizeRequest) {
+          resizeRenderer(resizeWidth, resizeHeight);
+          resizeRequest = false;
+        }
+        if (!g.canDraw()) {
+          throw new RuntimeException(getSketchRenderer() +
+                                     " can't be used without a window");
+        }
+        int before = frameCount;
+        handleDraw();
+        if (frameCount == before) continue;  // setup() is being run again
+
+        if (before == 0) {
+          // setup() is done, don't count it in the frame rate
+          startTime = System.nanoTime();
+          startCount = 1;
+        }
+        elapsedNanos += timestepNanos;
+      }
+      spent = System.nanoTime() - startTime;
+      drawn = frameCount - startCount;
+
+      stop();
+
+    } finally {
+      // back to the clock for millis() and the frame timing
+      if (timestepNanos != 0) {
+        millisOffset = System.currentTimeMillis() - elapsedNanos / 1000000L;
+        timestepNanos = 0;
+      }
+      headless = false;
+    }
+    return (spent > 0) ? (float) (drawn * 1e9 / spent) : 0;
+  }
+
+
   //synchronized public void handleDisplay() {
   public void handleDraw() {
     if (g != null && (looping || redraw)) {
@@ -1563,7 +1681,8 @@ public class PApplet extends Applet
         recorder.beginDraw();
       }
 
-      long now = System.nanoTime();
+      // in runHeadless(), simulated time if there's a timestep
+      long now = (timestepNanos != 0) ? elapsedNanos : System.nanoTime();
 
       if (frameCount == 0) {
         try {
@@ -1581,7 +1700,11 @@ public class PApplet extends Applet
         // update the current frameRate
         double rate = 1000000.0 / ((now - frameRateLastNanos) / 1000000.0);
         float instantaneousRate = (float) rate / 1000.0f;
-        frameRate = (frameRate * 0.9f) + (instantaneousRate * 0.1f);
+        if (timestepNanos != 0) {
+          frameRate = instantaneousRate;  // simulated, so no need to smooth
+        } else {
+          frameRate = (frameRate * 0.9f) + (instantaneousRate * 0.1f);
+        }
 
         preMethods.handle();
 
@@ -1621,7 +1744,9 @@ public class PApplet extends Applet
       frameCount++;
 
       // Actively render the screen
-      paint();
+      if (!headless) {
+        paint();
+      }
 
 //    repaint();
 //    getToolkit().sync();  // force repaint now (proper method)
@@ -2138,6 +2263,9 @@ public class PApplet extends Applet
    *
    */
   public int millis() {
+    if (timestepNanos != 0) {
+      return (int) (elapsedNanos / 1000000L);  // runHeadless() simulated time
+    }
     return (int) (System.currentTimeMillis() - millisOffset);
   }
 
@@ -2575,6 +2703,9 @@ public class PApplet extends Applet
 
 
   void exit2() {
+    if (headless) {
+      return;  // runHeadless() returns to its caller instead
+    }
     try {
       System.exit(0);
     } catch (SecurityException e) {
@@ -2678,7 +2809,7 @@ public class PApplet extends Applet
    */
   public void saveFrame() {
     try {
-      g.save(savePath("screen-" + nf(frameCount, 4) + ".tif"));
+      saveFrameImage(savePath("screen-" + nf(frameCount, 4) + ".tif"));
     } catch (SecurityException se) {
       System.err.println("Can't use saveFrame() when running in a browser, " +
                          "unless using a signed applet.");
@@ -2698,7 +2829,7 @@ public class PApplet extends Applet
    */
   public void saveFrame(String what) {
     try {
-      g.save(savePath(insertFrame(what)));
+      saveFrameImage(savePath(insertFrame(what)));
     } catch (SecurityException se) {
       System.err.println("Can't use saveFrame() when running in a browser, " +
                          "unless using a signed applet.");
@@ -2706,6 +2837,56 @@ public class PApplet extends Applet
   }
 
 
+  /**
+   * Save the drawing area to an absolute path, in the background
+   * if beginSaveFrames() has been called.
+   */
+  protected void saveFrameImage(String path) {
+    PFrameSaver saver = frameSaver;
+    if (saver != null) {
+      saver.save(g, path);
+    } else {
+      g.save(path);
+    }
+  }
+
+
+  /**
+   * Have saveFrame() write its images on background threads, so that
+   * draw() can carry on with the next frame while they're written.
+   * Useful for recording a sketch as a sequence of images.
+   * <P>
+   * Up to 'capacity' frames are kept in memory while waiting to be
+   * written. When that many are waiting, PFrameSaver.BLOCK makes
+   * saveFrame() wait for one of them to finish, while PFrameSaver.DROP
+   * skips the new frame instead (use it to keep the frame rate steady
+   * at the cost of missing frames). The counts of frames saved and
+   * dropped can be read from the PFrameSaver that's returned.
+   * <P>
+   * The frames are finished by endSaveFrames(), or when the sketch stops.
+   */
+  public PFrameSaver beginSaveFrames(int capacity, int policy) {
+    endSaveFrames();
+    // leave a processor for the animation thread
+    int processors = Runtime.getRuntime().availableProcessors();
+    int threads = Math.max(1, Math.min(capacity, processors - 1));
+    frameSaver = new PFrameSaver(threads, capacity, policy);
+    return frameSaver;
+  }
+
+
+  /**
+   * Wait for the frames from saveFrame() to be written, and go back to
+   * saving them right away.
+   */
+  public void endSaveFrames() {
+    if (frameSaver != null) {
+      frameSaver.dispose();
+      frameSaver = null;
+    }
+  }
+
+
   /**
    * Check a string for #### signs to see if the frame number should be
    * inserted. Used for functions like saveFrame() and beginRecord() to
@@ -3040,6 +3221,10 @@ public class PApplet extends Applet
   }
 
 
+  /** fewest elements worth searching on another thread */
+  static final int MIN_MAX_ITEMS = 1 << 18;
+
+
   static public final int max(int a, int b) {
     return (a > b) ? a : b;
   }
@@ -3070,12 +3255,29 @@ public class PApplet extends Applet
    * @param list the source array
    * @return The maximum value
    */
-  static public final int max(int[] list) {
+  static public final int max(final int[] list) {
     if (list.length == 0) {
       throw new ArrayIndexOutOfBoundsException(ERROR_MIN_MAX);
     }
+    if (!PWorkerPool.isWorthwhile(list.length, MIN_MAX_ITEMS)) {
+      return max(list, 1, list.length);
+    }
+    final int[] found = { list[0] };
+    PWorkerPool.run(list.length, MIN_MAX_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int max = max(list, start, stop);
+        synchronized (found) {
+          if (max > found[0]) found[0] = max;
+        }
+      }
+    });
+    return found[0];
+  }
+
+
+  static private int max(int[] list, int start, int stop) {
     int max = list[0];
-    for (int i = 1; i < list.length; i++) {
+    for (int i = start; i < stop; i++) {
       if (list[i] > max) max = list[i];
     }
     return max;
@@ -3087,15 +3289,46 @@ public class PApplet extends Applet
    * @param list the source array
    * @return The maximum value
    */
-  static public final float max(float[] list) {
+  static public final float max(final float[] list) {
     if (list.length == 0) {
       throw new ArrayIndexOutOfBoundsException(ERROR_MIN_MAX);
     }
+    if (!PWorkerPool.isWorthwhile(list.length, MIN_MAX_ITEMS)) {
+      return list[maxIndex(list, 1, list.length)];
+    }
+    // Keep the first of equal values (-0.0 and 0.0), and skip NaN unless
+    // it's the first element, so the result is the same as a single loop.
+    final int[] found = { 0 };
+    PWorkerPool.run(list.length, MIN_MAX_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int index = maxIndex(list, start, stop);
+        synchronized (found) {
+          float best = list[found[0]];
+          if (list[index] > best ||
+              (list[index] == best && index < found[0])) {
+            found[0] = index;
+          }
+        }
+      }
+    });
+    return list[found[0]];
+  }
+
+
+  /**
+   * Index of the first largest value in list[start, stop), or 0 if none
+   * of them beat list[0].
+   */
+  static private int maxIndex(float[] list, int start, int stop) {
+    int index = 0;
     float max = list[0];
-    for (int i = 1; i < list.length; i++) {
-      if (list[i] > max) max = list[i];
+    for (int i = start; i < stop; i++) {
+      if (list[i] > max) {
+        max = list[i];
+        index = i;
+      }
     }
-    return max;
+    return index;
   }
 
 
@@ -3155,12 +3388,29 @@ public class PApplet extends Applet
    * @param list the source array
    * @return The minimum value
    */
-  static public final int min(int[] list) {
+  static public final int min(final int[] list) {
     if (list.length == 0) {
       throw new ArrayIndexOutOfBoundsException(ERROR_MIN_MAX);
     }
+    if (!PWorkerPool.isWorthwhile(list.length, MIN_MAX_ITEMS)) {
+      return min(list, 1, list.length);
+    }
+    final int[] found = { list[0] };
+    PWorkerPool.run(list.length, MIN_MAX_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int min = min(list, start, stop);
+        synchronized (found) {
+          if (min < found[0]) found[0] = min;
+        }
+      }
+    });
+    return found[0];
+  }
+
+
+  static private int min(int[] list, int start, int stop) {
     int min = list[0];
-    for (int i = 1; i < list.length; i++) {
+    for (int i = start; i < stop; i++) {
       if (list[i] < min) min = list[i];
     }
     return min;
@@ -3173,15 +3423,46 @@ public class PApplet extends Applet
    * @param list the source array
    * @return The minimum value
    */
-  static public final float min(float[] list) {
+  static public final float min(final float[] list) {
     if (list.length == 0) {
       throw new ArrayIndexOutOfBoundsException(ERROR_MIN_MAX);
     }
+    if (!PWorkerPool.isWorthwhile(list.length, MIN_MAX_ITEMS)) {
+      return list[minIndex(list, 1, list.length)];
+    }
+    // Keep the first of equal values (-0.0 and 0.0), and skip NaN unless
+    // it's the first element, so the result is the same as a single loop.
+    final int[] found = { 0 };
+    PWorkerPool.run(list.length, MIN_MAX_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int index = minIndex(list, start, stop);
+        synchronized (found) {
+          float best = list[found[0]];
+          if (list[index] < best ||
+              (list[index] == best && index < found[0])) {
+            found[0] = index;
+          }
+        }
+      }
+    });
+    return list[found[0]];
+  }
+
+
+  /**
+   * Index of the first smallest value in list[start, stop), or 0 if none
+   * of them beat list[0].
+   */
+  static private int minIndex(float[] list, int start, int stop) {
+    int index = 0;
     float min = list[0];
-    for (int i = 1; i < list.length; i++) {
-      if (list[i] < min) min = list[i];
+    for (int i = start; i < stop; i++) {
+      if (list[i] < min) {
+        min = list[i];
+        index = i;
+      }
     }
-    return min;
+    return index;
   }
 
 
@@ -3429,19 +3710,7 @@ public class PApplet extends Applet
    */
   public float noise(float x, float y, float z) {
     if (perlin == null) {
-      if (perlinRandom == null) {
-        perlinRandom = new Random();
-      }
-      perlin = new float[PERLIN_SIZE + 1];
-      for (int i = 0; i < PERLIN_SIZE + 1; i++) {
-        perlin[i] = perlinRandom.nextFloat(); //(float)Math.random();
-      }
-      // [toxi 031112]
-      // noise broke due to recent change of cos table in PGraphics
-      // this will take care of it
-      perlin_cosTable = PGraphics.cosLUT;
-      perlin_TWOPI = perlin_PI = PGraphics.SINCOS_LENGTH;
-      perlin_PI >>= 1;
+      noiseInit();
     }
 
     if (x<0) x=-x;
@@ -3493,6 +3762,22 @@ public class PApplet extends Applet
     return r;
   }
 
+  private void noiseInit() {
+    if (perlinRandom == null) {
+      perlinRandom = new Random();
+    }
+    perlin = new float[PERLIN_SIZE + 1];
+    for (int i = 0; i < PERLIN_SIZE + 1; i++) {
+      perlin[i] = perlinRandom.nextFloat(); //(float)Math.random();
+    }
+    // [toxi 031112]
+    // noise broke due to recent change of cos table in PGraphics
+    // this will take care of it
+    perlin_cosTable = PGraphics.cosLUT;
+    perlin_TWOPI = perlin_PI = PGraphics.SINCOS_LENGTH;
+    perlin_PI >>= 1;
+  }
+
   // [toxi 031112]
   // now adjusts to the size of the cosLUT used via
   // the new variables, defined above
@@ -3523,6 +3808,263 @@ public class PApplet extends Applet
   }
 
 
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  // Noise for many points at once. Each value is exactly what noise()
+  // gives for the same point, since the math is the same and done in the
+  // same order, but the parts that are shared between points are only
+  // worked out once, and the loops are simple enough to keep the
+  // arithmetic in registers. Large batches are split up across the
+  // PWorkerPool threads.
+
+  /** fewest points worth handing to another thread */
+  static final int NOISE_MIN_POINTS = 1 << 14;
+
+
+  /**
+   * Noise for each of the points (x[i], y[i], z[i]). Either y or z can be
+   * null to use 0, the same as noise(x) or noise(x, y). The results go
+   * into target if it's big enough, otherwise into a new array.
+   */
+  public float[] noise(final float[] x, final float[] y, final float[] z,
+                       float[] target) {
+    final int count = x.length;
+    if (target == null || target.length < count) {
+      target = new float[count];
+    }
+    if (perlin == null) {
+      noiseInit();
+    }
+    final float[] output = target;
+    PWorkerPool.run(count, NOISE_MIN_POINTS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        noisePoints(x, y, z, output, start, stop);
+      }
+    });
+    return target;
+  }
+
+
+  private void noisePoints(float[] xs, float[] ys, float[] zs,
+                           float[] target, int start, int stop) {
+    final float[] perlin = this.perlin;
+    final float[] cosTable = perlin_cosTable;
+    final int pi = perlin_PI;
+    final int twoPi = perlin_TWOPI;
+    final int octaves = perlin_octaves;
+    final float falloff = perlin_amp_falloff;
+
+    for (int index = start; index < stop; index++) {
+      float x = xs[index];
+      float y = (ys == null) ? 0 : ys[index];
+      float z = (zs == null) ? 0 : zs[index];
+      if (x<0) x=-x;
+      if (y<0) y=-y;
+      if (z<0) z=-z;
+
+      int xi=(int)x, yi=(int)y, zi=(int)z;
+      float xf = x-xi;
+      float yf = y-yi;
+      float zf = z-zi;
+
+      float r=0;
+      float ampl=0.5f;
+
+      for (int i=0; i<octaves; i++) {
+        int of=xi+(yi<<PERLIN_YWRAPB)+(zi<<PERLIN_ZWRAPB);
+
+        float rxf = 0.5f*(1.0f-cosTable[(int)(xf*pi)%twoPi]);
+        float ryf = 0.5f*(1.0f-cosTable[(int)(yf*pi)%twoPi]);
+        float rzf = 0.5f*(1.0f-cosTable[(int)(zf*pi)%twoPi]);
+
+        float n1  = perlin[of&PERLIN_SIZE];
+        n1 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n1);
+        float n2  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+        n2 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n2);
+        n1 += ryf*(n2-n1);
+
+        of += PERLIN_ZWRAP;
+        n2  = perlin[of&PERLIN_SIZE];
+        n2 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n2);
+        float n3  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+        n3 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n3);
+        n2 += ryf*(n3-n2);
+
+        n1 += rzf*(n2-n1);
+
+        r += n1*ampl;
+        ampl *= falloff;
+        xi<<=1; xf*=2;
+        yi<<=1; yf*=2;
+        zi<<=1; zf*=2;
+
+        if (xf>=1.0f) { xi++; xf--; }
+        if (yf>=1.0f) { yi++; yf--; }
+        if (zf>=1.0f) { zi++; zf--; }
+      }
+      target[index] = r;
+    }
+  }
+
+
+  /**
+   * Noise for a grid of points, cols wide and rows high, at
+   * (x + col*xstep, y + row*ystep, z). The value for each point goes into
+   * target[row*cols + col], which is a new array if target is null or
+   * too small. To get the same values as noise(col*scale, row*scale),
+   * use 0 for x and y and scale for the steps.
+   */
+  public float[] noiseGrid(float x, float y, float z,
+                           float xstep, float ystep, int cols, int rows,
+                           float[] target) {
+    if (target == null || target.length < cols * rows) {
+      target = new float[cols * rows];
+    }
+    if (cols > 0 && rows > 0) {
+      noiseGrid(x, y, z, xstep, ystep, cols, rows, target, null);
+    }
+    return target;
+  }
+
+
+  /**
+   * Fill an image with a grid of noise, one point per pixel, as gray
+   * levels from 0 to 255 (the noise times 255). The points are the same
+   * as for noiseGrid().
+   */
+  public void noiseGrid(PImage image, float x, float y, float z,
+                        float xstep, float ystep) {
+    image.loadPixels();
+    if (image.width > 0 && image.height > 0) {
+      noiseGrid(x, y, z, xstep, ystep, image.width, image.height,
+                null, image.pixels);
+    }
+    image.updatePixels();
+  }
+
+
+  /**
+   * Works out the octaves for each column (and the z of the grid) up
+   * front, then a row at a time for each row, leaving only the table
+   * lookups and blending for each point. The results go into target,
+   * or into pixels as gray levels if target is null.
+   */
+  private void noiseGrid(float x, float y, float z,
+                         final float xstep, final float ystep,
+                         final int cols, int rows,
+                         final float[] target, final int[] pixels) {
+    if (perlin == null) {
+      noiseInit();
+    }
+    final int octaves = perlin_octaves;
+
+    // the fractions are stepped through the octaves the same as noise()
+    final int[] colOffset = new int[octaves * cols];
+    final float[] colBlend = new float[octaves * cols];
+    for (int col = 0; col < cols; col++) {
+      noiseOctaves(x + col*xstep, colOffset, colBlend, col, cols, 0);
+    }
+    final int[] zOffset = new int[octaves];
+    final float[] zBlend = new float[octaves];
+    noiseOctaves(z, zOffset, zBlend, 0, 1, PERLIN_ZWRAPB);
+
+    final float[] ampl = new float[octaves];
+    ampl[0] = 0.5f;
+    for (int i = 1; i < octaves; i++) {
+      ampl[i] = ampl[i-1] * perlin_amp_falloff;
+    }
+
+    final float y0 = y;
+    PWorkerPool.run(rows, Math.max(1, NOISE_MIN_POINTS / cols),
+                    new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int[] rowOffset = new int[octaves];
+        float[] rowBlend = new float[octaves];
+        float[] row = (target != null) ? null : new float[cols];
+
+        for (int j = start; j < stop; j++) {
+          noiseOctaves(y0 + j*ystep, rowOffset, rowBlend, 0, 1,
+                       PERLIN_YWRAPB);
+          float[] out = target;
+          int index = j * cols;
+          if (out == null) {
+            out = row;
+            index = 0;
+          }
+          noiseRow(colOffset, colBlend, rowOffset, rowBlend, zOffset,
+                   zBlend, ampl, cols, out, index);
+
+          if (pixels != null) {
+            int p = j * cols;
+            for (int i = 0; i < cols; i++) {
+              int gray = (int) (row[i] * 255);
+              if (gray < 0) gray = 0; else if (gray > 255) gray = 255;
+              pixels[p++] = 0xff000000 | (gray << 16) | (gray << 8) | gray;
+            }
+          }
+        }
+      }
+    });
+  }
+
+
+  /**
+   * The integer part (shifted into place in the table) and the blend
+   * amount for the fraction of a coordinate, for each octave.
+   */
+  private void noiseOctaves(float v, int[] offset, float[] blend,
+                            int index, int stride, int shift) {
+    if (v<0) v=-v;
+    int vi=(int)v;
+    float vf = v-vi;
+    for (int i = 0; i < perlin_octaves; i++) {
+      offset[index] = vi << shift;
+      blend[index] = noise_fsc(vf);
+      index += stride;
+      vi<<=1; vf*=2;
+      if (vf>=1.0f) { vi++; vf--; }
+    }
+  }
+
+
+  private void noiseRow(int[] colOffset, float[] colBlend,
+                        int[] rowOffset, float[] rowBlend,
+                        int[] zOffset, float[] zBlend, float[] ampl,
+                        int cols, float[] target, int index) {
+    final float[] perlin = this.perlin;
+    for (int i = 0; i < cols; i++) {
+      target[index + i] = 0;
+    }
+    for (int o = 0; o < ampl.length; o++) {
+      int base = rowOffset[o] + zOffset[o];
+      float ryf = rowBlend[o];
+      float rzf = zBlend[o];
+      float a = ampl[o];
+      int k = o * cols;
+      for (int i = 0; i < cols; i++, k++) {
+        int of = colOffset[k] + base;
+        float rxf = colBlend[k];
+
+        float n1  = perlin[of&PERLIN_SIZE];
+        n1 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n1);
+        float n2  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+        n2 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n2);
+        n1 += ryf*(n2-n1);
+
+        of += PERLIN_ZWRAP;
+        n2  = perlin[of&PERLIN_SIZE];
+        n2 += rxf*(perlin[(of+1)&PERLIN_SIZE]-n2);
+        float n3  = perlin[(of+PERLIN_YWRAP)&PERLIN_SIZE];
+        n3 += rxf*(perlin[(of+PERLIN_YWRAP+1)&PERLIN_SIZE]-n3);
+        n2 += ryf*(n3-n2);
+
+        n1 += rzf*(n2-n1);
+        target[index + i] += n1*a;
+      }
+    }
+  }
+
+
 
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
@@ -3613,6 +4155,24 @@ public class PApplet extends Applet
    * @see processing.core.PApplet#background(float, float, float)
    */
   public PImage loadImage(String filename, String extension) {
+    return getImageLoader().load(filename, extension);
+  }
+
+
+  /**
+   * The PImageLoader used by loadImage() and requestImage(), for changing
+   * the size of its cache, or checking how well the cache is working.
+   */
+  public PImageLoader getImageLoader() {
+    return imageLoader;
+  }
+
+
+  /**
+   * Read and decode an image, without going through the cache of the
+   * image loader. This is what loadImage() did before there was a cache.
+   */
+  protected PImage decodeImage(String filename, String extension) {
     if (extension == null) {
       String lower = filename.toLowerCase();
       int dot = filename.lastIndexOf('.');
@@ -3708,11 +4268,7 @@ public class PApplet extends Applet
    * @see processing.core.PImage
    */
   public PImage requestImage(String filename, String extension) {
-    PImage vessel = createImage(0, 0, ARGB);
-    AsyncImageLoader ail =
-      new AsyncImageLoader(filename, extension, vessel);
-    ail.start();
-    return vessel;
+    return getImageLoader().request(filename, extension);
   }
 
 
@@ -3724,45 +4280,14 @@ public class PApplet extends Applet
    * want to have control over the value used. For instance, when loading local
    * files, it might be better to only have a single thread (or two) loading
    * images so that you're disk isn't simply jumping around.
+   * <P>
+   * This is the number of threads the image loader starts with, so it
+   * has to be set before the first call to requestImage(). After that,
+   * use getImageLoader().setThreadCount() to change it.
    */
   public int requestImageMax = 4;
-  volatile int requestImageCount;
-
-  class AsyncImageLoader extends Thread {
-    String filename;
-    String extension;
-    PImage vessel;
-
-    public AsyncImageLoader(String filename, String extension, PImage vessel) {
-      this.filename = filename;
-      this.extension = extension;
-      this.vessel = vessel;
-    }
-
-    public void run() {
-      while (requestImageCount == requestImageMax) {
-        try {
-          Thread.sleep(10);
-        } catch (InterruptedException e) { }
-      }
-      requestImageCount++;
-
-      PImage actual = loadImage(filename, extension);
 
-      // An error message should have already printed
-      if (actual == null) {
-        vessel.width = -1;
-        vessel.height = -1;
-
-      } else {
-        vessel.width = actual.width;
-        vessel.height = actual.height;
-        vessel.format = actual.format;
-        vessel.pixels = actual.pixels;
-      }
-      requestImageCount--;
-    }
-  }
+  protected PImageLoader imageLoader = new PImageLoader(this);
 
 
   /**
@@ -4366,6 +4891,32 @@ public class PApplet extends Applet
   }
 
 
+  /**
+   * Read the lines of a file one at a time, for files that are too
+   * big to load all at once with loadStrings().
+   */
+  public PLineReader createLineReader(String filename) {
+    InputStream is = createInput(filename);
+    if (is == null) {
+      System.err.println(filename + " does not exist or could not be read");
+      return null;
+    }
+    return new PLineReader(is);
+  }
+
+
+  static public PLineReader createLineReader(File file) {
+    InputStream is = createInput(file);
+    if (is != null) return new PLineReader(is);
+    return null;
+  }
+
+
+  static public PLineReader createLineReader(InputStream input) {
+    return new PLineReader(input);
+  }
+
+
   /**
    * I want to print lines to a file. Why can't I?
    */
@@ -4651,6 +5202,10 @@ public class PApplet extends Applet
   }
 
 
+  /** size of the pieces that loadBytes() and saveStream() read at once */
+  static final int IO_CHUNK_SIZE = 1 << 18;
+
+
   /**
    * Reads the contents of a file or url and places it in a byte array. If a file is specified, it must be located in the sketch's "data" directory/folder.
    * <br><br>The filename parameter can also be a URL to a file found online. For security reasons, a Processing sketch found online can only download files from the same server from which it came. Getting around this restriction requires a <a href="http://java.sun.com/developer/onlineTraining/Programming/JDCBook/signed.html">signed applet</a>.
@@ -4665,7 +5220,13 @@ public class PApplet extends Applet
    */
   public byte[] loadBytes(String filename) {
     InputStream is = createInput(filename);
-    if (is != null) return loadBytes(is);
+    if (is != null) {
+      byte[] outgoing = loadBytes(is);
+      try {
+        is.close();
+      } catch (IOException e) { }
+      return outgoing;
+    }
 
     System.err.println("The file \"" + filename + "\" " +
                        "is missing or inaccessible, make sure " +
@@ -4677,15 +5238,38 @@ public class PApplet extends Applet
 
   static public byte[] loadBytes(InputStream input) {
     try {
-      BufferedInputStream bis = new BufferedInputStream(input);
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-      int c = bis.read();
-      while (c != -1) {
-        out.write(c);
-        c = bis.read();
+      // start with room for everything if the size is known (as it is for
+      // files), otherwise with whatever can be read without blocking
+      int size = input.available();
+      if (input instanceof FileInputStream) {
+        FileChannel channel = ((FileInputStream) input).getChannel();
+        long remaining = channel.size() - channel.position();
+        if (remaining < Integer.MAX_VALUE) {
+          size = (int) remaining;
+        }
+      }
+      byte[] buffer = new byte[Math.max(size, 8192)];
+      int count = 0;
+
+      while (true) {
+        if (count == buffer.length) {
+          // full, so only grow if there's actually more to come
+          int c = input.read();
+          if (c == -1) break;
+          buffer = expand(buffer);
+          buffer[count++] = (byte) c;
+        }
+        // a piece at a time, since streams may copy through a temporary
+        // buffer that's as big as what's asked for
+        int length = Math.min(buffer.length - count, IO_CHUNK_SIZE);
+        int n = input.read(buffer, count, length);
+        if (n == -1) break;
+        count += n;
+      }
+      if (count == buffer.length) {
+        return buffer;
       }
-      return out.toByteArray();
+      return subset(buffer, 0, count);
 
     } catch (IOException e) {
       e.printStackTrace();
@@ -4697,7 +5281,13 @@ public class PApplet extends Applet
 
   static public byte[] loadBytes(File file) {
     InputStream is = createInput(file);
-    return loadBytes(is);
+    if (is == null) return null;
+
+    byte[] outgoing = loadBytes(is);
+    try {
+      is.close();
+    } catch (IOException e) { }
+    return outgoing;
   }
 
 
@@ -4747,19 +5337,17 @@ public class PApplet extends Applet
 
   static public String[] loadStrings(InputStream input) {
     try {
-      BufferedReader reader =
-        new BufferedReader(new InputStreamReader(input, "UTF-8"));
+      PLineReader reader = new PLineReader(input);
 
       String lines[] = new String[100];
       int lineCount = 0;
-      String line = null;
-      while ((line = reader.readLine()) != null) {
+      while (reader.next()) {
         if (lineCount == lines.length) {
           String temp[] = new String[lineCount << 1];
           System.arraycopy(lines, 0, temp, 0, lineCount);
           lines = temp;
         }
-        lines[lineCount++] = line;
+        lines[lineCount++] = reader.getLine();
       }
       reader.close();
 
@@ -4781,6 +5369,68 @@ public class PApplet extends Applet
 
 
 
+  /**
+   * Load the columns of a CSV file (or TSV, if the name ends with .tsv)
+   * as floats. See PTable for the details.
+   *
+   * @param header true if the first line has the names of the columns
+   */
+  public PTable loadTable(String filename, boolean header) {
+    return loadTable(filename, header, null);
+  }
+
+
+  /**
+   * Load the columns of a CSV or TSV file with the types given, one of
+   * PTable.INT, PTable.FLOAT or PTable.SKIP for each column.
+   */
+  public PTable loadTable(String filename, boolean header, int[] types) {
+    InputStream is = createInput(filename);
+    if (is != null) return loadTable(is, tableDelimiter(filename),
+                                     header, types);
+
+    System.err.println("The file \"" + filename + "\" " +
+                       "is missing or inaccessible, make sure " +
+                       "the URL is valid or that the file has been " +
+                       "added to your sketch and is readable.");
+    return null;
+  }
+
+
+  static public PTable loadTable(File file, boolean header, int[] types) {
+    InputStream is = createInput(file);
+    if (is != null) return loadTable(is, tableDelimiter(file.getName()),
+                                     header, types);
+    return null;
+  }
+
+
+  static protected PTable loadTable(InputStream input, char delimiter,
+                                    boolean header, int[] types) {
+    try {
+      return new PTable(input, delimiter, header, types);
+
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) { }
+    }
+    return null;
+  }
+
+
+  static protected char tableDelimiter(String filename) {
+    String lower = filename.toLowerCase();
+    if (lower.endsWith(".tsv") || lower.endsWith(".tsv.gz")) {
+      return '\t';
+    }
+    return ',';
+  }
+
+
+
   //////////////////////////////////////////////////////////////
 
   // FILE OUTPUT
@@ -4838,7 +5488,11 @@ public class PApplet extends Applet
    * compress or uncompress gzip files.
    */
   public void saveStream(File targetFile, String sourceLocation) {
-    saveStream(targetFile, createInputRaw(sourceLocation));
+    InputStream input = createInputRaw(sourceLocation);
+    saveStream(targetFile, input);
+    try {
+      input.close();
+    } catch (IOException e) { }
   }
 
 
@@ -4848,20 +5502,34 @@ public class PApplet extends Applet
       File parentDir = targetFile.getParentFile();
       tempFile = File.createTempFile(targetFile.getName(), null, parentDir);
 
-      BufferedInputStream bis = new BufferedInputStream(sourceStream, 16384);
       FileOutputStream fos = new FileOutputStream(tempFile);
-      BufferedOutputStream bos = new BufferedOutputStream(fos);
+      try {
+        if (sourceStream instanceof FileInputStream) {
+          // file to file, so let the OS do the copying
+          FileChannel source = ((FileInputStream) sourceStream).getChannel();
+          FileChannel target = fos.getChannel();
+          long position = source.position();
+          long size = source.size();
+          while (position < size) {
+            long n = source.transferTo(position, size - position, target);
+            if (n <= 0) break;
+            position += n;
+          }
+          source.position(position);
 
-      byte[] buffer = new byte[8192];
-      int bytesRead;
-      while ((bytesRead = bis.read(buffer)) != -1) {
-        bos.write(buffer, 0, bytesRead);
+        } else {
+          // write straight from a large buffer, without any more
+          // buffering in between
+          byte[] buffer = new byte[IO_CHUNK_SIZE];
+          int bytesRead;
+          while ((bytesRead = sourceStream.read(buffer)) != -1) {
+            fos.write(buffer, 0, bytesRead);
+          }
+        }
+      } finally {
+        fos.close();
       }
 
-      bos.flush();
-      bos.close();
-      bos = null;
-
       if (!tempFile.renameTo(targetFile)) {
         System.err.println("Could not rename temporary file " +
                            tempFile.getAbsolutePath());
@@ -5135,10 +5803,24 @@ public class PApplet extends Applet
 
 
   static public int[] sort(int[] what, int count) {
-    int[] outgoing = new int[what.length];
-    System.arraycopy(what, 0, outgoing, 0, what.length);
-    Arrays.sort(outgoing, 0, count);
-    return outgoing;
+    return sort(what, count, null);
+  }
+
+
+  /**
+   * Sort the first count elements of what into target, or into a new
+   * array if target is null or smaller than what. Use what itself as
+   * the target to sort it in place.
+   */
+  static public int[] sort(int[] what, int count, int[] target) {
+    if (target == null || target.length < what.length) {
+      target = new int[what.length];
+    }
+    if (target != what) {
+      System.arraycopy(what, 0, target, 0, what.length);
+    }
+    sortInts.sort(target, count);
+    return target;
   }
 
 
@@ -5148,10 +5830,24 @@ public class PApplet extends Applet
 
 
   static public float[] sort(float[] what, int count) {
-    float[] outgoing = new float[what.length];
-    System.arraycopy(what, 0, outgoing, 0, what.length);
-    Arrays.sort(outgoing, 0, count);
-    return outgoing;
+    return sort(what, count, null);
+  }
+
+
+  /**
+   * Sort the first count elements of what into target, or into a new
+   * array if target is null or smaller than what. Use what itself as
+   * the target to sort it in place.
+   */
+  static public float[] sort(float[] what, int count, float[] target) {
+    if (target == null || target.length < what.length) {
+      target = new float[what.length];
+    }
+    if (target != what) {
+      System.arraycopy(what, 0, target, 0, what.length);
+    }
+    sortFloats.sort(target, count);
+    return target;
   }
 
 
@@ -5161,13 +5857,161 @@ public class PApplet extends Applet
 
 
   static public String[] sort(String[] what, int count) {
-    String[] outgoing = new String[what.length];
-    System.arraycopy(what, 0, outgoing, 0, what.length);
-    Arrays.sort(outgoing, 0, count);
-    return outgoing;
+    return sort(what, count, null);
+  }
+
+
+  /**
+   * Sort the first count elements of what into target, or into a new
+   * array if target is null or smaller than what. Use what itself as
+   * the target to sort it in place.
+   */
+  static public String[] sort(String[] what, int count, String[] target) {
+    if (target == null || target.length < what.length) {
+      target = new String[what.length];
+    }
+    if (target != what) {
+      System.arraycopy(what, 0, target, 0, what.length);
+    }
+    sortStrings.sort(target, count);
+    return target;
+  }
+
+
+  /** fewest elements worth sorting on another thread */
+  static final int SORT_MIN_ITEMS = 1 << 14;
+
+
+  /**
+   * Sorts large arrays by sorting pieces of them on the PWorkerPool
+   * threads, then merging the sorted pieces together two at a time,
+   * which needs a second array as big as the part being sorted. Small
+   * arrays are left to Arrays.sort().
+   */
+  static abstract class ArraySorter {
+    abstract void sort(Object list, int start, int stop);
+
+    abstract Object allocate(int count);
+
+    /** merge src[start, middle) and src[middle, stop) into dst */
+    abstract void merge(Object src, Object dst,
+                        int start, int middle, int stop);
+
+    void sort(final Object list, final int count) {
+      if (!PWorkerPool.isWorthwhile(count, SORT_MIN_ITEMS)) {
+        sort(list, 0, count);
+        return;
+      }
+      // a power of two, so that the pieces pair up evenly
+      int pieces = 2;
+      while (pieces < PWorkerPool.getThreadCount() &&
+             count / (pieces * 2) >= SORT_MIN_ITEMS) {
+        pieces <<= 1;
+      }
+      final int[] bounds = new int[pieces + 1];
+      for (int i = 0; i <= pieces; i++) {
+        bounds[i] = (int) ((long) i * count / pieces);
+      }
+      PWorkerPool.run(pieces, 1, new PWorkerPool.Task() {
+        public void run(int start, int stop) {
+          for (int i = start; i < stop; i++) {
+            sort(list, bounds[i], bounds[i+1]);
+          }
+        }
+      });
+
+      Object src = list;
+      Object dst = allocate(count);
+      for (int width = 1; width < pieces; width <<= 1) {
+        final Object from = src;
+        final Object to = dst;
+        final int step = width;
+        PWorkerPool.run(pieces / (width * 2), 1, new PWorkerPool.Task() {
+          public void run(int start, int stop) {
+            for (int pair = start; pair < stop; pair++) {
+              int i = pair * step * 2;
+              merge(from, to, bounds[i], bounds[i + step], bounds[i + step*2]);
+            }
+          }
+        });
+        src = to;
+        dst = from;
+      }
+      if (src != list) {
+        System.arraycopy(src, 0, list, 0, count);
+      }
+    }
   }
 
 
+  static final ArraySorter sortInts = new ArraySorter() {
+    void sort(Object list, int start, int stop) {
+      Arrays.sort((int[]) list, start, stop);
+    }
+
+    Object allocate(int count) {
+      return new int[count];
+    }
+
+    void merge(Object src, Object dst, int start, int middle, int stop) {
+      int[] a = (int[]) src;
+      int[] b = (int[]) dst;
+      int i = start, j = middle, k = start;
+      while (i < middle && j < stop) {
+        b[k++] = (a[j] < a[i]) ? a[j++] : a[i++];
+      }
+      System.arraycopy(a, i, b, k, middle - i);
+      System.arraycopy(a, j, b, k + middle - i, stop - j);
+    }
+  };
+
+
+  static final ArraySorter sortFloats = new ArraySorter() {
+    void sort(Object list, int start, int stop) {
+      Arrays.sort((float[]) list, start, stop);
+    }
+
+    Object allocate(int count) {
+      return new float[count];
+    }
+
+    void merge(Object src, Object dst, int start, int middle, int stop) {
+      float[] a = (float[]) src;
+      float[] b = (float[]) dst;
+      int i = start, j = middle, k = start;
+      while (i < middle && j < stop) {
+        // same order as Arrays.sort(), with -0.0 before 0.0 and NaN last
+        b[k++] = (Float.compare(a[j], a[i]) < 0) ? a[j++] : a[i++];
+      }
+      System.arraycopy(a, i, b, k, middle - i);
+      System.arraycopy(a, j, b, k + middle - i, stop - j);
+    }
+  };
+
+
+  static final ArraySorter sortStrings = new ArraySorter() {
+    void sort(Object list, int start, int stop) {
+      Arrays.sort((String[]) list, start, stop);
+    }
+
+    Object allocate(int count) {
+      return new String[count];
+    }
+
+    void merge(Object src, Object dst, int start, int middle, int stop) {
+      String[] a = (String[]) src;
+      String[] b = (String[]) dst;
+      int i = start, j = middle, k = start;
+      while (i < middle && j < stop) {
+        // equal Strings stay in order, the same as with Arrays.sort()
+        b[k++] = (a[j].compareTo(a[i]) < 0) ? a[j++] : a[i++];
+      }
+      System.arraycopy(a, i, b, k, middle - i);
+      System.arraycopy(a, j, b, k + middle - i, stop - j);
+    }
+  };
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -5579,6 +6423,19 @@ public class PApplet extends Applet
     return output;
   }
 
+  /**
+   * Copy count elements of list into the start of target, or into a
+   * new array if target is null or too small.
+   */
+  static public int[] subset(int list[], int start, int count,
+                              int target[]) {
+    if (target == null || target.length < count) {
+      target = new int[count];
+    }
+    System.arraycopy(list, start, target, 0, count);
+    return target;
+  }
+
 
   static public float[] subset(float list[], int start) {
     return subset(list, start, list.length - start);
@@ -5590,6 +6447,19 @@ public class PApplet extends Applet
     return output;
   }
 
+  /**
+   * Copy count elements of list into the start of target, or into a
+   * new array if target is null or too small.
+   */
+  static public float[] subset(float list[], int start, int count,
+                                float target[]) {
+    if (target == null || target.length < count) {
+      target = new float[count];
+    }
+    System.arraycopy(list, start, target, 0, count);
+    return target;
+  }
+
 
   static public String[] subset(String list[], int start) {
     return subset(list, start, list.length - start);
@@ -5644,6 +6514,21 @@ public class PApplet extends Applet
     return c;
   }
 
+  /**
+   * Put a followed by b into target, or into a new array if target is
+   * null or too small. Target can be a itself, when a is big enough.
+   */
+  static public int[] concat(int a[], int b[], int target[]) {
+    if (target == null || target.length < a.length + b.length) {
+      target = new int[a.length + b.length];
+    }
+    if (target != a) {
+      System.arraycopy(a, 0, target, 0, a.length);
+    }
+    System.arraycopy(b, 0, target, a.length, b.length);
+    return target;
+  }
+
   static public float[] concat(float a[], float b[]) {
     float c[] = new float[a.length + b.length];
     System.arraycopy(a, 0, c, 0, a.length);
@@ -5651,6 +6536,21 @@ public class PApplet extends Applet
     return c;
   }
 
+  /**
+   * Put a followed by b into target, or into a new array if target is
+   * null or too small. Target can be a itself, when a is big enough.
+   */
+  static public float[] concat(float a[], float b[], float target[]) {
+    if (target == null || target.length < a.length + b.length) {
+      target = new float[a.length + b.length];
+    }
+    if (target != a) {
+      System.arraycopy(a, 0, target, 0, a.length);
+    }
+    System.arraycopy(b, 0, target, a.length, b.length);
+    return target;
+  }
+
   static public String[] concat(String a[], String b[]) {
     String c[] = new String[a.length + b.length];
     System.arraycopy(a, 0, c, 0, a.length);
@@ -5706,6 +6606,29 @@ public class PApplet extends Applet
     return outgoing;
   }
 
+  /**
+   * Reverse list into target, or into a new array if target is null or
+   * too small. Use list itself as the target to reverse it in place.
+   */
+  static public int[] reverse(int list[], int target[]) {
+    int length1 = list.length - 1;
+    if (target == list) {
+      for (int i = 0, j = length1; i < j; i++, j--) {
+        int temp = list[i];
+        list[i] = list[j];
+        list[j] = temp;
+      }
+      return list;
+    }
+    if (target == null || target.length < list.length) {
+      target = new int[list.length];
+    }
+    for (int i = 0; i < list.length; i++) {
+      target[i] = list[length1 - i];
+    }
+    return target;
+  }
+
   static public float[] reverse(float list[]) {
     float outgoing[] = new float[list.length];
     int length1 = list.length - 1;
@@ -5715,6 +6638,29 @@ public class PApplet extends Applet
     return outgoing;
   }
 
+  /**
+   * Reverse list into target, or into a new array if target is null or
+   * too small. Use list itself as the target to reverse it in place.
+   */
+  static public float[] reverse(float list[], float target[]) {
+    int length1 = list.length - 1;
+    if (target == list) {
+      for (int i = 0, j = length1; i < j; i++, j--) {
+        float temp = list[i];
+        list[i] = list[j];
+        list[j] = temp;
+      }
+      return list;
+    }
+    if (target == null || target.length < list.length) {
+      target = new float[list.length];
+    }
+    for (int i = 0; i < list.length; i++) {
+      target[i] = list[length1 - i];
+    }
+    return target;
+  }
+
   static public String[] reverse(String list[]) {
     String outgoing[] = new String[list.length];
     int length1 = list.length - 1;
@@ -6307,6 +7253,9 @@ public class PApplet extends Applet
     return parseInt(what, 0);
   }
 
+  /** fewest Strings worth parsing or formatting on another thread */
+  static final int PARSE_MIN_ITEMS = 1 << 11;
+
   /**
    * Make an array of int elements from an array of String objects.
    * If the String can't be parsed as a number, its entry in the
@@ -6318,14 +7267,31 @@ public class PApplet extends Applet
    * numbers will contain { 1, 300, 9999, 44 }
    */
   static public int[] parseInt(String what[], int missing) {
-    int output[] = new int[what.length];
-    for (int i = 0; i < what.length; i++) {
-      try {
-        output[i] = Integer.parseInt(what[i]);
-      } catch (NumberFormatException e) {
-        output[i] = missing;
-      }
+    return parseInt(what, missing, null);
+  }
+
+  /**
+   * Same as parseInt(what, missing), but the numbers go into target
+   * if it's big enough, instead of a new array. Large arrays are split
+   * up and parsed on several threads.
+   */
+  static public int[] parseInt(final String what[], final int missing,
+                               int target[]) {
+    if (target == null || target.length < what.length) {
+      target = new int[what.length];
     }
+    final int output[] = target;
+    PWorkerPool.run(what.length, PARSE_MIN_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        for (int i = start; i < stop; i++) {
+          try {
+            output[i] = Integer.parseInt(what[i]);
+          } catch (NumberFormatException e) {
+            output[i] = missing;
+          }
+        }
+      }
+    });
     return output;
   }
 
@@ -6398,14 +7364,32 @@ public class PApplet extends Applet
   }
 
   static final public float[] parseFloat(String what[], float missing) {
-    float output[] = new float[what.length];
-    for (int i = 0; i < what.length; i++) {
-      try {
-        output[i] = new Float(what[i]).floatValue();
-      } catch (NumberFormatException e) {
-        output[i] = missing;
-      }
+    return parseFloat(what, missing, null);
+  }
+
+  /**
+   * Same as parseFloat(what, missing), but the numbers go into target
+   * if it's big enough, instead of a new array. Large arrays are split
+   * up and parsed on several threads.
+   */
+  static final public float[] parseFloat(final String what[],
+                                         final float missing,
+                                         float target[]) {
+    if (target == null || target.length < what.length) {
+      target = new float[what.length];
     }
+    final float output[] = target;
+    PWorkerPool.run(what.length, PARSE_MIN_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        for (int i = start; i < stop; i++) {
+          try {
+            output[i] = new Float(what[i]).floatValue();
+          } catch (NumberFormatException e) {
+            output[i] = missing;
+          }
+        }
+      }
+    });
     return output;
   }
 
@@ -6478,10 +7462,29 @@ public class PApplet extends Applet
 
 
   static public String[] nf(int num[], int digits) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nf(num[i], digits);
-    }
+    return format(num, digits, false, (char) 0);
+  }
+
+
+  /**
+   * Format a whole array of ints, putting the sign character (if not 0)
+   * in front of numbers that aren't negative. NumberFormat can't be
+   * shared between threads, so each piece of a large array gets its own.
+   */
+  static private String[] format(final int num[], final int digits,
+                                 final boolean commas, final char sign) {
+    final String formatted[] = new String[num.length];
+    PWorkerPool.run(num.length, PARSE_MIN_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        NumberFormat format = NumberFormat.getInstance();
+        format.setGroupingUsed(commas);
+        format.setMinimumIntegerDigits(digits);
+        for (int i = start; i < stop; i++) {
+          String s = format.format(num[i]);
+          formatted[i] = (sign == 0 || num[i] < 0) ? s : sign + s;
+        }
+      }
+    });
     return formatted;
   }
 
@@ -6503,11 +7506,7 @@ public class PApplet extends Applet
 
 
   static public String[] nfc(int num[]) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nfc(num[i]);
-    }
-    return formatted;
+    return format(num, 0, true, (char) 0);
   }
 
 
@@ -6538,11 +7537,7 @@ public class PApplet extends Applet
   }
 
   static public String[] nfs(int num[], int digits) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nfs(num[i], digits);
-    }
-    return formatted;
+    return format(num, digits, false, ' ');
   }
 
   //
@@ -6557,11 +7552,7 @@ public class PApplet extends Applet
   }
 
   static public String[] nfp(int num[], int digits) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nfp(num[i], digits);
-    }
-    return formatted;
+    return format(num, digits, false, '+');
   }
 
 
@@ -6577,10 +7568,33 @@ public class PApplet extends Applet
 
 
   static public String[] nf(float num[], int left, int right) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nf(num[i], left, right);
-    }
+    return format(num, left, right, false, (char) 0);
+  }
+
+
+  /**
+   * Format a whole array of floats, the same as format(int[], ...)
+   * does for ints.
+   */
+  static private String[] format(final float num[],
+                                 final int left, final int right,
+                                 final boolean commas, final char sign) {
+    final String formatted[] = new String[num.length];
+    PWorkerPool.run(num.length, PARSE_MIN_ITEMS, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        NumberFormat format = NumberFormat.getInstance();
+        format.setGroupingUsed(commas);
+        if (left != 0) format.setMinimumIntegerDigits(left);
+        if (right != 0) {
+          format.setMinimumFractionDigits(right);
+          format.setMaximumFractionDigits(right);
+        }
+        for (int i = start; i < stop; i++) {
+          String s = format.format(num[i]);
+          formatted[i] = (sign == 0 || num[i] < 0) ? s : sign + s;
+        }
+      }
+    });
     return formatted;
   }
 
@@ -6609,11 +7623,7 @@ public class PApplet extends Applet
 
 
   static public String[] nfc(float num[], int right) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nfc(num[i], right);
-    }
-    return formatted;
+    return format(num, 0, right, true, (char) 0);
   }
 
 
@@ -6644,11 +7654,7 @@ public class PApplet extends Applet
    * has a sign (positive, negative, etc) in front of it.
    */
   static public String[] nfs(float num[], int left, int right) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nfs(num[i], left, right);
-    }
-    return formatted;
+    return format(num, left, right, false, ' ');
   }
 
   static public String nfs(float num, int left, int right) {
@@ -6657,11 +7663,7 @@ public class PApplet extends Applet
 
 
   static public String[] nfp(float num[], int left, int right) {
-    String formatted[] = new String[num.length];
-    for (int i = 0; i < formatted.length; i++) {
-      formatted[i] = nfp(num[i], left, right);
-    }
-    return formatted;
+    return format(num, left, right, false, '+');
   }
 
   static public String nfp(float num, int left, int right) {
@@ -253,6 +253,15 @@ public interface PConstants {
   static final int DILATE    = 18;
 
 
+  // resampling filters for resize()
+  // @see processing.core.PResampler
+
+  static final int NEAREST  = 0;
+  static final int BILINEAR = 1;
+  static final int AREA     = 2;
+  static final int LANCZOS  = 3;
+
+
   // blend mode keyword definitions
   // @see processing.core.PImage#blendColor(int,int,int)
 
@@ -484,6 +493,9 @@ public interface PConstants {
   static final int ENABLE_ACCURATE_TEXTURES    =  7;
   static final int DISABLE_ACCURATE_TEXTURES   = -7;
 
+  static final int ENABLE_PARALLEL_RENDERING   =  8;
+  static final int DISABLE_PARALLEL_RENDERING  = -8;
+
   static final int HINT_COUNT                  = 10;
 
 
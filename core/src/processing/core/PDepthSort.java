@@ -0,0 +1,196 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Orders shapes by depth for hint(ENABLE_DEPTH_SORT), farthest first.
+ * <P>
+ * Uses an LSD radix sort on the bits of the depth values, one byte at
+ * a time, so it takes the same time no matter what order the shapes
+ * came in, and shapes at the same depth stay in the order they were
+ * drawn. Large counts are sorted on the threads of PWorkerPool.
+ * <P>
+ * Depths are ordered like Float.compare() would, largest first, which
+ * puts NaN in front and -0.0 after 0.0.
+ */
+class PDepthSort {
+  /** sort on several threads from this many items up */
+  static final int MIN_PARALLEL = 1 << 16;
+  /** items handled by one thread at a time in the parallel version */
+  static final int CHUNK = 1 << 14;
+
+  static final int RADIX = 256;
+
+  private int[] keys = new int[0];
+  private int[] order = new int[0];
+  private int[] keys2 = new int[0];
+  private int[] order2 = new int[0];
+  private int[] counts = new int[RADIX];
+
+
+  /**
+   * Returns the indices 0 to count-1, sorted so that the largest depth
+   * comes first. The array is reused by the next call.
+   */
+  int[] sort(final float[] depths, final int count) {
+    if (keys.length < count) {
+      int size = Math.max(count, keys.length << 1);
+      keys = new int[size];
+      order = new int[size];
+      keys2 = new int[size];
+      order2 = new int[size];
+    }
+    final boolean parallel =
+      count >= MIN_PARALLEL && PWorkerPool.isWorthwhile(count, CHUNK);
+
+    if (parallel) {
+      PWorkerPool.run(count, CHUNK, new PWorkerPool.Task() {
+        public void run(int start, int stop) {
+          makeKeys(depths, start, stop);
+        }
+      });
+    } else {
+      makeKeys(depths, 0, count);
+    }
+
+    for (int shift = 0; shift < 32; shift += 8) {
+      boolean moved = parallel ?
+        parallelPass(count, shift) : pass(count, shift);
+      if (moved) {
+        int[] temp = keys;
+        keys = keys2;
+        keys2 = temp;
+        temp = order;
+        order = order2;
+        order2 = temp;
+      }
+    }
+    return order;
+  }
+
+
+  /**
+   * Turn the depths into ints that sort the right way as unsigned values:
+   * negative floats get their sign bit only, positive floats all of their
+   * bits flipped, so that larger values come out smaller.
+   */
+  private void makeKeys(float[] depths, int start, int stop) {
+    for (int i = start; i < stop; i++) {
+      int bits = Float.floatToIntBits(depths[i]);
+      keys[i] = (bits < 0) ? bits : (~bits & 0x7fffffff);
+      order[i] = i;
+    }
+  }
+
+
+  /**
+   * Sort by the byte at 'shift' from keys/order into keys2/order2.
+   * @return false if every key has the same byte, and nothing was moved
+   */
+  private boolean pass(int count, int shift) {
+    int[] counts = this.counts;
+    Arrays.fill(counts, 0);
+    for (int i = 0; i < count; i++) {
+      counts[(keys[i] >>> shift) & 0xff]++;
+    }
+    if (counts[(keys[0] >>> shift) & 0xff] == count) {
+      return false;
+    }
+    int sum = 0;
+    for (int d = 0; d < RADIX; d++) {
+      int c = counts[d];
+      counts[d] = sum;
+      sum += c;
+    }
+    for (int i = 0; i < count; i++) {
+      int key = keys[i];
+      int pos = counts[(key >>> shift) & 0xff]++;
+      keys2[pos] = key;
+      order2[pos] = order[i];
+    }
+    return true;
+  }
+
+
+  /**
+   * Same as pass(), with each chunk of CHUNK items counted and moved on
+   * its own thread. Each chunk gets its own place inside every bucket,
+   * after the chunks before it, so the sort is still stable.
+   */
+  private boolean parallelPass(final int count, final int shift) {
+    final int chunks = (count + CHUNK - 1) / CHUNK;
+    if (counts.length < chunks * RADIX) {
+      counts = new int[chunks * RADIX];
+    }
+    final int[] counts = this.counts;
+    Arrays.fill(counts, 0, chunks * RADIX, 0);
+
+    PWorkerPool.run(chunks, 1, new PWorkerPool.Task() {
+      public void run(int first, int last) {
+        for (int c = first; c < last; c++) {
+          int base = c * RADIX;
+          int stop = Math.min(count, (c + 1) * CHUNK);
+          for (int i = c * CHUNK; i < stop; i++) {
+            counts[base + ((keys[i] >>> shift) & 0xff)]++;
+          }
+        }
+      }
+    });
+
+    int digit = (keys[0] >>> shift) & 0xff;
+    int same = 0;
+    for (int c = 0; c < chunks; c++) {
+      same += counts[c * RADIX + digit];
+    }
+    if (same == count) {
+      return false;
+    }
+    int sum = 0;
+    for (int d = 0; d < RADIX; d++) {
+      for (int c = 0; c < chunks; c++) {
+        int index = c * RADIX + d;
+        int n = counts[index];
+        counts[index] = sum;
+        sum += n;
+      }
+    }
+
+    PWorkerPool.run(chunks, 1, new PWorkerPool.Task() {
+      public void run(int first, int last) {
+        for (int c = first; c < last; c++) {
+          int base = c * RADIX;
+          int stop = Math.min(count, (c + 1) * CHUNK);
+          for (int i = c * CHUNK; i < stop; i++) {
+            int key = keys[i];
+            int pos = counts[base + ((key >>> shift) & 0xff)]++;
+            keys2[pos] = key;
+            order2[pos] = order[i];
+          }
+        }
+      }
+    });
+    return true;
+  }
+}
@@ -27,6 +27,7 @@ import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 
 
@@ -51,6 +52,11 @@ import java.util.HashMap;
  *
  *   ^^^^^^^^^^^^^^ setWidth (width displaced by char)
  * </PRE>
+ * The images of the glyphs are packed side by side onto a few larger
+ * images (pages), so that a renderer can draw a whole line of text with
+ * a single texture. Glyphs are found through a table indexed by the
+ * character itself, which can be read by any thread, while a lazy font
+ * is adding glyphs on another.
  */
 public class PFont implements PConstants {
 
@@ -97,10 +103,33 @@ public class PFont implements PConstants {
   protected int descent;
 
   /**
-   * A more efficient array lookup for straight ASCII characters. For Unicode
-   * characters, a QuickSort-style search is used. 
+   * Glyphs by character, in blocks of 256 characters (indexed by the high
+   * byte of the char, then the low byte). The table and its blocks are
+   * never changed once in use: adding a glyph replaces the table with a
+   * copy, so that getGlyph() can read it without locking.
    */
-  protected int[] ascii;
+  protected volatile Glyph[][] table = new Glyph[256][];
+
+  /** Glyph images are packed onto pages of this many pixels square. */
+  protected int pageSize;
+
+  /** Pages of glyph images, the last of which is being filled. */
+  protected PImage[] pages = new PImage[0];
+  protected int pageCount;
+
+  // where the next glyph goes on the last page: its corner,
+  // and the height of the row of glyphs it's going into
+  private int packX, packY, packHeight;
+
+  /**
+   * Space left around each glyph on a page. It's filled with copies of
+   * the glyph's outside rows and columns (see Glyph.pad()), so that
+   * smoothing reads the same values past the edge that it did when every
+   * glyph had an image of its own, instead of picking up its neighbors.
+   */
+  static final int PAGE_PADDING = 1;
+  static final int PAGE_SIZE_MIN = 128;
+  static final int PAGE_SIZE_MAX = 1024;
 
   /**
    * True if this font is set to load dynamically. This is the default when 
@@ -179,9 +208,6 @@ public class PFont implements PConstants {
     int initialCount = 10;
     glyphs = new Glyph[initialCount];
 
-    ascii = new int[128];
-    Arrays.fill(ascii, -1);
-
     int mbox3 = size * 3;
 
     lazyImage = new BufferedImage(mbox3, mbox3, BufferedImage.TYPE_INT_RGB);
@@ -207,18 +233,23 @@ public class PFont implements PConstants {
     //descent = lazyMetrics.getDescent();
 
     if (charset != null) {
-      // charset needs to be sorted to make index lookup run more quickly
+      // keep the glyphs in order, the way they're stored in .vlw files
       // http://dev.processing.org/bugs/show_bug.cgi?id=494
       Arrays.sort(charset);
 
       glyphs = new Glyph[charset.length];
 
       glyphCount = 0;
+      Glyph[][] table = new Glyph[256][];
       for (char c : charset) {
         if (font.canDisplay(c)) {
-          glyphs[glyphCount++] = new Glyph(c);
+          Glyph glyph = new Glyph(c);
+          glyph.index = glyphCount;
+          glyphs[glyphCount++] = glyph;
+          tablePut(table, glyph);
         }
       }
+      this.table = table;
 
       // shorten the array if necessary
       if (glyphCount != charset.length) {
@@ -307,18 +338,15 @@ public class PFont implements PConstants {
     // allocate enough space for the character info
     glyphs = new Glyph[glyphCount];
 
-    ascii = new int[128];
-    Arrays.fill(ascii, -1);
-
     // read the information about the individual characters
+    Glyph[][] table = new Glyph[256][];
     for (int i = 0; i < glyphCount; i++) {
       Glyph glyph = new Glyph(is);
-      // cache locations of the ascii charset
-      if (glyph.value < 128) {
-        ascii[glyph.value] = i;
-      }
+      glyph.index = i;
       glyphs[i] = glyph;
+      tablePut(table, glyph);
     }
+    this.table = table;
 
     // not a roman font, so throw an error and ask to re-build.
     // that way can avoid a bunch of error checking hacks in here.
@@ -350,7 +378,7 @@ public class PFont implements PConstants {
    * It is assumed that the calling class will handle closing
    * the stream when finished.
    */
-  public void save(OutputStream output) throws IOException {
+  public synchronized void save(OutputStream output) throws IOException {
     DataOutputStream os = new DataOutputStream(output);
 
     os.writeInt(glyphCount);
@@ -366,12 +394,22 @@ public class PFont implements PConstants {
     os.writeInt(ascent);  // formerly baseHt (was ignored)
     os.writeInt(descent); // formerly struct padding for c version
 
-    for (int i = 0; i < glyphCount; i++) {
-      glyphs[i].writeHeader(os);
+    // lazy fonts add glyphs in the order they're used,
+    // but the file has always had them sorted by character
+    Glyph[] sorted = new Glyph[glyphCount];
+    System.arraycopy(glyphs, 0, sorted, 0, glyphCount);
+    Arrays.sort(sorted, new Comparator<Glyph>() {
+      public int compare(Glyph a, Glyph b) {
+        return a.value - b.value;
+      }
+    });
+
+    for (Glyph glyph : sorted) {
+      glyph.writeHeader(os);
     }
 
-    for (int i = 0; i < glyphCount; i++) {
-      glyphs[i].writeBitmap(os);
+    for (Glyph glyph : sorted) {
+      glyph.writeBitmap(os);
     }
 
     // version 11
@@ -385,43 +423,88 @@ public class PFont implements PConstants {
 
   /**
    * Create a new glyph, and add the character to the current font.
+   * Glyphs are added to the end of the glyphs array, in the order they're
+   * created. Safe to call from several threads at once: if another thread
+   * has just added the same character, its glyph is returned instead.
    * @param c character to create an image for.
    */
-  protected void addGlyph(char c) {
-    Glyph glyph = new Glyph(c);
+  protected synchronized Glyph addGlyph(char c) {
+    Glyph glyph = lookup(c);
+    if (glyph != null) {
+      return glyph;
+    }
+    glyph = new Glyph(c);
 
     if (glyphCount == glyphs.length) {
       glyphs = (Glyph[]) PApplet.expand(glyphs);
     }
-    if (glyphCount == 0) {
-      glyphs[glyphCount] = glyph;
-      if (glyph.value < 128) {
-        ascii[glyph.value] = 0;
+    glyph.index = glyphCount;
+    glyphs[glyphCount++] = glyph;
+
+    // publish a copy of the table, with a new copy of the one block changed
+    Glyph[][] newTable = table.clone();
+    int high = glyph.value >> 8;
+    newTable[high] = (newTable[high] == null) ?
+      new Glyph[256] : newTable[high].clone();
+    tablePut(newTable, glyph);
+    table = newTable;
+    return glyph;
+  }
+
+
+  static private void tablePut(Glyph[][] table, Glyph glyph) {
+    int c = glyph.value;
+    if (c >= 0 && c <= 0xffff) {  // anything else can't be asked for
+      Glyph[] block = table[c >> 8];
+      if (block == null) {
+        block = new Glyph[256];
+        table[c >> 8] = block;
       }
-      
-    } else if (glyphs[glyphCount-1].value < glyph.value) {
-      glyphs[glyphCount] = glyph;
-      if (glyph.value < 128) {
-        ascii[glyph.value] = glyphCount;
+      block[c & 0xff] = glyph;
+    }
+  }
+
+
+  /**
+   * Find a spot for the image of a glyph on one of the pages, starting a new
+   * row, or a new page, when the current one is full. Glyphs too large for
+   * a page get an image of their own.
+   */
+  protected synchronized void pack(Glyph glyph) {
+    if (pageSize == 0) {
+      // room for around a hundred characters on the first page
+      pageSize = PAGE_SIZE_MIN;
+      while (pageSize < size * 10 && pageSize < PAGE_SIZE_MAX) {
+        pageSize <<= 1;
       }
-      
-    } else {
-      for (int i = 0; i < glyphCount; i++) {
-        if (glyphs[i].value > c) {
-          for (int j = glyphCount; j > i; --j) {
-            glyphs[j] = glyphs[j-1];
-            if (glyphs[j].value < 128) {
-              ascii[glyphs[j].value] = j;
-            }
-          }
-          glyphs[i] = glyph;
-          // cache locations of the ascii charset
-          if (c < 128) ascii[c] = i;
-          break;
-        }
+    }
+    int w = glyph.width + PAGE_PADDING*2;
+    int h = glyph.height + PAGE_PADDING*2;
+    if (w > pageSize || h > pageSize) {
+      glyph.page = new PImage(glyph.width, glyph.height, ALPHA);
+      glyph.pageX = 0;
+      glyph.pageY = 0;
+      return;
+    }
+    if (packX + w > pageSize) {  // next row
+      packX = 0;
+      packY += packHeight;
+      packHeight = 0;
+    }
+    if (pageCount == 0 || packY + h > pageSize) {  // next page
+      if (pageCount == pages.length) {
+        pages = (PImage[]) PApplet.expand(pages, pageCount + 1);
       }
+      pages[pageCount++] = new PImage(pageSize, pageSize, ALPHA);
+      packX = 0;
+      packY = 0;
+      packHeight = 0;
     }
-    glyphCount++;
+    glyph.page = pages[pageCount - 1];
+    glyph.pageX = packX + PAGE_PADDING;
+    glyph.pageY = packY + PAGE_PADDING;
+    packX += w;
+    packHeight = Math.max(packHeight, h);
   }
 
 
@@ -487,9 +570,25 @@ public class PFont implements PConstants {
   }
 
 
+  /**
+   * Get the glyph for a character, creating it first with lazy fonts.
+   * @return the glyph, or null if the font doesn't have one for c
+   */
   public Glyph getGlyph(char c) {
-    int index = index(c);
-    return (index == -1) ? null : glyphs[index];
+    Glyph glyph = lookup(c);
+    if (glyph == null && lazy && font.canDisplay(c)) {
+      glyph = addGlyph(c);
+    }
+    return glyph;
+  }
+
+
+  /**
+   * Get the glyph for a character, if it's been created.
+   */
+  protected Glyph lookup(char c) {
+    Glyph[] block = table[c >> 8];
+    return (block == null) ? null : block[c & 0xff];
   }
 
 
@@ -498,57 +597,14 @@ public class PFont implements PConstants {
    * @return index into arrays or -1 if not found
    */
   protected int index(char c) {
-    if (lazy) {
-      int index = indexActual(c);
-      if (index != -1) {
-        return index;
-      }
-      if (font.canDisplay(c)) {
-        // create the glyph
-        addGlyph(c);
-        // now where did i put that?      
-        return indexActual(c);
-        
-      } else {
-        return -1;
-      }
-
-    } else {
-      return indexActual(c);
-    }
+    Glyph glyph = getGlyph(c);
+    return (glyph == null) ? -1 : glyph.index;
   }
 
 
   protected int indexActual(char c) {
-    // degenerate case, but the find function will have trouble
-    // if there are somehow zero chars in the lookup
-    //if (value.length == 0) return -1;
-    if (glyphCount == 0) return -1;
-
-    // quicker lookup for the ascii fellers
-    if (c < 128) return ascii[c];
-
-    // some other unicode char, hunt it out
-    //return index_hunt(c, 0, value.length-1);
-    return indexHunt(c, 0, glyphCount-1);
-  }
-
-
-  protected int indexHunt(int c, int start, int stop) {
-    int pivot = (start + stop) / 2;
-
-    // if this is the char, then return it
-    if (c == glyphs[pivot].value) return pivot;
-
-    // char doesn't exist, otherwise would have been the pivot
-    //if (start == stop) return -1;
-    if (start >= stop) return -1;
-
-    // if it's in the lower half, continue searching that
-    if (c < glyphs[pivot].value) return indexHunt(c, start, pivot-1);
-
-    // if it's in the upper half, continue there
-    return indexHunt(c, pivot+1, stop);
+    Glyph glyph = lookup(c);
+    return (glyph == null) ? -1 : glyph.index;
   }
 
 
@@ -585,10 +641,10 @@ public class PFont implements PConstants {
   public float width(char c) {
     if (c == 32) return width('i');
 
-    int cc = index(c);
-    if (cc == -1) return 0;
+    Glyph glyph = getGlyph(c);
+    if (glyph == null) return 0;
 
-    return ((float) glyphs[cc].setWidth / (float) size);
+    return ((float) glyph.setWidth / (float) size);
   }
 
 
@@ -721,10 +777,13 @@ public class PFont implements PConstants {
 
   
   /**
-   * A single character, and its visage.
+   * A single character, and its visage. The image is the rectangle
+   * width x height at pageX, pageY on the page.
    */
   public class Glyph {
-    PImage image;
+    PImage page;
+    int pageX, pageY;
+    int index;
     int value;
     int height;
     int width;
@@ -778,7 +837,7 @@ public class PFont implements PConstants {
     
     
     protected void readBitmap(DataInputStream is) throws IOException {
-      image = new PImage(width, height, ALPHA);
+      pack(this);
       int bitmapSize = width * height;
 
       byte[] temp = new byte[bitmapSize];
@@ -787,23 +846,52 @@ public class PFont implements PConstants {
       // convert the bitmap to an alpha channel
       int w = width;
       int h = height;
-      int[] pixels = image.pixels;
+      int[] pixels = page.pixels;
       for (int y = 0; y < h; y++) {
+        int offset = (pageY + y) * page.width + pageX;
         for (int x = 0; x < w; x++) {
-          pixels[y * width + x] = temp[y*w + x] & 0xff;
-//          System.out.print((image.pixels[y*64+x] > 128) ? "*" : ".");
+          pixels[offset + x] = temp[y*w + x] & 0xff;
         }
-//        System.out.println();
       }
-//      System.out.println();
+      pad();
+      page.setModified();
     }
     
     
+    /**
+     * Copy the outside columns and rows of the image into the padding.
+     */
+    protected void pad() {
+      if (pageX == 0) {
+        return;  // a page of its own, with no padding
+      }
+      int[] pixels = page.pixels;
+      int stride = page.width;
+      for (int y = pageY; y < pageY + height; y++) {
+        int left = y*stride + pageX;
+        int right = left + width - 1;
+        for (int i = 1; i <= PAGE_PADDING; i++) {
+          pixels[left - i] = pixels[left];
+          pixels[right + i] = pixels[right];
+        }
+      }
+      int first = pageY*stride + pageX - PAGE_PADDING;
+      int last = first + (height - 1)*stride;
+      for (int i = 1; i <= PAGE_PADDING; i++) {
+        System.arraycopy(pixels, first, pixels, first - i*stride,
+                         width + PAGE_PADDING*2);
+        System.arraycopy(pixels, last, pixels, last + i*stride,
+                         width + PAGE_PADDING*2);
+      }
+    }
+
+
     protected void writeBitmap(DataOutputStream os) throws IOException {
-      int[] pixels  = image.pixels;
+      int[] pixels = page.pixels;
       for (int y = 0; y < height; y++) {
+        int offset = (pageY + y) * page.width + pageX;
         for (int x = 0; x < width; x++) {
-          os.write(pixels[y * width + x] & 0xff);
+          os.write(pixels[offset + x] & 0xff);
         }
       }
     }
@@ -855,15 +943,17 @@ public class PFont implements PConstants {
       // offset from left of where coord was drawn
       leftExtent = minX - size;
 
-      image = new PImage(width, height, ALPHA);
-      int[] pixels = image.pixels;
+      pack(this);
+      int[] pixels = page.pixels;
       for (int y = minY; y <= maxY; y++) {
         for (int x = minX; x <= maxX; x++) {
           int val = 255 - (lazySamples[y * mbox3 + x] & 0xff);
-          int pindex = (y - minY) * width + (x - minX);
+          int pindex = (pageY + y - minY) * page.width + (pageX + x - minX);
           pixels[pindex] = val;
         }
       }
+      pad();
+      page.setModified();
 
       // replace the ascent/descent values with something.. err, decent.
       if (value == 'd') {
@@ -0,0 +1,193 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Writes images to disk on background threads, so that saving a
+ * sequence of frames doesn't hold up draw(). Used by saveFrame() after
+ * beginSaveFrames() has been called.
+ * <P>
+ * save() copies the pixels into an image from a pool, and hands it to
+ * the encoder threads. Only 'capacity' frames can be waiting or in the
+ * middle of being written at once. Past that, BLOCK makes save() wait
+ * for one to finish, and DROP skips the frame and counts it as dropped.
+ */
+public class PFrameSaver {
+  /** save() waits until there's room for the frame */
+  static public final int BLOCK = 0;
+  /** save() skips the frame when there's no room for it */
+  static public final int DROP = 1;
+
+  protected int capacity;
+  protected int policy;
+
+  private ExecutorService encoders;
+  private Semaphore room;
+  private ConcurrentLinkedQueue<PImage> pool =
+    new ConcurrentLinkedQueue<PImage>();
+
+  private AtomicInteger queued = new AtomicInteger();
+  private AtomicInteger encoded = new AtomicInteger();
+  private AtomicInteger dropped = new AtomicInteger();
+  private AtomicInteger failed = new AtomicInteger();
+
+
+  /**
+   * @param threads number of threads writing images
+   * @param capacity most frames waiting or being written at once
+   * @param policy BLOCK or DROP, for when that many are waiting
+   */
+  public PFrameSaver(int threads, int capacity, int policy) {
+    if (policy != BLOCK && policy != DROP) {
+      throw new RuntimeException("Use BLOCK or DROP for the policy");
+    }
+    this.capacity = Math.max(1, capacity);
+    this.policy = policy;
+    room = new Semaphore(this.capacity);
+
+    encoders = Executors.newFixedThreadPool(Math.max(1, threads),
+                                            new ThreadFactory() {
+      int index;
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Frame Saver " + (++index));
+        // the animation thread matters more
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+      }
+    });
+  }
+
+
+  /**
+   * Copy the pixels of an image and write them to a file in the
+   * background. The filename needs to be an absolute path, and its
+   * extension picks the format, just like PImage.save().
+   * @return false if the frame was dropped
+   */
+  public boolean save(PImage image, final String filename) {
+    if (policy == BLOCK) {
+      room.acquireUninterruptibly();
+    } else if (!room.tryAcquire()) {
+      dropped.incrementAndGet();
+      return false;
+    }
+
+    final PImage copy = borrow(image);
+    queued.incrementAndGet();
+    try {
+      encoders.execute(new Runnable() {
+        public void run() {
+          try {
+            copy.save(filename);
+            encoded.incrementAndGet();
+          } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println("Could not save " + filename);
+            e.printStackTrace();
+          }
+          pool.offer(copy);
+          room.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // dispose() has been called
+      queued.decrementAndGet();
+      dropped.incrementAndGet();
+      pool.offer(copy);
+      room.release();
+      return false;
+    }
+    return true;
+  }
+
+
+  /**
+   * Get an image from the pool (or a new one) and copy the pixels into it.
+   */
+  private PImage borrow(PImage image) {
+    image.loadPixels();
+    PImage copy = pool.poll();
+    while (copy != null &&
+           (copy.width != image.width || copy.height != image.height)) {
+      copy = pool.poll();  // left over from a different size, let it go
+    }
+    if (copy == null) {
+      copy = new PImage(image.width, image.height, image.format);
+    }
+    copy.format = image.format;
+    System.arraycopy(image.pixels, 0, copy.pixels, 0, copy.pixels.length);
+    return copy;
+  }
+
+
+  /**
+   * Wait until all frames handed to save() have been written.
+   */
+  public void finish() {
+    room.acquireUninterruptibly(capacity);
+    room.release(capacity);
+  }
+
+
+  /**
+   * Write out the frames that are waiting, and stop the threads.
+   */
+  public void dispose() {
+    encoders.shutdown();
+    finish();
+    pool.clear();
+  }
+
+
+  /** Frames accepted by save() so far. */
+  public int getQueued() {
+    return queued.get();
+  }
+
+
+  /** Frames written successfully so far. */
+  public int getEncoded() {
+    return encoded.get();
+  }
+
+
+  /** Frames skipped because there was no room for them. */
+  public int getDropped() {
+    return dropped.get();
+  }
+
+
+  /** Frames that couldn't be written, because of an error. */
+  public int getFailed() {
+    return failed.get();
+  }
+
+
+  /** Frames waiting or being written right now. */
+  public int getPending() {
+    return queued.get() - encoded.get() - failed.get();
+  }
+}
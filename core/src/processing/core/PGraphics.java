@@ -405,6 +405,12 @@ public class PGraphics extends PImage implements PConstants {
    */
   protected int shape;
 
+  /**
+   * The PShape whose path is being drawn, so that endShape() can keep
+   * its geometry in the shape's cache. See drawCachedPath().
+   */
+  protected PShape cachingShape;
+
   // vertices
   static final int DEFAULT_VERTICES = 512;
   protected float vertices[][] =
@@ -490,6 +496,13 @@ public class PGraphics extends PImage implements PConstants {
   protected int[] textBreakStart;
   protected int[] textBreakStop;
 
+  /** Number of text layouts kept by default, see getTextLayoutCache(). */
+  static final int TEXT_LAYOUT_CACHE_SIZE = 1024;
+
+  /** Line breaks and widths of Strings drawn or measured recently. */
+  protected PTextLayout.Cache textLayouts =
+    new PTextLayout.Cache(TEXT_LAYOUT_CACHE_SIZE);
+
   // ........................................................
 
   public boolean edge = true;
@@ -947,8 +960,12 @@ public class PGraphics extends PImage implements PConstants {
 
   protected void vertexCheck() {
     if (vertexCount == vertices.length) {
-      float temp[][] = new float[vertexCount << 1][VERTEX_FIELD_COUNT];
+      // only the new rows need allocating, the old ones are moved over
+      float temp[][] = new float[vertexCount << 1][];
       System.arraycopy(vertices, 0, temp, 0, vertexCount);
+      for (int i = vertexCount; i < temp.length; i++) {
+        temp[i] = new float[VERTEX_FIELD_COUNT];
+      }
       vertices = temp;
     }
   }
@@ -2743,6 +2760,20 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Draw the path of a PShape from what this renderer kept in the shape's
+   * cache the last time it was drawn. Renderers that can keep a path in a
+   * form that's quicker to draw again override this, and store that form
+   * with shape.setCache(this, ...) from endShape() while cachingShape is
+   * set. Whatever is kept has to be redrawn with the current styles and
+   * transformation, rather than the ones in use when it was stored.
+   * @return false if the shape needs to be drawn the usual way
+   */
+  protected boolean drawCachedPath(PShape shape) {
+    return false;
+  }
+
+
   public void shape(PShape shape) {
     if (shape.isVisible()) {  // don't do expensive matrix ops if invisible
       if (shapeMode == CENTER) {
@@ -3027,28 +3058,7 @@ public class PGraphics extends PImage implements PConstants {
     if (textFont == null) {
       defaultFontOrDeath("textWidth");
     }
-
-    int length = str.length();
-    if (length > textWidthBuffer.length) {
-      textWidthBuffer = new char[length + 10];
-    }
-    str.getChars(0, length, textWidthBuffer, 0);
-
-    float wide = 0;
-    int index = 0;
-    int start = 0;
-
-    while (index < length) {
-      if (textWidthBuffer[index] == '\n') {
-        wide = Math.max(wide, textWidthImpl(textWidthBuffer, start, index));
-        start = index+1;
-      }
-      index++;
-    }
-    if (start < length) {
-      wide = Math.max(wide, textWidthImpl(textWidthBuffer, start, index));
-    }
-    return wide;
+    return textLayout(str, PTextLayout.NO_BOX).width;
   }
 
 
@@ -3076,6 +3086,75 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Returns the cache of text layouts, to check how often text was found
+   * there (getHits() and getMisses()), or to change how many layouts
+   * are kept with setCapacity().
+   */
+  public PTextLayout.Cache getTextLayoutCache() {
+    return textLayouts;
+  }
+
+
+  /**
+   * Get the lines of a String, and their widths, with the current font
+   * and size. Taken from the cache when the same text was laid out the
+   * same way recently, otherwise measured and added to the cache.
+   * @param boxWidth width of the box that the text is wrapped to, or
+   *                 PTextLayout.NO_BOX to only break lines at newlines
+   */
+  protected PTextLayout textLayout(String str, float boxWidth) {
+    PTextLayout layout = textLayouts.get(str, textFont, textSize, boxWidth);
+    if (layout == null) {
+      layout = new PTextLayout(str, textFont, textSize, boxWidth);
+      char[] chars = layout.chars;
+      int length = str.length();
+
+      if (textBreakStart == null) {
+        textBreakStart = new int[20];
+        textBreakStop = new int[20];
+      }
+      textBreakCount = 0;
+
+      if (boxWidth == PTextLayout.NO_BOX) {
+        int start = 0;
+        for (int index = 0; index < length; index++) {
+          if (chars[index] == '\n') {
+            textSentenceBreak(start, index);
+            layout.newlineCount++;
+            start = index + 1;
+          }
+        }
+        if (start < length) {
+          textSentenceBreak(start, length);
+        }
+
+      } else {
+        float spaceWidth = textWidth(' ');
+        // the extra newline at the end of the chars simplifies this
+        int sentenceStart = 0;
+        for (int i = 0; i <= length; i++) {
+          if (chars[i] == '\n') {
+            boolean legit =
+              textSentence(chars, sentenceStart, i, boxWidth, spaceWidth);
+            if (!legit) break;
+            sentenceStart = i + 1;
+          }
+        }
+      }
+
+      layout.setLines(textBreakStart, textBreakStop, textBreakCount);
+      for (int i = 0; i < layout.lineCount; i++) {
+        float wide = textWidthImpl(chars, layout.lineStart[i], layout.lineStop[i]);
+        layout.lineWidth[i] = wide;
+        layout.width = Math.max(layout.width, wide);
+      }
+      textLayouts.put(layout);
+    }
+    return layout;
+  }
+
+
   // ........................................................
 
 
@@ -3155,12 +3234,14 @@ public class PGraphics extends PImage implements PConstants {
 
     if (textMode == SCREEN) loadPixels();
 
-    int length = str.length();
-    if (length > textBuffer.length) {
-      textBuffer = new char[length + 10];
+    PTextLayout layout = textLayout(str, PTextLayout.NO_BOX);
+    y = textBlockY(y, layout.newlineCount);
+    for (int i = 0; i < layout.lineCount; i++) {
+      textLineAlignImpl(layout.chars, layout.lineStart[i], layout.lineStop[i],
+                        x, y, layout.lineWidth[i]);
+      y += textLeading;
     }
-    str.getChars(0, length, textBuffer, 0);
-    text(textBuffer, 0, length, x, y);
+    if (textMode == SCREEN) updatePixels();
   }
 
 
@@ -3170,13 +3251,41 @@ public class PGraphics extends PImage implements PConstants {
    * not be converted to a char array before drawing.
    */
   public void text(char[] chars, int start, int stop, float x, float y) {
-    // If multiple lines, sum the height of the additional lines
-    float high = 0; //-textAscent();
+    int newlines = 0;
     for (int i = start; i < stop; i++) {
       if (chars[i] == '\n') {
-        high += textLeading;
+        newlines++;
       }
     }
+    y = textBlockY(y, newlines);
+
+//    int start = 0;
+    int index = 0;
+    while (index < stop) { //length) {
+      if (chars[index] == '\n') {
+        textLineAlignImpl(chars, start, index, x, y);
+        start = index + 1;
+        y += textLeading;
+      }
+      index++;
+    }
+    if (start < stop) {  //length) {
+      textLineAlignImpl(chars, start, index, x, y);
+    }
+    if (textMode == SCREEN) updatePixels();
+  }
+
+
+  /**
+   * Move the baseline of the first line of a block of text, for the
+   * vertical alignment and the number of lines after it.
+   */
+  protected float textBlockY(float y, int newlines) {
+    // If multiple lines, sum the height of the additional lines
+    float high = 0; //-textAscent();
+    for (int i = 0; i < newlines; i++) {
+      high += textLeading;
+    }
     if (textAlignY == CENTER) {
       // for a single line, this adds half the textAscent to y
       // for multiple lines, subtract half the additional height
@@ -3193,21 +3302,7 @@ public class PGraphics extends PImage implements PConstants {
     //} else if (textAlignY == BASELINE) {
       // do nothing
     }
-
-//    int start = 0;
-    int index = 0;
-    while (index < stop) { //length) {
-      if (chars[index] == '\n') {
-        textLineAlignImpl(chars, start, index, x, y);
-        start = index + 1;
-        y += textLeading;
-      }
-      index++;
-    }
-    if (start < stop) {  //length) {
-      textLineAlignImpl(chars, start, index, x, y);
-    }
-    if (textMode == SCREEN) updatePixels();
+    return y;
   }
 
 
@@ -3291,35 +3386,9 @@ public class PGraphics extends PImage implements PConstants {
 //    // if the box is already too small, tell em to f off
 //    if (currentY > y2) return;
 
-    float spaceWidth = textWidth(' ');
-
-    if (textBreakStart == null) {
-      textBreakStart = new int[20];
-      textBreakStop = new int[20];
-    }
-    textBreakCount = 0;
-
-    int length = str.length();
-    if (length + 1 > textBuffer.length) {
-      textBuffer = new char[length + 1];
-    }
-    str.getChars(0, length, textBuffer, 0);
-    // add a fake newline to simplify calculations
-    textBuffer[length++] = '\n';
-
-    int sentenceStart = 0;
-    for (int i = 0; i < length; i++) {
-      if (textBuffer[i] == '\n') {
-//        currentY = textSentence(textBuffer, sentenceStart, i,
-//                                lineX, boxWidth, currentY, y2, spaceWidth);
-        boolean legit =
-          textSentence(textBuffer, sentenceStart, i, boxWidth, spaceWidth);
-        if (!legit) break;
-//      if (Float.isNaN(currentY)) break;  // word too big (or error)
-//      if (currentY > y2) break;  // past the box
-        sentenceStart = i + 1;
-      }
-    }
+    // the line breaks, worked out by textSentence()
+    PTextLayout layout = textLayout(str, boxWidth);
+    char[] chars = layout.chars;
 
     // lineX is the position where the text starts, which is adjusted
     // to left/center/right based on the current textAlign
@@ -3337,29 +3406,23 @@ public class PGraphics extends PImage implements PConstants {
     // outside the box. [0151]
     float topAndBottom = textAscent() + textDescent();
     int lineFitCount = 1 + PApplet.floor((boxHeight - topAndBottom) / textLeading);
-    int lineCount = Math.min(textBreakCount, lineFitCount);
+    int lineCount = Math.min(layout.lineCount, lineFitCount);
 
+    float y;
     if (textAlignY == CENTER) {
       float lineHigh = textAscent() + textLeading * (lineCount - 1);
-      float y = y1 + textAscent() + (boxHeight - lineHigh) / 2;
-      for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
-        y += textLeading;
-      }
+      y = y1 + textAscent() + (boxHeight - lineHigh) / 2;
 
     } else if (textAlignY == BOTTOM) {
-      float y = y2 - textDescent() - textLeading * (lineCount - 1);
-      for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
-        y += textLeading;
-      }
+      y = y2 - textDescent() - textLeading * (lineCount - 1);
 
     } else {  // TOP or BASELINE just go to the default
-      float y = y1 + textAscent();
-      for (int i = 0; i < lineCount; i++) {
-        textLineAlignImpl(textBuffer, textBreakStart[i], textBreakStop[i], lineX, y);
-        y += textLeading;
-      }
+      y = y1 + textAscent();
+    }
+    for (int i = 0; i < lineCount; i++) {
+      textLineAlignImpl(chars, layout.lineStart[i], layout.lineStop[i],
+                        lineX, y, layout.lineWidth[i]);
+      y += textLeading;
     }
 
     if (textMode == SCREEN) updatePixels();
@@ -3510,6 +3573,22 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * Same as above, for a line whose width is already known.
+   */
+  protected void textLineAlignImpl(char buffer[], int start, int stop,
+                                   float x, float y, float width) {
+    if (textAlign == CENTER) {
+      x -= width / 2f;
+
+    } else if (textAlign == RIGHT) {
+      x -= width;
+    }
+
+    textLineImpl(buffer, start, stop, x, y);
+  }
+
+
   /**
    * Implementation of actual drawing for a line of text.
    */
@@ -3541,9 +3620,11 @@ public class PGraphics extends PImage implements PConstants {
         float x2 = x1 + bwidth * textSize;
         float y2 = y1 + high * textSize;
 
-        textCharModelImpl(glyph.image,
+        textCharModelImpl(glyph.page,
                           x1, y1, x2, y2,
-                          glyph.width, glyph.height);
+                          glyph.pageX, glyph.pageY,
+                          glyph.pageX + glyph.width,
+                          glyph.pageY + glyph.height);
 
       } else if (textMode == SCREEN) {
         int xx = (int) x + glyph.leftExtent;
@@ -3552,7 +3633,8 @@ public class PGraphics extends PImage implements PConstants {
         int w0 = glyph.width;
         int h0 = glyph.height;
 
-        textCharScreenImpl(glyph.image, xx, yy, w0, h0);
+        textCharScreenImpl(glyph.page, glyph.pageX, glyph.pageY,
+                           xx, yy, w0, h0);
       }
     }
   }
@@ -3562,6 +3644,18 @@ public class PGraphics extends PImage implements PConstants {
                                    float x1, float y1, //float z1,
                                    float x2, float y2, //float z2,
                                    int u2, int v2) {
+    textCharModelImpl(glyph, x1, y1, x2, y2, 0, 0, u2, v2);
+  }
+
+
+  /**
+   * Draw the part (u1, v1) to (u2, v2) of a page of glyphs, tinted with
+   * the fill color.
+   */
+  protected void textCharModelImpl(PImage page,
+                                   float x1, float y1,
+                                   float x2, float y2,
+                                   int u1, int v1, int u2, int v2) {
     boolean savedTint = tint;
     int savedTintColor = tintColor;
     float savedTintR = tintR;
@@ -3578,7 +3672,7 @@ public class PGraphics extends PImage implements PConstants {
     tintA = fillA;
     tintAlpha = fillAlpha;
 
-    imageImpl(glyph, x1, y1, x2, y2, 0, 0, u2, v2);
+    imageImpl(page, x1, y1, x2, y2, u1, v1, u2, v2);
 
     tint = savedTint;
     tintColor = savedTintColor;
@@ -3593,6 +3687,17 @@ public class PGraphics extends PImage implements PConstants {
   protected void textCharScreenImpl(PImage glyph,
                                     int xx, int yy,
                                     int w0, int h0) {
+    textCharScreenImpl(glyph, 0, 0, xx, yy, w0, h0);
+  }
+
+
+  /**
+   * Blend the w0 x h0 glyph at (u, v) on a page of glyphs
+   * into the pixels at (xx, yy), using the fill color.
+   */
+  protected void textCharScreenImpl(PImage page, int u, int v,
+                                    int xx, int yy,
+                                    int w0, int h0) {
     int x0 = 0;
     int y0 = 0;
 
@@ -3621,13 +3726,14 @@ public class PGraphics extends PImage implements PConstants {
     int fb = fillBi;
     int fa = fillAi;
 
-    int pixels1[] = glyph.pixels; //images[glyph].pixels;
+    int pixels1[] = page.pixels; //images[glyph].pixels;
+    int offset1 = v * page.width + u;
 
     // TODO this can be optimized a bit
     for (int row = y0; row < y0 + h0; row++) {
       for (int col = x0; col < x0 + w0; col++) {
         //int a1 = (fa * pixels1[row * textFont.twidth + col]) >> 8;
-        int a1 = (fa * pixels1[row * glyph.width + col]) >> 8;
+        int a1 = (fa * pixels1[offset1 + row * page.width + col]) >> 8;
         int a2 = a1 ^ 0xff;
         //int p1 = pixels1[row * glyph.width + col];
         int p2 = pixels[(yy + row-y0)*width + (xx+col-x0)];
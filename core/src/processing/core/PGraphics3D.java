@@ -167,6 +167,34 @@ public class PGraphics3D extends PGraphics {
   /// Used in lightTriangle(). Allocated here once to avoid re-allocating
   protected PVector lightTriangleNorm = new PVector();
 
+  /** vertex transforms aren't split into pieces smaller than this */
+  static final int MIN_PARALLEL_VERTICES = 2048;
+  /** lighting isn't split into pieces with fewer triangles than this */
+  static final int MIN_PARALLEL_LIGHTING = 256;
+
+  /** normals set by lightTriangle(), three floats for each triangle */
+  private float[] lightNormals = new float[0];
+  /** vertices waiting to be lit by lightUnlitVertices() */
+  private int[] unlitVertices = new int[0];
+
+  // ........................................................
+
+  /**
+   * Set to true to add up the time spent in each stage of endShape()
+   * and flush() into the fields below, in nanoseconds. They keep adding
+   * up until they're set back to zero, e.g. at the start of draw().
+   */
+  public boolean stageTiming;
+  /** model to camera, and camera to screen coordinates */
+  public long transformNanos;
+  /** turning shapes into triangles, lines and points, and clipping */
+  public long tessellateNanos;
+  public long lightingNanos;
+  /** depth sorting, with hint(ENABLE_DEPTH_SORT) */
+  public long sortNanos;
+  /** drawing triangles, lines and points into the pixels */
+  public long renderNanos;
+
   // ........................................................
 
   /**
@@ -228,6 +256,15 @@ public class PGraphics3D extends PGraphics {
   // warning - maximum number of vertices for a polygon is DEFAULT_VERTICES
   protected int vertexOrder[] = new int[DEFAULT_VERTICES];
 
+  // triangles made by addPolygonTriangles(), as offsets from shapeFirst,
+  // kept while drawing a PShape for its cache (null the rest of the time)
+  private int[] polygonTriangles;
+  private int polygonTriangleCount;
+
+  // the cached shape being drawn again, if any, its triangles used by
+  // endShapeFill() in place of addPolygonTriangles()
+  private PathCache replayPath;
+
   // ........................................................
 
   // This is done to keep track of start/stop information for lines in the
@@ -268,12 +305,53 @@ public class PGraphics3D extends PGraphics {
   // triangles
   static final int DEFAULT_TRIANGLES = 256;
   public PTriangle triangle;
+  /**
+   * TRIANGLE_FIELD_COUNT ints for each triangle, one after another.
+   * Use triangleField() to read them.
+   */
+  protected int[] triangleData =
+    new int[DEFAULT_TRIANGLES * TRIANGLE_FIELD_COUNT];
+  /**
+   * TRI_COLOR_COUNT floats for each corner of each triangle, packed the
+   * same way. triangleColorOffset() says where a corner starts.
+   */
+  protected float[] triangleColorData =
+    new float[DEFAULT_TRIANGLES * 3 * TRI_COLOR_COUNT];
+  /**
+   * A copy of the same triangles and colors, in the layout used before
+   * they were packed. Filled in just before rendering by
+   * copyTriangleArrays(), so that subclasses can still read them.
+   * PGraphics3D never reads them back, changes made here are ignored.
+   * @deprecated use triangleField() and triangleColorOffset() instead
+   */
+  @Deprecated
   protected int[][] triangles =
     new int[DEFAULT_TRIANGLES][TRIANGLE_FIELD_COUNT];
+  /** @deprecated use triangleField() and triangleColorOffset() instead */
+  @Deprecated
   protected float triangleColors[][][] =
     new float[DEFAULT_TRIANGLES][3][TRI_COLOR_COUNT];
   protected int triangleCount;   // total number of triangles
 
+  // depth sorting, for hint(ENABLE_DEPTH_SORT)
+  private PDepthSort depthSort;
+  /** average depth of each item, filled in and put in order by sort() */
+  protected float[] triangleDepths = new float[0];
+  protected float[] lineDepths = new float[0];
+  protected float[] pointDepths = new float[0];
+  // spare arrays for sort() to reorder into
+  private int[] sortedTriangles;
+  private float[] sortedTriangleColors;
+  private float[] sortedDepths = new float[0];
+
+  // bands of rows for hint(ENABLE_PARALLEL_RENDERING)
+  static final int MIN_BAND_HEIGHT = 16;
+  /** don't bother with other threads for fewer triangles than this */
+  static final int MIN_PARALLEL_TRIANGLES = 64;
+  protected PTriangle[] bandTriangles;
+  protected int[][] bandIndices;
+  protected int[] bandCounts;
+
   // cheap picking someday
   //public int shape_index;
 
@@ -622,9 +700,22 @@ public class PGraphics3D extends PGraphics {
       return;
     }
 
+    // keep the polygon's outline and triangles if a PShape wants them
+    PathCache caching = null;
+    if (cachingShape != null && shape == POLYGON) {
+      caching = new PathCache(this, mode);
+      if (fill) {
+        polygonTriangles = new int[(shapeLast - shapeFirst) * 3];
+        polygonTriangleCount = 0;
+      }
+    }
+
+    long t0 = stageTiming ? System.nanoTime() : 0;
+
     // convert points from model (X/Y/Z) to camera space (VX/VY/VZ).
     // Do this now because we will be clipping them on add_triangle.
     endShapeModelToCamera(shapeFirst, shapeLast);
+    long t1 = stageTiming ? System.nanoTime() : 0;
 
     if (stroke) {
       endShapeStroke(mode);
@@ -633,19 +724,30 @@ public class PGraphics3D extends PGraphics {
     if (fill || textureImage != null) {
       endShapeFill();
     }
+    if (caching != null) {
+      caching.triangles = polygonTriangles;
+      caching.triangleCount = polygonTriangleCount;
+      polygonTriangles = null;
+      cachingShape.setCache(this, caching);
+      cachingShape = null;
+    }
+    long t2 = stageTiming ? System.nanoTime() : 0;
 
     // transform, light, and clip
     endShapeLighting(lightCount > 0 && fill);
+    long t3 = stageTiming ? System.nanoTime() : 0;
 
     // convert points from camera space (VX, VY, VZ) to screen space (X, Y, Z)
     // (this appears to be wasted time with the OpenGL renderer)
     endShapeCameraToScreen(shapeFirst, shapeLastPlusClipped);
+    long t4 = stageTiming ? System.nanoTime() : 0;
 
     // render shape and fill here if not saving the shapes for later
     // if true, the shapes will be rendered on endDraw
     if (!hints[ENABLE_DEPTH_SORT]) {
       if (fill || textureImage != null) {
         if (triangleCount > 0) {
+          copyTriangleArrays(0, triangleCount);
           renderTriangles(0, triangleCount);
           if (raw != null) {
             rawTriangles(0, triangleCount);
@@ -673,11 +775,32 @@ public class PGraphics3D extends PGraphics {
       pathCount = 0;
     }
 
+    if (stageTiming) {
+      long t5 = System.nanoTime();
+      transformNanos += (t1 - t0) + (t4 - t3);
+      tessellateNanos += t2 - t1;
+      lightingNanos += t3 - t2;
+      renderNanos += t5 - t4;
+    }
     shape = 0;
   }
 
 
-  protected void endShapeModelToCamera(int start, int stop) {
+  protected void endShapeModelToCamera(final int start, int stop) {
+    if (PWorkerPool.isWorthwhile(stop - start, MIN_PARALLEL_VERTICES)) {
+      PWorkerPool.run(stop - start, MIN_PARALLEL_VERTICES,
+                      new PWorkerPool.Task() {
+        public void run(int first, int last) {
+          modelToCamera(start + first, start + last);
+        }
+      });
+    } else {
+      modelToCamera(start, stop);
+    }
+  }
+
+
+  private void modelToCamera(int start, int stop) {
     for (int i = start; i < stop; i++) {
       float vertex[] = vertices[i];
 
@@ -907,13 +1030,29 @@ public class PGraphics3D extends PGraphics {
 
     case POLYGON:
     {
-      addPolygonTriangles();
+      if (replayPath != null) {
+        int[] triangles = replayPath.triangles;
+        int stop = replayPath.triangleCount * 3;
+        for (int i = 0; i < stop; i += 3) {
+          addTriangle(shapeFirst + triangles[i],
+                      shapeFirst + triangles[i+1],
+                      shapeFirst + triangles[i+2]);
+        }
+      } else {
+        addPolygonTriangles();
+      }
     }
     break;
     }
   }
 
 
+  /**
+   * Light the triangles, or copy the vertex colors into them when there
+   * are no lights. Triangles are handled in parallel once there are enough
+   * of them. Nothing that one triangle does can change what another gets,
+   * so the colors come out the same either way.
+   */
   protected void endShapeLighting(boolean lights) {
     if (lights) {
       // If the lighting does not depend on vertex position and there is a single
@@ -921,28 +1060,90 @@ public class PGraphics3D extends PGraphics {
       // contribution to every vertex in this shape (one lighting calc!)
       if (!lightingDependsOnVertexPosition && normalMode == NORMAL_MODE_SHAPE) {
         calcLightingContribution(shapeFirst, tempLightingContribution);
-        for (int tri = 0; tri < triangleCount; tri++) {
-          lightTriangle(tri, tempLightingContribution);
+        final float[] contribution = tempLightingContribution;
+        if (PWorkerPool.isWorthwhile(triangleCount, MIN_PARALLEL_LIGHTING)) {
+          PWorkerPool.run(triangleCount, MIN_PARALLEL_LIGHTING,
+                          new PWorkerPool.Task() {
+            public void run(int start, int stop) {
+              for (int tri = start; tri < stop; tri++) {
+                lightTriangle(tri, contribution);
+              }
+            }
+          });
+        } else {
+          for (int tri = 0; tri < triangleCount; tri++) {
+            lightTriangle(tri, contribution);
+          }
         }
       } else {  // Otherwise light each triangle individually...
-        for (int tri = 0; tri < triangleCount; tri++) {
-          lightTriangle(tri);
+        if (lightNormals.length < triangleCount * 3) {
+          lightNormals = new float[triangleData.length / TRIANGLE_FIELD_COUNT * 3];
+        }
+        if (PWorkerPool.isWorthwhile(triangleCount, MIN_PARALLEL_LIGHTING)) {
+          if (normalMode == NORMAL_MODE_VERTEX) {
+            lightUnlitVertices();
+          }
+          PWorkerPool.run(triangleCount, MIN_PARALLEL_LIGHTING,
+                          new PWorkerPool.Task() {
+            public void run(int start, int stop) {
+              float[] contribution = new float[LIGHT_COLOR_COUNT];
+              float[] normal = new float[4];
+              PVector norm = new PVector();
+              for (int tri = start; tri < stop; tri++) {
+                lightTriangle(tri, contribution, normal, norm);
+              }
+            }
+          });
+        } else {
+          for (int tri = 0; tri < triangleCount; tri++) {
+            lightTriangle(tri, tempLightingContribution,
+                          worldNormal, lightTriangleNorm);
+          }
         }
+        storeLightNormals();
       }
     } else {
-      for (int tri = 0; tri < triangleCount; tri++) {
-        int index = triangles[tri][VERTEX1];
-        copyPrelitVertexColor(tri, index, 0);
-        index = triangles[tri][VERTEX2];
-        copyPrelitVertexColor(tri, index, 1);
-        index = triangles[tri][VERTEX3];
-        copyPrelitVertexColor(tri, index, 2);
+      if (PWorkerPool.isWorthwhile(triangleCount, MIN_PARALLEL_LIGHTING)) {
+        PWorkerPool.run(triangleCount, MIN_PARALLEL_LIGHTING,
+                        new PWorkerPool.Task() {
+          public void run(int start, int stop) {
+            copyPrelitVertexColors(start, stop);
+          }
+        });
+      } else {
+        copyPrelitVertexColors(0, triangleCount);
       }
     }
   }
 
 
-  protected void endShapeCameraToScreen(int start, int stop) {
+  private void copyPrelitVertexColors(int start, int stop) {
+    for (int tri = start; tri < stop; tri++) {
+      int index = triangleField(tri, VERTEX1);
+      copyPrelitVertexColor(tri, index, 0);
+      index = triangleField(tri, VERTEX2);
+      copyPrelitVertexColor(tri, index, 1);
+      index = triangleField(tri, VERTEX3);
+      copyPrelitVertexColor(tri, index, 2);
+    }
+  }
+
+
+  protected void endShapeCameraToScreen(final int start, int stop) {
+    if (PWorkerPool.isWorthwhile(stop - start, MIN_PARALLEL_VERTICES)) {
+      PWorkerPool.run(stop - start, MIN_PARALLEL_VERTICES,
+                      new PWorkerPool.Task() {
+        public void run(int first, int last) {
+          cameraToScreen(start + first, start + last);
+        }
+      });
+    } else {
+      cameraToScreen(start, stop);
+    }
+  }
+
+
+  private void cameraToScreen(int start, int stop) {
     for (int i = start; i < stop; i++) {
       float vx[] = vertices[i];
 
@@ -978,8 +1179,8 @@ public class PGraphics3D extends PGraphics {
 
   protected void addPoint(int a) {
     if (pointCount == points.length) {
-      int[][] temp = new int[pointCount << 1][LINE_FIELD_COUNT];
-      System.arraycopy(points, 0, temp, 0, lineCount);
+      int[][] temp = new int[pointCount << 1][POINT_FIELD_COUNT];
+      System.arraycopy(points, 0, temp, 0, pointCount);
       points = temp;
     }
     points[pointCount][VERTEX1] = a;
@@ -1542,30 +1743,79 @@ public class PGraphics3D extends PGraphics {
 
 
   protected final void addTriangleWithoutClip(int a, int b, int c) {
-    if (triangleCount == triangles.length) {
-      int temp[][] = new int[triangleCount<<1][TRIANGLE_FIELD_COUNT];
-      System.arraycopy(triangles, 0, temp, 0, triangleCount);
-      triangles = temp;
+    int index = triangleCount * TRIANGLE_FIELD_COUNT;
+    if (index == triangleData.length) {
+      int temp[] = new int[index << 1];
+      System.arraycopy(triangleData, 0, temp, 0, index);
+      triangleData = temp;
       //message(CHATTER, "allocating more triangles " + triangles.length);
-      float ftemp[][][] = new float[triangleCount<<1][3][TRI_COLOR_COUNT];
-      System.arraycopy(triangleColors, 0, ftemp, 0, triangleCount);
-      triangleColors = ftemp;
+      float ftemp[] = new float[triangleColorData.length << 1];
+      System.arraycopy(triangleColorData, 0, ftemp, 0, triangleColorData.length);
+      triangleColorData = ftemp;
     }
-    triangles[triangleCount][VERTEX1] = a;
-    triangles[triangleCount][VERTEX2] = b;
-    triangles[triangleCount][VERTEX3] = c;
+    triangleData[index + VERTEX1] = a;
+    triangleData[index + VERTEX2] = b;
+    triangleData[index + VERTEX3] = c;
 
     if (textureImage == null) {
-      triangles[triangleCount][TEXTURE_INDEX] = -1;
+      triangleData[index + TEXTURE_INDEX] = -1;
     } else {
-      triangles[triangleCount][TEXTURE_INDEX] = textureIndex;
+      triangleData[index + TEXTURE_INDEX] = textureIndex;
     }
 
-//    triangles[triangleCount][INDEX] = shape_index;
+//    triangles[index + INDEX] = shape_index;
     triangleCount++;
   }
 
 
+  /**
+   * Copy triangles [start, stop) into the old triangles[][] and
+   * triangleColors[][][] arrays, so that renderers which subclass this
+   * one and read them directly still work. The copy only goes one way:
+   * a subclass that needs to change triangles has to write triangleData[]
+   * and triangleColorData[]. Skipped for PGraphics3D itself, which only
+   * uses the packed arrays.
+   */
+  protected void copyTriangleArrays(int start, int stop) {
+    if (getClass() == PGraphics3D.class) return;
+
+    if (triangles.length < stop) {
+      int length = Math.max(stop, triangles.length << 1);
+      int temp[][] = new int[length][TRIANGLE_FIELD_COUNT];
+      System.arraycopy(triangles, 0, temp, 0, triangles.length);
+      triangles = temp;
+      float ftemp[][][] = new float[length][3][TRI_COLOR_COUNT];
+      System.arraycopy(triangleColors, 0, ftemp, 0, triangleColors.length);
+      triangleColors = ftemp;
+    }
+    for (int tri = start; tri < stop; tri++) {
+      System.arraycopy(triangleData, tri * TRIANGLE_FIELD_COUNT,
+                       triangles[tri], 0, TRIANGLE_FIELD_COUNT);
+      for (int corner = 0; corner < 3; corner++) {
+        System.arraycopy(triangleColorData, triangleColorOffset(tri, corner),
+                         triangleColors[tri][corner], 0, TRI_COLOR_COUNT);
+      }
+    }
+  }
+
+
+  /**
+   * Returns VERTEX1, VERTEX2, VERTEX3 or TEXTURE_INDEX for a triangle.
+   */
+  protected final int triangleField(int tri, int field) {
+    return triangleData[tri * TRIANGLE_FIELD_COUNT + field];
+  }
+
+
+  /**
+   * Where the TRI_COLOR_COUNT colors for a corner (0, 1 or 2) of a
+   * triangle start inside triangleColorData[].
+   */
+  protected final int triangleColorOffset(int tri, int corner) {
+    return (tri * 3 + corner) * TRI_COLOR_COUNT;
+  }
+
+
   /**
    * Triangulate the current polygon.
    * <BR> <BR>
@@ -1742,6 +1992,12 @@ public class PGraphics3D extends PGraphics {
 
       if (snip) {
         addTriangle(vertexOrder[u], vertexOrder[v], vertexOrder[w]);
+        if (polygonTriangles != null) {
+          int t = polygonTriangleCount++ * 3;
+          polygonTriangles[t] = vertexOrder[u] - shapeFirst;
+          polygonTriangles[t+1] = vertexOrder[v] - shapeFirst;
+          polygonTriangles[t+2] = vertexOrder[w] - shapeFirst;
+        }
 
         m++;
 
@@ -1792,13 +2048,23 @@ public class PGraphics3D extends PGraphics {
 
   private void calcLightingContribution(int vIndex,
                                         float[] contribution) {
-    calcLightingContribution(vIndex, contribution, false);
+    float[] v = vertices[vIndex];
+    calcLightingContribution(vIndex, v[NX], v[NY], v[NZ], false,
+                             contribution, worldNormal);
   }
 
 
+  /**
+   * Works out the light reaching a vertex, with the normal (nx, ny, nz)
+   * used in place of the one stored in the vertex. Only reads the vertex,
+   * and uses 'worldNormal' as scratch space, so separate threads can call
+   * this at the same time as long as they pass their own arrays.
+   */
   private void calcLightingContribution(int vIndex,
+                                        float nx, float ny, float nz,
+                                        boolean normalIsWorld,
                                         float[] contribution,
-                                        boolean normalIsWorld) {
+                                        float[] worldNormal) {
     float[] v = vertices[vIndex];
 
     float sr = v[SPR];
@@ -1810,10 +2076,6 @@ public class PGraphics3D extends PGraphics {
     float wz = v[VZ];
     float shine = v[SHINE];
 
-    float nx = v[NX];
-    float ny = v[NY];
-    float nz = v[NZ];
-
     if (!normalIsWorld) {
 //      System.out.println("um, hello?");
 //      calcLightingNorm.set(nx, ny, nz);
@@ -1828,7 +2090,7 @@ public class PGraphics3D extends PGraphics {
 //      ny = calcLightingWorldNorm.y;
 //      nz = calcLightingWorldNorm.z;
 
-      toWorldNormal(v[NX], v[NY], v[NZ], worldNormal);
+      toWorldNormal(nx, ny, nz, worldNormal);
       nx = worldNormal[X];
       ny = worldNormal[Y];
       nz = worldNormal[Z];
@@ -1854,10 +2116,6 @@ public class PGraphics3D extends PGraphics {
 //        nz = wnz;
 //      }
 //      */
-    } else {
-      nx = v[NX];
-      ny = v[NY];
-      nz = v[NZ];
     }
 
     // Since the camera space == world space,
@@ -2048,50 +2306,61 @@ public class PGraphics3D extends PGraphics {
 
 
   private void copyPrelitVertexColor(int triIndex, int index, int colorIndex) {
-    float[] triColor = triangleColors[triIndex][colorIndex];
+    float[] triColor = triangleColorData;
+    int offset = triangleColorOffset(triIndex, colorIndex);
     float[] v = vertices[index];
 
-    triColor[TRI_DIFFUSE_R] = v[R];
-    triColor[TRI_DIFFUSE_G] = v[G];
-    triColor[TRI_DIFFUSE_B] = v[B];
-    triColor[TRI_DIFFUSE_A] = v[A];
-    triColor[TRI_SPECULAR_R] = v[SPR];
-    triColor[TRI_SPECULAR_G] = v[SPG];
-    triColor[TRI_SPECULAR_B] = v[SPB];
-    //triColor[TRI_SPECULAR_A] = v[SPA];
+    triColor[offset + TRI_DIFFUSE_R] = v[R];
+    triColor[offset + TRI_DIFFUSE_G] = v[G];
+    triColor[offset + TRI_DIFFUSE_B] = v[B];
+    triColor[offset + TRI_DIFFUSE_A] = v[A];
+    triColor[offset + TRI_SPECULAR_R] = v[SPR];
+    triColor[offset + TRI_SPECULAR_G] = v[SPG];
+    triColor[offset + TRI_SPECULAR_B] = v[SPB];
+    //triColor[offset + TRI_SPECULAR_A] = v[SPA];
   }
 
 
   private void copyVertexColor(int triIndex, int index, int colorIndex,
                                float[] contrib) {
-    float[] triColor = triangleColors[triIndex][colorIndex];
+    float[] triColor = triangleColorData;
+    int offset = triangleColorOffset(triIndex, colorIndex);
     float[] v = vertices[index];
 
-    triColor[TRI_DIFFUSE_R] =
+    triColor[offset + TRI_DIFFUSE_R] =
       clamp(v[ER] + v[AR] * contrib[LIGHT_AMBIENT_R] + v[DR] * contrib[LIGHT_DIFFUSE_R]);
-    triColor[TRI_DIFFUSE_G] =
+    triColor[offset + TRI_DIFFUSE_G] =
       clamp(v[EG] + v[AG] * contrib[LIGHT_AMBIENT_G] + v[DG] * contrib[LIGHT_DIFFUSE_G]);
-    triColor[TRI_DIFFUSE_B] =
+    triColor[offset + TRI_DIFFUSE_B] =
       clamp(v[EB] + v[AB] * contrib[LIGHT_AMBIENT_B] + v[DB] * contrib[LIGHT_DIFFUSE_B]);
-    triColor[TRI_DIFFUSE_A] = clamp(v[DA]);
+    triColor[offset + TRI_DIFFUSE_A] = clamp(v[DA]);
 
-    triColor[TRI_SPECULAR_R] = clamp(v[SPR] * contrib[LIGHT_SPECULAR_R]);
-    triColor[TRI_SPECULAR_G] = clamp(v[SPG] * contrib[LIGHT_SPECULAR_G]);
-    triColor[TRI_SPECULAR_B] = clamp(v[SPB] * contrib[LIGHT_SPECULAR_B]);
+    triColor[offset + TRI_SPECULAR_R] = clamp(v[SPR] * contrib[LIGHT_SPECULAR_R]);
+    triColor[offset + TRI_SPECULAR_G] = clamp(v[SPG] * contrib[LIGHT_SPECULAR_G]);
+    triColor[offset + TRI_SPECULAR_B] = clamp(v[SPB] * contrib[LIGHT_SPECULAR_B]);
   }
 
 
   private void lightTriangle(int triIndex, float[] lightContribution) {
-    int vIndex = triangles[triIndex][VERTEX1];
+    int vIndex = triangleField(triIndex, VERTEX1);
     copyVertexColor(triIndex, vIndex, 0, lightContribution);
-    vIndex = triangles[triIndex][VERTEX2];
+    vIndex = triangleField(triIndex, VERTEX2);
     copyVertexColor(triIndex, vIndex, 1, lightContribution);
-    vIndex = triangles[triIndex][VERTEX3];
+    vIndex = triangleField(triIndex, VERTEX3);
     copyVertexColor(triIndex, vIndex, 2, lightContribution);
   }
 
 
-  private void lightTriangle(int triIndex) {
+  /**
+   * Light a triangle, using the arrays passed in as scratch space so that
+   * triangles can be lit on separate threads. Normals worked out along
+   * the way go into lightNormals, and are only written into the vertices
+   * afterwards by storeLightNormals(), since neighboring triangles share
+   * vertices. In NORMAL_MODE_VERTEX, lightUnlitVertices() has to be called
+   * first when running on more than one thread.
+   */
+  private void lightTriangle(int triIndex, float[] contribution,
+                             float[] worldNormal, PVector norm) {
     int vIndex;
 
     // Handle lighting on, but no lights (in this case, just use emissive)
@@ -2099,11 +2368,11 @@ public class PGraphics3D extends PGraphics {
     // lighting at all... So. OK. If that ever changes, use the below:
     /*
     if (lightCount == 0) {
-      vIndex = triangles[triIndex][VERTEX1];
+      vIndex = triangleField(triIndex, VERTEX1);
       copy_emissive_vertex_color_to_triangle(triIndex, vIndex, 0);
-      vIndex = triangles[triIndex][VERTEX2];
+      vIndex = triangleField(triIndex, VERTEX2);
       copy_emissive_vertex_color_to_triangle(triIndex, vIndex, 1);
-      vIndex = triangles[triIndex][VERTEX3];
+      vIndex = triangleField(triIndex, VERTEX3);
       copy_emissive_vertex_color_to_triangle(triIndex, vIndex, 2);
       return;
     }
@@ -2114,29 +2383,47 @@ public class PGraphics3D extends PGraphics {
     // haven't already been lit and copy their colors straight
     // into the triangle.
     if (normalMode == NORMAL_MODE_VERTEX) {
-      vIndex = triangles[triIndex][VERTEX1];
-      lightUnlitVertex(vIndex, tempLightingContribution);
+      vIndex = triangleField(triIndex, VERTEX1);
+      lightUnlitVertex(vIndex, contribution);
       copyPrelitVertexColor(triIndex, vIndex, 0);
 
-      vIndex = triangles[triIndex][VERTEX2];
-      lightUnlitVertex(vIndex, tempLightingContribution);
+      vIndex = triangleField(triIndex, VERTEX2);
+      lightUnlitVertex(vIndex, contribution);
       copyPrelitVertexColor(triIndex, vIndex, 1);
 
-      vIndex = triangles[triIndex][VERTEX3];
-      lightUnlitVertex(vIndex, tempLightingContribution);
+      vIndex = triangleField(triIndex, VERTEX3);
+      lightUnlitVertex(vIndex, contribution);
       copyPrelitVertexColor(triIndex, vIndex, 2);
 
     }
 
-    // If the lighting doesn't depend on the vertex position, do the
-    // following: We've already dealt with NORMAL_MODE_SHAPE mode before
-    // we got into this function, so here we only have to deal with
-    // NORMAL_MODE_AUTO. So we calculate the normal for this triangle,
-    // and use that for the lighting.
-    else if (!lightingDependsOnVertexPosition) {
-      vIndex = triangles[triIndex][VERTEX1];
-      int vIndex2 = triangles[triIndex][VERTEX2];
-      int vIndex3 = triangles[triIndex][VERTEX3];
+    // If lighting is position-dependent, and there's one normal for the
+    // shape, every vertex is lit with that normal.
+    else if (normalMode == NORMAL_MODE_SHAPE) {
+      float[] s = vertices[shapeFirst];
+
+      vIndex = triangleField(triIndex, VERTEX1);
+      calcLightingContribution(vIndex, s[NX], s[NY], s[NZ], false,
+                               contribution, worldNormal);
+      copyVertexColor(triIndex, vIndex, 0, contribution);
+
+      vIndex = triangleField(triIndex, VERTEX2);
+      calcLightingContribution(vIndex, s[NX], s[NY], s[NZ], false,
+                               contribution, worldNormal);
+      copyVertexColor(triIndex, vIndex, 1, contribution);
+
+      vIndex = triangleField(triIndex, VERTEX3);
+      calcLightingContribution(vIndex, s[NX], s[NY], s[NZ], false,
+                               contribution, worldNormal);
+      copyVertexColor(triIndex, vIndex, 2, contribution);
+    }
+
+    // Otherwise the normal mode is AUTO, so we calculate the normal for
+    // this triangle, and use that for the lighting.
+    else {
+      vIndex = triangleField(triIndex, VERTEX1);
+      int vIndex2 = triangleField(triIndex, VERTEX2);
+      int vIndex3 = triangleField(triIndex, VERTEX3);
 
       /*
       dv1[0] = vertices[vIndex2][VX] - vertices[vIndex][VX];
@@ -2155,105 +2442,115 @@ public class PGraphics3D extends PGraphics {
             vertices[vIndex2][VZ] - vertices[vIndex][VZ],
             vertices[vIndex3][VX] - vertices[vIndex][VX],
             vertices[vIndex3][VY] - vertices[vIndex][VY],
-            vertices[vIndex3][VZ] - vertices[vIndex][VZ], lightTriangleNorm);
-
-      lightTriangleNorm.normalize();
-      vertices[vIndex][NX] = lightTriangleNorm.x;
-      vertices[vIndex][NY] = lightTriangleNorm.y;
-      vertices[vIndex][NZ] = lightTriangleNorm.z;
-
-      // The true at the end says the normal is already in world coordinates
-      calcLightingContribution(vIndex, tempLightingContribution, true);
-      copyVertexColor(triIndex, vIndex, 0, tempLightingContribution);
-      copyVertexColor(triIndex, vIndex2, 1, tempLightingContribution);
-      copyVertexColor(triIndex, vIndex3, 2, tempLightingContribution);
-    }
-
-    // If lighting is position-dependent
-    else {
-      if (normalMode == NORMAL_MODE_SHAPE) {
-        vIndex = triangles[triIndex][VERTEX1];
-        vertices[vIndex][NX] = vertices[shapeFirst][NX];
-        vertices[vIndex][NY] = vertices[shapeFirst][NY];
-        vertices[vIndex][NZ] = vertices[shapeFirst][NZ];
-        calcLightingContribution(vIndex, tempLightingContribution);
-        copyVertexColor(triIndex, vIndex, 0, tempLightingContribution);
-
-        vIndex = triangles[triIndex][VERTEX2];
-        vertices[vIndex][NX] = vertices[shapeFirst][NX];
-        vertices[vIndex][NY] = vertices[shapeFirst][NY];
-        vertices[vIndex][NZ] = vertices[shapeFirst][NZ];
-        calcLightingContribution(vIndex, tempLightingContribution);
-        copyVertexColor(triIndex, vIndex, 1, tempLightingContribution);
-
-        vIndex = triangles[triIndex][VERTEX3];
-        vertices[vIndex][NX] = vertices[shapeFirst][NX];
-        vertices[vIndex][NY] = vertices[shapeFirst][NY];
-        vertices[vIndex][NZ] = vertices[shapeFirst][NZ];
-        calcLightingContribution(vIndex, tempLightingContribution);
-        copyVertexColor(triIndex, vIndex, 2, tempLightingContribution);
+            vertices[vIndex3][VZ] - vertices[vIndex][VZ], norm);
+
+      norm.normalize();
+      lightNormals[triIndex*3 + X] = norm.x;
+      lightNormals[triIndex*3 + Y] = norm.y;
+      lightNormals[triIndex*3 + Z] = norm.z;
+
+      // The true says the normal is already in world coordinates
+      calcLightingContribution(vIndex, norm.x, norm.y, norm.z, true,
+                               contribution, worldNormal);
+      copyVertexColor(triIndex, vIndex, 0, contribution);
+
+      // If the lighting doesn't depend on the vertex position,
+      // the same lighting goes for the whole triangle.
+      if (lightingDependsOnVertexPosition) {
+        calcLightingContribution(vIndex2, norm.x, norm.y, norm.z, true,
+                                 contribution, worldNormal);
       }
+      copyVertexColor(triIndex, vIndex2, 1, contribution);
 
-      // lighting mode is AUTO_NORMAL
-      else {
-        vIndex = triangles[triIndex][VERTEX1];
-        int vIndex2 = triangles[triIndex][VERTEX2];
-        int vIndex3 = triangles[triIndex][VERTEX3];
+      if (lightingDependsOnVertexPosition) {
+        calcLightingContribution(vIndex3, norm.x, norm.y, norm.z, true,
+                                 contribution, worldNormal);
+      }
+      copyVertexColor(triIndex, vIndex3, 2, contribution);
+    }
+  }
 
-        /*
-        dv1[0] = vertices[vIndex2][VX] - vertices[vIndex][VX];
-        dv1[1] = vertices[vIndex2][VY] - vertices[vIndex][VY];
-        dv1[2] = vertices[vIndex2][VZ] - vertices[vIndex][VZ];
 
-        dv2[0] = vertices[vIndex3][VX] - vertices[vIndex][VX];
-        dv2[1] = vertices[vIndex3][VY] - vertices[vIndex][VY];
-        dv2[2] = vertices[vIndex3][VZ] - vertices[vIndex][VZ];
+  /**
+   * Light each vertex used by the triangles that hasn't been lit yet,
+   * so that lightTriangle() only has to copy their colors, and
+   * can be run on several threads in NORMAL_MODE_VERTEX.
+   */
+  private void lightUnlitVertices() {
+    if (unlitVertices.length < vertices.length) {
+      unlitVertices = new int[vertices.length];
+    }
+    int count = 0;
+    for (int tri = 0; tri < triangleCount; tri++) {
+      for (int corner = VERTEX1; corner <= VERTEX3; corner++) {
+        int vIndex = triangleField(tri, corner);
+        float[] v = vertices[vIndex];
+        if (v[BEEN_LIT] == 0) {
+          v[BEEN_LIT] = 1;  // set for real by applyLightingContribution()
+          unlitVertices[count++] = vIndex;
+        }
+      }
+    }
+    PWorkerPool.run(count, MIN_PARALLEL_LIGHTING, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        float[] contribution = new float[LIGHT_COLOR_COUNT];
+        float[] normal = new float[4];
+        for (int i = start; i < stop; i++) {
+          int vIndex = unlitVertices[i];
+          float[] v = vertices[vIndex];
+          calcLightingContribution(vIndex, v[NX], v[NY], v[NZ], false,
+                                   contribution, normal);
+          applyLightingContribution(vIndex, contribution);
+        }
+      }
+    });
+  }
 
-        cross(dv1, dv2, norm);
-        */
 
-        cross(vertices[vIndex2][VX] - vertices[vIndex][VX],
-              vertices[vIndex2][VY] - vertices[vIndex][VY],
-              vertices[vIndex2][VZ] - vertices[vIndex][VZ],
-              vertices[vIndex3][VX] - vertices[vIndex][VX],
-              vertices[vIndex3][VY] - vertices[vIndex][VY],
-              vertices[vIndex3][VZ] - vertices[vIndex][VZ], lightTriangleNorm);
-//        float nmag = mag(norm[X], norm[Y], norm[Z]);
-//        if (nmag != 0 && nmag != 1) {
-//          norm[X] /= nmag; norm[Y] /= nmag; norm[Z] /= nmag;
-//        }
-        lightTriangleNorm.normalize();
-        vertices[vIndex][NX] = lightTriangleNorm.x;
-        vertices[vIndex][NY] = lightTriangleNorm.y;
-        vertices[vIndex][NZ] = lightTriangleNorm.z;
-        // The true at the end says the normal is already in world coordinates
-        calcLightingContribution(vIndex, tempLightingContribution, true);
-        copyVertexColor(triIndex, vIndex, 0, tempLightingContribution);
-
-        vertices[vIndex2][NX] = lightTriangleNorm.x;
-        vertices[vIndex2][NY] = lightTriangleNorm.y;
-        vertices[vIndex2][NZ] = lightTriangleNorm.z;
-        // The true at the end says the normal is already in world coordinates
-        calcLightingContribution(vIndex2, tempLightingContribution, true);
-        copyVertexColor(triIndex, vIndex2, 1, tempLightingContribution);
-
-        vertices[vIndex3][NX] = lightTriangleNorm.x;
-        vertices[vIndex3][NY] = lightTriangleNorm.y;
-        vertices[vIndex3][NZ] = lightTriangleNorm.z;
-        // The true at the end says the normal is already in world coordinates
-        calcLightingContribution(vIndex3, tempLightingContribution, true);
-        copyVertexColor(triIndex, vIndex3, 2, tempLightingContribution);
+  /**
+   * Write the normals used by lightTriangle() into the vertices, in the
+   * same order they'd have been written if the triangles were lit one
+   * after another, so the vertices end up the same either way.
+   */
+  private void storeLightNormals() {
+    if (normalMode == NORMAL_MODE_VERTEX) return;
+
+    float[] s = vertices[shapeFirst];
+    float nx = s[NX];
+    float ny = s[NY];
+    float nz = s[NZ];
+    for (int tri = 0; tri < triangleCount; tri++) {
+      if (normalMode != NORMAL_MODE_SHAPE) {
+        nx = lightNormals[tri*3 + X];
+        ny = lightNormals[tri*3 + Y];
+        nz = lightNormals[tri*3 + Z];
+      }
+      int last = lightingDependsOnVertexPosition ? VERTEX3 : VERTEX1;
+      for (int corner = VERTEX1; corner <= last; corner++) {
+        float[] v = vertices[triangleField(tri, corner)];
+        v[NX] = nx;
+        v[NY] = ny;
+        v[NZ] = nz;
       }
     }
   }
 
 
   protected void renderTriangles(int start, int stop) {
+    if (hints[ENABLE_PARALLEL_RENDERING] &&
+        !(s_enableAccurateTextures && frustumMode) &&
+        !hints[ENABLE_ACCURATE_TEXTURES] &&
+        height >= 2 * MIN_BAND_HEIGHT &&
+        PWorkerPool.isWorthwhile(stop - start, MIN_PARALLEL_TRIANGLES)) {
+      renderTriangleBands(start, stop);
+      return;
+    }
+
     for (int i = start; i < stop; i++) {
-      float a[] = vertices[triangles[i][VERTEX1]];
-      float b[] = vertices[triangles[i][VERTEX2]];
-      float c[] = vertices[triangles[i][VERTEX3]];
-      int tex = triangles[i][TEXTURE_INDEX];
+      float a[] = vertices[triangleField(i, VERTEX1)];
+      float b[] = vertices[triangleField(i, VERTEX2)];
+      float c[] = vertices[triangleField(i, VERTEX3)];
+      int tex = triangleField(i, TEXTURE_INDEX);
 
       /*
       // removing for 0149 with the return of P2D
@@ -2282,15 +2579,18 @@ public class PGraphics3D extends PGraphics {
 
       // This is only true when not textured.
       // We really should pass specular straight through to triangle rendering.
-      float ar = clamp(triangleColors[i][0][TRI_DIFFUSE_R] + triangleColors[i][0][TRI_SPECULAR_R]);
-      float ag = clamp(triangleColors[i][0][TRI_DIFFUSE_G] + triangleColors[i][0][TRI_SPECULAR_G]);
-      float ab = clamp(triangleColors[i][0][TRI_DIFFUSE_B] + triangleColors[i][0][TRI_SPECULAR_B]);
-      float br = clamp(triangleColors[i][1][TRI_DIFFUSE_R] + triangleColors[i][1][TRI_SPECULAR_R]);
-      float bg = clamp(triangleColors[i][1][TRI_DIFFUSE_G] + triangleColors[i][1][TRI_SPECULAR_G]);
-      float bb = clamp(triangleColors[i][1][TRI_DIFFUSE_B] + triangleColors[i][1][TRI_SPECULAR_B]);
-      float cr = clamp(triangleColors[i][2][TRI_DIFFUSE_R] + triangleColors[i][2][TRI_SPECULAR_R]);
-      float cg = clamp(triangleColors[i][2][TRI_DIFFUSE_G] + triangleColors[i][2][TRI_SPECULAR_G]);
-      float cb = clamp(triangleColors[i][2][TRI_DIFFUSE_B] + triangleColors[i][2][TRI_SPECULAR_B]);
+      int ac = triangleColorOffset(i, 0);
+      int bc = ac + TRI_COLOR_COUNT;
+      int cc = bc + TRI_COLOR_COUNT;
+      float ar = clamp(triangleColorData[ac + TRI_DIFFUSE_R] + triangleColorData[ac + TRI_SPECULAR_R]);
+      float ag = clamp(triangleColorData[ac + TRI_DIFFUSE_G] + triangleColorData[ac + TRI_SPECULAR_G]);
+      float ab = clamp(triangleColorData[ac + TRI_DIFFUSE_B] + triangleColorData[ac + TRI_SPECULAR_B]);
+      float br = clamp(triangleColorData[bc + TRI_DIFFUSE_R] + triangleColorData[bc + TRI_SPECULAR_R]);
+      float bg = clamp(triangleColorData[bc + TRI_DIFFUSE_G] + triangleColorData[bc + TRI_SPECULAR_G]);
+      float bb = clamp(triangleColorData[bc + TRI_DIFFUSE_B] + triangleColorData[bc + TRI_SPECULAR_B]);
+      float cr = clamp(triangleColorData[cc + TRI_DIFFUSE_R] + triangleColorData[cc + TRI_SPECULAR_R]);
+      float cg = clamp(triangleColorData[cc + TRI_DIFFUSE_G] + triangleColorData[cc + TRI_SPECULAR_G]);
+      float cb = clamp(triangleColorData[cc + TRI_DIFFUSE_B] + triangleColorData[cc + TRI_SPECULAR_B]);
 
       // ACCURATE TEXTURE CODE
       boolean failedToPrecalc = false;
@@ -2377,6 +2677,114 @@ public class PGraphics3D extends PGraphics {
     }
   }
 
+  /**
+   * Used with hint(ENABLE_PARALLEL_RENDERING). The screen is split into
+   * bands of rows, and each band is filled by its own PTriangle, in
+   * parallel with the others. A band gets the triangles that cross it,
+   * in their original order, and PTriangle only draws the rows inside
+   * its band, so the pixels come out the same as with renderTriangles().
+   * <P>
+   * Bands span the full width of the screen, rather than being square
+   * tiles, because PTriangle steps its edges from one row to the next,
+   * so clipping horizontally would change where the edges fall.
+   */
+  protected void renderTriangleBands(int start, int stop) {
+    int bandCount = Math.min(PWorkerPool.getThreadCount() * 2,
+                             height / MIN_BAND_HEIGHT);
+    final int bandHeight = (height + bandCount - 1) / bandCount;
+    bandCount = (height + bandHeight - 1) / bandHeight;
+
+    if (bandTriangles == null || bandTriangles.length != bandCount) {
+      bandTriangles = new PTriangle[bandCount];
+      bandIndices = new int[bandCount][];
+      bandCounts = new int[bandCount];
+      for (int b = 0; b < bandCount; b++) {
+        bandTriangles[b] = new PTriangle(this);
+        bandIndices[b] = new int[DEFAULT_TRIANGLES];
+      }
+    }
+    Arrays.fill(bandCounts, 0);
+
+    for (int i = start; i < stop; i++) {
+      float ay = vertices[triangleField(i, VERTEX1)][TY];
+      float by = vertices[triangleField(i, VERTEX2)][TY];
+      float cy = vertices[triangleField(i, VERTEX3)][TY];
+      // same rounding and clipping as PTriangle.render()
+      int top = (int) (Math.min(ay, Math.min(by, cy)) + PTriangle.PIXEL_CENTER);
+      int bottom = (int) (Math.max(ay, Math.max(by, cy)) + PTriangle.PIXEL_CENTER);
+      if (top < 0) top = 0;
+      if (bottom > height) bottom = height;
+      if (bottom <= top) continue;  // doesn't cross a scanline
+
+      for (int b = top / bandHeight; b <= (bottom - 1) / bandHeight; b++) {
+        if (bandCounts[b] == bandIndices[b].length) {
+          int temp[] = new int[bandCounts[b] << 1];
+          System.arraycopy(bandIndices[b], 0, temp, 0, bandCounts[b]);
+          bandIndices[b] = temp;
+        }
+        bandIndices[b][bandCounts[b]++] = i;
+      }
+    }
+
+    final boolean culling = triangle.m_culling;
+    PWorkerPool.run(bandCount, 1, new PWorkerPool.Task() {
+      public void run(int first, int last) {
+        for (int b = first; b < last; b++) {
+          PTriangle tri = bandTriangles[b];
+          tri.setCulling(culling);
+          tri.setBand(b * bandHeight, Math.min(height, (b + 1) * bandHeight));
+          int[] indices = bandIndices[b];
+          for (int j = 0; j < bandCounts[b]; j++) {
+            renderTriangle(tri, indices[j]);
+          }
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Draw a single triangle with the given PTriangle. Does the same thing
+   * as renderTriangles() when accurate textures aren't in use.
+   */
+  protected void renderTriangle(PTriangle tri, int i) {
+    float a[] = vertices[triangleField(i, VERTEX1)];
+    float b[] = vertices[triangleField(i, VERTEX2)];
+    float c[] = vertices[triangleField(i, VERTEX3)];
+    int tex = triangleField(i, TEXTURE_INDEX);
+
+    tri.reset();
+
+    int ac = triangleColorOffset(i, 0);
+    int bc = ac + TRI_COLOR_COUNT;
+    int cc = bc + TRI_COLOR_COUNT;
+    float ar = clamp(triangleColorData[ac + TRI_DIFFUSE_R] + triangleColorData[ac + TRI_SPECULAR_R]);
+    float ag = clamp(triangleColorData[ac + TRI_DIFFUSE_G] + triangleColorData[ac + TRI_SPECULAR_G]);
+    float ab = clamp(triangleColorData[ac + TRI_DIFFUSE_B] + triangleColorData[ac + TRI_SPECULAR_B]);
+    float br = clamp(triangleColorData[bc + TRI_DIFFUSE_R] + triangleColorData[bc + TRI_SPECULAR_R]);
+    float bg = clamp(triangleColorData[bc + TRI_DIFFUSE_G] + triangleColorData[bc + TRI_SPECULAR_G]);
+    float bb = clamp(triangleColorData[bc + TRI_DIFFUSE_B] + triangleColorData[bc + TRI_SPECULAR_B]);
+    float cr = clamp(triangleColorData[cc + TRI_DIFFUSE_R] + triangleColorData[cc + TRI_SPECULAR_R]);
+    float cg = clamp(triangleColorData[cc + TRI_DIFFUSE_G] + triangleColorData[cc + TRI_SPECULAR_G]);
+    float cb = clamp(triangleColorData[cc + TRI_DIFFUSE_B] + triangleColorData[cc + TRI_SPECULAR_B]);
+
+    if (tex > -1 && textures[tex] != null) {
+      tri.setTexture(textures[tex]);
+      tri.setUV(a[U], a[V], b[U], b[V], c[U], c[V]);
+    }
+
+    tri.setIntensities(ar, ag, ab, a[A],
+                       br, bg, bb, b[A],
+                       cr, cg, cb, c[A]);
+
+    tri.setVertices(a[TX], a[TY], a[TZ],
+                    b[TX], b[TY], b[TZ],
+                    c[TX], c[TY], c[TZ]);
+
+    tri.render();
+  }
+
+
 
   protected void rawTriangles(int start, int stop) {
     raw.colorMode(RGB, 1);
@@ -2384,21 +2792,24 @@ public class PGraphics3D extends PGraphics {
     raw.beginShape(TRIANGLES);
 
     for (int i = start; i < stop; i++) {
-      float a[] = vertices[triangles[i][VERTEX1]];
-      float b[] = vertices[triangles[i][VERTEX2]];
-      float c[] = vertices[triangles[i][VERTEX3]];
-
-      float ar = clamp(triangleColors[i][0][TRI_DIFFUSE_R] + triangleColors[i][0][TRI_SPECULAR_R]);
-      float ag = clamp(triangleColors[i][0][TRI_DIFFUSE_G] + triangleColors[i][0][TRI_SPECULAR_G]);
-      float ab = clamp(triangleColors[i][0][TRI_DIFFUSE_B] + triangleColors[i][0][TRI_SPECULAR_B]);
-      float br = clamp(triangleColors[i][1][TRI_DIFFUSE_R] + triangleColors[i][1][TRI_SPECULAR_R]);
-      float bg = clamp(triangleColors[i][1][TRI_DIFFUSE_G] + triangleColors[i][1][TRI_SPECULAR_G]);
-      float bb = clamp(triangleColors[i][1][TRI_DIFFUSE_B] + triangleColors[i][1][TRI_SPECULAR_B]);
-      float cr = clamp(triangleColors[i][2][TRI_DIFFUSE_R] + triangleColors[i][2][TRI_SPECULAR_R]);
-      float cg = clamp(triangleColors[i][2][TRI_DIFFUSE_G] + triangleColors[i][2][TRI_SPECULAR_G]);
-      float cb = clamp(triangleColors[i][2][TRI_DIFFUSE_B] + triangleColors[i][2][TRI_SPECULAR_B]);
-
-      int tex = triangles[i][TEXTURE_INDEX];
+      float a[] = vertices[triangleField(i, VERTEX1)];
+      float b[] = vertices[triangleField(i, VERTEX2)];
+      float c[] = vertices[triangleField(i, VERTEX3)];
+
+      int ac = triangleColorOffset(i, 0);
+      int bc = ac + TRI_COLOR_COUNT;
+      int cc = bc + TRI_COLOR_COUNT;
+      float ar = clamp(triangleColorData[ac + TRI_DIFFUSE_R] + triangleColorData[ac + TRI_SPECULAR_R]);
+      float ag = clamp(triangleColorData[ac + TRI_DIFFUSE_G] + triangleColorData[ac + TRI_SPECULAR_G]);
+      float ab = clamp(triangleColorData[ac + TRI_DIFFUSE_B] + triangleColorData[ac + TRI_SPECULAR_B]);
+      float br = clamp(triangleColorData[bc + TRI_DIFFUSE_R] + triangleColorData[bc + TRI_SPECULAR_R]);
+      float bg = clamp(triangleColorData[bc + TRI_DIFFUSE_G] + triangleColorData[bc + TRI_SPECULAR_G]);
+      float bb = clamp(triangleColorData[bc + TRI_DIFFUSE_B] + triangleColorData[bc + TRI_SPECULAR_B]);
+      float cr = clamp(triangleColorData[cc + TRI_DIFFUSE_R] + triangleColorData[cc + TRI_SPECULAR_R]);
+      float cg = clamp(triangleColorData[cc + TRI_DIFFUSE_G] + triangleColorData[cc + TRI_SPECULAR_G]);
+      float cb = clamp(triangleColorData[cc + TRI_DIFFUSE_B] + triangleColorData[cc + TRI_SPECULAR_B]);
+
+      int tex = triangleField(i, TEXTURE_INDEX);
       PImage texImage = (tex > -1) ? textures[tex] : null;
       if (texImage != null) {
         if (raw.is3D()) {
@@ -2474,10 +2885,17 @@ public class PGraphics3D extends PGraphics {
    * Emit any sorted geometry that's been collected on this frame.
    */
   public void flush() {
+    long t0 = stageTiming ? System.nanoTime() : 0;
     if (hints[ENABLE_DEPTH_SORT]) {
       sort();
     }
+    long t1 = stageTiming ? System.nanoTime() : 0;
     render();
+    if (stageTiming) {
+      long t2 = System.nanoTime();
+      sortNanos += t1 - t0;
+      renderNanos += t2 - t1;
+    }
 
     /*
     if (triangleCount > 0) {
@@ -2502,6 +2920,10 @@ public class PGraphics3D extends PGraphics {
 
 
   protected void render() {
+    if (hints[ENABLE_DEPTH_SORT]) {
+      renderSorted();
+      return;
+    }
     if (pointCount > 0) {
       renderPoints(0, pointCount);
       if (raw != null) {
@@ -2518,6 +2940,7 @@ public class PGraphics3D extends PGraphics {
       pathCount = 0;
     }
     if (triangleCount > 0) {
+      copyTriangleArrays(0, triangleCount);
       renderTriangles(0, triangleCount);
       if (raw != null) {
         rawTriangles(0, triangleCount);
@@ -2528,67 +2951,184 @@ public class PGraphics3D extends PGraphics {
 
 
   /**
-   * Handle depth sorting of geometry. Currently this only handles triangles,
-   * however in the future it will be expanded for points and lines, which
-   * will also need to be interspersed with one another while rendering.
+   * Render the geometry put in order by sort(), farthest first. Points,
+   * lines and triangles are interspersed with one another, using runs of
+   * each kind that come before the next item of the other two. At the
+   * same depth, triangles are drawn before lines, and lines before points.
+   */
+  protected void renderSorted() {
+    int t = 0;
+    int l = 0;
+    int p = 0;
+    while (t < triangleCount || l < lineCount || p < pointCount) {
+      if (t < triangleCount &&
+          (l == lineCount ||
+           Float.compare(triangleDepths[t], lineDepths[l]) >= 0) &&
+          (p == pointCount ||
+           Float.compare(triangleDepths[t], pointDepths[p]) >= 0)) {
+        int start = t;
+        do {
+          t++;
+        } while (t < triangleCount &&
+                 (l == lineCount ||
+                  Float.compare(triangleDepths[t], lineDepths[l]) >= 0) &&
+                 (p == pointCount ||
+                  Float.compare(triangleDepths[t], pointDepths[p]) >= 0));
+        copyTriangleArrays(start, t);
+        renderTriangles(start, t);
+        if (raw != null) {
+          rawTriangles(start, t);
+        }
+
+      } else if (l < lineCount &&
+                 (p == pointCount ||
+                  Float.compare(lineDepths[l], pointDepths[p]) >= 0)) {
+        int start = l;
+        do {
+          l++;
+        } while (l < lineCount &&
+                 (t == triangleCount ||
+                  Float.compare(lineDepths[l], triangleDepths[t]) > 0) &&
+                 (p == pointCount ||
+                  Float.compare(lineDepths[l], pointDepths[p]) >= 0));
+        renderLines(start, l);
+        if (raw != null) {
+          rawLines(start, l);
+        }
+
+      } else {
+        int start = p;
+        do {
+          p++;
+        } while (p < pointCount &&
+                 (t == triangleCount ||
+                  Float.compare(pointDepths[p], triangleDepths[t]) > 0) &&
+                 (l == lineCount ||
+                  Float.compare(pointDepths[p], lineDepths[l]) > 0));
+        renderPoints(start, p);
+        if (raw != null) {
+          rawPoints(start, p);
+        }
+      }
+    }
+    triangleCount = 0;
+    lineCount = 0;
+    pathCount = 0;
+    pointCount = 0;
+  }
+
+
+  /**
+   * Handle depth sorting of geometry. Triangles, lines and points are
+   * each put in order by their average depth, farthest first, and
+   * renderSorted() intersperses them with one another.
+   * <P>
+   * Depths are worked out once per item, and ordered with a stable radix
+   * sort (see PDepthSort), so items at the same depth keep the order they
+   * were drawn in.
    */
   protected void sort() {
+    if (depthSort == null) {
+      depthSort = new PDepthSort();
+    }
     if (triangleCount > 0) {
-      sortTrianglesInternal(0, triangleCount-1);
+      sortTriangles();
+    }
+    if (lineCount > 0) {
+      sortLines();
+    }
+    if (pointCount > 0) {
+      sortPoints();
+    }
+  }
+
+
+  private void sortTriangles() {
+    if (triangleDepths.length < triangleCount) {
+      triangleDepths = new float[triangleData.length / TRIANGLE_FIELD_COUNT];
+    }
+    for (int i = 0; i < triangleCount; i++) {
+      triangleDepths[i] = (vertices[triangleField(i, VERTEX1)][TZ] +
+                           vertices[triangleField(i, VERTEX2)][TZ] +
+                           vertices[triangleField(i, VERTEX3)][TZ]) / 3;
+    }
+    int[] order = depthSort.sort(triangleDepths, triangleCount);
+
+    // move everything over in the new order, then swap the arrays
+    if (sortedTriangles == null || sortedTriangles.length != triangleData.length) {
+      sortedTriangles = new int[triangleData.length];
+      sortedTriangleColors = new float[triangleColorData.length];
     }
+    int colorCount = 3 * TRI_COLOR_COUNT;
+    for (int i = 0; i < triangleCount; i++) {
+      int from = order[i];
+      System.arraycopy(triangleData, from * TRIANGLE_FIELD_COUNT,
+                       sortedTriangles, i * TRIANGLE_FIELD_COUNT,
+                       TRIANGLE_FIELD_COUNT);
+      System.arraycopy(triangleColorData, from * colorCount,
+                       sortedTriangleColors, i * colorCount, colorCount);
+    }
+    int[] tempi = triangleData;
+    triangleData = sortedTriangles;
+    sortedTriangles = tempi;
+    float[] tempf = triangleColorData;
+    triangleColorData = sortedTriangleColors;
+    sortedTriangleColors = tempf;
+    triangleDepths = sortDepths(triangleDepths, triangleCount, order);
   }
 
 
-  private void sortTrianglesInternal(int i, int j) {
-    int pivotIndex = (i+j)/2;
-    sortTrianglesSwap(pivotIndex, j);
-    int k = sortTrianglesPartition(i-1, j);
-    sortTrianglesSwap(k, j);
-    if ((k-i) > 1) sortTrianglesInternal(i, k-1);
-    if ((j-k) > 1) sortTrianglesInternal(k+1, j);
+  private void sortLines() {
+    if (lineDepths.length < lineCount) {
+      lineDepths = new float[lines.length];
+    }
+    for (int i = 0; i < lineCount; i++) {
+      lineDepths[i] = (vertices[lines[i][VERTEX1]][TZ] +
+                       vertices[lines[i][VERTEX2]][TZ]) / 2;
+    }
+    int[] order = depthSort.sort(lineDepths, lineCount);
+    lines = sortRows(lines, lineCount, order);
+    lineDepths = sortDepths(lineDepths, lineCount, order);
   }
 
 
-  private int sortTrianglesPartition(int left, int right) {
-    int pivot = right;
-    do {
-      while (sortTrianglesCompare(++left, pivot) < 0) { }
-      while ((right != 0) &&
-             (sortTrianglesCompare(--right, pivot) > 0)) { }
-      sortTrianglesSwap(left, right);
-    } while (left < right);
-    sortTrianglesSwap(left, right);
-    return left;
+  private void sortPoints() {
+    if (pointDepths.length < pointCount) {
+      pointDepths = new float[points.length];
+    }
+    for (int i = 0; i < pointCount; i++) {
+      pointDepths[i] = vertices[points[i][VERTEX1]][TZ];
+    }
+    int[] order = depthSort.sort(pointDepths, pointCount);
+    points = sortRows(points, pointCount, order);
+    pointDepths = sortDepths(pointDepths, pointCount, order);
   }
 
 
-  private void sortTrianglesSwap(int a, int b) {
-    int tempi[] = triangles[a];
-    triangles[a] = triangles[b];
-    triangles[b] = tempi;
-    float tempf[][] = triangleColors[a];
-    triangleColors[a] = triangleColors[b];
-    triangleColors[b] = tempf;
+  /**
+   * Rearrange the rows of lines[] or points[]. The rows are only moved,
+   * and the ones past 'count' stay where they are, ready for reuse.
+   */
+  private int[][] sortRows(int[][] rows, int count, int[] order) {
+    int[][] outgoing = new int[rows.length][];
+    for (int i = 0; i < count; i++) {
+      outgoing[i] = rows[order[i]];
+    }
+    System.arraycopy(rows, count, outgoing, count, rows.length - count);
+    return outgoing;
   }
 
 
-  private float sortTrianglesCompare(int a, int b) {
-    /*
-    if (Float.isNaN(vertices[triangles[a][VERTEX1]][TZ]) ||
-        Float.isNaN(vertices[triangles[a][VERTEX2]][TZ]) ||
-        Float.isNaN(vertices[triangles[a][VERTEX3]][TZ]) ||
-        Float.isNaN(vertices[triangles[b][VERTEX1]][TZ]) ||
-        Float.isNaN(vertices[triangles[b][VERTEX2]][TZ]) ||
-        Float.isNaN(vertices[triangles[b][VERTEX3]][TZ])) {
-      System.err.println("NaN values in triangle");
+  private float[] sortDepths(float[] depths, int count, int[] order) {
+    if (sortedDepths.length < depths.length) {
+      sortedDepths = new float[depths.length];
     }
-    */
-    return ((vertices[triangles[b][VERTEX1]][TZ] +
-             vertices[triangles[b][VERTEX2]][TZ] +
-             vertices[triangles[b][VERTEX3]][TZ]) -
-            (vertices[triangles[a][VERTEX1]][TZ] +
-             vertices[triangles[a][VERTEX2]][TZ] +
-             vertices[triangles[a][VERTEX3]][TZ]));
+    float[] outgoing = sortedDepths;
+    for (int i = 0; i < count; i++) {
+      outgoing[i] = depths[order[i]];
+    }
+    sortedDepths = depths;
+    return outgoing;
   }
 
 
@@ -2954,6 +3494,69 @@ public class PGraphics3D extends PGraphics {
   //public void shape(PShape shape, float x, float y, float c, float d)
 
 
+  /**
+   * Send the vertices of the shape's outline through again, along with the
+   * triangles it was split into before, skipping the Bezier and curve
+   * math and the triangulation. Everything after that (transformation,
+   * lighting, clipping and colors) is done fresh, as for any other shape.
+   */
+  protected boolean drawCachedPath(PShape shape) {
+    PathCache cache = (PathCache) shape.getCache(this);
+    if (cache == null ||
+        cache.bezierDetail != bezierDetail ||
+        cache.curveDetail != curveDetail ||
+        cache.curveTightness != curveTightness) {
+      return false;  // the curves would come out differently
+    }
+    if (fill && cache.triangles == null) {
+      return false;  // drawn without a fill last time, so no triangles
+    }
+    beginShape(POLYGON);
+    float[] coords = cache.coords;
+    for (int i = 0; i < coords.length; i += 3) {
+      vertex(coords[i], coords[i+1], coords[i+2]);
+    }
+    replayPath = cache;
+    try {
+      endShape(cache.mode);
+    } finally {
+      replayPath = null;
+    }
+    return true;
+  }
+
+
+  /**
+   * The outline of a PShape path after its curves have been turned into
+   * vertices, and the triangles that the polygon was split into.
+   */
+  static class PathCache {
+    float[] coords;  // x, y, z of each vertex
+    int mode;
+    int[] triangles;  // null if drawn with noFill()
+    int triangleCount;
+
+    int bezierDetail;
+    int curveDetail;
+    float curveTightness;
+
+    PathCache(PGraphics3D g, int mode) {
+      int count = g.shapeLast - g.shapeFirst;
+      coords = new float[count * 3];
+      for (int i = 0; i < count; i++) {
+        float[] vertex = g.vertices[g.shapeFirst + i];
+        coords[i*3] = vertex[X];
+        coords[i*3+1] = vertex[Y];
+        coords[i*3+2] = vertex[Z];
+      }
+      this.mode = mode;
+      bezierDetail = g.bezierDetail;
+      curveDetail = g.curveDetail;
+      curveTightness = g.curveTightness;
+    }
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -2981,7 +3584,89 @@ public class PGraphics3D extends PGraphics {
 
   // TEXT IMPL
 
-  // Not even the text drawing implementation stuff is overridden.
+  // Only textLineImpl is overridden, the rest is the same as PGraphics.
+
+
+  /**
+   * In MODEL mode, draws the glyphs of the line as quads in as few shapes
+   * as possible: one for each run of glyphs that are on the same page,
+   * rather than one shape per character.
+   */
+  protected void textLineImpl(char buffer[], int start, int stop,
+                              float x, float y) {
+    if (textMode != MODEL) {
+      super.textLineImpl(buffer, start, stop, x, y);
+      return;
+    }
+
+    boolean savedTint = tint;
+    int savedTintColor = tintColor;
+    float savedTintR = tintR;
+    float savedTintG = tintG;
+    float savedTintB = tintB;
+    float savedTintA = tintA;
+    boolean savedTintAlpha = tintAlpha;
+    boolean savedStroke = stroke;
+    int savedTextureMode = textureMode;
+
+    // same as textCharModelImpl() and imageImpl()
+    tint = true;
+    tintColor = fillColor;
+    tintR = fillR;
+    tintG = fillG;
+    tintB = fillB;
+    tintA = fillA;
+    tintAlpha = fillAlpha;
+    stroke = false;
+    textureMode = IMAGE;
+
+    PImage page = null;
+    for (int index = start; index < stop; index++) {
+      PFont.Glyph glyph = textFont.getGlyph(buffer[index]);
+      if (glyph != null) {
+        if (glyph.page != page) {
+          if (page != null) endShape();
+          page = glyph.page;
+          beginShape(QUADS);
+          texture(page);
+        }
+        // same math as textCharImpl(), so the quads land in the same place
+        float high    = glyph.height     / (float) textFont.size;
+        float bwidth  = glyph.width      / (float) textFont.size;
+        float lextent = glyph.leftExtent / (float) textFont.size;
+        float textent = glyph.topExtent  / (float) textFont.size;
+        float x1 = x + lextent * textSize;
+        float y1 = y - textent * textSize;
+        float x2 = x1 + bwidth * textSize;
+        float y2 = y1 + high * textSize;
+        int u1 = glyph.pageX;
+        int v1 = glyph.pageY;
+        int u2 = u1 + glyph.width;
+        int v2 = v1 + glyph.height;
+        vertex(x1, y1, u1, v1);
+        vertex(x1, y2, u1, v2);
+        vertex(x2, y2, u2, v2);
+        vertex(x2, y1, u2, v1);
+      }
+      // this doesn't account for kerning
+      x += textWidth(buffer[index]);
+    }
+    if (page != null) endShape();
+
+    tint = savedTint;
+    tintColor = savedTintColor;
+    tintR = savedTintR;
+    tintG = savedTintG;
+    tintB = savedTintB;
+    tintA = savedTintA;
+    tintAlpha = savedTintAlpha;
+    stroke = savedStroke;
+    textureMode = savedTextureMode;
+
+    textX = x;
+    textY = y;
+    textZ = 0;  // this will get set by the caller if non-zero
+  }
 
 
 
@@ -26,6 +26,7 @@ package processing.core;
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.*;
+import java.util.HashMap;
 
 
 /**
@@ -235,12 +236,7 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
     curveVertexCount = 0;
     //float vertex[];
 
-    if (vertexCount == vertices.length) {
-      float temp[][] = new float[vertexCount<<1][VERTEX_FIELD_COUNT];
-      System.arraycopy(vertices, 0, temp, 0, vertexCount);
-      vertices = temp;
-      //message(CHATTER, "allocating more vertices " + vertices.length);
-    }
+    vertexCheck();
     // not everyone needs this, but just easier to store rather
     // than adding another moving part to the code...
     vertices[vertexCount][X] = x;
@@ -368,8 +364,12 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
           gpath.closePath();
         }
         drawShape(gpath);
+        if (cachingShape != null) {
+          cachingShape.setCache(this, new PathCache(gpath, curveTightness));
+        }
       }
     }
+    cachingShape = null;
     shape = 0;
   }
 
@@ -816,6 +816,40 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
   }
 
 
+  /**
+   * Tinting a whole page of glyphs each time the fill color changes is
+   * slow, so draw an image of just this glyph instead, made from its part
+   * of the page the first time it's used.
+   */
+  protected void textCharModelImpl(PImage page,
+                                   float x1, float y1,
+                                   float x2, float y2,
+                                   int u1, int v1, int u2, int v2) {
+    if (u1 != 0 || v1 != 0 || u2 != page.width || v2 != page.height) {
+      if (page.getCache(this) == null) {
+        page.setCache(this, new ImageCache(page));
+        page.updatePixels();  // as in imageImpl(), if the page is drawn
+        page.modified = true;
+      }
+      ImageCache cash = (ImageCache) page.getCache(this);
+      if (cash.glyphs == null) {
+        cash.glyphs = new HashMap<Integer, PImage>();
+      }
+      Integer offset = Integer.valueOf(v1*page.width + u1);
+      PImage glyph = cash.glyphs.get(offset);
+      if (glyph == null) {
+        glyph = page.get(u1, v1, u2 - u1, v2 - v1);
+        cash.glyphs.put(offset, glyph);
+      }
+      page = glyph;
+      u2 -= u1;
+      v2 -= v1;
+      u1 = v1 = 0;
+    }
+    super.textCharModelImpl(page, x1, y1, x2, y2, u1, v1, u2, v2);
+  }
+
+
   class ImageCache {
     PImage source;
     boolean tinted;
@@ -823,6 +857,9 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
     int tintedPixels[];  // one row of tinted pixels
     BufferedImage image;
 
+    // the glyphs of a font page, by their offset on the page
+    HashMap<Integer, PImage> glyphs;
+
     public ImageCache(PImage source) {
       this.source = source;
       // even if RGB, set the image type to ARGB, because the
@@ -954,6 +991,32 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
   //public void shape(PShape shape, float x, float y, float c, float d)
 
 
+  /**
+   * Fill and stroke the GeneralPath made the last time the shape was drawn,
+   * instead of making it again. Curves were turned into Bezier segments
+   * with the curveTightness at that time, so that has to match.
+   */
+  protected boolean drawCachedPath(PShape shape) {
+    PathCache cache = (PathCache) shape.getCache(this);
+    if (cache == null || cache.curveTightness != curveTightness) {
+      return false;
+    }
+    drawShape(cache.path);
+    return true;
+  }
+
+
+  static class PathCache {
+    GeneralPath path;
+    float curveTightness;
+
+    PathCache(GeneralPath path, float curveTightness) {
+      this.path = path;
+      this.curveTightness = curveTightness;
+    }
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -1695,6 +1758,11 @@ public class PGraphicsJava2D extends PGraphics /*PGraphics2D*/ {
   }
 
 
+  public void resize(int wide, int high, int filter) {
+    showMethodWarning("resize");
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -115,13 +115,6 @@ public class PImage implements PConstants, Cloneable {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
-  // private fields
-  private int fracU, ifU, fracV, ifV, u1, u2, v1, v2, sX, sY, iw, iw1, ih1;
-  private int ul, ll, ur, lr, cUL, cLL, cUR, cLR;
-  private int srcXOffset, srcYOffset;
-  private int r, g, b, a;
-  private int[] srcBuffer;
-
   // fixed point precision is limited to 15 bits!!
   static final int PRECISIONB = 15;
   static final int PRECISIONF = 1 << PRECISIONB;
@@ -134,6 +127,18 @@ public class PImage implements PConstants, Cloneable {
   private int blurKernelSize;
   private int[] blurKernel;
   private int[][] blurMult;
+  private int[] blurKernelTotal;
+
+  /** blur radius from which blurSliding() is used */
+  static final int MIN_SLIDING_BLUR_RADIUS = 8;
+  /** running sums kept by blurSliding() for each line */
+  static final int BLUR_SUMS = 6;
+  static final int[] ALPHA_SHIFTS = { 0 };
+  static final int[] RGB_SHIFTS = { 16, 8, 0 };
+  static final int[] ARGB_SHIFTS = { 24, 16, 8, 0 };
+
+  /** fewest pixels in each piece that filters and resizing are split into */
+  static final int MIN_PARALLEL_PIXELS = 1 << 15;
 
 
   //////////////////////////////////////////////////////////////
@@ -436,6 +441,19 @@ public class PImage implements PConstants, Cloneable {
    * @see processing.core.PImage#get(int, int, int, int)
    */
   public void resize(int wide, int high) {  // ignore
+    resize(wide, high, NEAREST);
+  }
+
+
+  /**
+   * Resize the image using a particular filter: NEAREST, BILINEAR, AREA
+   * or LANCZOS. resize(wide, high) uses NEAREST, which is the fastest,
+   * but AREA and LANCZOS don't alias when shrinking. AREA averages the
+   * pixels covered, and is the same as BILINEAR when enlarging.
+   *
+   * @see processing.core.PResampler
+   */
+  public void resize(int wide, int high, int filter) {  // ignore
     // Make sure that the pixels[] array is valid
     loadPixels();
 
@@ -452,11 +470,13 @@ public class PImage implements PConstants, Cloneable {
         float diff = (float) wide / (float) width;
         high = (int) (height * diff);
       }
-      PImage temp = new PImage(wide, high, this.format);
-      temp.copy(this, 0, 0, width, height, 0, 0, wide, high);
+      int[] resized = new int[wide * high];
+      if (wide > 0 && high > 0 && width > 0 && height > 0) {
+        PResampler.get(width, height, wide, high, filter).resample(pixels, resized);
+      }
       this.width = wide;
       this.height = high;
-      this.pixels = temp.pixels;
+      this.pixels = resized;
     }
     // Mark the pixels array as altered
     updatePixels();
@@ -734,33 +754,45 @@ public class PImage implements PConstants, Cloneable {
       case GRAY:
         if (format == ALPHA) {
           // for an alpha image, convert it to an opaque grayscale
-          for (int i = 0; i < pixels.length; i++) {
-            int col = 255 - pixels[i];
-            pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
-          }
+          runBands(pixels.length, 1, new PWorkerPool.Task() {
+            public void run(int start, int stop) {
+              for (int i = start; i < stop; i++) {
+                int col = 255 - pixels[i];
+                pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
+              }
+            }
+          });
           format = RGB;
 
         } else {
           // Converts RGB image data into grayscale using
           // weighted RGB components, and keeps alpha channel intact.
           // [toxi 040115]
-          for (int i = 0; i < pixels.length; i++) {
-            int col = pixels[i];
-            // luminance = 0.3*red + 0.59*green + 0.11*blue
-            // 0.30 * 256 =  77
-            // 0.59 * 256 = 151
-            // 0.11 * 256 =  28
-            int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
-            pixels[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
-          }
+          runBands(pixels.length, 1, new PWorkerPool.Task() {
+            public void run(int start, int stop) {
+              for (int i = start; i < stop; i++) {
+                int col = pixels[i];
+                // luminance = 0.3*red + 0.59*green + 0.11*blue
+                // 0.30 * 256 =  77
+                // 0.59 * 256 = 151
+                // 0.11 * 256 =  28
+                int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
+                pixels[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
+              }
+            }
+          });
         }
         break;
 
       case INVERT:
-        for (int i = 0; i < pixels.length; i++) {
-          //pixels[i] = 0xff000000 |
-          pixels[i] ^= 0xffffff;
-        }
+        runBands(pixels.length, 1, new PWorkerPool.Task() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              //pixels[i] = 0xff000000 |
+              pixels[i] ^= 0xffffff;
+            }
+          }
+        });
         break;
 
       case POSTERIZE:
@@ -768,9 +800,13 @@ public class PImage implements PConstants, Cloneable {
         "instead of filter(POSTERIZE)");
 
       case OPAQUE:
-        for (int i = 0; i < pixels.length; i++) {
-          pixels[i] |= 0xff000000;
-        }
+        runBands(pixels.length, 1, new PWorkerPool.Task() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              pixels[i] |= 0xff000000;
+            }
+          }
+        });
         format = RGB;
         break;
 
@@ -810,6 +846,8 @@ public class PImage implements PConstants, Cloneable {
    * <P/>
    * Gaussian blur code contributed by
    * <A HREF="http://incubator.quasimondo.com">Mario Klingemann</A>
+   * <P/>
+   * Large images are filtered in bands on the threads of PWorkerPool.
    *
    * @webref
    * @brief Converts the image to grayscale or black and white
@@ -842,35 +880,43 @@ public class PImage implements PConstants, Cloneable {
                                    "filter(OPAQUE, param)");
 
       case POSTERIZE:
-        int levels = (int)param;
+        final int levels = (int)param;
         if ((levels < 2) || (levels > 255)) {
           throw new RuntimeException("Levels must be between 2 and 255 for " +
                                      "filter(POSTERIZE, levels)");
         }
-        int levels1 = levels - 1;
-        for (int i = 0; i < pixels.length; i++) {
-          int rlevel = (pixels[i] >> 16) & 0xff;
-          int glevel = (pixels[i] >> 8) & 0xff;
-          int blevel = pixels[i] & 0xff;
-          rlevel = (((rlevel * levels) >> 8) * 255) / levels1;
-          glevel = (((glevel * levels) >> 8) * 255) / levels1;
-          blevel = (((blevel * levels) >> 8) * 255) / levels1;
-          pixels[i] = ((0xff000000 & pixels[i]) |
-                       (rlevel << 16) |
-                       (glevel << 8) |
-                       blevel);
-        }
+        final int levels1 = levels - 1;
+        runBands(pixels.length, 1, new PWorkerPool.Task() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              int rlevel = (pixels[i] >> 16) & 0xff;
+              int glevel = (pixels[i] >> 8) & 0xff;
+              int blevel = pixels[i] & 0xff;
+              rlevel = (((rlevel * levels) >> 8) * 255) / levels1;
+              glevel = (((glevel * levels) >> 8) * 255) / levels1;
+              blevel = (((blevel * levels) >> 8) * 255) / levels1;
+              pixels[i] = ((0xff000000 & pixels[i]) |
+                           (rlevel << 16) |
+                           (glevel << 8) |
+                           blevel);
+            }
+          }
+        });
         break;
 
       case THRESHOLD:  // greater than or equal to the threshold
-        int thresh = (int) (param * 255);
-        for (int i = 0; i < pixels.length; i++) {
-          int max = Math.max((pixels[i] & RED_MASK) >> 16,
-                             Math.max((pixels[i] & GREEN_MASK) >> 8,
-                                      (pixels[i] & BLUE_MASK)));
-          pixels[i] = (pixels[i] & ALPHA_MASK) |
-            ((max < thresh) ? 0x000000 : 0xffffff);
-        }
+        final int thresh = (int) (param * 255);
+        runBands(pixels.length, 1, new PWorkerPool.Task() {
+          public void run(int start, int stop) {
+            for (int i = start; i < stop; i++) {
+              int max = Math.max((pixels[i] & RED_MASK) >> 16,
+                                 Math.max((pixels[i] & GREEN_MASK) >> 8,
+                                          (pixels[i] & BLUE_MASK)));
+              pixels[i] = (pixels[i] & ALPHA_MASK) |
+                ((max < thresh) ? 0x000000 : 0xffffff);
+            }
+          }
+        });
         break;
 
         // [toxi20050728] added new filters
@@ -885,6 +931,17 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Run a filter task over 'count' rows (or pixels, or columns) that
+   * hold 'length' pixels each, split into bands on several threads when
+   * there are enough pixels to make it worthwhile.
+   */
+  protected void runBands(int count, int length, PWorkerPool.Task task) {
+    PWorkerPool.run(count, Math.max(1, MIN_PARALLEL_PIXELS / Math.max(1, length)),
+                    task);
+  }
+
+
   /**
    * Optimized code for building the blur kernel.
    * further optimized blur code (approx. 15% for radius=20)
@@ -915,255 +972,475 @@ public class PImage implements PConstants, Cloneable {
       bm = blurMult[radius];
       for (int j = 0; j < 256; j++)
         bm[j] = bk*j;
+
+      // running total, for the weights that fit inside the image
+      blurKernelTotal = new int[blurKernelSize + 1];
+      for (int i = 0; i < blurKernelSize; i++) {
+        blurKernelTotal[i+1] = blurKernelTotal[i] + blurKernel[i];
+      }
     }
   }
 
 
   protected void blurAlpha(float r) {
-    int sum, cb;
-    int read, ri, ym, ymi, bk0;
-    int b2[] = new int[pixels.length];
-    int yi = 0;
-
     buildBlurKernel(r);
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= width)
-            break;
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
-        }
-        ri = yi + x;
-        b2[ri] = cb / sum;
-      }
-      yi += width;
+    if (blurRadius >= MIN_SLIDING_BLUR_RADIUS) {
+      blurSliding(ALPHA_SHIFTS, 0);
+      return;
     }
-
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        if (ym<0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= height)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
+    final int b2[] = new int[pixels.length];
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int sum, cb;
+        int read, ri, bk0;
+        int yi = start*width;
+
+        for (int y = start; y < stop; y++) {
+          for (int x = 0; x < width; x++) {
+            //cb = cg = cr = sum = 0;
+            cb = sum = 0;
+            read = x - blurRadius;
+            if (read<0) {
+              bk0=-read;
+              read=0;
+            } else {
+              if (read >= width)
+                break;
+              bk0=0;
+            }
+            for (int i = bk0; i < blurKernelSize; i++) {
+              if (read >= width)
+                break;
+              int c = pixels[read + yi];
+              int[] bm=blurMult[i];
+              cb += bm[c & BLUE_MASK];
+              sum += blurKernel[i];
+              read++;
+            }
+            ri = yi + x;
+            b2[ri] = cb / sum;
+          }
+          yi += width;
         }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= height)
-            break;
-          int[] bm=blurMult[i];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += width;
+      }
+    });
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int sum, cb;
+        int read, ri, ym, ymi, bk0;
+        int yi = start*width;
+        ym=start-blurRadius;
+        ymi=ym*width;
+
+        for (int y = start; y < stop; y++) {
+          for (int x = 0; x < width; x++) {
+            //cb = cg = cr = sum = 0;
+            cb = sum = 0;
+            if (ym<0) {
+              bk0 = -ym;
+              ri = 0;  // first row in the image, not in the kernel
+              read = x;
+            } else {
+              if (ym >= height)
+                break;
+              bk0 = 0;
+              ri = ym;
+              read = x + ymi;
+            }
+            for (int i = bk0; i < blurKernelSize; i++) {
+              if (ri >= height)
+                break;
+              int[] bm=blurMult[i];
+              cb += bm[b2[read]];
+              sum += blurKernel[i];
+              ri++;
+              read += width;
+            }
+            pixels[x+yi] = (cb/sum);
+          }
+          yi += width;
+          ymi += width;
+          ym++;
         }
-        pixels[x+yi] = (cb/sum);
       }
-      yi += width;
-      ymi += width;
-      ym++;
-    }
+    });
   }
 
 
   protected void blurRGB(float r) {
-    int sum, cr, cg, cb; //, k;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int r2[] = new int[pixels.length];
-    int g2[] = new int[pixels.length];
-    int b2[] = new int[pixels.length];
-    int yi = 0;
-
     buildBlurKernel(r);
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= width)
-            break;
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          cr += bm[(c & RED_MASK) >> 16];
-          cg += bm[(c & GREEN_MASK) >> 8];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
-        }
-        ri = yi + x;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
-      }
-      yi += width;
+    if (blurRadius >= MIN_SLIDING_BLUR_RADIUS) {
+      blurSliding(RGB_SHIFTS, 0xff000000);
+      return;
     }
-
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
-
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = sum = 0;
-        if (ym<0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= height)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
+    final int r2[] = new int[pixels.length];
+    final int g2[] = new int[pixels.length];
+    final int b2[] = new int[pixels.length];
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int sum, cr, cg, cb; //, k;
+        int /*pixel,*/ read, ri, /*roff,*/ bk0;
+        int yi = start*width;
+
+        for (int y = start; y < stop; y++) {
+          for (int x = 0; x < width; x++) {
+            cb = cg = cr = sum = 0;
+            read = x - blurRadius;
+            if (read<0) {
+              bk0=-read;
+              read=0;
+            } else {
+              if (read >= width)
+                break;
+              bk0=0;
+            }
+            for (int i = bk0; i < blurKernelSize; i++) {
+              if (read >= width)
+                break;
+              int c = pixels[read + yi];
+              int[] bm=blurMult[i];
+              cr += bm[(c & RED_MASK) >> 16];
+              cg += bm[(c & GREEN_MASK) >> 8];
+              cb += bm[c & BLUE_MASK];
+              sum += blurKernel[i];
+              read++;
+            }
+            ri = yi + x;
+            r2[ri] = cr / sum;
+            g2[ri] = cg / sum;
+            b2[ri] = cb / sum;
+          }
+          yi += width;
         }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= height)
-            break;
-          int[] bm=blurMult[i];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += width;
+      }
+    });
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int sum, cr, cg, cb;
+        int read, ri, ym, ymi, /*riw,*/ bk0;
+        int yi = start*width;
+        ym=start-blurRadius;
+        ymi=ym*width;
+
+        for (int y = start; y < stop; y++) {
+          for (int x = 0; x < width; x++) {
+            cb = cg = cr = sum = 0;
+            if (ym<0) {
+              bk0 = -ym;
+              ri = 0;  // first row in the image, not in the kernel
+              read = x;
+            } else {
+              if (ym >= height)
+                break;
+              bk0 = 0;
+              ri = ym;
+              read = x + ymi;
+            }
+            for (int i = bk0; i < blurKernelSize; i++) {
+              if (ri >= height)
+                break;
+              int[] bm=blurMult[i];
+              cr += bm[r2[read]];
+              cg += bm[g2[read]];
+              cb += bm[b2[read]];
+              sum += blurKernel[i];
+              ri++;
+              read += width;
+            }
+            pixels[x+yi] = 0xff000000 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+          }
+          yi += width;
+          ymi += width;
+          ym++;
         }
-        pixels[x+yi] = 0xff000000 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
-      ymi += width;
-      ym++;
-    }
+    });
   }
 
 
   protected void blurARGB(float r) {
-    int sum, cr, cg, cb, ca;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
+    buildBlurKernel(r);
+    if (blurRadius >= MIN_SLIDING_BLUR_RADIUS) {
+      blurSliding(ARGB_SHIFTS, 0);
+      return;
+    }
     int wh = pixels.length;
-    int r2[] = new int[wh];
-    int g2[] = new int[wh];
-    int b2[] = new int[wh];
-    int a2[] = new int[wh];
-    int yi = 0;
+    final int r2[] = new int[wh];
+    final int g2[] = new int[wh];
+    final int b2[] = new int[wh];
+    final int a2[] = new int[wh];
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int sum, cr, cg, cb, ca;
+        int /*pixel,*/ read, ri, /*roff,*/ bk0;
+        int yi = start*width;
+
+        for (int y = start; y < stop; y++) {
+          for (int x = 0; x < width; x++) {
+            cb = cg = cr = ca = sum = 0;
+            read = x - blurRadius;
+            if (read<0) {
+              bk0=-read;
+              read=0;
+            } else {
+              if (read >= width)
+                break;
+              bk0=0;
+            }
+            for (int i = bk0; i < blurKernelSize; i++) {
+              if (read >= width)
+                break;
+              int c = pixels[read + yi];
+              int[] bm=blurMult[i];
+              ca += bm[(c & ALPHA_MASK) >>> 24];
+              cr += bm[(c & RED_MASK) >> 16];
+              cg += bm[(c & GREEN_MASK) >> 8];
+              cb += bm[c & BLUE_MASK];
+              sum += blurKernel[i];
+              read++;
+            }
+            ri = yi + x;
+            a2[ri] = ca / sum;
+            r2[ri] = cr / sum;
+            g2[ri] = cg / sum;
+            b2[ri] = cb / sum;
+          }
+          yi += width;
+        }
+      }
+    });
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int sum, cr, cg, cb, ca;
+        int read, ri, ym, ymi, /*riw,*/ bk0;
+        int yi = start*width;
+        ym=start-blurRadius;
+        ymi=ym*width;
+
+        for (int y = start; y < stop; y++) {
+          for (int x = 0; x < width; x++) {
+            cb = cg = cr = ca = sum = 0;
+            if (ym<0) {
+              bk0 = -ym;
+              ri = 0;  // first row in the image, not in the kernel
+              read = x;
+            } else {
+              if (ym >= height)
+                break;
+              bk0 = 0;
+              ri = ym;
+              read = x + ymi;
+            }
+            for (int i = bk0; i < blurKernelSize; i++) {
+              if (ri >= height)
+                break;
+              int[] bm=blurMult[i];
+              ca += bm[a2[read]];
+              cr += bm[r2[read]];
+              cg += bm[g2[read]];
+              cb += bm[b2[read]];
+              sum += blurKernel[i];
+              ri++;
+              read += width;
+            }
+            pixels[x+yi] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+          }
+          yi += width;
+          ymi += width;
+          ym++;
+        }
+      }
+    });
+  }
 
-    buildBlurKernel(r);
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = ca = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= width)
-            break;
-          bk0=0;
+  /**
+   * Same blur as the other blur functions, for larger radii, where going
+   * through every weight in the kernel for every pixel gets expensive.
+   * <P>
+   * The weights are (radius - distance)^2, so each side of the kernel is
+   * a quadratic in the position j of the pixels it covers. Running sums
+   * of v, j*v and j*j*v (for each value v) are kept for the pixels on
+   * either side, and updated as the kernel moves along by one, which gives
+   * the weighted sum with a handful of multiplies no matter how large the
+   * radius. The sums are exact, so the results are the same as the other
+   * version, except that these sums can't overflow at large radii.
+   *
+   * @param shifts where each channel sits in the pixel
+   * @param opaque bits to set in every pixel (the alpha for RGB images)
+   */
+  private void blurSliding(final int[] shifts, final int opaque) {
+    final int channels = shifts.length;
+    final int[][] planes = new int[channels][pixels.length];
+
+    // rows, from the pixels into a plane for each channel
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        long[] sums = new long[BLUR_SUMS];
+        for (int y = start; y < stop; y++) {
+          int yi = y*width;
+          for (int c = 0; c < channels; c++) {
+            blurLine(pixels, yi, shifts[c], sums, planes[c]);
+          }
+        }
+      }
+    });
+
+    // columns, a group of them at a time so that the planes are still
+    // read row by row, with sums for each column and channel
+    runBands(width, height, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int count = stop - start;
+        long[] sums = new long[BLUR_SUMS * count * channels];
+        int last = Math.min(height - 1, blurRadius - 1);
+
+        for (int c = 0; c < channels; c++) {
+          int[] plane = planes[c];
+          for (int x = start; x < stop; x++) {
+            int k = BLUR_SUMS * (c*count + x - start);
+            blurSum(sums, k, plane[x], 0, 1);
+            for (int j = 1; j <= last; j++) {
+              blurSum(sums, k + 3, plane[j*width + x], j, 1);
+            }
+          }
         }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= width)
-            break;
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          ca += bm[(c & ALPHA_MASK) >>> 24];
-          cr += bm[(c & RED_MASK) >> 16];
-          cg += bm[(c & GREEN_MASK) >> 8];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
+
+        for (int y = 0; y < height; y++) {
+          int yi = y*width;
+          if (y > 0) {
+            int added = y + blurRadius - 1;
+            int removed = y - blurRadius;
+            for (int c = 0; c < channels; c++) {
+              int[] plane = planes[c];
+              for (int x = start; x < stop; x++) {
+                int k = BLUR_SUMS * (c*count + x - start);
+                int v = plane[yi + x];
+                blurSum(sums, k + 3, v, y, -1);  // from the right side
+                blurSum(sums, k, v, y, 1);       // to the left
+                if (removed >= 0) {
+                  blurSum(sums, k, plane[removed*width + x], removed, -1);
+                }
+                if (added < height) {
+                  blurSum(sums, k + 3, plane[added*width + x], added, 1);
+                }
+              }
+            }
+          }
+          int total = blurTotal(y, height);
+          for (int x = start; x < stop; x++) {
+            int argb = opaque;
+            for (int c = 0; c < channels; c++) {
+              int k = BLUR_SUMS * (c*count + x - start);
+              argb |= (int) (blurWeighted(sums, k, y) / total) << shifts[c];
+            }
+            pixels[yi + x] = argb;
+          }
         }
-        ri = yi + x;
-        a2[ri] = ca / sum;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
       }
-      yi += width;
-    }
+    });
+  }
 
-    yi = 0;
-    ym=-blurRadius;
-    ymi=ym*width;
 
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        cb = cg = cr = ca = sum = 0;
-        if (ym<0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= height)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
+  /**
+   * Blur one channel of the row of pixels starting at 'index',
+   * into the same row of 'plane'.
+   */
+  private void blurLine(int[] src, int index, int shift,
+                        long[] sums, int[] plane) {
+    int last = Math.min(width - 1, blurRadius - 1);
+    java.util.Arrays.fill(sums, 0);
+    blurSum(sums, 0, (src[index] >>> shift) & 0xff, 0, 1);
+    for (int j = 1; j <= last; j++) {
+      blurSum(sums, 3, (src[index + j] >>> shift) & 0xff, j, 1);
+    }
+    for (int x = 0; x < width; x++) {
+      if (x > 0) {
+        int added = x + blurRadius - 1;
+        int removed = x - blurRadius;
+        int v = (src[index + x] >>> shift) & 0xff;
+        blurSum(sums, 3, v, x, -1);  // from the right side
+        blurSum(sums, 0, v, x, 1);   // to the left
+        if (removed >= 0) {
+          blurSum(sums, 0, (src[index + removed] >>> shift) & 0xff, removed, -1);
         }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= height)
-            break;
-          int[] bm=blurMult[i];
-          ca += bm[a2[read]];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += width;
+        if (added < width) {
+          blurSum(sums, 3, (src[index + added] >>> shift) & 0xff, added, 1);
         }
-        pixels[x+yi] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
       }
-      yi += width;
-      ymi += width;
-      ym++;
+      plane[index + x] = (int) (blurWeighted(sums, 0, x) / blurTotal(x, width));
     }
   }
 
 
+  /**
+   * Add (sign 1) or remove (sign -1) value v at position j to the sums
+   * of v, j*v and j*j*v found at sums[k].
+   */
+  static private void blurSum(long[] sums, int k, long v, long j, int sign) {
+    v *= sign;
+    sums[k] += v;
+    sums[k+1] += j * v;
+    sums[k+2] += j * j * v;
+  }
+
+
+  /**
+   * The weighted sum for the pixel at position x. Pixels on the left
+   * (including x) are weighted by (radius + j - x)^2, those on the right
+   * by (radius + x - j)^2, which is the kernel from buildBlurKernel().
+   */
+  private long blurWeighted(long[] sums, int k, int x) {
+    long left = blurRadius - x;
+    long right = blurRadius + x;
+    return
+      sums[k+2] + 2*left*sums[k+1] + left*left*sums[k] +
+      sums[k+5] - 2*right*sums[k+4] + right*right*sums[k+3];
+  }
+
+
+  /**
+   * The total of the weights that fall inside a line of 'length' pixels
+   * when blurring the pixel at x.
+   */
+  private int blurTotal(int x, int length) {
+    int first = Math.max(0, blurRadius - x);
+    int last = Math.min(blurKernelSize - 1, blurRadius + length - 1 - x);
+    return blurKernelTotal[last + 1] - blurKernelTotal[first];
+  }
+
+
   /**
    * Generic dilate/erode filter using luminance values
    * as decision factor. [toxi 050728]
    */
-  protected void dilate(boolean isInverted) {
-    int currIdx=0;
+  protected void dilate(final boolean isInverted) {
+    int maxIdx=pixels.length;
+    final int[] out=new int[maxIdx];
+
+    runBands(height, width, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        dilate(isInverted, out, start*width, Math.min(pixels.length, stop*width));
+      }
+    });
+    System.arraycopy(out,0,pixels,0,maxIdx);
+  }
+
+
+  /**
+   * Dilate or erode the rows of pixels from currIdx to stopIdx into 'out'.
+   */
+  private void dilate(boolean isInverted, int[] out, int currIdx, int stopIdx) {
     int maxIdx=pixels.length;
-    int[] out=new int[maxIdx];
 
     if (!isInverted) {
       // erosion (grow light areas)
-      while (currIdx<maxIdx) {
+      while (currIdx<stopIdx) {
         int currRowIdx=currIdx;
         int maxRowIdx=currIdx+width;
         while (currIdx<maxRowIdx) {
@@ -1220,7 +1497,7 @@ public class PImage implements PConstants, Cloneable {
       }
     } else {
       // dilate (grow dark areas)
-      while (currIdx<maxIdx) {
+      while (currIdx<stopIdx) {
         int currRowIdx=currIdx;
         int maxRowIdx=currIdx+width;
         while (currIdx<maxRowIdx) {
@@ -1276,7 +1553,6 @@ public class PImage implements PConstants, Cloneable {
         }
       }
     }
-    System.arraycopy(out,0,pixels,0,maxIdx);
   }
 
 
@@ -1420,6 +1696,133 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Blend a run of colors onto another, the same as calling
+   * <TT>dest[destOffset+i] = blendColor(dest[destOffset+i], src[srcOffset+i], mode)</TT>
+   * for each of the 'count' colors, only faster. Long runs are split
+   * over the threads of PWorkerPool. Unlike blendColor(), an unknown mode
+   * leaves the colors as they are.
+   */
+  static public void blendColors(final int[] dest, final int destOffset,
+                                 final int[] src, final int srcOffset,
+                                 int count, final int mode) {
+    if (PWorkerPool.isWorthwhile(count, MIN_PARALLEL_PIXELS) &&
+        (dest != src || destOffset == srcOffset)) {
+      PWorkerPool.run(count, MIN_PARALLEL_PIXELS, new PWorkerPool.Task() {
+        public void run(int start, int stop) {
+          blendSpan(dest, destOffset + start, src, srcOffset + start,
+                    stop - start, mode);
+        }
+      });
+    } else {
+      blendSpan(dest, destOffset, src, srcOffset, count, mode);
+    }
+  }
+
+
+  /**
+   * Blend 'count' colors from src onto dest, with the switch on the mode
+   * outside of the loop. Every mode but REPLACE leaves the destination as
+   * it is where the source is fully transparent, so those are skipped.
+   */
+  static private void blendSpan(int[] dest, int d, int[] src, int s,
+                                int count, int mode) {
+    int stop = d + count;
+    int c;
+    switch (mode) {
+    case REPLACE:
+      System.arraycopy(src, s, dest, d, count);
+      break;
+
+    case BLEND:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_blend(dest[d], c);
+      }
+      break;
+
+    case ADD:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_add_pin(dest[d], c);
+      }
+      break;
+
+    case SUBTRACT:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_sub_pin(dest[d], c);
+      }
+      break;
+
+    case LIGHTEST:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_lightest(dest[d], c);
+      }
+      break;
+
+    case DARKEST:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_darkest(dest[d], c);
+      }
+      break;
+
+    case DIFFERENCE:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_difference(dest[d], c);
+      }
+      break;
+
+    case EXCLUSION:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_exclusion(dest[d], c);
+      }
+      break;
+
+    case MULTIPLY:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_multiply(dest[d], c);
+      }
+      break;
+
+    case SCREEN:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_screen(dest[d], c);
+      }
+      break;
+
+    case HARD_LIGHT:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_hard_light(dest[d], c);
+      }
+      break;
+
+    case SOFT_LIGHT:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_soft_light(dest[d], c);
+      }
+      break;
+
+    case OVERLAY:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_overlay(dest[d], c);
+      }
+      break;
+
+    case DODGE:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_dodge(dest[d], c);
+      }
+      break;
+
+    case BURN:
+      for (; d < stop; d++, s++) {
+        if (((c = src[s]) & ALPHA_MASK) != 0) dest[d] = blend_burn(dest[d], c);
+      }
+      break;
+
+    // unknown modes leave the destination alone
+    }
+  }
+
+
   /**
    * Blends one area of this image to another area.
    *
@@ -1557,12 +1960,16 @@ public class PImage implements PConstants, Cloneable {
    * Internal blitter/resizer/copier from toxi.
    * Uses bilinear filtering if smooth() has been enabled
    * 'mode' determines the blending mode used in the process.
+   * <P>
+   * Each line is sampled from the source into a buffer, then blended
+   * onto the destination with blendSpan(). Lines are handled in bands
+   * on several threads, unless source and destination are the same.
    */
   private void blit_resize(PImage img,
                            int srcX1, int srcY1, int srcX2, int srcY2,
-                           int[] destPixels, int screenW, int screenH,
+                           final int[] destPixels, final int screenW, int screenH,
                            int destX1, int destY1, int destX2, int destY2,
-                           int mode) {
+                           final int mode) {
     if (srcX1 < 0) srcX1 = 0;
     if (srcY1 < 0) srcY1 = 0;
     if (srcX2 >= img.width) srcX2 = img.width - 1;
@@ -1573,7 +1980,7 @@ public class PImage implements PConstants, Cloneable {
     int destW = destX2 - destX1;
     int destH = destY2 - destY1;
 
-    boolean smooth = true;  // may as well go with the smoothing these days
+    final boolean smooth = true;  // may as well go with the smoothing these days
 
     if (!smooth) {
       srcW++; srcH++;
@@ -1586,11 +1993,11 @@ public class PImage implements PConstants, Cloneable {
       return;
     }
 
-    int dx = (int) (srcW / (float) destW * PRECISIONF);
-    int dy = (int) (srcH / (float) destH * PRECISIONF);
+    final int dx = (int) (srcW / (float) destW * PRECISIONF);
+    final int dy = (int) (srcH / (float) destH * PRECISIONF);
 
-    srcXOffset = (int) (destX1 < 0 ? -destX1 * dx : srcX1 * PRECISIONF);
-    srcYOffset = (int) (destY1 < 0 ? -destY1 * dy : srcY1 * PRECISIONF);
+    final int srcXOffset = (int) (destX1 < 0 ? -destX1 * dx : srcX1 * PRECISIONF);
+    final int srcYOffset = (int) (destY1 < 0 ? -destY1 * dy : srcY1 * PRECISIONF);
 
     if (destX1 < 0) {
       destW += destX1;
@@ -1601,494 +2008,95 @@ public class PImage implements PConstants, Cloneable {
       destY1 = 0;
     }
 
-    destW = low(destW, screenW - destX1);
+    final int lineWidth = low(destW, screenW - destX1);
     destH = low(destH, screenH - destY1);
+    if (lineWidth <= 0 || destH <= 0) {
+      return;  // entirely off the edge of the image
+    }
 
-    int destOffset = destY1 * screenW + destX1;
-    srcBuffer = img.pixels;
-
-    if (smooth) {
-      // use bilinear filtering
-      iw = img.width;
-      iw1 = img.width - 1;
-      ih1 = img.height - 1;
-
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            // davbol  - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = filter_bilinear();
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
+    final int destOffset = destY1 * screenW + destX1;
+    final int[] srcBuffer = img.pixels;
+    final int iw = img.width;
+    final int ih1 = img.height - 1;
+
+    PWorkerPool.Task task = new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int[] line = new int[lineWidth];
+        for (int y = start; y < stop; y++) {
+          filter_scanline(srcBuffer, iw, ih1, srcXOffset, srcYOffset + y*dy,
+                          dx, smooth, line, lineWidth);
+          blendSpan(destPixels, destOffset + y*screenW, line, 0, lineWidth, mode);
         }
-        break;
-
       }
-
+    };
+    if (srcBuffer == destPixels) {
+      // a line could read pixels that another has already blended
+      task.run(0, destH);
     } else {
-      // nearest neighbour scaling (++fast!)
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            // davbol - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x],
-                             srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x],
-                             srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = srcBuffer[sY + (sX >> PRECISIONB)];
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x],
-                               srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x],
-                              srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.width;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      }
+      runBands(destH, lineWidth, task);
     }
   }
 
 
-  private void filter_new_scanline() {
-    sX = srcXOffset;
-    fracV = srcYOffset & PREC_MAXVAL;
-    ifV = PREC_MAXVAL - fracV;
-    v1 = (srcYOffset >> PRECISIONB) * iw;
-    v2 = low((srcYOffset >> PRECISIONB) + 1, ih1) * iw;
-  }
-
-
-  private int filter_bilinear() {
-    fracU = sX & PREC_MAXVAL;
-    ifU = PREC_MAXVAL - fracU;
-    ul = (ifU * ifV) >> PRECISIONB;
-    ll = (ifU * fracV) >> PRECISIONB;
-    ur = (fracU * ifV) >> PRECISIONB;
-    lr = (fracU * fracV) >> PRECISIONB;
-    u1 = (sX >> PRECISIONB);
-    u2 = low(u1 + 1, iw1);
-
-    // get color values of the 4 neighbouring texels
-    cUL = srcBuffer[v1 + u1];
-    cUR = srcBuffer[v1 + u2];
-    cLL = srcBuffer[v2 + u1];
-    cLR = srcBuffer[v2 + u2];
-
-    r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
-          ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
-         << PREC_RED_SHIFT) & RED_MASK;
-
-    g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
-          ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
-         >>> PRECISIONB) & GREEN_MASK;
-
-    b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
-         ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
-           >>> PRECISIONB;
-
-    a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
-          ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
-         << PREC_ALPHA_SHIFT) & ALPHA_MASK;
+  /**
+   * Fill 'line' with 'count' colors sampled from the source, starting at
+   * fixed point position (sX, sY) and moving along by 'dx' each time.
+   * Uses bilinear filtering if 'smooth' is set, otherwise the nearest
+   * neighbour (++fast!).
+   */
+  static private void filter_scanline(int[] srcBuffer, int iw, int ih1,
+                                      int sX, int sY, int dx, boolean smooth,
+                                      int[] line, int count) {
+    if (!smooth) {
+      int row = (sY >> PRECISIONB) * iw;
+      for (int x = 0; x < count; x++) {
+        line[x] = srcBuffer[row + (sX >> PRECISIONB)];
+        sX += dx;
+      }
+      return;
+    }
 
-    return a | r | g | b;
+    int iw1 = iw - 1;
+    int fracV = sY & PREC_MAXVAL;
+    int ifV = PREC_MAXVAL - fracV;
+    int v1 = (sY >> PRECISIONB) * iw;
+    int v2 = low((sY >> PRECISIONB) + 1, ih1) * iw;
+
+    for (int x = 0; x < count; x++) {
+      int fracU = sX & PREC_MAXVAL;
+      int ifU = PREC_MAXVAL - fracU;
+      int ul = (ifU * ifV) >> PRECISIONB;
+      int ll = (ifU * fracV) >> PRECISIONB;
+      int ur = (fracU * ifV) >> PRECISIONB;
+      int lr = (fracU * fracV) >> PRECISIONB;
+      int u1 = (sX >> PRECISIONB);
+      int u2 = low(u1 + 1, iw1);
+
+      // get color values of the 4 neighbouring texels
+      int cUL = srcBuffer[v1 + u1];
+      int cUR = srcBuffer[v1 + u2];
+      int cLL = srcBuffer[v2 + u1];
+      int cLR = srcBuffer[v2 + u2];
+
+      int r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
+                ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
+               << PREC_RED_SHIFT) & RED_MASK;
+
+      int g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
+                ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
+               >>> PRECISIONB) & GREEN_MASK;
+
+      int b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
+               ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
+                 >>> PRECISIONB;
+
+      int a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
+                ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
+               << PREC_ALPHA_SHIFT) & ALPHA_MASK;
+
+      line[x] = a | r | g | b;
+      sX += dx;
+    }
   }
 
 
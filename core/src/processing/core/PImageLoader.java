@@ -0,0 +1,578 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Loads images for loadImage() and requestImage(), and keeps the ones
+ * that were loaded recently so that loading the same file again is only
+ * a copy of its pixels.
+ * <P>
+ * requestImage() hands its images to a fixed number of threads (set by
+ * requestImageMax, or with setThreadCount()). If the same image is
+ * asked for again while it's still loading, whether by requestImage()
+ * or loadImage(), it's only loaded once and each caller gets a copy.
+ * An image that was requested but isn't needed any more can be dropped
+ * with cancel().
+ * <P>
+ * The cache holds up to a number of bytes of pixels (4 per pixel), and
+ * when it's full, the images that have gone unused the longest make room
+ * for new ones. Images are looked up by the name and extension they were
+ * loaded with, and for local files, the time the file was last modified,
+ * so a file that has changed is loaded again. (Images from URLs are
+ * assumed not to change; use remove() or clear() if they do.) Set the
+ * cache size to 0 to turn it off.
+ * <P>
+ * Every caller gets its own copy of the pixels, so changing one image
+ * doesn't change the others, or the one in the cache.
+ */
+public class PImageLoader {
+  /** 32 MB, enough for a few full-screen images or lots of small ones */
+  static public final long DEFAULT_CACHE_SIZE = 32L * 1024 * 1024;
+
+  protected PApplet parent;
+
+  /** 0 until it's set, to use the parent's requestImageMax */
+  protected int threadCount;
+  protected ExecutorService executor;
+
+  protected long cacheSize = DEFAULT_CACHE_SIZE;
+  protected long cacheUsed;
+  protected LinkedHashMap<Key,PImage> cache =
+    new LinkedHashMap<Key,PImage>(16, 0.75f, true);
+
+  /** loads that are queued or running, so they can be shared */
+  protected HashMap<Key,Request> pending = new HashMap<Key,Request>();
+  /** which load each requested image is waiting on */
+  protected IdentityHashMap<PImage,Request> waiting =
+    new IdentityHashMap<PImage,Request>();
+
+  protected int hits;
+  protected int misses;
+  protected int shared;
+  protected int evictions;
+  protected int cancelled;
+  protected int loads;
+  protected int failures;
+  protected long loadTime;
+  protected long maxLoadTime;
+
+
+  public PImageLoader(PApplet parent) {
+    this.parent = parent;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Load an image on this thread, or wait for it if it's already loading.
+   * Same as loadImage(), it returns null if the image can't be found, and
+   * an image with a width and height of -1 if its data is bad.
+   */
+  public PImage load(String filename, String extension) {
+    Key key = new Key(filename, extension, lastModified(filename));
+    Request request;
+    boolean mine = false;
+
+    synchronized (this) {
+      PImage cached = cache.get(key);
+      if (cached != null) {
+        hits++;
+        return copy(cached, null);
+      }
+      request = pending.get(key);
+      if (request == null) {
+        misses++;
+        request = new Request(key);
+        pending.put(key, request);
+        mine = true;
+      } else {
+        shared++;
+      }
+      request.waiters++;
+    }
+
+    if (mine) {
+      request.run();
+    } else {
+      request.await();
+    }
+    synchronized (this) {
+      request.waiters--;
+    }
+    if (request.loaded && !request.owned) {
+      return copy(request.result, null);
+    }
+    // the only one waiting, and not cached, so no need for a copy (or
+    // null, or an image with a width of -1, if it couldn't be loaded)
+    return request.result;
+  }
+
+
+  /**
+   * Start loading an image on one of the loader threads, and return an
+   * empty image right away. Its width and height are 0 until it's done
+   * loading, and -1 if it couldn't be loaded (or was cancelled).
+   */
+  public PImage request(String filename, String extension) {
+    PImage vessel = parent.createImage(0, 0, PConstants.ARGB);
+    Key key = new Key(filename, extension, lastModified(filename));
+
+    synchronized (this) {
+      PImage cached = cache.get(key);
+      if (cached != null) {
+        hits++;
+        copy(cached, vessel);
+        return vessel;
+      }
+      Request request = pending.get(key);
+      if (request == null) {
+        misses++;
+        request = new Request(key);
+        pending.put(key, request);
+        request.vessels.add(vessel);
+        waiting.put(vessel, request);
+        submit(request);
+      } else {
+        shared++;
+        request.vessels.add(vessel);
+        waiting.put(vessel, request);
+      }
+    }
+    return vessel;
+  }
+
+
+  /**
+   * Stop waiting for an image from request(). If nothing else is waiting
+   * for the same image and it hasn't started loading, it won't be loaded
+   * at all. The image's width and height are set to -1. Returns false if
+   * it had already finished loading.
+   */
+  public boolean cancel(PImage vessel) {
+    synchronized (this) {
+      Request request = waiting.remove(vessel);
+      if (request == null) return false;
+
+      request.vessels.remove(vessel);
+      if (request.vessels.isEmpty() && request.waiters == 0 &&
+          !request.started) {
+        if (request.future != null) {
+          request.future.cancel(false);
+        }
+        request.cancelled = true;
+        pending.remove(request.key);
+        request.done.countDown();
+      }
+      cancelled++;
+    }
+    vessel.width = -1;
+    vessel.height = -1;
+    return true;
+  }
+
+
+  protected synchronized void submit(Request request) {
+    request.future = getExecutor().submit(request);
+  }
+
+
+  protected synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(getThreadCount(),
+                                              new ThreadFactory() {
+        int index;
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "Processing Image Loader " + ++index);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+
+  /**
+   * Set the number of threads used by request(). Images that are already
+   * queued are still loaded by the old threads.
+   */
+  public synchronized void setThreadCount(int count) {
+    count = Math.max(1, count);
+    if (count != getThreadCount()) {
+      threadCount = count;
+      if (executor != null) {
+        executor.shutdown();
+        executor = null;
+      }
+    }
+  }
+
+
+  public synchronized int getThreadCount() {
+    if (threadCount == 0) {
+      return Math.max(1, parent.requestImageMax);
+    }
+    return threadCount;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // CACHE
+
+
+  /**
+   * Change how many bytes of pixels are kept, dropping the images that
+   * have gone unused the longest if there are already more than that.
+   */
+  public synchronized void setCacheSize(long bytes) {
+    cacheSize = Math.max(0, bytes);
+    trim();
+  }
+
+
+  public synchronized long getCacheSize() {
+    return cacheSize;
+  }
+
+
+  /** Bytes of pixels in the cache right now. */
+  public synchronized long getCacheUsed() {
+    return cacheUsed;
+  }
+
+
+  /** Number of images in the cache right now. */
+  public synchronized int getCacheCount() {
+    return cache.size();
+  }
+
+
+  /** Drop the cached copies of an image, however it was loaded. */
+  public synchronized void remove(String filename) {
+    Iterator<Map.Entry<Key,PImage>> it = cache.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key,PImage> entry = it.next();
+      if (entry.getKey().filename.equals(filename)) {
+        cacheUsed -= bytes(entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+
+  /** Drop all the cached images. */
+  public synchronized void clear() {
+    cache.clear();
+    cacheUsed = 0;
+  }
+
+
+  /**
+   * Add an image to the cache, unless it's bigger than the whole cache.
+   * Returns false if it wasn't added.
+   */
+  protected synchronized boolean put(Key key, PImage image) {
+    long size = bytes(image);
+    if (size > cacheSize) return false;
+
+    PImage previous = cache.put(key, image);
+    if (previous != null) {
+      cacheUsed -= bytes(previous);
+    }
+    cacheUsed += size;
+    trim();
+    return true;
+  }
+
+
+  protected void trim() {
+    Iterator<PImage> it = cache.values().iterator();
+    while (cacheUsed > cacheSize && it.hasNext()) {
+      cacheUsed -= bytes(it.next());
+      it.remove();
+      evictions++;
+    }
+  }
+
+
+  static long bytes(PImage image) {
+    return (image.pixels == null) ? 0 : 4L * image.pixels.length;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // METRICS
+
+
+  /** Number of loads answered from the cache. */
+  public synchronized int getHits() {
+    return hits;
+  }
+
+
+  /** Number of loads that weren't in the cache, or already loading. */
+  public synchronized int getMisses() {
+    return misses;
+  }
+
+
+  /** Number of loads that shared an image that was already loading. */
+  public synchronized int getShared() {
+    return shared;
+  }
+
+
+  /** Number of images dropped from the cache to make room for others. */
+  public synchronized int getEvictions() {
+    return evictions;
+  }
+
+
+  public synchronized int getCancelled() {
+    return cancelled;
+  }
+
+
+  /** Number of images actually read and decoded. */
+  public synchronized int getLoadCount() {
+    return loads;
+  }
+
+
+  /** Number of images that couldn't be loaded. */
+  public synchronized int getFailures() {
+    return failures;
+  }
+
+
+  /** Number of images that are queued or loading right now. */
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+
+  /** Average time it took to read and decode an image, in milliseconds. */
+  public synchronized float getAverageLoadTime() {
+    return (loads == 0) ? 0 : loadTime / (loads * 1e6f);
+  }
+
+
+  /** Longest time it took to read and decode an image, in milliseconds. */
+  public synchronized float getMaxLoadTime() {
+    return maxLoadTime / 1e6f;
+  }
+
+
+  /** Reset the counts and times (but not the cache). */
+  public synchronized void resetMetrics() {
+    hits = 0;
+    misses = 0;
+    shared = 0;
+    evictions = 0;
+    cancelled = 0;
+    loads = 0;
+    failures = 0;
+    loadTime = 0;
+    maxLoadTime = 0;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Copy an image into target, or into a new image if target is null.
+   */
+  protected PImage copy(PImage source, PImage target) {
+    int[] pixels = new int[source.pixels.length];
+    System.arraycopy(source.pixels, 0, pixels, 0, pixels.length);
+    if (target == null) {
+      target = parent.createImage(0, 0, source.format);
+    }
+    // pixels before size, for sketches watching width to see when it's done
+    target.format = source.format;
+    target.pixels = pixels;
+    target.height = source.height;
+    target.width = source.width;
+    return target;
+  }
+
+
+  /**
+   * When a file in the data folder, the sketch folder, or elsewhere on
+   * the disk was last modified, or 0 for URLs and everything else.
+   */
+  protected long lastModified(String filename) {
+    if (filename == null || filename.indexOf("://") != -1) return 0;
+    try {
+      File file = parent.dataFile(filename);
+      if (!file.exists()) {
+        file = new File(parent.sketchPath(filename));
+      }
+      if (!file.exists()) {
+        file = new File(filename);
+      }
+      return file.lastModified();  // 0 if it doesn't exist
+
+    } catch (SecurityException e) {
+      return 0;
+    }
+  }
+
+
+  static class Key {
+    String filename;
+    String extension;
+    long modified;
+
+    Key(String filename, String extension, long modified) {
+      this.filename = filename;
+      this.extension = extension;
+      this.modified = modified;
+    }
+
+    public int hashCode() {
+      int hash = filename.hashCode() * 31 + (int) (modified ^ (modified >>> 32));
+      return (extension == null) ? hash : hash * 31 + extension.hashCode();
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return (filename.equals(other.filename) &&
+              modified == other.modified &&
+              (extension == null ? other.extension == null :
+               extension.equals(other.extension)));
+    }
+  }
+
+
+  /**
+   * One image being loaded, and everything waiting for it.
+   */
+  class Request implements Runnable {
+    Key key;
+    /** images from request() that get a copy when it's done */
+    ArrayList<PImage> vessels = new ArrayList<PImage>();
+    /** number of load() calls waiting for it */
+    int waiters;
+    Future<?> future;
+    boolean started;
+    boolean cancelled;
+    PImage result;
+    boolean loaded;
+    /** result can be handed to the one load() waiting, without a copy */
+    boolean owned;
+    CountDownLatch done = new CountDownLatch(1);
+
+    Request(Key key) {
+      this.key = key;
+    }
+
+    public void run() {
+      synchronized (PImageLoader.this) {
+        if (cancelled) return;
+        started = true;
+      }
+      long t = System.nanoTime();
+      try {
+        result = parent.decodeImage(key.filename, key.extension);
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      } finally {
+        // Also when decoding throws an Error (like an OutOfMemoryError for
+        // a huge image), which then carries on up after the request has
+        // been marked as failed, so that nothing is left waiting for it.
+        try {
+          finish(System.nanoTime() - t);
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+
+    private void finish(long t) {
+      // a width of -1 means the data was bad
+      loaded = (result != null && result.width > 0 && result.pixels != null);
+
+      PImage[] targets;
+      synchronized (PImageLoader.this) {
+        loads++;
+        loadTime += t;
+        maxLoadTime = Math.max(maxLoadTime, t);
+        if (loaded) {
+          // load() calls can't join once it's out of pending, so if only
+          // one is waiting and the cache didn't keep it, it's theirs
+          owned = !put(key, result) && waiters == 1;
+        } else {
+          failures++;
+        }
+        pending.remove(key);
+        targets = vessels.toArray(new PImage[vessels.size()]);
+        for (int i = 0; i < targets.length; i++) {
+          waiting.remove(targets[i]);
+        }
+      }
+      for (int i = 0; i < targets.length; i++) {
+        if (loaded) {
+          copy(result, targets[i]);
+        } else {
+          targets[i].width = -1;
+          targets[i].height = -1;
+        }
+      }
+    }
+
+    void await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Reads the lines of a UTF-8 stream one at a time, for files that are
+ * too big to load into a String[] with loadStrings(). Lines end with
+ * a newline, a carriage return, or both, the same as loadStrings().
+ * <PRE>
+ * PLineReader reader = createLineReader("huge.csv");
+ * while (reader.next()) {
+ *   String[] pieces = split(reader.getLine(), ',');
+ *   ...
+ * }
+ * reader.close();
+ * </PRE>
+ * Or to just go through all of them:
+ * <PRE>
+ * for (String line : createLineReader("huge.csv")) { ... }
+ * </PRE>
+ * The characters of the current line can also be read straight from
+ * the reader's buffer with getChars(), getStart() and getLength(),
+ * so that a String doesn't have to be made for every line.
+ */
+public class PLineReader implements Iterable<String> {
+  static final int BYTE_BUFFER_SIZE = 1 << 16;
+  static final int CHAR_BUFFER_SIZE = 1 << 14;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  InputStream input;
+  CharsetDecoder decoder;
+  ByteBuffer bytes;
+
+  char[] chars;
+  CharBuffer charBuffer;
+  /** number of decoded characters in chars */
+  int limit;
+  /** true once the end of the input stream has been reached */
+  boolean eof;
+  /** true when all the input has been decoded into chars */
+  boolean done;
+
+  /** the current line is chars[start, stop) */
+  int start;
+  int stop;
+  /** where the next line starts */
+  int pos;
+
+  int lineNr;
+  String line;
+
+
+  public PLineReader(InputStream input) {
+    this.input = input;
+    decoder = UTF8.newDecoder();
+    decoder.onMalformedInput(CodingErrorAction.REPLACE);
+    decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+    bytes.flip();  // empty, ready to be decoded from
+    chars = new char[CHAR_BUFFER_SIZE];
+    charBuffer = CharBuffer.wrap(chars);
+  }
+
+
+  /**
+   * Move to the next line. Returns false when there are no more.
+   */
+  public boolean next() throws IOException {
+    line = null;
+    start = pos;
+    int i = start;
+    while (true) {
+      while (i < limit) {
+        char c = chars[i];
+        if (c == '\n') {
+          stop = i;
+          pos = i + 1;
+          lineNr++;
+          return true;
+        }
+        if (c == '\r') {
+          if (i + 1 < limit || done) {
+            stop = i;
+            pos = (i + 1 < limit && chars[i + 1] == '\n') ? i + 2 : i + 1;
+            lineNr++;
+            return true;
+          }
+          break;  // need to know if a \n comes next
+        }
+        i++;
+      }
+      if (done) {
+        if (start == limit) {
+          stop = start;
+          return false;
+        }
+        stop = limit;
+        pos = limit;
+        lineNr++;
+        return true;
+      }
+      int shift = start;
+      fill();
+      i -= shift;
+    }
+  }
+
+
+  /**
+   * Move the current line to the front of the buffer, and decode
+   * more characters after it.
+   */
+  protected void fill() throws IOException {
+    if (start != 0) {
+      System.arraycopy(chars, start, chars, 0, limit - start);
+      limit -= start;
+      pos -= start;
+      stop -= start;
+      start = 0;
+    }
+    if (chars.length - limit < 2) {  // room for at least a surrogate pair
+      char[] temp = new char[chars.length << 1];
+      System.arraycopy(chars, 0, temp, 0, limit);
+      chars = temp;
+      charBuffer = CharBuffer.wrap(chars);
+    }
+
+    int before = limit;
+    while (limit == before && !done) {
+      charBuffer.limit(chars.length);
+      charBuffer.position(limit);
+      CoderResult result = decoder.decode(bytes, charBuffer, eof);
+      if (eof && result.isUnderflow()) {
+        decoder.flush(charBuffer);
+        done = true;
+      }
+      limit = charBuffer.position();
+
+      if (result.isUnderflow() && !eof) {
+        // out of bytes, read more after the ones left over
+        bytes.compact();
+        int count = input.read(bytes.array(),
+                               bytes.arrayOffset() + bytes.position(),
+                               bytes.remaining());
+        if (count == -1) {
+          eof = true;
+        } else {
+          bytes.position(bytes.position() + count);
+        }
+        bytes.flip();
+      }
+    }
+  }
+
+
+  /**
+   * The current line. The String is only made the first time this
+   * is called for each line.
+   */
+  public String getLine() {
+    if (line == null) {
+      line = new String(chars, start, stop - start);
+    }
+    return line;
+  }
+
+
+  /**
+   * The buffer that holds the characters of the current line, from
+   * getStart() to getStart() + getLength(). The contents (and the buffer
+   * itself) change when next() is called.
+   */
+  public char[] getChars() {
+    return chars;
+  }
+
+
+  public int getStart() {
+    return start;
+  }
+
+
+  public int getLength() {
+    return stop - start;
+  }
+
+
+  /** Number of the current line, starting at 1. */
+  public int getLineNr() {
+    return lineNr;
+  }
+
+
+  public void close() {
+    try {
+      input.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+
+  /**
+   * Goes through the rest of the lines, and closes the stream once
+   * they've all been read.
+   */
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      boolean ready;
+      boolean more = true;
+
+      public boolean hasNext() {
+        if (!ready && more) {
+          try {
+            more = PLineReader.this.next();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          ready = true;
+          if (!more) close();
+        }
+        return more;
+      }
+
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        ready = false;
+        return getLine();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -304,6 +304,38 @@ public class PMatrix2D implements PMatrix {
   }
 
 
+  /**
+   * Multiply the x and y coordinates of all the vectors in source against
+   * this matrix, the same as mult(PVector, PVector) does for each. The z
+   * coordinates in target aren't changed. The source and target can be the
+   * same. If target is null, a new PVectorArray is returned.
+   */
+  public PVectorArray mult(PVectorArray source, PVectorArray target) {
+    final int count = source.size();
+    if (target == null) {
+      target = new PVectorArray(count);
+    } else if (target.size() < count) {
+      throw new IllegalArgumentException("The target PVectorArray has " +
+                                         target.size() + " vectors, " +
+                                         "not " + count);
+    }
+    final float[] in = source.coords;
+    final float[] out = target.coords;
+    final float n00 = m00, n01 = m01, n02 = m02;
+    final float n10 = m10, n11 = m11, n12 = m12;
+    PWorkerPool.run(count, PVectorArray.PARALLEL_MIN, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        for (int i = start*3; i < stop*3; i += 3) {
+          float x = in[i], y = in[i+1];
+          out[i]   = n00*x + n01*y + n02;
+          out[i+1] = n10*x + n11*y + n12;
+        }
+      }
+    });
+    return target;
+  }
+
+
   /**
    * Multiply a two element vector against this matrix.
    * If out is null or not length four, a new float array will be returned.
@@ -425,6 +425,39 @@ public final class PMatrix3D implements PMatrix /*, PConstants*/ {
   }
 
 
+  /**
+   * Multiply all the vectors in source against this matrix, the same as
+   * mult(PVector, PVector) does for each. The source and target can be
+   * the same. If target is null, a new PVectorArray is returned.
+   */
+  public PVectorArray mult(PVectorArray source, PVectorArray target) {
+    final int count = source.size();
+    if (target == null) {
+      target = new PVectorArray(count);
+    } else if (target.size() < count) {
+      throw new IllegalArgumentException("The target PVectorArray has " +
+                                         target.size() + " vectors, " +
+                                         "not " + count);
+    }
+    final float[] in = source.coords;
+    final float[] out = target.coords;
+    final float n00 = m00, n01 = m01, n02 = m02, n03 = m03;
+    final float n10 = m10, n11 = m11, n12 = m12, n13 = m13;
+    final float n20 = m20, n21 = m21, n22 = m22, n23 = m23;
+    PWorkerPool.run(count, PVectorArray.PARALLEL_MIN, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        for (int i = start*3; i < stop*3; i += 3) {
+          float x = in[i], y = in[i+1], z = in[i+2];
+          out[i]   = n00*x + n01*y + n02*z + n03;
+          out[i+1] = n10*x + n11*y + n12*z + n13;
+          out[i+2] = n20*x + n21*y + n22*z + n23;
+        }
+      }
+    });
+    return target;
+  }
+
+
   /*
   public PVector cmult(PVector source, PVector target) {
     if (target == null) {
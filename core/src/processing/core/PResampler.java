@@ -0,0 +1,358 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+
+/**
+ * Scales images from one size to another, using one of these filters:
+ * <UL>
+ * <LI>NEAREST - the closest pixel, fast but blocky.
+ * <LI>BILINEAR - a tent shape covering the neighboring pixels, widened
+ *     when shrinking so that every pixel still counts.
+ * <LI>AREA - the average of the pixels covered, which gives the cleanest
+ *     results when shrinking. Enlarging is the same as BILINEAR.
+ * <LI>LANCZOS - a windowed sinc over three pixels to either side, the
+ *     sharpest of the four, though it can ring around hard edges.
+ * </UL>
+ * The weights for each column and row of the result are worked out when
+ * the PResampler is created, so keeping one around (or using get()) for
+ * images of the same size saves that step. Images are resampled in bands
+ * on the threads of PWorkerPool. Each band resizes the source rows it
+ * needs across, keeping only the last few, and then combines them down
+ * the columns. A PResampler can be used by several threads at once.
+ * <P>
+ * All four channels are filtered separately, without premultiplying
+ * by alpha, the same way the rest of PImage treats them.
+ */
+public class PResampler implements PConstants {
+  /** weights are fixed point numbers with this many bits of fraction */
+  static final int WEIGHT_BITS = 12;
+  /** bits of fraction kept for the rows once they're resized across */
+  static final int EXTRA_BITS = 8;
+
+  static final int CACHE_SIZE = 8;
+  static PResampler[] cache = new PResampler[CACHE_SIZE];
+
+  protected int srcWidth, srcHeight;
+  protected int destWidth, destHeight;
+  protected int filter;
+
+  // For each column (and row) of the result: the first source column it
+  // reads, how many it reads, and where its weights start. With NEAREST,
+  // only 'columnStart' is used, as the one source column to copy.
+  private int[] columnStart, columnCount, columnOffset, columnWeights;
+  private int[] rowStart, rowCount, rowOffset, rowWeights;
+
+
+  public PResampler(int srcWidth, int srcHeight,
+                    int destWidth, int destHeight, int filter) {
+    if (srcWidth <= 0 || srcHeight <= 0 || destWidth <= 0 || destHeight <= 0) {
+      throw new RuntimeException("Can't resample from " +
+                                 srcWidth + "x" + srcHeight + " to " +
+                                 destWidth + "x" + destHeight);
+    }
+    if (filter != NEAREST && filter != BILINEAR &&
+        filter != AREA && filter != LANCZOS) {
+      throw new RuntimeException("Use NEAREST, BILINEAR, AREA or " +
+                                 "LANCZOS for the resampling filter");
+    }
+    this.srcWidth = srcWidth;
+    this.srcHeight = srcHeight;
+    this.destWidth = destWidth;
+    this.destHeight = destHeight;
+    this.filter = filter;
+
+    columnStart = new int[destWidth];
+    rowStart = new int[destHeight];
+    if (filter == NEAREST) {
+      nearest(srcWidth, destWidth, columnStart);
+      nearest(srcHeight, destHeight, rowStart);
+
+    } else {
+      columnCount = new int[destWidth];
+      columnOffset = new int[destWidth];
+      columnWeights = weights(srcWidth, destWidth,
+                              columnStart, columnCount, columnOffset);
+      rowCount = new int[destHeight];
+      rowOffset = new int[destHeight];
+      rowWeights = weights(srcHeight, destHeight,
+                           rowStart, rowCount, rowOffset);
+    }
+  }
+
+
+  /**
+   * Returns a PResampler for these sizes and filter, reusing one of the
+   * last few that were asked for if possible.
+   */
+  static public PResampler get(int srcWidth, int srcHeight,
+                               int destWidth, int destHeight, int filter) {
+    synchronized (cache) {
+      for (int i = 0; i < CACHE_SIZE; i++) {
+        PResampler r = cache[i];
+        if (r != null &&
+            r.srcWidth == srcWidth && r.srcHeight == srcHeight &&
+            r.destWidth == destWidth && r.destHeight == destHeight &&
+            r.filter == filter) {
+          // move it to the front, so the oldest is the one pushed out
+          System.arraycopy(cache, 0, cache, 1, i);
+          cache[0] = r;
+          return r;
+        }
+      }
+    }
+    PResampler r = new PResampler(srcWidth, srcHeight,
+                                  destWidth, destHeight, filter);
+    synchronized (cache) {
+      System.arraycopy(cache, 0, cache, 1, CACHE_SIZE - 1);
+      cache[0] = r;
+    }
+    return r;
+  }
+
+
+  public int getFilter() {
+    return filter;
+  }
+
+
+  /**
+   * Resample all of 'src' into all of 'dest'. The arrays hold images of
+   * the sizes this PResampler was created for, and can't be the same.
+   */
+  public void resample(int[] src, int[] dest) {
+    resample(src, 0, srcWidth, dest, 0, destWidth);
+  }
+
+
+  /**
+   * Resample part of one image into part of another. The part of 'src'
+   * starts at 'srcOffset' with rows 'srcStride' pixels apart (usually the
+   * width of the whole image), and the same for 'dest'. The two parts
+   * can't be in the same array.
+   */
+  public void resample(final int[] src, final int srcOffset, final int srcStride,
+                       final int[] dest, final int destOffset, final int destStride) {
+    if (filter == NEAREST) {
+      PWorkerPool.run(destHeight, minimumRows(destWidth),
+                      new PWorkerPool.Task() {
+        public void run(int start, int stop) {
+          for (int y = start; y < stop; y++) {
+            int srcRow = srcOffset + rowStart[y]*srcStride;
+            int destRow = destOffset + y*destStride;
+            for (int x = 0; x < destWidth; x++) {
+              dest[destRow + x] = src[srcRow + columnStart[x]];
+            }
+          }
+        }
+      });
+      return;
+    }
+
+    // Each band of the result works its way down the source, resizing
+    // the rows it needs across as it goes, with each of the channels in
+    // an int of its own. Only the last few rows are kept around, as many
+    // as a row of the result reads at most.
+    int most = 1;
+    for (int y = 0; y < destHeight; y++) {
+      most = Math.max(most, rowCount[y]);
+    }
+    final int window = most;
+
+    PWorkerPool.run(destHeight, minimumRows(destWidth), new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        int count = destWidth * 4;
+        int[] across = new int[window * count];
+        int[] sums = new int[count];
+        int shift = WEIGHT_BITS + EXTRA_BITS;
+        int round = 1 << (shift - 1);
+        // the source rows in 'across' are [max(low, next - window), next)
+        int low = 0;
+        int next = 0;
+        for (int y = start; y < stop; y++) {
+          int first = rowStart[y];
+          int last = first + rowCount[y];
+          if (first < Math.max(low, next - window) || first > next) {
+            low = next = first;  // nothing useful left from the last row
+          }
+          while (next < last) {
+            resampleRow(src, srcOffset + next*srcStride,
+                        across, (next % window) * count);
+            next++;
+          }
+
+          java.util.Arrays.fill(sums, round);
+          int w = rowOffset[y];
+          int stopW = w + rowCount[y];
+          for (int row = first; w < stopW; row++) {
+            int weight = rowWeights[w++];
+            int index = (row % window) * count;
+            for (int i = 0; i < count; i++) {
+              sums[i] += weight * across[index++];
+            }
+          }
+          int destRow = destOffset + y*destStride;
+          for (int x = 0, i = 0; x < destWidth; x++) {
+            int a = clamp(sums[i++] >> shift);
+            int r = clamp(sums[i++] >> shift);
+            int g = clamp(sums[i++] >> shift);
+            int b = clamp(sums[i++] >> shift);
+            dest[destRow + x] = a << 24 | r << 16 | g << 8 | b;
+          }
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Resize one row of the source across, into 'out' starting at 'index',
+   * with four ints (alpha, red, green, blue) for each pixel of the result.
+   */
+  private void resampleRow(int[] src, int srcRow, int[] out, int index) {
+    int shift = WEIGHT_BITS - EXTRA_BITS;
+    int round = 1 << (shift - 1);
+    for (int x = 0; x < destWidth; x++) {
+      int a = round, r = round, g = round, b = round;
+      int read = srcRow + columnStart[x];
+      int w = columnOffset[x];
+      int stopW = w + columnCount[x];
+      while (w < stopW) {
+        int weight = columnWeights[w++];
+        int argb = src[read++];
+        a += weight * (argb >>> 24);
+        r += weight * ((argb >> 16) & 0xff);
+        g += weight * ((argb >> 8) & 0xff);
+        b += weight * (argb & 0xff);
+      }
+      out[index++] = a >> shift;
+      out[index++] = r >> shift;
+      out[index++] = g >> shift;
+      out[index++] = b >> shift;
+    }
+  }
+
+
+  static private int minimumRows(int width) {
+    return Math.max(1, PImage.MIN_PARALLEL_PIXELS / width);
+  }
+
+
+  static private int clamp(int value) {
+    return (value < 0) ? 0 : ((value > 255) ? 255 : value);
+  }
+
+
+  /**
+   * The source pixel closest to the center of each pixel of the result.
+   */
+  static private void nearest(int srcSize, int destSize, int[] index) {
+    double scale = (double) srcSize / destSize;
+    for (int i = 0; i < destSize; i++) {
+      index[i] = Math.min(srcSize - 1, (int) ((i + 0.5) * scale));
+    }
+  }
+
+
+  /**
+   * Work out the weights of the source pixels for each pixel of the
+   * result along one axis, as fixed point numbers that add up to exactly
+   * one. Pixels past the edge of the image are left out, and the rest
+   * weighted up to make up for them.
+   * @return the weights, with each pixel's found at 'offset'
+   */
+  private int[] weights(int srcSize, int destSize,
+                        int[] start, int[] count, int[] offset) {
+    double scale = (double) srcSize / destSize;
+    // stretch the filter over more pixels when shrinking
+    double stretch = Math.max(1, scale);
+    double radius = ((filter == LANCZOS) ? 3 : 1) * stretch;
+
+    int[] weights = new int[destSize * ((int) Math.ceil(radius) * 2 + 2)];
+    double[] values = new double[weights.length / destSize];
+    int used = 0;
+
+    for (int i = 0; i < destSize; i++) {
+      int first, last;
+      if (filter == AREA && scale > 1) {
+        // how much of each pixel falls between left and right
+        double left = i * scale;
+        double right = Math.min(srcSize, (i + 1) * scale);
+        first = (int) left;
+        last = Math.min(srcSize - 1, (int) Math.ceil(right) - 1);
+        for (int j = first; j <= last; j++) {
+          values[j - first] = Math.min(right, j + 1) - Math.max(left, j);
+        }
+      } else {
+        double center = (i + 0.5) * scale;
+        first = Math.max(0, (int) Math.floor(center - radius));
+        last = Math.min(srcSize - 1, (int) Math.ceil(center + radius));
+        for (int j = first; j <= last; j++) {
+          values[j - first] = kernel((j + 0.5 - center) / stretch);
+        }
+      }
+
+      // leave out pixels with no weight at either end
+      while (last > first && values[last - first] == 0) last--;
+      int skip = 0;
+      while (first + skip < last && values[skip] == 0) skip++;
+      first += skip;
+
+      double total = 0;
+      for (int j = 0; j <= last - first; j++) {
+        total += values[j + skip];
+      }
+      int sum = 0;
+      int largest = 0;
+      for (int j = 0; j <= last - first; j++) {
+        int w = (int) Math.round(values[j + skip] / total * (1 << WEIGHT_BITS));
+        weights[used + j] = w;
+        sum += w;
+        if (Math.abs(w) > Math.abs(weights[used + largest])) largest = j;
+      }
+      // rounding errors go to the largest weight, so nothing gets brighter
+      weights[used + largest] += (1 << WEIGHT_BITS) - sum;
+
+      start[i] = first;
+      count[i] = last - first + 1;
+      offset[i] = used;
+      used += count[i];
+    }
+    return weights;
+  }
+
+
+  /**
+   * The filter's weight for a pixel 'x' pixels from the center.
+   */
+  private double kernel(double x) {
+    x = Math.abs(x);
+    if (filter == LANCZOS) {
+      if (x < 1e-8) return 1;
+      if (x >= 3) return 0;
+      double px = Math.PI * x;
+      return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+    }
+    // BILINEAR, and AREA when enlarging
+    return (x < 1) ? 1 - x : 0;
+  }
+}
@@ -153,6 +153,9 @@ public class PShape implements PConstants {
   protected int childCount;
   protected PShape[] children;
 
+  /** Geometry kept by each renderer that has drawn this shape. */
+  protected HashMap<Object,Object> cacheMap;
+
   // POINTS, LINES, xLINE_STRIP, xLINE_LOOP
   // TRIANGLES, TRIANGLE_STRIP, TRIANGLE_FAN
   // QUADS, QUAD_STRIP
@@ -264,6 +267,55 @@ public class PShape implements PConstants {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
+  /**
+   * Store data of some kind for a renderer, usually the geometry of this
+   * shape in a form that's quicker for that renderer to draw again, for
+   * instance a GeneralPath for PGraphicsJava2D, or the triangles that a
+   * path was split into for PGraphics3D.
+   */
+  public void setCache(Object parent, Object storage) {
+    if (cacheMap == null) cacheMap = new HashMap<Object, Object>();
+    cacheMap.put(parent, storage);
+  }
+
+
+  /**
+   * Get cache storage data for the specified renderer.
+   * @param parent The PGraphics object (or any object, really) associated
+   * @return data stored for the specified parent
+   */
+  public Object getCache(Object parent) {
+    if (cacheMap == null) return null;
+    return cacheMap.get(parent);
+  }
+
+
+  /**
+   * Remove information associated with this renderer from the cache, if any.
+   * @param parent The PGraphics object whose cache data should be removed
+   */
+  public void removeCache(Object parent) {
+    if (cacheMap != null) {
+      cacheMap.remove(parent);
+    }
+  }
+
+
+  /**
+   * Call after changing the vertices of this shape, so that renderers
+   * throw away what they've kept from drawing it before. Transformations
+   * and styles don't need this, since they're applied at each draw().
+   */
+  public void setModified() {
+    if (cacheMap != null) {
+      cacheMap.clear();
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
 //  protected void checkBounds() {
 //    if (width == 0 || height == 0) {
 //      // calculate bounds here (also take kids into account)
@@ -560,6 +612,10 @@ public class PShape implements PConstants {
     // http://dev.processing.org/bugs/show_bug.cgi?id=982
     if (vertices == null) return;
 
+    // use what the renderer kept from the last time, if it can
+    if (g.drawCachedPath(this)) return;
+    g.cachingShape = this;
+
     g.beginShape();
 
     if (vertexCodeCount == 0) {  // each point is a simple vertex
@@ -627,6 +683,7 @@ public class PShape implements PConstants {
       }
     }
     g.endShape(close ? CLOSE : OPEN);
+    g.cachingShape = null;
   }
 
 
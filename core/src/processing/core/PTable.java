@@ -0,0 +1,748 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Numbers from a CSV or TSV file, kept as one float[] or int[] for each
+ * column. The numbers are parsed straight from the bytes of the file, so
+ * no Strings are made for the lines or the fields along the way.
+ * <PRE>
+ * PTable table = loadTable("sensors.csv", true);
+ * float[] x = table.getFloatColumn("x");
+ * float[] y = table.getFloatColumn("y");
+ * </PRE>
+ * Only the columns that are asked for are kept, so a table can be loaded
+ * from a file that's much bigger than memory, as long as those columns
+ * fit. Files are read a piece at a time, and the pieces are
+ * parsed in parallel by the PWorkerPool threads. Other streams (URLs,
+ * gzipped files) are read and parsed in order.
+ * <P>
+ * Fields may be wrapped in double quotes, and spaces around them are
+ * ignored, but a field can't contain a newline. Fields that aren't
+ * numbers (including empty and missing ones) become NaN in float
+ * columns and 0 in int columns, the same as parseFloat() and parseInt().
+ * Blank lines are skipped.
+ */
+public class PTable {
+  /** Column type for columns that aren't loaded. */
+  static public final int SKIP = 0;
+  static public final int INT = 1;
+  static public final int FLOAT = 2;
+
+  /** size of the pieces that a file is split into for parsing */
+  static final int CHUNK_SIZE = 1 << 24;
+  /** size of the reads used for streams and for finding lines in files */
+  static final int READ_SIZE = 1 << 16;
+
+  static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+    }
+  }
+
+  protected char delimiter;
+  protected int rowCount;
+  protected int columnCount;
+  /** null when the file had no header line */
+  protected String[] columnNames;
+  protected int[] columnTypes;
+  /** float[] or int[] for each column, or null for skipped columns */
+  protected Object[] columns;
+
+
+  /**
+   * Load every column as floats.
+   *
+   * @param delimiter ',' for CSV or '\t' for TSV
+   * @param header true if the first line has the names of the columns
+   */
+  public PTable(InputStream input, char delimiter,
+                boolean header) throws IOException {
+    this(input, delimiter, header, null);
+  }
+
+
+  /**
+   * Load the columns with the types given (INT, FLOAT or SKIP), one for
+   * each column from the left. Columns past the end of the list are
+   * skipped. If types is null, every column is loaded as floats.
+   */
+  public PTable(InputStream input, char delimiter,
+                boolean header, int[] types) throws IOException {
+    this.delimiter = delimiter;
+    if (input instanceof FileInputStream) {
+      loadFile(((FileInputStream) input).getChannel(), header, types);
+    } else {
+      loadStream(input, header, types);
+    }
+  }
+
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+
+  public int getColumnCount() {
+    return columnCount;
+  }
+
+
+  /** Name of a column from the header line, or null if there wasn't one. */
+  public String getColumnName(int column) {
+    return (columnNames == null) ? null : columnNames[column];
+  }
+
+
+  /** Index of the column with this name, or -1 if there isn't one. */
+  public int getColumnIndex(String name) {
+    if (columnNames != null) {
+      for (int i = 0; i < columnCount; i++) {
+        if (columnNames[i].equals(name)) return i;
+      }
+    }
+    return -1;
+  }
+
+
+  /** INT, FLOAT, or SKIP if the column wasn't loaded. */
+  public int getColumnType(int column) {
+    return columnTypes[column];
+  }
+
+
+  /**
+   * The values of a column loaded as FLOAT. The array belongs to the
+   * table, so changing it changes the table.
+   */
+  public float[] getFloatColumn(int column) {
+    checkColumn(column, FLOAT);
+    return (float[]) columns[column];
+  }
+
+
+  public float[] getFloatColumn(String name) {
+    return getFloatColumn(findColumn(name));
+  }
+
+
+  /** The values of a column loaded as INT. */
+  public int[] getIntColumn(int column) {
+    checkColumn(column, INT);
+    return (int[]) columns[column];
+  }
+
+
+  public int[] getIntColumn(String name) {
+    return getIntColumn(findColumn(name));
+  }
+
+
+  public float getFloat(int row, int column) {
+    if (columnTypes[column] == INT) {
+      return ((int[]) columns[column])[row];
+    }
+    return getFloatColumn(column)[row];
+  }
+
+
+  public int getInt(int row, int column) {
+    if (columnTypes[column] == FLOAT) {
+      return (int) ((float[]) columns[column])[row];
+    }
+    return getIntColumn(column)[row];
+  }
+
+
+  protected int findColumn(String name) {
+    int column = getColumnIndex(name);
+    if (column == -1) {
+      throw new IllegalArgumentException("No column named " + name);
+    }
+    return column;
+  }
+
+
+  protected void checkColumn(int column, int type) {
+    if (columnTypes[column] != type) {
+      String what = (type == FLOAT) ? "FLOAT" : "INT";
+      throw new IllegalArgumentException("Column " + column +
+                                         " was not loaded as " + what);
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // LOADING
+
+
+  /**
+   * Use the first line (the header, or the first row) to decide
+   * how many columns there are, and what type each one has.
+   */
+  protected void setColumns(byte[] buf, int from, int to,
+                            boolean header, int[] types) throws IOException {
+    to = stripReturns(buf, from, to);
+    columnCount = 1;
+    for (int i = from; i < to; i++) {
+      if (buf[i] == delimiter) columnCount++;
+    }
+    if (header) {
+      columnNames = new String[columnCount];
+      int column = 0;
+      int start = from;
+      for (int i = from; i <= to; i++) {
+        if (i == to || buf[i] == delimiter) {
+          int s = trimStart(buf, start, i);
+          int e = trimStop(buf, s, i);
+          if (e - s >= 2 && buf[s] == '"' && buf[e-1] == '"') {
+            s++;
+            e--;
+          }
+          byte[] name = new byte[e - s];
+          for (int j = 0; j < name.length; j++) {
+            name[j] = buf[s + j];
+          }
+          columnNames[column++] = new String(name, "UTF-8");
+          start = i + 1;
+        }
+      }
+    }
+    columnTypes = new int[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      if (types == null) {
+        columnTypes[i] = FLOAT;
+      } else if (i < types.length) {
+        columnTypes[i] = types[i];
+      } else {
+        columnTypes[i] = SKIP;
+      }
+    }
+    columns = new Object[columnCount];
+  }
+
+
+  protected void allocate(int rows) {
+    for (int i = 0; i < columnCount; i++) {
+      if (columnTypes[i] == FLOAT) {
+        columns[i] = new float[rows];
+      } else if (columnTypes[i] == INT) {
+        columns[i] = new int[rows];
+      }
+    }
+  }
+
+
+  protected void resize(int rows) {
+    for (int i = 0; i < columnCount; i++) {
+      if (columnTypes[i] == FLOAT) {
+        float[] temp = new float[rows];
+        System.arraycopy(columns[i], 0, temp, 0, Math.min(rowCount, rows));
+        columns[i] = temp;
+      } else if (columnTypes[i] == INT) {
+        int[] temp = new int[rows];
+        System.arraycopy(columns[i], 0, temp, 0, Math.min(rowCount, rows));
+        columns[i] = temp;
+      }
+    }
+  }
+
+
+  /**
+   * Split the file into pieces that each start at the beginning of a
+   * line, count the rows in each piece, then parse them into place.
+   * Both passes run over all the pieces in parallel.
+   */
+  protected void loadFile(final FileChannel channel,
+                          boolean header, int[] types) throws IOException {
+    long position = channel.position();
+    long size = channel.size();
+
+    byte[] first = readLine(channel, position, size);
+    setColumns(first, 0, first.length, header, types);
+    if (header) {
+      position = Math.min(size, position + first.length + 1);
+    }
+
+    int chunkCount = (int) ((size - position + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    final long[] bounds = new long[chunkCount + 1];
+    bounds[0] = position;
+    for (int i = 1; i < chunkCount; i++) {
+      bounds[i] = nextLineStart(channel, position + (long) i * CHUNK_SIZE,
+                                size);
+    }
+    bounds[chunkCount] = size;
+
+    final int[] firstRow = new int[chunkCount + 1];
+    PWorkerPool.run(chunkCount, 1, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        byte[] buf = null;
+        for (int i = start; i < stop; i++) {
+          buf = read(channel, bounds[i], bounds[i+1], buf);
+          firstRow[i+1] = countRows(buf, 0, (int) (bounds[i+1] - bounds[i]));
+        }
+      }
+    });
+    for (int i = 0; i < chunkCount; i++) {
+      long total = (long) firstRow[i] + firstRow[i+1];
+      if (total > Integer.MAX_VALUE) {
+        throw new IOException("Too many rows for a table");
+      }
+      firstRow[i+1] = (int) total;
+    }
+    rowCount = firstRow[chunkCount];
+    allocate(rowCount);
+
+    PWorkerPool.run(chunkCount, 1, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        byte[] buf = null;
+        for (int i = start; i < stop; i++) {
+          buf = read(channel, bounds[i], bounds[i+1], buf);
+          parseRows(buf, 0, (int) (bounds[i+1] - bounds[i]), firstRow[i]);
+        }
+      }
+    });
+    channel.position(size);
+  }
+
+
+  /**
+   * Read the bytes of the file from start to stop into buf (or a bigger
+   * array, if buf is null or too small). Positional reads don't move the
+   * channel, so several threads can read their own chunks at once.
+   */
+  static byte[] read(FileChannel channel, long start, long stop, byte[] buf) {
+    if (stop - start > Integer.MAX_VALUE) {
+      throw new RuntimeException("Lines too long to load into a table");
+    }
+    int length = (int) (stop - start);
+    if (buf == null || buf.length < length) {
+      buf = new byte[Math.max(length, CHUNK_SIZE)];
+    }
+    if (length != 0) {
+      try {
+        ByteBuffer wrapped = ByteBuffer.wrap(buf, 0, length);
+        while (wrapped.hasRemaining()) {
+          int count = channel.read(wrapped, start + wrapped.position());
+          if (count == -1) {
+            throw new IOException("File ended before it was read");
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return buf;
+  }
+
+
+  /**
+   * The bytes of the line starting at position, without the newline.
+   */
+  static byte[] readLine(FileChannel channel,
+                         long position, long size) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(READ_SIZE);
+    int length = 0;
+    while (position + length < size) {
+      if (!buf.hasRemaining()) {
+        ByteBuffer temp = ByteBuffer.allocate(buf.capacity() << 1);
+        buf.flip();
+        temp.put(buf);
+        buf = temp;
+      }
+      int count = channel.read(buf, position + length);
+      if (count == -1) break;
+      for (int i = length; i < length + count; i++) {
+        if (buf.get(i) == '\n') {
+          byte[] line = new byte[i];
+          System.arraycopy(buf.array(), 0, line, 0, i);
+          return line;
+        }
+      }
+      length += count;
+    }
+    byte[] line = new byte[length];
+    System.arraycopy(buf.array(), 0, line, 0, length);
+    return line;
+  }
+
+
+  /**
+   * Position of the first line that starts at or after position.
+   */
+  static long nextLineStart(FileChannel channel,
+                            long position, long size) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(READ_SIZE);
+    long p = position - 1;  // the line starts here if it follows a \n
+    while (p < size) {
+      buf.clear();
+      int count = channel.read(buf, p);
+      if (count == -1) break;
+      for (int i = 0; i < count; i++) {
+        if (buf.get(i) == '\n') return p + i + 1;
+      }
+      p += count;
+    }
+    return size;
+  }
+
+
+  /**
+   * Read the stream a block at a time, parsing the complete lines in each
+   * block and keeping the partial line at the end for the next one.
+   */
+  protected void loadStream(InputStream input,
+                            boolean header, int[] types) throws IOException {
+    byte[] bytes = new byte[READ_SIZE];
+    int length = 0;
+    int capacity = 0;
+    boolean first = true;
+    boolean eof = false;
+
+    while (!eof) {
+      if (length == bytes.length) {
+        bytes = PApplet.expand(bytes);
+      }
+      int count = input.read(bytes, length, bytes.length - length);
+      if (count == -1) {
+        eof = true;
+      } else {
+        length += count;
+      }
+
+      // the lines up to the last newline (or all of it at the end)
+      int stop = length;
+      if (!eof) {
+        while (stop > 0 && bytes[stop-1] != '\n') stop--;
+        if (stop == 0) continue;
+      }
+
+      int from = 0;
+      if (first) {
+        int lineStop = 0;
+        while (lineStop < stop && bytes[lineStop] != '\n') lineStop++;
+        setColumns(bytes, 0, lineStop, header, types);
+        allocate(0);
+        if (header) {
+          from = Math.min(stop, lineStop + 1);
+        }
+        first = false;
+      }
+
+      int rows = countRows(bytes, from, stop);
+      if (rowCount + rows > capacity) {
+        capacity = Math.max(rowCount + rows, capacity << 1);
+        resize(capacity);
+      }
+      rowCount = parseRows(bytes, from, stop, rowCount);
+
+      System.arraycopy(bytes, stop, bytes, 0, length - stop);
+      length -= stop;
+    }
+    if (first) {  // nothing at all in the stream
+      setColumns(bytes, 0, 0, header, types);
+      allocate(0);
+    }
+    if (capacity != rowCount) {
+      resize(rowCount);
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+  // PARSING
+
+
+  /**
+   * Number of rows in the lines of buf[from, to). Lines that are empty
+   * (or only carriage returns) don't count.
+   */
+  static int countRows(byte[] buf, int from, int to) {
+    int count = 0;
+    boolean blank = true;
+    for (int i = from; i < to; i++) {
+      byte b = buf[i];
+      if (b == '\n') {
+        if (!blank) count++;
+        blank = true;
+      } else if (b != '\r') {
+        blank = false;
+      }
+    }
+    if (!blank) count++;
+    return count;
+  }
+
+
+  /**
+   * Parse the lines of buf[from, to) into the columns, starting at row.
+   * Returns the row after the last one that was parsed.
+   */
+  protected int parseRows(byte[] buf, int from, int to, int row) {
+    int i = from;
+    while (i < to) {
+      int lineStop = i;
+      while (lineStop < to && buf[lineStop] != '\n') lineStop++;
+      int next = lineStop + 1;
+      lineStop = stripReturns(buf, i, lineStop);
+
+      if (lineStop != i) {
+        int column = 0;
+        int start = i;
+        for (int j = i; j <= lineStop && column < columnCount; j++) {
+          if (j == lineStop || buf[j] == delimiter) {
+            parseField(buf, start, j, row, column++);
+            start = j + 1;
+          }
+        }
+        // missing fields at the end of a short line
+        for ( ; column < columnCount; column++) {
+          if (columnTypes[column] == FLOAT) {
+            ((float[]) columns[column])[row] = Float.NaN;
+          }
+        }
+        row++;
+      }
+      i = next;
+    }
+    return row;
+  }
+
+
+  protected void parseField(byte[] buf, int start, int stop,
+                            int row, int column) {
+    int type = columnTypes[column];
+    if (type == SKIP) return;
+
+    start = trimStart(buf, start, stop);
+    stop = trimStop(buf, start, stop);
+    if (stop - start >= 2 &&
+        buf[start] == '"' && buf[stop-1] == '"') {
+      start++;
+      stop--;
+    }
+    if (type == FLOAT) {
+      ((float[]) columns[column])[row] = parseFloat(buf, start, stop);
+    } else {
+      ((int[]) columns[column])[row] = parseInt(buf, start, stop);
+    }
+  }
+
+
+  static int stripReturns(byte[] buf, int from, int to) {
+    while (to > from && buf[to-1] == '\r') to--;
+    return to;
+  }
+
+
+  static int trimStart(byte[] buf, int start, int stop) {
+    while (start < stop && isSpace(buf[start])) start++;
+    return start;
+  }
+
+
+  static int trimStop(byte[] buf, int start, int stop) {
+    while (stop > start && isSpace(buf[stop-1])) stop--;
+    return stop;
+  }
+
+
+  static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+
+  /**
+   * Same as parseInt() on the text of buf[start, stop), but the usual
+   * short numbers are handled without making a String.
+   */
+  static int parseInt(byte[] buf, int start, int stop) {
+    int i = start;
+    boolean negative = false;
+    if (i < stop && buf[i] == '-') {
+      negative = true;
+      i++;
+    }
+    int digits = stop - i;
+    if (digits > 0 && digits <= 9) {
+      int value = 0;
+      for ( ; i < stop; i++) {
+        int d = buf[i] - '0';
+        if (d < 0 || d > 9) break;
+        value = value*10 + d;
+      }
+      if (i == stop) {
+        return negative ? -value : value;
+      }
+    }
+    // parseInt() ignores anything after a decimal point, and anything
+    // else that isn't a digit or a sign means it isn't a number
+    int dot = start;
+    while (dot < stop && buf[dot] != '.') dot++;
+    for (i = start; i < dot; i++) {
+      byte b = buf[i];
+      if ((b < '0' || b > '9') && b != '-' && b != '+') return 0;
+    }
+    return PApplet.parseInt(text(buf, start, stop), 0);
+  }
+
+
+  /**
+   * Same as parseFloat() on the text of buf[start, stop). Plain decimal
+   * numbers with up to 15 or so digits are handled without making a
+   * String. The result is rounded the same way, because the digits and
+   * the power of ten are both exact as doubles, so dividing or
+   * multiplying them gives the nearest double, which only rounds to a
+   * different float than the exact value would when it lands right
+   * between two floats. Those, and anything else unusual, are left to
+   * Float.parseFloat().
+   */
+  static float parseFloat(byte[] buf, int start, int stop) {
+    int i = start;
+    boolean negative = false;
+    if (i < stop) {
+      byte b = buf[i];
+      if (b == '-') {
+        negative = true;
+        i++;
+      } else if (b == '+') {
+        i++;
+      }
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean any = false;
+
+    for ( ; i < stop; i++) {
+      int d = buf[i] - '0';
+      if (d < 0 || d > 9) break;
+      mantissa = mantissa*10 + d;
+      if (mantissa != 0) digits++;
+      any = true;
+    }
+    if (i < stop && buf[i] == '.') {
+      i++;
+      for ( ; i < stop; i++) {
+        int d = buf[i] - '0';
+        if (d < 0 || d > 9) break;
+        mantissa = mantissa*10 + d;
+        if (mantissa != 0) digits++;
+        exponent--;
+        any = true;
+      }
+    }
+    if (any && i < stop && (buf[i] == 'e' || buf[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < stop && (buf[i] == '-' || buf[i] == '+')) {
+        negativeExponent = (buf[i] == '-');
+        i++;
+      }
+      int e = 0;
+      int start2 = i;
+      for ( ; i < stop && i - start2 < 4; i++) {
+        int d = buf[i] - '0';
+        if (d < 0 || d > 9) break;
+        e = e*10 + d;
+      }
+      if (i == start2) any = false;
+      exponent += negativeExponent ? -e : e;
+    }
+
+    if (any && i == stop && digits <= 18 && mantissa < (1L << 53)) {
+      double value = mantissa;
+      if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+        value *= POWERS_OF_TEN[exponent];
+      } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+        value /= POWERS_OF_TEN[-exponent];
+      } else if (exponent != 0 && mantissa != 0) {
+        value = Double.NaN;  // out of range of the table
+      }
+      if (value == value) {
+        long bits = Double.doubleToRawLongBits(value);
+        // halfway between two floats, so Float.parseFloat() has to decide
+        if ((bits & 0x1FFFFFFFL) != 0x10000000L) {
+          return (float) (negative ? -value : value);
+        }
+      }
+    }
+    if (!couldBeFloat(buf, start, stop)) {
+      return Float.NaN;  // no need for an exception to say so
+    }
+    return PApplet.parseFloat(text(buf, start, stop), Float.NaN);
+  }
+
+
+  /**
+   * False if Float.parseFloat() would certainly fail on the text, because
+   * it has characters that can't be part of a (decimal or hex) number,
+   * and isn't NaN or Infinity.
+   */
+  static boolean couldBeFloat(byte[] buf, int start, int stop) {
+    boolean plain = true;
+    for (int i = start; i < stop; i++) {
+      byte b = buf[i];
+      if (!((b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') ||
+            (b >= 'A' && b <= 'F') || b == '.' || b == '-' || b == '+' ||
+            b == 'x' || b == 'X' || b == 'p' || b == 'P')) {
+        plain = false;
+        break;
+      }
+    }
+    if (plain) return true;
+    if (start < stop && (buf[start] == '-' || buf[start] == '+')) {
+      start++;
+    }
+    return matches(buf, start, stop, "NaN") ||
+      matches(buf, start, stop, "Infinity");
+  }
+
+
+  static boolean matches(byte[] buf, int start, int stop, String word) {
+    if (stop - start != word.length()) return false;
+    for (int i = start; i < stop; i++) {
+      if (buf[i] != word.charAt(i - start)) return false;
+    }
+    return true;
+  }
+
+
+  static String text(byte[] buf, int start, int stop) {
+    char[] c = new char[stop - start];
+    for (int i = 0; i < c.length; i++) {
+      c[i] = (char) (buf[start + i] & 0xff);
+    }
+    return new String(c);
+  }
+}
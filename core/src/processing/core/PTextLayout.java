@@ -0,0 +1,250 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Where the lines of a String start and stop, and how wide each one is,
+ * for one font and size (and for text drawn inside a box, one width of
+ * the box). The alignment, leading and position of the text don't change
+ * any of that, so they're applied when it's drawn.
+ * <P>
+ * PGraphics keeps the layouts of the text it has drawn or measured
+ * recently in a PTextLayout.Cache, so that labels drawn the same way every
+ * frame are only measured and broken into lines once.
+ */
+public class PTextLayout {
+  /** boxWidth for text that's only broken into lines at newlines */
+  static public final float NO_BOX = -1;
+
+  String text;
+  PFont font;
+  float size;
+  float boxWidth;
+  int hash;
+
+  /** the characters of the text, followed by an extra newline */
+  char[] chars;
+
+  int lineCount;
+  int[] lineStart;
+  int[] lineStop;
+  float[] lineWidth;
+
+  /** number of newline characters in the text */
+  int newlineCount;
+
+  /** width of the longest line */
+  float width;
+
+
+  PTextLayout() { }
+
+
+  PTextLayout(String text, PFont font, float size, float boxWidth) {
+    set(text, font, size, boxWidth);
+    int length = text.length();
+    chars = new char[length + 1];
+    text.getChars(0, length, chars, 0);
+    chars[length] = '\n';
+  }
+
+
+  void set(String text, PFont font, float size, float boxWidth) {
+    this.text = text;
+    this.font = font;
+    this.size = size;
+    this.boxWidth = boxWidth;
+    hash = ((text.hashCode() * 31 + System.identityHashCode(font)) * 31 +
+            Float.floatToIntBits(size)) * 31 + Float.floatToIntBits(boxWidth);
+  }
+
+
+  /**
+   * Set the lines, one for each [lineStart, lineStop) in the chars.
+   */
+  void setLines(int[] lineStart, int[] lineStop, int count) {
+    lineCount = count;
+    this.lineStart = new int[count];
+    this.lineStop = new int[count];
+    System.arraycopy(lineStart, 0, this.lineStart, 0, count);
+    System.arraycopy(lineStop, 0, this.lineStop, 0, count);
+    lineWidth = new float[count];
+  }
+
+
+  public int hashCode() {
+    return hash;
+  }
+
+
+  public boolean equals(Object o) {
+    if (!(o instanceof PTextLayout)) return false;
+    PTextLayout other = (PTextLayout) o;
+    return (hash == other.hash &&
+            font == other.font &&
+            size == other.size &&
+            boxWidth == other.boxWidth &&
+            text.equals(other.text));
+  }
+
+
+  public String getText() {
+    return text;
+  }
+
+
+  public int getLineCount() {
+    return lineCount;
+  }
+
+
+  /** Index of the first character of a line in the text. */
+  public int getLineStart(int line) {
+    return lineStart[line];
+  }
+
+
+  /** Index just past the last character of a line in the text. */
+  public int getLineStop(int line) {
+    return lineStop[line];
+  }
+
+
+  public float getLineWidth(int line) {
+    return lineWidth[line];
+  }
+
+
+  /** Width of the longest line. */
+  public float getWidth() {
+    return width;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * The most recently used layouts, up to a fixed number. When it's full,
+   * the one that has gone unused the longest makes room for the next.
+   * Set the capacity to 0 to turn it off.
+   */
+  static public class Cache {
+    private int capacity;
+    private int hits;
+    private int misses;
+
+    private Map<PTextLayout,PTextLayout> map =
+      new LinkedHashMap<PTextLayout,PTextLayout>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<PTextLayout,PTextLayout> e) {
+          return size() > capacity;
+        }
+      };
+
+    // reused for lookups, so that a hit doesn't create any garbage
+    private PTextLayout probe = new PTextLayout();
+
+
+    public Cache(int capacity) {
+      this.capacity = Math.max(0, capacity);
+    }
+
+
+    /**
+     * Returns the layout kept for these settings, or null if there isn't one.
+     */
+    public PTextLayout get(String text, PFont font, float size, float boxWidth) {
+      if (capacity == 0) return null;
+
+      probe.set(text, font, size, boxWidth);
+      PTextLayout found = map.get(probe);
+      probe.text = null;  // don't hold on to these
+      probe.font = null;
+      if (found != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+      return found;
+    }
+
+
+    public void put(PTextLayout layout) {
+      if (capacity != 0) {
+        map.put(layout, layout);
+      }
+    }
+
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+
+    /**
+     * Change how many layouts are kept, dropping the oldest ones
+     * if there are already more than that.
+     */
+    public void setCapacity(int capacity) {
+      this.capacity = Math.max(0, capacity);
+      if (this.capacity == 0) {
+        map.clear();
+      } else if (map.size() > this.capacity) {
+        java.util.Iterator<PTextLayout> it = map.keySet().iterator();
+        for (int extra = map.size() - this.capacity; extra > 0; extra--) {
+          it.next();
+          it.remove();
+        }
+      }
+    }
+
+
+    /** Number of layouts in the cache right now. */
+    public int size() {
+      return map.size();
+    }
+
+
+    /** Number of times a layout was found in the cache. */
+    public int getHits() {
+      return hits;
+    }
+
+
+    /** Number of times text had to be laid out because it wasn't found. */
+    public int getMisses() {
+      return misses;
+    }
+
+
+    /** Remove all the layouts, and reset the hit and miss counts. */
+    public void clear() {
+      map.clear();
+      hits = 0;
+      misses = 0;
+    }
+  }
+}
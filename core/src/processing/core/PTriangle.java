@@ -196,12 +196,20 @@ public class PTriangle implements PConstants
   private boolean noDepthTest;
   //private boolean argbSurface;
 
-  /** */
-  private boolean m_culling;
+  /** package-private so that PGraphics3D can pass it on to band triangles */
+  boolean m_culling;
 
   /** */
   private boolean m_singleRight;
 
+  /**
+   * Only rows from bandTop (inclusive) to bandBottom (exclusive) are drawn,
+   * so that separate triangles can fill separate parts of the screen at
+   * the same time. Covers the whole screen unless setBand() is used.
+   */
+  private int bandTop = 0;
+  private int bandBottom = Integer.MAX_VALUE;
+
   /** 
    * True if using bilinear interpolation for textures.
    * Always set to true. If this is ever changed (maybe with a hint()?)
@@ -277,6 +285,19 @@ public class PTriangle implements PConstants
   }
 
 
+  /**
+   * Limits drawing to the rows from top (inclusive) to bottom (exclusive).
+   * The pixels that are drawn are exactly the ones that would be drawn
+   * without the limit, so the screen can be split into bands that are
+   * each filled by their own PTriangle. Use 0 and Integer.MAX_VALUE to
+   * draw everywhere again. Not changed by reset().
+   */
+  public void setBand(int top, int bottom) {
+    bandTop = top;
+    bandBottom = bottom;
+  }
+
+
   /**
    * Sets backface culling on/off
    */
@@ -529,8 +550,8 @@ public class PTriangle implements PConstants
       yi2 = SCREEN_HEIGHT;
     }
 
-    // Does the poly actually cross a scanline?
-    if (yi2 > yi0) {
+    // Does the poly actually cross a scanline inside the band?
+    if (yi2 > yi0 && yi2 > bandTop && yi0 < bandBottom) {
       x0 = x_array[o0];
       x1 = x_array[o1];
       x2 = x_array[o2];
@@ -643,43 +664,8 @@ public class PTriangle implements PConstants
           if (INTERPOLATE_ALPHA) {
             aleftadd = da0 / dy0;
             aleft = dta*aleftadd+a0;
-
-            if (m_drawFlags == R_ALPHA) {
-              drawsegment_plain_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_ALPHA)) {
-              drawsegment_gouraud_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_TEXTURE8 + R_ALPHA)) {
-              drawsegment_texture8_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_TEXTURE24 + R_ALPHA)) {
-              drawsegment_texture24_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_TEXTURE32 + R_ALPHA)) {
-              drawsegment_texture32_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8 + R_ALPHA)) {
-              drawsegment_gouraud_texture8_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24 + R_ALPHA)) {
-              drawsegment_gouraud_texture24_alpha(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32 + R_ALPHA)) {
-              drawsegment_gouraud_texture32_alpha(xadd1,xadd2, yi0,yi1);
-            }
-          } else {
-            if (m_drawFlags == 0) {
-              drawsegment_plain(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == R_GOURAUD) {
-              drawsegment_gouraud(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == R_TEXTURE8) {
-              drawsegment_texture8(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == R_TEXTURE24) {
-              drawsegment_texture24(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == R_TEXTURE32) {
-              drawsegment_texture32(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8)) {
-              drawsegment_gouraud_texture8(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24)) {
-              drawsegment_gouraud_texture24(xadd1,xadd2, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32)) {
-              drawsegment_gouraud_texture32(xadd1,xadd2, yi0,yi1);
-            }
           }
+          drawsegment(xadd1, xadd2, yi0, yi1);
           m_singleRight = true;
         } else {
           xleft = x0 + dta * xadd2;
@@ -708,43 +694,8 @@ public class PTriangle implements PConstants
           if (INTERPOLATE_ALPHA) {
             aleftadd = da2 / dy2;
             aleft = dta*aleftadd+a0;
-
-            if (m_drawFlags == R_ALPHA) {
-              drawsegment_plain_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_ALPHA)) {
-              drawsegment_gouraud_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_TEXTURE8 + R_ALPHA)) {
-              drawsegment_texture8_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_TEXTURE24 + R_ALPHA)) {
-              drawsegment_texture24_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_TEXTURE32 + R_ALPHA)) {
-              drawsegment_texture32_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8 + R_ALPHA)) {
-              drawsegment_gouraud_texture8_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24 + R_ALPHA)) {
-              drawsegment_gouraud_texture24_alpha(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32 + R_ALPHA)) {
-              drawsegment_gouraud_texture32_alpha(xadd2, xadd1, yi0,yi1);
-            }
-          } else {
-            if (m_drawFlags == 0) {
-              drawsegment_plain(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == R_GOURAUD) {
-              drawsegment_gouraud(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == R_TEXTURE8) {
-              drawsegment_texture8(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == R_TEXTURE24) {
-              drawsegment_texture24(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == R_TEXTURE32) {
-              drawsegment_texture32(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8)) {
-              drawsegment_gouraud_texture8(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24)) {
-              drawsegment_gouraud_texture24(xadd2, xadd1, yi0,yi1);
-            } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32)) {
-              drawsegment_gouraud_texture32(xadd2, xadd1, yi0,yi1);
-            }
           }
+          drawsegment(xadd2, xadd1, yi0, yi1);
           m_singleRight = false;
         }
 
@@ -821,83 +772,12 @@ public class PTriangle implements PConstants
         if (INTERPOLATE_ALPHA) {
           aleftadd = (a2 - a1) / dy1;
           aleft = dta * aleftadd + a1;
-
-          if (m_drawFlags == R_ALPHA) {
-            drawsegment_plain_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_ALPHA)) {
-            drawsegment_gouraud_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_TEXTURE8 + R_ALPHA)) {
-            drawsegment_texture8_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_TEXTURE24 + R_ALPHA)) {
-            drawsegment_texture24_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_TEXTURE32 + R_ALPHA)) {
-            drawsegment_texture32_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8 + R_ALPHA)) {
-            drawsegment_gouraud_texture8_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24 + R_ALPHA)) {
-            drawsegment_gouraud_texture24_alpha(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32 + R_ALPHA)) {
-            drawsegment_gouraud_texture32_alpha(xadd1, xadd2, yi1,yi2);
-          }
-        } else {
-          if (m_drawFlags == 0) {
-            drawsegment_plain(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == R_GOURAUD) {
-            drawsegment_gouraud(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == R_TEXTURE8) {
-            drawsegment_texture8(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == R_TEXTURE24) {
-            drawsegment_texture24(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == R_TEXTURE32) {
-            drawsegment_texture32(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8)) {
-            drawsegment_gouraud_texture8(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24)) {
-            drawsegment_gouraud_texture24(xadd1, xadd2, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32)) {
-            drawsegment_gouraud_texture32(xadd1, xadd2, yi1,yi2);
-          }
         }
+        drawsegment(xadd1, xadd2, yi1, yi2);
       } else {
         xrght = ((yi1 + PIXEL_CENTER)- y1) * xadd1 + x1;
 
-        if (INTERPOLATE_ALPHA) {
-          if (m_drawFlags == R_ALPHA) {
-            drawsegment_plain_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_ALPHA)) {
-            drawsegment_gouraud_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_TEXTURE8 + R_ALPHA)) {
-            drawsegment_texture8_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_TEXTURE24 + R_ALPHA)) {
-            drawsegment_texture24_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_TEXTURE32 + R_ALPHA)) {
-            drawsegment_texture32_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8 + R_ALPHA)) {
-            drawsegment_gouraud_texture8_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24 + R_ALPHA)) {
-            drawsegment_gouraud_texture24_alpha(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32 + R_ALPHA)) {
-            drawsegment_gouraud_texture32_alpha(xadd2, xadd1, yi1,yi2);
-          }
-        } else {
-          if (m_drawFlags == 0) {
-            drawsegment_plain(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == R_GOURAUD) {
-            drawsegment_gouraud(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == R_TEXTURE8) {
-            drawsegment_texture8(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == R_TEXTURE24) {
-            drawsegment_texture24(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == R_TEXTURE32) {
-            drawsegment_texture32(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE8)) {
-            drawsegment_gouraud_texture8(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE24)) {
-            drawsegment_gouraud_texture24(xadd2, xadd1, yi1,yi2);
-          } else if (m_drawFlags == (R_GOURAUD + R_TEXTURE32)) {
-            drawsegment_gouraud_texture32(xadd2, xadd1, yi1,yi2);
-          }
-        }
+        drawsegment(xadd2, xadd1, yi1, yi2);
       }
     }
   }
@@ -1075,6 +955,96 @@ public class PTriangle implements PConstants
   }
 
 
+  /**
+   * Draws the rows from ytop to ybottom with the drawsegment_xxx() that
+   * matches m_drawFlags. Rows outside the band aren't drawn, but the edges
+   * are still stepped over the ones above it, in the same way as the
+   * drawsegment_xxx() functions would, so that the rows inside the band
+   * come out the same as when the whole triangle is drawn.
+   */
+  private void drawsegment(float leftadd, float rghtadd,
+                           int ytop, int ybottom) {
+    if (ytop < bandTop) {
+      int skip = Math.min(bandTop, ybottom) - ytop;
+      for (int i = 0; i < skip; i++) {
+        xleft+=leftadd;
+        xrght+=rghtadd;
+        zleft+=zleftadd;
+        if ((m_drawFlags & R_GOURAUD) != 0) {
+          rleft+=rleftadd;
+          gleft+=gleftadd;
+          bleft+=bleftadd;
+        }
+        if ((m_drawFlags & (R_TEXTURE8 | R_TEXTURE24 | R_TEXTURE32)) != 0) {
+          uleft+=uleftadd;
+          vleft+=vleftadd;
+        }
+        // drawsegment_plain_alpha() doesn't step aleft, texture32 always does
+        if (((m_drawFlags & R_ALPHA) != 0 && m_drawFlags != R_ALPHA) ||
+            m_drawFlags == R_TEXTURE32) {
+          aleft+=aleftadd;
+        }
+      }
+      ytop += skip;
+    }
+    if (ybottom > bandBottom) {
+      ybottom = bandBottom;
+    }
+    if (ytop >= ybottom) return;
+
+    switch (m_drawFlags) {
+    case 0:
+      drawsegment_plain(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD:
+      drawsegment_gouraud(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_TEXTURE8:
+      drawsegment_texture8(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_TEXTURE24:
+      drawsegment_texture24(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_TEXTURE32:
+      drawsegment_texture32(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_TEXTURE8:
+      drawsegment_gouraud_texture8(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_TEXTURE24:
+      drawsegment_gouraud_texture24(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_TEXTURE32:
+      drawsegment_gouraud_texture32(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_ALPHA:
+      drawsegment_plain_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_ALPHA:
+      drawsegment_gouraud_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_TEXTURE8 + R_ALPHA:
+      drawsegment_texture8_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_TEXTURE24 + R_ALPHA:
+      drawsegment_texture24_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_TEXTURE32 + R_ALPHA:
+      drawsegment_texture32_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_TEXTURE8 + R_ALPHA:
+      drawsegment_gouraud_texture8_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_TEXTURE24 + R_ALPHA:
+      drawsegment_gouraud_texture24_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    case R_GOURAUD + R_TEXTURE32 + R_ALPHA:
+      drawsegment_gouraud_texture32_alpha(leftadd, rghtadd, ytop, ybottom);
+      break;
+    }
+  }
+
+
   /**
    * Plain color
    */
@@ -0,0 +1,423 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+
+/**
+ * Lots of vectors packed into a single float[], as x, y, z, x, y, z...
+ * For particle systems and the like, where a PVector object for each
+ * point would mean many thousands of little objects scattered around
+ * memory. The operations work on all the vectors at once, without
+ * creating any objects, and are split up across the PWorkerPool threads
+ * when there are enough vectors.
+ * <PRE>
+ * PVectorArray position = new PVectorArray(100000);
+ * PVectorArray velocity = new PVectorArray(100000);
+ * ...
+ * velocity.add(gravity);
+ * velocity.limit(maxSpeed);
+ * position.add(velocity);
+ * </PRE>
+ * Each operation gives exactly the same numbers as the PVector method
+ * of the same name would for each vector. PMatrix2D and PMatrix3D can
+ * also transform a whole PVectorArray at once with mult().
+ */
+public class PVectorArray {
+  /** fewest vectors worth handing to another thread */
+  static final int PARALLEL_MIN = 1 << 13;
+
+  /**
+   * The coordinates, three for each vector. This can be longer than
+   * needed, to leave room for append().
+   */
+  public float[] coords;
+
+  /** Number of vectors. */
+  protected int count;
+
+
+  /** Make an array of count vectors, all set to 0. */
+  public PVectorArray(int count) {
+    this.count = count;
+    coords = new float[count * 3];
+  }
+
+
+  /**
+   * Use an existing float[] of coordinates (not a copy), three for
+   * each vector.
+   */
+  public PVectorArray(float[] coords) {
+    this.coords = coords;
+    count = coords.length / 3;
+  }
+
+
+  /** Copy the coordinates of some PVectors. */
+  public PVectorArray(PVector[] vectors) {
+    this(vectors.length);
+    for (int i = 0; i < count; i++) {
+      set(i, vectors[i]);
+    }
+  }
+
+
+  public int size() {
+    return count;
+  }
+
+
+  /**
+   * Add a vector to the end, making more room when needed.
+   */
+  public void append(float x, float y, float z) {
+    if (count*3 + 3 > coords.length) {
+      float[] temp = new float[Math.max(coords.length << 1, 3 * 16)];
+      System.arraycopy(coords, 0, temp, 0, count*3);
+      coords = temp;
+    }
+    int i = count*3;
+    coords[i] = x;
+    coords[i+1] = y;
+    coords[i+2] = z;
+    count++;
+  }
+
+
+  public void append(PVector v) {
+    append(v.x, v.y, v.z);
+  }
+
+
+  /**
+   * Remove all the vectors (but keep the room for them).
+   */
+  public void clear() {
+    count = 0;
+  }
+
+
+  public float x(int index) {
+    return coords[index*3];
+  }
+
+
+  public float y(int index) {
+    return coords[index*3 + 1];
+  }
+
+
+  public float z(int index) {
+    return coords[index*3 + 2];
+  }
+
+
+  /**
+   * Copy one of the vectors into target, or a new PVector if target
+   * is null.
+   */
+  public PVector get(int index, PVector target) {
+    if (target == null) {
+      target = new PVector();
+    }
+    int i = index*3;
+    target.set(coords[i], coords[i+1], coords[i+2]);
+    return target;
+  }
+
+
+  public void set(int index, float x, float y, float z) {
+    int i = index*3;
+    coords[i] = x;
+    coords[i+1] = y;
+    coords[i+2] = z;
+  }
+
+
+  public void set(int index, PVector v) {
+    set(index, v.x, v.y, v.z);
+  }
+
+
+  /** Copies of all the vectors, as separate PVector objects. */
+  public PVector[] toVectors() {
+    PVector[] outgoing = new PVector[count];
+    for (int i = 0; i < count; i++) {
+      outgoing[i] = get(i, null);
+    }
+    return outgoing;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  static final int ADD = 0;
+  static final int ADD_SCALED = 1;
+  static final int ADD_CONSTANT = 2;
+  static final int SUB = 3;
+  static final int SUB_CONSTANT = 4;
+  static final int MULT = 5;
+  static final int DIV = 6;
+  static final int NORMALIZE = 7;
+  static final int LIMIT = 8;
+  static final int MAG = 9;
+  static final int DIST = 10;
+  static final int DIST_POINT = 11;
+
+
+  /** Add the vectors in another array to these, one for one. */
+  public void add(PVectorArray v) {
+    apply(ADD, v, 0, 0, 0, null);
+  }
+
+
+  /**
+   * Add the vectors in another array, multiplied by n, to these. Same as
+   * PVector.mult(v, n) followed by add() for each, e.g. for adding
+   * velocity * time to position.
+   */
+  public void add(PVectorArray v, float n) {
+    apply(ADD_SCALED, v, n, 0, 0, null);
+  }
+
+
+  /** Add the same vector to all of these. */
+  public void add(PVector v) {
+    apply(ADD_CONSTANT, null, v.x, v.y, v.z, null);
+  }
+
+
+  public void add(float x, float y, float z) {
+    apply(ADD_CONSTANT, null, x, y, z, null);
+  }
+
+
+  /** Subtract the vectors in another array from these, one for one. */
+  public void sub(PVectorArray v) {
+    apply(SUB, v, 0, 0, 0, null);
+  }
+
+
+  public void sub(PVector v) {
+    apply(SUB_CONSTANT, null, v.x, v.y, v.z, null);
+  }
+
+
+  public void sub(float x, float y, float z) {
+    apply(SUB_CONSTANT, null, x, y, z, null);
+  }
+
+
+  /** Multiply all the vectors by a scalar. */
+  public void mult(float n) {
+    apply(MULT, null, n, 0, 0, null);
+  }
+
+
+  /** Divide all the vectors by a scalar. */
+  public void div(float n) {
+    apply(DIV, null, n, 0, 0, null);
+  }
+
+
+  /** Normalize all the vectors to length 1. */
+  public void normalize() {
+    apply(NORMALIZE, null, 0, 0, 0, null);
+  }
+
+
+  /** Limit the magnitude of all the vectors. */
+  public void limit(float max) {
+    apply(LIMIT, null, max, 0, 0, null);
+  }
+
+
+  /**
+   * The magnitude of each vector, in target if it's big enough,
+   * or a new array.
+   */
+  public float[] mag(float[] target) {
+    target = checkTarget(target);
+    apply(MAG, null, 0, 0, 0, target);
+    return target;
+  }
+
+
+  /**
+   * The distance from each of these to the matching vector in v.
+   */
+  public float[] dist(PVectorArray v, float[] target) {
+    target = checkTarget(target);
+    apply(DIST, v, 0, 0, 0, target);
+    return target;
+  }
+
+
+  /**
+   * The distance from each of these to a single point.
+   */
+  public float[] dist(PVector v, float[] target) {
+    target = checkTarget(target);
+    apply(DIST_POINT, null, v.x, v.y, v.z, target);
+    return target;
+  }
+
+
+  protected float[] checkTarget(float[] target) {
+    if (target == null || target.length < count) {
+      target = new float[count];
+    }
+    return target;
+  }
+
+
+  /**
+   * Run one of the operations over all the vectors, in parallel if
+   * there are enough of them.
+   */
+  protected void apply(final int op, final PVectorArray other,
+                       final float a, final float b, final float c,
+                       final float[] out) {
+    if (other != null && other.count < count) {
+      throw new IllegalArgumentException("The PVectorArray has " +
+                                         other.count + " vectors, " +
+                                         "not " + count);
+    }
+    final float[] p = coords;
+    final float[] q = (other == null) ? null : other.coords;
+    PWorkerPool.run(count, PARALLEL_MIN, new PWorkerPool.Task() {
+      public void run(int start, int stop) {
+        apply(op, p, q, a, b, c, out, start, stop);
+      }
+    });
+  }
+
+
+  static void apply(int op, float[] p, float[] q,
+                    float a, float b, float c, float[] out,
+                    int start, int stop) {
+    int end = stop*3;
+    switch (op) {
+    case ADD:
+      for (int i = start*3; i < end; i++) {
+        p[i] += q[i];
+      }
+      break;
+
+    case ADD_SCALED:
+      for (int i = start*3; i < end; i++) {
+        p[i] += q[i] * a;
+      }
+      break;
+
+    case ADD_CONSTANT:
+      for (int i = start*3; i < end; i += 3) {
+        p[i] += a;
+        p[i+1] += b;
+        p[i+2] += c;
+      }
+      break;
+
+    case SUB:
+      for (int i = start*3; i < end; i++) {
+        p[i] -= q[i];
+      }
+      break;
+
+    case SUB_CONSTANT:
+      for (int i = start*3; i < end; i += 3) {
+        p[i] -= a;
+        p[i+1] -= b;
+        p[i+2] -= c;
+      }
+      break;
+
+    case MULT:
+      for (int i = start*3; i < end; i++) {
+        p[i] *= a;
+      }
+      break;
+
+    case DIV:
+      for (int i = start*3; i < end; i++) {
+        p[i] /= a;
+      }
+      break;
+
+    case NORMALIZE:
+      for (int i = start*3; i < end; i += 3) {
+        float x = p[i], y = p[i+1], z = p[i+2];
+        float m = (float) Math.sqrt(x*x + y*y + z*z);
+        if (m != 0 && m != 1) {
+          p[i] = x / m;
+          p[i+1] = y / m;
+          p[i+2] = z / m;
+        }
+      }
+      break;
+
+    case LIMIT:
+      for (int i = start*3; i < end; i += 3) {
+        float x = p[i], y = p[i+1], z = p[i+2];
+        float m = (float) Math.sqrt(x*x + y*y + z*z);
+        if (m > a) {
+          // normalize(), then mult(max)
+          if (m != 0 && m != 1) {
+            x /= m;
+            y /= m;
+            z /= m;
+          }
+          p[i] = x * a;
+          p[i+1] = y * a;
+          p[i+2] = z * a;
+        }
+      }
+      break;
+
+    case MAG:
+      for (int i = start*3, j = start; i < end; i += 3, j++) {
+        float x = p[i], y = p[i+1], z = p[i+2];
+        out[j] = (float) Math.sqrt(x*x + y*y + z*z);
+      }
+      break;
+
+    case DIST:
+      for (int i = start*3, j = start; i < end; i += 3, j++) {
+        float dx = p[i] - q[i];
+        float dy = p[i+1] - q[i+1];
+        float dz = p[i+2] - q[i+2];
+        out[j] = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+      }
+      break;
+
+    case DIST_POINT:
+      for (int i = start*3, j = start; i < end; i += 3, j++) {
+        float dx = p[i] - a;
+        float dy = p[i+1] - b;
+        float dz = p[i+2] - c;
+        out[j] = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+      }
+      break;
+    }
+  }
+}
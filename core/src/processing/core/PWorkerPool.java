@@ -0,0 +1,182 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Threads shared by the renderers and image functions for work that can
+ * be split into independent pieces, like bands of rows in an image.
+ * <P>
+ * The thread that asks for the work is kept busy with pieces of it too,
+ * so the work always finishes even when the workers are tied up. Which
+ * thread handles which piece is left to chance, so each piece has to
+ * give the same result no matter where or when it runs.
+ * <P>
+ * The number of threads defaults to the number of processors, and can
+ * be changed with setThreadCount(). Setting it to 1 turns everything
+ * that uses the pool back to running on a single thread.
+ */
+public class PWorkerPool {
+
+  /**
+   * A piece of work covering the range of items from start (inclusive)
+   * to stop (exclusive).
+   */
+  public interface Task {
+    public void run(int start, int stop);
+  }
+
+  static int threadCount = Runtime.getRuntime().availableProcessors();
+
+  static ExecutorService executor;
+
+  /** Used to avoid handing out more work from inside a worker. */
+  static class Worker extends Thread {
+    Worker(Runnable r, int index) {
+      super(r, "Processing Worker " + index);
+      setDaemon(true);
+    }
+  }
+
+
+  /**
+   * Sets the number of threads used for parallel work, including the
+   * thread that asks for it. Use 1 to do everything on a single thread.
+   */
+  static public synchronized void setThreadCount(int count) {
+    count = Math.max(1, count);
+    if (count != threadCount) {
+      threadCount = count;
+      if (executor != null) {
+        executor.shutdown();  // idle workers go away, running ones finish
+        executor = null;
+      }
+    }
+  }
+
+
+  static public int getThreadCount() {
+    return threadCount;
+  }
+
+
+  static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threadCount - 1,
+                                              new ThreadFactory() {
+        int index;
+        public Thread newThread(Runnable r) {
+          return new Worker(r, ++index);
+        }
+      });
+    }
+    return executor;
+  }
+
+
+  /**
+   * True if it's worth splitting 'count' items into pieces of at least
+   * 'minimum' items, i.e. there's more than one thread to use and enough
+   * work to go around.
+   */
+  static public boolean isWorthwhile(int count, int minimum) {
+    return threadCount > 1 && count >= 2 * minimum &&
+      !(Thread.currentThread() instanceof Worker);
+  }
+
+
+  /**
+   * Split the range [0, count) into pieces of at least 'minimum' items,
+   * and run the task over each of them, in parallel. Returns once all
+   * pieces are done. An exception in any of the pieces is passed on to
+   * the caller after the others have finished.
+   */
+  static public void run(int count, int minimum, final Task task) {
+    if (!isWorthwhile(count, minimum)) {
+      if (count > 0) task.run(0, count);
+      return;
+    }
+
+    // a few pieces per thread, so a slow piece doesn't hold up the rest
+    final int pieces = Math.min(count / minimum, threadCount * 4);
+    final int size = count / pieces;
+    final int extra = count % pieces;
+    final AtomicInteger next = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(pieces);
+    final Throwable[] failure = new Throwable[1];
+
+    Runnable runner = new Runnable() {
+      public void run() {
+        int piece;
+        while ((piece = next.getAndIncrement()) < pieces) {
+          // the first 'extra' pieces are one item longer
+          int start = piece * size + Math.min(piece, extra);
+          int stop = start + size + (piece < extra ? 1 : 0);
+          try {
+            task.run(start, stop);
+          } catch (Throwable t) {
+            synchronized (failure) {
+              if (failure[0] == null) failure[0] = t;
+            }
+          }
+          done.countDown();
+        }
+      }
+    };
+
+    ExecutorService service = getExecutor();
+    int helpers = Math.min(pieces, threadCount) - 1;
+    for (int i = 0; i < helpers; i++) {
+      try {
+        service.execute(runner);
+      } catch (RejectedExecutionException e) {
+        break;  // pool was replaced by setThreadCount(), do the rest here
+      }
+    }
+    runner.run();
+
+    boolean interrupted = false;
+    while (true) {
+      try {
+        done.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;  // can't leave while pieces are still running
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    Throwable t = failure[0];
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else if (t != null) {
+      throw new RuntimeException(t);
+    }
+  }
+}
@@ -62,15 +62,41 @@ public class XMLElement implements Serializable {
 
 
     /**
-     * The attributes of the element.
+     * The attributes of the element, in the first attributeCount entries.
      */
-    private Vector<XMLAttribute> attributes;
+    private XMLAttribute[] attributes;
+    private int attributeCount;
 
 
     /**
-     * The child elements.
+     * The child elements, in the first childCount entries.
      */
-    private Vector<XMLElement> children;
+    private XMLElement[] children;
+    private int childCount;
+
+
+    static private final XMLAttribute[] NO_ATTRIBUTES = new XMLAttribute[0];
+    static private final XMLElement[] NO_CHILDREN = new XMLElement[0];
+
+
+    /**
+     * Elements with fewer children or attributes than this are searched
+     * one by one, without building an index.
+     */
+    static final int INDEX_MIN = 8;
+
+
+    /**
+     * The children with each name, in order. Built the first time a child
+     * is looked up by name, and dropped when the children change.
+     */
+    private transient HashMap<String, ArrayList<XMLElement>> childIndex;
+
+
+    /**
+     * The attributes by full name, built and dropped the same way.
+     */
+    private transient HashMap<String, XMLAttribute> attributeIndex;
 
 
     /**
@@ -136,6 +162,7 @@ public class XMLElement implements Serializable {
         this.namespace = namespace;
         this.lineNr = lineNr;
         this.systemID = systemID;
+        this.nameChanged();
     }
 
 
@@ -188,8 +215,8 @@ public class XMLElement implements Serializable {
                       String namespace,
                       String systemID,
                       int    lineNr) {
-        this.attributes = new Vector<XMLAttribute>();
-        this.children = new Vector<XMLElement>(8);
+        this.attributes = NO_ATTRIBUTES;
+        this.children = NO_CHILDREN;
         this.fullName = fullName;
         if (namespace == null) {
             this.name = fullName;
@@ -241,21 +268,91 @@ public class XMLElement implements Serializable {
 
     protected void parseFromReader(Reader r) {
         try {
-            StdXMLParser parser = new StdXMLParser();
-            parser.setBuilder(new StdXMLBuilder(this));
-            parser.setValidator(new XMLValidator());
-            parser.setReader(new StdXMLReader(r));
-            //System.out.println(parser.parse().getName());
-            /*XMLElement xm = (XMLElement)*/ parser.parse();
-            //System.out.println("xm name is " + xm.getName());
-            //System.out.println(xm + " " + this);
-            //parser.parse();
+            parse(new XMLPullParser(r));
         } catch (XMLException e) {
             e.printStackTrace();
         }
     }
 
 
+    /**
+     * Build the tree from the events of a parser, with this element as
+     * the root. Whitespace between tags is left out, and an element with
+     * only text inside gets it as its content instead of as a child.
+     */
+    protected void parse(XMLPullParser parser) throws XMLException {
+        XMLElement[] stack = new XMLElement[16];
+        int depth = 0;
+        String systemID = parser.getSystemID();
+
+        for (;;) {
+            switch (parser.next()) {
+            case XMLPullParser.START_ELEMENT:
+                XMLElement elt;
+                if (depth == 0) {
+                    elt = this;
+                    set(parser.getName(), parser.getNamespace(),
+                        systemID, parser.getLineNr());
+                } else {
+                    elt = new XMLElement(parser.getName(),
+                                         parser.getNamespace(),
+                                         systemID, parser.getLineNr());
+                    stack[depth - 1].addChild(elt);
+                }
+                int count = parser.getAttributeCount();
+                if (count > elt.attributes.length) {
+                    elt.attributes = new XMLAttribute[count];
+                }
+                for (int i = 0; i < count; i++) {
+                    String fullName = parser.getAttributeName(i);
+                    if (parser.getAttributePrefix(i) == null) {
+                        elt.setAttribute(fullName, parser.getAttributeValue(i));
+                    } else {
+                        elt.setAttribute(fullName,
+                                         parser.getAttributeNamespace(i),
+                                         parser.getAttributeValue(i));
+                    }
+                }
+                if (depth == stack.length) {
+                    XMLElement[] temp = new XMLElement[depth << 1];
+                    System.arraycopy(stack, 0, temp, 0, depth);
+                    stack = temp;
+                }
+                stack[depth++] = elt;
+                break;
+
+            case XMLPullParser.TEXT:
+            case XMLPullParser.CDATA:
+                if (parser.isWhitespace()) {
+                    break;  // only TEXT can be whitespace
+                }
+                XMLElement pcdata =
+                    new XMLElement(null, null, systemID,
+                                   parser.getTextLineNr());
+                pcdata.setContent(parser.getText());
+                stack[depth - 1].addChild(pcdata);
+                break;
+
+            case XMLPullParser.END_ELEMENT:
+                XMLElement top = stack[--depth];
+                stack[depth] = null;
+                if (top.childCount == 1 &&
+                    top.children[0].getLocalName() == null) {
+                    top.setContent(top.children[0].getContent());
+                    top.removeChildAtIndex(0);
+                }
+                if (top.childCount == 0) {
+                    top.children = NO_CHILDREN;
+                }
+                break;
+
+            case XMLPullParser.END_DOCUMENT:
+                return;
+            }
+        }
+    }
+
+
 //    static public XMLElement parse(Reader r) {
 //        try {
 //              StdXMLParser parser = new StdXMLParser();
@@ -336,7 +433,6 @@ public class XMLElement implements Serializable {
      * Cleans up the object when it's destroyed.
      */
     protected void finalize() throws Throwable {
-        this.attributes.clear();
         this.attributes = null;
         this.children = null;
         this.fullName = null;
@@ -402,6 +498,7 @@ public class XMLElement implements Serializable {
         this.name = name;
         this.fullName = name;
         this.namespace = null;
+        this.nameChanged();
     }
 
 
@@ -420,6 +517,17 @@ public class XMLElement implements Serializable {
         }
         this.fullName = fullName;
         this.namespace = namespace;
+        this.nameChanged();
+    }
+
+
+    /**
+     * The parent's index of its children by name is out of date.
+     */
+    private void nameChanged() {
+        if (this.parent != null) {
+            this.parent.childIndex = null;
+        }
     }
 
 
@@ -432,8 +540,8 @@ public class XMLElement implements Serializable {
         if (child == null) {
             throw new IllegalArgumentException("child must not be null");
         }
-        if ((child.getLocalName() == null) && (! this.children.isEmpty())) {
-            XMLElement lastChild = (XMLElement) this.children.lastElement();
+        if ((child.getLocalName() == null) && (this.childCount != 0)) {
+            XMLElement lastChild = this.children[this.childCount - 1];
 
             if (lastChild.getLocalName() == null) {
                 lastChild.setContent(lastChild.getContent()
@@ -442,7 +550,7 @@ public class XMLElement implements Serializable {
             }
         }
         ((XMLElement)child).parent = this;
-        this.children.addElement(child);
+        this.insertChildAt(child, this.childCount);
     }
 
 
@@ -456,8 +564,8 @@ public class XMLElement implements Serializable {
         if (child == null) {
             throw new IllegalArgumentException("child must not be null");
         }
-        if ((child.getLocalName() == null) && (! this.children.isEmpty())) {
-            XMLElement lastChild = (XMLElement) this.children.lastElement();
+        if ((child.getLocalName() == null) && (this.childCount != 0)) {
+            XMLElement lastChild = this.children[this.childCount - 1];
             if (lastChild.getLocalName() == null) {
                 lastChild.setContent(lastChild.getContent()
                                      + child.getContent());
@@ -465,7 +573,26 @@ public class XMLElement implements Serializable {
             }
         }
         ((XMLElement) child).parent = this;
-        this.children.insertElementAt(child, index);
+        this.insertChildAt(child, index);
+    }
+
+
+    private void insertChildAt(XMLElement child, int index) {
+        if (index < 0 || index > this.childCount) {
+            throw new ArrayIndexOutOfBoundsException(index + " > " +
+                                                     this.childCount);
+        }
+        if (this.childCount == this.children.length) {
+            XMLElement[] temp =
+                new XMLElement[Math.max(4, this.childCount << 1)];
+            System.arraycopy(this.children, 0, temp, 0, this.childCount);
+            this.children = temp;
+        }
+        System.arraycopy(this.children, index, this.children, index + 1,
+                         this.childCount - index);
+        this.children[index] = child;
+        this.childCount++;
+        this.childIndex = null;
     }
 
 
@@ -478,7 +605,12 @@ public class XMLElement implements Serializable {
         if (child == null) {
             throw new IllegalArgumentException("child must not be null");
         }
-        this.children.removeElement(child);
+        for (int i = 0; i < this.childCount; i++) {
+            if (this.children[i].equals(child)) {
+                this.removeChildAtIndex(i);
+                return;
+            }
+        }
     }
 
 
@@ -488,7 +620,17 @@ public class XMLElement implements Serializable {
      * @param index the index of the child, where the first child has index 0.
      */
     public void removeChildAtIndex(int index) {
-        this.children.removeElementAt(index);
+        if (index >= this.childCount) {
+            throw new ArrayIndexOutOfBoundsException(index + " >= " +
+                                                     this.childCount);
+        } else if (index < 0) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        this.childCount--;
+        System.arraycopy(this.children, index + 1, this.children, index,
+                         this.childCount - index);
+        this.children[this.childCount] = null;
+        this.childIndex = null;
     }
 
 
@@ -498,7 +640,20 @@ public class XMLElement implements Serializable {
      * @return the non-null enumeration
      */
     public Enumeration<XMLElement> enumerateChildren() {
-        return this.children.elements();
+        return new Enumeration<XMLElement>() {
+            int index;
+
+            public boolean hasMoreElements() {
+                return index < childCount;
+            }
+
+            public XMLElement nextElement() {
+                if (index >= childCount) {
+                    throw new NoSuchElementException();
+                }
+                return children[index++];
+            }
+        };
     }
 
 
@@ -508,7 +663,7 @@ public class XMLElement implements Serializable {
      * @return true if the element has no children.
      */
     public boolean isLeaf() {
-        return this.children.isEmpty();
+        return this.childCount == 0;
     }
 
 
@@ -518,7 +673,7 @@ public class XMLElement implements Serializable {
      * @return true if the element has children.
      */
     public boolean hasChildren() {
-        return (! this.children.isEmpty());
+        return this.childCount != 0;
     }
 
 
@@ -531,7 +686,7 @@ public class XMLElement implements Serializable {
      * @see processing.xml.XMLElement#getChildren(String)
      */
     public int getChildCount() {
-        return this.children.size();
+        return this.childCount;
     }
 
 
@@ -565,7 +720,7 @@ public class XMLElement implements Serializable {
     public XMLElement[] getChildren() {
         int childCount = getChildCount();
         XMLElement[] kids = new XMLElement[childCount];
-        children.copyInto(kids);
+        System.arraycopy(children, 0, kids, 0, childCount);
         return kids;
     }
 
@@ -576,7 +731,7 @@ public class XMLElement implements Serializable {
      * @param index the element
      */
     public XMLElement getChild(int index) {
-        return (XMLElement) children.elementAt(index);
+        return getChildAtIndex(index);
     }
 
 
@@ -595,17 +750,27 @@ public class XMLElement implements Serializable {
      */
     public XMLElement getChild(String path) {
         if (path.indexOf('/') != -1) {
-            return getChildRecursive(PApplet.split(path, '/'), 0);
+            return getChild(XMLPath.get(path));
         }
-        int childCount = getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            XMLElement kid = getChild(i);
-            String kidName = kid.getName();
-            if (kidName != null && kidName.equals(path)) {
-                return kid;
+        return firstChildNamed(path);
+    }
+
+
+    /**
+     * Same as getChild(String), with a path that has already been split
+     * up. Keep one around when the same path is used again and again.
+     */
+    public XMLElement getChild(XMLPath path) {
+        XMLElement kid = this;
+        for (int i = 0; i < path.items.length && kid != null; i++) {
+            int index = path.indices[i];
+            if (index != -1) {
+                kid = kid.getChild(index);
+            } else {
+                kid = kid.firstChildNamed(path.items[i]);
             }
         }
-        return null;
+        return kid;
     }
 
 
@@ -626,19 +791,80 @@ public class XMLElement implements Serializable {
                 return kid.getChildRecursive(items, offset+1);
             }
         }
-        int childCount = getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            XMLElement kid = getChild(i);
+        XMLElement kid = firstChildNamed(items[offset]);
+        if (kid == null || offset == items.length-1) {
+            return kid;
+        }
+        return kid.getChildRecursive(items, offset+1);
+    }
+
+
+    /**
+     * The first child with this full name, or null if there isn't one.
+     */
+    private XMLElement firstChildNamed(String name) {
+        if (this.childCount >= INDEX_MIN) {
+            ArrayList<XMLElement> list = childIndex().get(name);
+            return (list == null) ? null : list.get(0);
+        }
+        for (int i = 0; i < this.childCount; i++) {
+            String kidName = this.children[i].getName();
+            if (kidName != null && kidName.equals(name)) {
+                return this.children[i];
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * All the children with this full name, in a new array.
+     */
+    private XMLElement[] childrenNamed(String name) {
+        if (this.childCount >= INDEX_MIN) {
+            ArrayList<XMLElement> list = childIndex().get(name);
+            if (list == null) {
+                return NO_CHILDREN;
+            }
+            return list.toArray(new XMLElement[list.size()]);
+        }
+        XMLElement[] matches = new XMLElement[this.childCount];
+        int matchCount = 0;
+        for (int i = 0; i < this.childCount; i++) {
+            XMLElement kid = this.children[i];
             String kidName = kid.getName();
-            if (kidName != null && kidName.equals(items[offset])) {
-                if (offset == items.length-1) {
-                    return kid;
-                } else {
-                    return kid.getChildRecursive(items, offset+1);
+            if (kidName != null && kidName.equals(name)) {
+                matches[matchCount++] = kid;
+            }
+        }
+        if (matchCount == matches.length) {
+            return matches;
+        }
+        XMLElement[] outgoing = new XMLElement[matchCount];
+        System.arraycopy(matches, 0, outgoing, 0, matchCount);
+        return outgoing;
+    }
+
+
+    private HashMap<String, ArrayList<XMLElement>> childIndex() {
+        HashMap<String, ArrayList<XMLElement>> index = this.childIndex;
+        if (index == null) {
+            index = new HashMap<String, ArrayList<XMLElement>>();
+            for (int i = 0; i < this.childCount; i++) {
+                XMLElement kid = this.children[i];
+                String kidName = kid.getName();
+                if (kidName != null) {
+                    ArrayList<XMLElement> list = index.get(kidName);
+                    if (list == null) {
+                        list = new ArrayList<XMLElement>(1);
+                        index.put(kidName, list);
+                    }
+                    list.add(kid);
                 }
             }
+            this.childIndex = index;
         }
-        return null;
+        return index;
     }
 
 
@@ -654,7 +880,11 @@ public class XMLElement implements Serializable {
      */
     public XMLElement getChildAtIndex(int index)
     throws ArrayIndexOutOfBoundsException {
-        return (XMLElement) this.children.elementAt(index);
+        if (index >= this.childCount) {
+            throw new ArrayIndexOutOfBoundsException(index + " >= " +
+                                                     this.childCount);
+        }
+        return this.children[index];
     }
 
 
@@ -723,24 +953,66 @@ public class XMLElement implements Serializable {
      */
     public XMLElement[] getChildren(String path) {
         if (path.indexOf('/') != -1) {
-        	return getChildrenRecursive(PApplet.split(path, '/'), 0);
+        	return getChildren(XMLPath.get(path));
         }
         // if it's a number, do an index instead
         // (returns a single element array, since this will be a single match
         if (Character.isDigit(path.charAt(0))) {
         	return new XMLElement[] { getChild(Integer.parseInt(path)) };
         }
-        int childCount = getChildCount();
-        XMLElement[] matches = new XMLElement[childCount];
-        int matchCount = 0;
-        for (int i = 0; i < childCount; i++) {
-        	XMLElement kid = getChild(i);
-        	String kidName = kid.getName();
-        	if (kidName != null && kidName.equals(path)) {
-        		matches[matchCount++] = kid;
-        	}
+        return childrenNamed(path);
+    }
+
+
+    /**
+     * Same as getChildren(String), with a path that has already been
+     * split up.
+     */
+    public XMLElement[] getChildren(XMLPath path) {
+        ArrayList<XMLElement> outgoing = new ArrayList<XMLElement>();
+        addChildren(path, 0, outgoing);
+        return outgoing.toArray(new XMLElement[outgoing.size()]);
+    }
+
+
+    private void addChildren(XMLPath path, int offset,
+                             ArrayList<XMLElement> outgoing) {
+        int index = path.indices[offset];
+        boolean last = (offset == path.items.length - 1);
+        if (index != -1) {
+            XMLElement kid = getChild(index);
+            if (last) {
+                outgoing.add(kid);
+            } else {
+                kid.addChildren(path, offset + 1, outgoing);
+            }
+            return;
+        }
+        String name = path.items[offset];
+        if (this.childCount >= INDEX_MIN) {
+            ArrayList<XMLElement> list = childIndex().get(name);
+            if (list != null) {
+                if (last) {
+                    outgoing.addAll(list);
+                } else {
+                    for (int i = 0; i < list.size(); i++) {
+                        list.get(i).addChildren(path, offset + 1, outgoing);
+                    }
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < this.childCount; i++) {
+            XMLElement kid = this.children[i];
+            String kidName = kid.getName();
+            if (kidName != null && kidName.equals(name)) {
+                if (last) {
+                    outgoing.add(kid);
+                } else {
+                    kid.addChildren(path, offset + 1, outgoing);
+                }
+            }
         }
-        return (XMLElement[]) PApplet.subset(matches, 0, matchCount);
     }
 
 
@@ -818,9 +1090,21 @@ public class XMLElement implements Serializable {
      * @return the attribute, or null if the attribute does not exist.
      */
     private XMLAttribute findAttribute(String fullName) {
-        Enumeration<XMLAttribute> en = this.attributes.elements();
-        while (en.hasMoreElements()) {
-            XMLAttribute attr = (XMLAttribute) en.nextElement();
+        if (this.attributeCount >= INDEX_MIN) {
+            HashMap<String, XMLAttribute> index = this.attributeIndex;
+            if (index == null) {
+                index = new HashMap<String, XMLAttribute>();
+                for (int i = this.attributeCount - 1; i >= 0; i--) {
+                    // the first one wins if there are two with this name
+                    index.put(this.attributes[i].getFullName(),
+                              this.attributes[i]);
+                }
+                this.attributeIndex = index;
+            }
+            return index.get(fullName);
+        }
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             if (attr.getFullName().equals(fullName)) {
                 return attr;
             }
@@ -839,9 +1123,8 @@ public class XMLElement implements Serializable {
      */
     private XMLAttribute findAttribute(String name,
                                        String namespace) {
-        Enumeration<XMLAttribute> en = this.attributes.elements();
-        while (en.hasMoreElements()) {
-            XMLAttribute attr = (XMLAttribute) en.nextElement();
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             boolean found = attr.getName().equals(name);
             if (namespace == null) {
                 found &= (attr.getNamespace() == null);
@@ -861,7 +1144,7 @@ public class XMLElement implements Serializable {
      * Returns the number of attributes.
      */
     public int getAttributeCount() {
-        return this.attributes.size();
+        return this.attributeCount;
     }
 
 
@@ -1134,7 +1417,7 @@ public class XMLElement implements Serializable {
         XMLAttribute attr = this.findAttribute(name);
         if (attr == null) {
             attr = new XMLAttribute(name, name, null, value, "CDATA");
-            this.attributes.addElement(attr);
+            this.addAttribute(attr);
         } else {
             attr.setValue(value);
         }
@@ -1156,23 +1439,48 @@ public class XMLElement implements Serializable {
         XMLAttribute attr = this.findAttribute(vorname, namespace);
         if (attr == null) {
             attr = new XMLAttribute(fullName, vorname, namespace, value, "CDATA");
-            this.attributes.addElement(attr);
+            this.addAttribute(attr);
         } else {
             attr.setValue(value);
         }
     }
 
 
+    private void addAttribute(XMLAttribute attr) {
+        if (this.attributeCount == this.attributes.length) {
+            XMLAttribute[] temp =
+                new XMLAttribute[Math.max(4, this.attributeCount << 1)];
+            System.arraycopy(this.attributes, 0, temp, 0, this.attributeCount);
+            this.attributes = temp;
+        }
+        this.attributes[this.attributeCount++] = attr;
+        if (this.attributeIndex != null &&
+            !this.attributeIndex.containsKey(attr.getFullName())) {
+            // no need to build it again for one more
+            this.attributeIndex.put(attr.getFullName(), attr);
+        }
+    }
+
+
+    private void removeAttributeAtIndex(int index) {
+        this.attributeCount--;
+        System.arraycopy(this.attributes, index + 1, this.attributes, index,
+                         this.attributeCount - index);
+        this.attributes[this.attributeCount] = null;
+        this.attributeIndex = null;
+    }
+
+
     /**
      * Removes an attribute.
      *
      * @param name the non-null name of the attribute.
      */
     public void removeAttribute(String name) {
-        for (int i = 0; i < this.attributes.size(); i++) {
-            XMLAttribute attr = (XMLAttribute) this.attributes.elementAt(i);
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             if (attr.getFullName().equals(name)) {
-                this.attributes.removeElementAt(i);
+                this.removeAttributeAtIndex(i);
                 return;
             }
         }
@@ -1187,8 +1495,8 @@ public class XMLElement implements Serializable {
      */
     public void removeAttribute(String name,
                                 String namespace) {
-        for (int i = 0; i < this.attributes.size(); i++) {
-            XMLAttribute attr = (XMLAttribute) this.attributes.elementAt(i);
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             boolean found = attr.getName().equals(name);
             if (namespace == null) {
                 found &= (attr.getNamespace() == null);
@@ -1197,7 +1505,7 @@ public class XMLElement implements Serializable {
             }
 
             if (found) {
-                this.attributes.removeElementAt(i);
+                this.removeAttributeAtIndex(i);
                 return;
             }
         }
@@ -1210,11 +1518,9 @@ public class XMLElement implements Serializable {
      * @return the non-null enumeration.
      */
     public Enumeration<String> enumerateAttributeNames() {
-        Vector<String> result = new Vector<String>();
-        Enumeration<XMLAttribute> en = this.attributes.elements();
-        while (en.hasMoreElements()) {
-            XMLAttribute attr = (XMLAttribute) en.nextElement();
-            result.addElement(attr.getFullName());
+        Vector<String> result = new Vector<String>(this.attributeCount);
+        for (int i = 0; i < this.attributeCount; i++) {
+            result.addElement(this.attributes[i].getFullName());
         }
         return result.elements();
     }
@@ -1248,9 +1554,8 @@ public class XMLElement implements Serializable {
      */
     public Properties getAttributes() {
         Properties result = new Properties();
-        Enumeration<XMLAttribute> en = this.attributes.elements();
-        while (en.hasMoreElements()) {
-            XMLAttribute attr = (XMLAttribute) en.nextElement();
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             result.put(attr.getFullName(), attr.getValue());
         }
         return result;
@@ -1266,9 +1571,8 @@ public class XMLElement implements Serializable {
      */
     public Properties getAttributesInNamespace(String namespace) {
         Properties result = new Properties();
-        Enumeration<XMLAttribute> en = this.attributes.elements();
-        while (en.hasMoreElements()) {
-            XMLAttribute attr = (XMLAttribute) en.nextElement();
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             if (namespace == null) {
                 if (attr.getNamespace() == null) {
                     result.put(attr.getName(), attr.getValue());
@@ -1359,12 +1663,11 @@ public class XMLElement implements Serializable {
         if (! this.name.equals(rawElement.getLocalName())) {
             return false;
         }
-        if (this.attributes.size() != rawElement.getAttributeCount()) {
+        if (this.attributeCount != rawElement.getAttributeCount()) {
             return false;
         }
-        Enumeration<XMLAttribute> en = this.attributes.elements();
-        while (en.hasMoreElements()) {
-            XMLAttribute attr = (XMLAttribute) en.nextElement();
+        for (int i = 0; i < this.attributeCount; i++) {
+            XMLAttribute attr = this.attributes[i];
             if (! rawElement.hasAttribute(attr.getName(), attr.getNamespace())) {
                 return false;
             }
@@ -1380,10 +1683,10 @@ public class XMLElement implements Serializable {
                 return false;
             }
         }
-        if (this.children.size() != rawElement.getChildCount()) {
+        if (this.childCount != rawElement.getChildCount()) {
             return false;
         }
-        for (int i = 0; i < this.children.size(); i++) {
+        for (int i = 0; i < this.childCount; i++) {
             XMLElement child1 = this.getChildAtIndex(i);
             XMLElement child2 = rawElement.getChildAtIndex(i);
 
@@ -0,0 +1,102 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.xml;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import processing.core.PApplet;
+
+
+/**
+ * A path like "channel/item/title" for XMLElement.getChild() and
+ * getChildren(), split up once so that it can be used over and over.
+ * Each part is the name of a child, or a number for the child at that
+ * index.
+ * <PRE>
+ * XMLPath titles = new XMLPath("channel/item/title");
+ * ...
+ * XMLElement[] found = rss.getChildren(titles);
+ * </PRE>
+ * Paths passed to getChild(String) and getChildren(String) are looked up
+ * among the last few that were used, so they aren't split every time
+ * either.
+ */
+public class XMLPath {
+  static final int CACHE_SIZE = 8;
+  /** in order of use, the least recently used first */
+  static LinkedHashMap<String,XMLPath> cache =
+    new LinkedHashMap<String,XMLPath>(16, 0.75f, true);
+
+  protected String path;
+  String[] items;
+  /** index of the child for each item, or -1 to match it by name */
+  int[] indices;
+
+
+  /**
+   * @throws IllegalArgumentException if part of the path is empty,
+   *         as with "a//b" or "a/"
+   */
+  public XMLPath(String path) {
+    this.path = path;
+    items = PApplet.split(path, '/');
+    indices = new int[items.length];
+    for (int i = 0; i < items.length; i++) {
+      if (items[i].length() == 0) {
+        throw new IllegalArgumentException("The path \"" + path + "\" " +
+                                           "has an empty part");
+      }
+      if (Character.isDigit(items[i].charAt(0))) {
+        indices[i] = Integer.parseInt(items[i]);
+      } else {
+        indices[i] = -1;
+      }
+    }
+  }
+
+
+  /**
+   * Returns an XMLPath for this path, reusing one of the last few
+   * that were asked for if possible.
+   */
+  static public XMLPath get(String path) {
+    synchronized (cache) {
+      XMLPath p = cache.get(path);
+      if (p == null) {
+        p = new XMLPath(path);
+        cache.put(path, p);
+        if (cache.size() > CACHE_SIZE) {
+          Iterator<XMLPath> it = cache.values().iterator();
+          it.next();
+          it.remove();
+        }
+      }
+      return p;
+    }
+  }
+
+
+  public String toString() {
+    return path;
+  }
+}
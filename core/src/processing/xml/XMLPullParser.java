@@ -0,0 +1,1319 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 2.1 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.xml;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Reads XML one piece at a time, instead of building a tree of XMLElement
+ * objects for all of it. Each call to next() moves on to the next start
+ * tag, end tag, run of text, comment and so on, and the methods of the
+ * parser then describe that piece:
+ * <PRE>
+ * XMLPullParser parser = new XMLPullParser(reader);
+ * while (parser.next() != XMLPullParser.END_DOCUMENT) {
+ *   if (parser.getEventType() == XMLPullParser.START_ELEMENT &&
+ *       parser.getName().equals("path")) {
+ *     String d = parser.getAttributeValue("d");
+ *   }
+ * }
+ * </PRE>
+ * The input is read into a large buffer and scanned there directly. Text
+ * that doesn't need any entities or line endings replaced is handed out
+ * without being copied (see getTextCharacters), and element and attribute
+ * names that come up again and again are shared instead of created anew.
+ * <P>
+ * It reads XML the same way StdXMLParser does: entities declared in the
+ * internal subset of the DOCTYPE (and default attribute values) are
+ * handled by an XMLValidator, external DTDs aren't loaded, and anything
+ * after the end of the root element is ignored. Line endings are all
+ * turned into '\n'. Namespace declarations (xmlns attributes) aren't
+ * listed with the other attributes, only used to find the namespaces.
+ */
+public class XMLPullParser {
+  static public final int START_DOCUMENT = 0;
+  static public final int END_DOCUMENT = 1;
+  static public final int START_ELEMENT = 2;
+  static public final int END_ELEMENT = 3;
+  /** text between tags, getText() returns it with entities replaced */
+  static public final int TEXT = 4;
+  /** the contents of a CDATA section */
+  static public final int CDATA = 5;
+  static public final int COMMENT = 6;
+  /** getPITarget() is the target, getText() the rest of it */
+  static public final int PROCESSING_INSTRUCTION = 7;
+  /** getText() returns the internal subset, or null if there isn't one */
+  static public final int DOCTYPE = 8;
+
+  /** chars read from the Reader at a time, the buffer grows past this
+      only when a single piece of the XML doesn't fit */
+  static final int BUFFER_SIZE = 1 << 15;
+  /** element and attribute names remembered, to be shared */
+  static final int NAME_CACHE_SIZE = 1 << 10;
+  /** entities can refer to other entities this many levels deep */
+  static final int MAX_ENTITY_DEPTH = 16;
+
+  private Reader reader;
+  private char[] buf;
+  private int pos, limit;
+  /** start of what fill() has to keep in the buffer, or -1 for nothing */
+  private int mark = -1;
+
+  private int lineNr = 1;
+  /** position in the buffer up to which lines have been counted */
+  private int lineScan;
+  private boolean afterCR;
+
+  // the input to go back to at the end of the replacement text of each
+  // entity that's being read as markup
+  private Input[] inputs = new Input[MAX_ENTITY_DEPTH];
+  private int inputCount;
+
+  private String systemID = "file:.";
+  private XMLEntityResolver resolver = new XMLEntityResolver();
+  private XMLValidator validator = new XMLValidator();
+  private HashMap<String,String> entities = new HashMap<String,String>();
+  private HashMap<String,String> rawEntities = new HashMap<String,String>();
+  private StdXMLReader entityReader;
+
+  private String[] nameCache = new String[NAME_CACHE_SIZE];
+
+  private int event = START_DOCUMENT;
+  private boolean emptyElement;
+
+  // the open elements, and the namespaces declared at each level
+  private int depth;
+  private String[] openNames = new String[16];
+  private String[] openNamespaces = new String[16];
+  private String[] defaultNamespaces = new String[17];
+  private int[] scopeStart = new int[17];
+  private String[] nsPrefixes = new String[8];
+  private String[] nsURIs = new String[8];
+  private int nsCount;
+
+  private String name;
+  private String namespace;
+
+  private int attributeCount;
+  private String[] attributeNames = new String[16];
+  private String[] attributeValues = new String[16];
+  private String[] attributeNamespaces = new String[16];
+
+  // text is either part of buf, or (when something had to be replaced)
+  // a copy in 'scratch'
+  private char[] textSource;
+  private int textStart;
+  private int textLength;
+  private String textString;
+  private int textLineNr;
+  private boolean whitespace;
+  private char[] scratch = new char[256];
+  private int scratchLength;
+  private String piTarget;
+
+
+  public XMLPullParser(Reader reader) {
+    this.reader = reader;
+    buf = new char[BUFFER_SIZE];
+  }
+
+
+  public XMLPullParser(String xml) {
+    buf = xml.toCharArray();
+    limit = buf.length;
+  }
+
+
+  /**
+   * Replace the entity resolver, to add entities of your own.
+   */
+  public void setResolver(XMLEntityResolver resolver) {
+    this.resolver = resolver;
+    entities.clear();
+    rawEntities.clear();
+  }
+
+
+  public XMLEntityResolver getResolver() {
+    return resolver;
+  }
+
+
+  /**
+   * Replace the validator that reads the internal subset of the DOCTYPE.
+   */
+  public void setValidator(XMLValidator validator) {
+    this.validator = validator;
+  }
+
+
+  public XMLValidator getValidator() {
+    return validator;
+  }
+
+
+  public void setSystemID(String systemID) {
+    this.systemID = systemID;
+  }
+
+
+  public String getSystemID() {
+    return systemID;
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  /**
+   * Move on to the next piece of the XML.
+   * @return the type of event, same as getEventType()
+   */
+  public int next() throws XMLException {
+    try {
+      event = advance();
+    } catch (IOException e) {
+      throw new XMLException(e);
+    }
+    return event;
+  }
+
+
+  public boolean hasNext() {
+    return event != END_DOCUMENT;
+  }
+
+
+  public int getEventType() {
+    return event;
+  }
+
+
+  /**
+   * Full name (with the prefix, if there is one) of the element for
+   * START_ELEMENT and END_ELEMENT, otherwise null.
+   */
+  public String getName() {
+    return name;
+  }
+
+
+  /** Name of the element without its prefix. */
+  public String getLocalName() {
+    return (name == null) ? null : name.substring(name.indexOf(':') + 1);
+  }
+
+
+  /** Prefix of the element's name, or null if it doesn't have one. */
+  public String getPrefix() {
+    int colon = (name == null) ? -1 : name.indexOf(':');
+    return (colon > 0) ? name.substring(0, colon) : null;
+  }
+
+
+  /** Namespace URI of the element, or null if it isn't in one. */
+  public String getNamespace() {
+    return namespace;
+  }
+
+
+  /** Namespace URI for a prefix at this point, or null if it's unknown. */
+  public String getNamespace(String prefix) {
+    for (int i = nsCount - 1; i >= 0; i--) {
+      if (nsPrefixes[i].equals(prefix)) {
+        return nsURIs[i];
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Number of open elements, counting the current one for START_ELEMENT
+   * and END_ELEMENT.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+
+  public int getAttributeCount() {
+    return attributeCount;
+  }
+
+
+  /** Full name of an attribute of the current start tag. */
+  public String getAttributeName(int index) {
+    return attributeNames[index];
+  }
+
+
+  public String getAttributeLocalName(int index) {
+    String full = attributeNames[index];
+    return full.substring(full.indexOf(':') + 1);
+  }
+
+
+  public String getAttributePrefix(int index) {
+    String full = attributeNames[index];
+    int colon = full.indexOf(':');
+    return (colon > 0) ? full.substring(0, colon) : null;
+  }
+
+
+  public String getAttributeNamespace(int index) {
+    return attributeNamespaces[index];
+  }
+
+
+  public String getAttributeValue(int index) {
+    return attributeValues[index];
+  }
+
+
+  /**
+   * Value of an attribute of the current start tag by its full name,
+   * or null if it doesn't have one by that name.
+   */
+  public String getAttributeValue(String fullName) {
+    for (int i = 0; i < attributeCount; i++) {
+      if (attributeNames[i].equals(fullName)) {
+        return attributeValues[i];
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * The text of a TEXT, CDATA, COMMENT, PROCESSING_INSTRUCTION or
+   * DOCTYPE event, otherwise null.
+   */
+  public String getText() {
+    if (textString == null && textSource != null) {
+      textString = new String(textSource, textStart, textLength);
+    }
+    return textString;
+  }
+
+
+  /**
+   * The array that holds the text, which is only good until next() is
+   * called. Use getTextStart() and getTextLength() for where it is.
+   */
+  public char[] getTextCharacters() {
+    return textSource;
+  }
+
+
+  public int getTextStart() {
+    return textStart;
+  }
+
+
+  public int getTextLength() {
+    return textLength;
+  }
+
+
+  /**
+   * True if a TEXT event is only spaces, tabs and line breaks, which is
+   * what there usually is between tags.
+   */
+  public boolean isWhitespace() {
+    return whitespace;
+  }
+
+
+  public String getPITarget() {
+    return piTarget;
+  }
+
+
+  /** Line of the XML that the parser has reached, starting from 1. */
+  public int getLineNr() {
+    countLines(pos);
+    return lineNr;
+  }
+
+
+  /**
+   * Line that the text of a TEXT, CDATA, COMMENT or PROCESSING_INSTRUCTION
+   * event starts on. As with StdXMLParser, text that starts with a line
+   * break counts as starting on the line after it.
+   */
+  public int getTextLineNr() {
+    return textLineNr;
+  }
+
+
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+  }
+
+
+  //////////////////////////////////////////////////////////////
+
+
+  private int advance() throws IOException, XMLException {
+    if (event == END_ELEMENT) {
+      depth--;
+      nsCount = scopeStart[depth];
+      if (depth == 0) {
+        return END_DOCUMENT;  // the rest is ignored
+      }
+    } else if (event == END_DOCUMENT) {
+      return END_DOCUMENT;
+    }
+    attributeCount = 0;
+    textSource = null;
+    textString = null;
+    whitespace = false;
+    piTarget = null;
+
+    if (emptyElement) {
+      emptyElement = false;
+      return END_ELEMENT;
+    }
+    name = null;
+    namespace = null;
+
+    for (;;) {
+      int result = (depth == 0) ? prolog() : content();
+      if (result != -1) {
+        return result;
+      }
+    }
+  }
+
+
+  /**
+   * Before the root element, where there can only be whitespace,
+   * comments, processing instructions and the DOCTYPE.
+   * @return the event, or -1 for something skipped
+   */
+  private int prolog() throws IOException, XMLException {
+    skipWhitespace();
+    if (pos == limit && !fill()) {
+      return END_DOCUMENT;  // no root element at all
+    }
+    char c = buf[pos];
+    if (c != '<') {
+      XMLUtil.errorInvalidInput(systemID, getLineNr(),
+                                "`" + c + "' (0x" +
+                                Integer.toHexString((int) c) + ')');
+    }
+    pos++;
+    return markup(false);
+  }
+
+
+  private int content() throws IOException, XMLException {
+    if (pos == limit && !fill()) {
+      throw new XMLParseException(systemID, getLineNr(), "Unexpected EOF");
+    }
+    if (buf[pos] == '<') {
+      pos++;
+      return markup(true);
+    }
+    return text();
+  }
+
+
+  /**
+   * Whatever comes after a '<'.
+   */
+  private int markup(boolean inElement) throws IOException, XMLException {
+    char c = readChar();
+    if (c == '?') {
+      return processingInstruction();
+
+    } else if (c == '!') {
+      c = readChar();
+      if (c == '-') {
+        if (readChar() != '-') {
+          XMLUtil.errorExpectedInput(systemID, getLineNr(), "<!--");
+        }
+        scanUntil("-->");
+        return COMMENT;
+
+      } else if (c == '[') {
+        if (!inElement) {
+          XMLUtil.errorUnexpectedCDATA(systemID, getLineNr());
+        }
+        if (!checkLiteral("CDATA[")) {
+          XMLUtil.errorExpectedInput(systemID, getLineNr(), "<![[CDATA[");
+        }
+        scanUntil("]]>");
+        return CDATA;
+
+      } else if (c == 'D') {
+        return doctype();
+      }
+      // something else that we don't know what to do with
+      while (readChar() != '>') { }
+      return -1;
+
+    } else if (c == '/') {
+      if (!inElement) {
+        XMLUtil.errorInvalidInput(systemID, getLineNr(), "</");
+      }
+      return endTag();
+    }
+    pos--;
+    return startTag();
+  }
+
+
+  private int startTag() throws IOException, XMLException {
+    String fullName = scanName();
+    skipWhitespace();
+
+    char c;
+    for (;;) {
+      c = readChar();
+      if (c == '/' || c == '>') {
+        break;
+      }
+      pos--;
+      String key = scanName();
+      skipWhitespace();
+      if (readChar() != '=') {
+        XMLUtil.errorExpectedInput(systemID, getLineNr(), "`='");
+      }
+      skipWhitespace();
+      String value = scanAttributeValue();
+      for (int i = 0; i < attributeCount; i++) {
+        if (attributeNames[i].equals(key)) {
+          throw new XMLParseException(systemID, getLineNr(),
+                                      "Duplicate attribute: " + key);
+        }
+      }
+      addAttribute(key, value);
+      skipWhitespace();
+    }
+    if (c == '/' && readChar() != '>') {
+      XMLUtil.errorExpectedInput(systemID, getLineNr(), "`>'");
+    }
+    emptyElement = (c == '/');
+
+    // default values from an ATTLIST in the DTD
+    Properties defaults = validator.attributeDefaultValues.get(fullName);
+    if (defaults != null) {
+      Enumeration<?> keys = defaults.keys();
+      while (keys.hasMoreElements()) {
+        String key = (String) keys.nextElement();
+        boolean found = false;
+        for (int i = 0; i < attributeCount && !found; i++) {
+          found = attributeNames[i].equals(key);
+        }
+        if (!found) {
+          addAttribute(key, defaults.getProperty(key));
+        }
+      }
+    }
+
+    // start a new namespace scope with the xmlns attributes, and take
+    // them out of the list
+    if (depth + 1 == scopeStart.length) {
+      scopeStart = expand(scopeStart);
+      defaultNamespaces = expand(defaultNamespaces);
+      openNames = expand(openNames);
+      openNamespaces = expand(openNamespaces);
+    }
+    scopeStart[depth] = nsCount;
+    String defaultNamespace = defaultNamespaces[depth];
+    int kept = 0;
+    for (int i = 0; i < attributeCount; i++) {
+      String key = attributeNames[i];
+      if (key.startsWith("xmlns")) {
+        if (key.length() == 5) {
+          defaultNamespace = attributeValues[i];
+        } else if (key.charAt(5) == ':') {
+          if (nsCount == nsPrefixes.length) {
+            nsPrefixes = expand(nsPrefixes);
+            nsURIs = expand(nsURIs);
+          }
+          nsPrefixes[nsCount] = key.substring(6);
+          nsURIs[nsCount++] = attributeValues[i];
+        }
+      } else {
+        attributeNames[kept] = key;
+        attributeValues[kept++] = attributeValues[i];
+      }
+    }
+    attributeCount = kept;
+    for (int i = 0; i < attributeCount; i++) {
+      String key = attributeNames[i];
+      int colon = key.indexOf(':');
+      attributeNamespaces[i] =
+        (colon > 0) ? getNamespace(key.substring(0, colon)) : null;
+    }
+
+    int colon = fullName.indexOf(':');
+    name = fullName;
+    namespace = (colon > 0) ?
+      getNamespace(fullName.substring(0, colon)) : defaultNamespace;
+
+    openNames[depth] = name;
+    openNamespaces[depth] = namespace;
+    defaultNamespaces[++depth] = defaultNamespace;
+    return START_ELEMENT;
+  }
+
+
+  private void addAttribute(String key, String value) {
+    if (attributeCount == attributeNames.length) {
+      attributeNames = expand(attributeNames);
+      attributeValues = expand(attributeValues);
+      attributeNamespaces = expand(attributeNamespaces);
+    }
+    attributeNames[attributeCount] = key;
+    attributeValues[attributeCount++] = value;
+  }
+
+
+  private int endTag() throws IOException, XMLException {
+    skipWhitespace();
+    String fullName = scanName();
+    name = openNames[depth - 1];
+    namespace = openNamespaces[depth - 1];
+    if (!fullName.equals(name)) {
+      XMLUtil.errorWrongClosingTag(systemID, getLineNr(),
+                                   getLocalName(), fullName);
+    }
+    skipWhitespace();
+    if (readChar() != '>') {
+      XMLUtil.errorClosingTagNotEmpty(systemID, getLineNr());
+    }
+    return END_ELEMENT;
+  }
+
+
+  /**
+   * Text up to the next tag, with entities and character references
+   * replaced, and line breaks turned into '\n'.
+   */
+  private int text() throws IOException, XMLException {
+    countLines(pos + 1);
+    textLineNr = lineNr;
+    boolean copied = false;
+    boolean white = true;
+    scratchLength = 0;
+    mark = pos;
+    int p = pos;
+    for (;;) {
+      if (p == limit) {
+        pos = p;
+        if (reader == null && inputCount != 0) {
+          // the end of an entity's replacement text, the text goes on
+          // after the reference to it
+          appendScratch(buf, mark, p - mark);
+          copied = true;
+          mark = -1;
+        }
+        if (!fill()) {
+          mark = -1;
+          throw new XMLParseException(systemID, getLineNr(),
+                                      "Unexpected EOF");
+        }
+        p = pos;
+        if (mark == -1) {
+          mark = p;
+        }
+      }
+      char c = buf[p];
+      if (c == '<') {
+        break;
+
+      } else if (c == '&' || c == '\r') {
+        appendScratch(buf, mark, p - mark);
+        copied = true;
+        pos = p;
+        if (c == '&') {
+          if (!appendReference(true)) {
+            white = false;
+          }
+        } else {
+          appendScratch('\n');
+          pos++;
+          mark = pos;
+          if ((pos < limit || fill()) && buf[pos] == '\n') {
+            pos++;
+          }
+        }
+        p = pos;
+        mark = p;
+
+      } else {
+        if (white && c != ' ' && c != '\t' && c != '\n') {
+          white = false;
+        }
+        p++;
+      }
+    }
+    pos = p;
+    if (copied) {
+      appendScratch(buf, mark, p - mark);
+      setText(scratch, 0, scratchLength);
+    } else {
+      setText(buf, mark, p - mark);
+    }
+    mark = -1;
+    if (textLength == 0) {
+      textSource = null;
+      return -1;  // only a reference to an entity that starts with a tag
+    }
+    whitespace = white;
+    return TEXT;
+  }
+
+
+  /**
+   * Everything up to 'end', which is skipped too, as the text. Used for
+   * comments, CDATA and processing instructions.
+   */
+  private void scanUntil(String end) throws IOException, XMLException {
+    textLineNr = getLineNr();
+    char last = end.charAt(end.length() - 1);
+    int endLength = end.length();
+    boolean copied = false;
+    scratchLength = 0;
+    mark = pos;
+    int p = pos;
+    for (;;) {
+      if (p == limit) {
+        pos = p;
+        if (!fill()) {
+          mark = -1;
+          throw new XMLParseException(systemID, getLineNr(),
+                                      "Unexpected EOF");
+        }
+        p = pos;
+      }
+      char c = buf[p++];
+      if (c == last && p - mark >= endLength &&
+          matches(buf, p - endLength, end)) {
+        break;
+
+      } else if (c == '\r') {
+        // the end has no \r in it, so it'll be found after the mark
+        appendScratch(buf, mark, p - 1 - mark);
+        appendScratch('\n');
+        copied = true;
+        pos = p;
+        mark = pos;
+        if ((pos < limit || fill()) && buf[pos] == '\n') {
+          pos++;
+        }
+        p = pos;
+        mark = p;
+      }
+    }
+    pos = p;
+    int stop = p - endLength;
+    if (copied) {
+      appendScratch(buf, mark, stop - mark);
+      setText(scratch, 0, scratchLength);
+    } else {
+      setText(buf, mark, stop - mark);
+    }
+    mark = -1;
+  }
+
+
+  static private boolean matches(char[] b, int offset, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (b[offset + i] != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  private void setText(char[] source, int start, int length) {
+    textSource = source;
+    textStart = start;
+    textLength = length;
+  }
+
+
+  private int processingInstruction() throws IOException, XMLException {
+    skipWhitespace();
+    String target = scanName();
+    skipWhitespace();
+    scanUntil("?>");
+    if (target.equalsIgnoreCase("xml")) {
+      textSource = null;
+      return -1;  // the XML declaration isn't passed on
+    }
+    piTarget = target;
+    return PROCESSING_INSTRUCTION;
+  }
+
+
+  /**
+   * The DOCTYPE, with its internal subset handed to the validator so that
+   * it can add entities and default attribute values. External DTDs
+   * aren't read.
+   */
+  private int doctype() throws IOException, XMLException {
+    if (!checkLiteral("OCTYPE")) {
+      XMLUtil.errorExpectedInput(systemID, getLineNr(), "<!DOCTYPE");
+    }
+    skipWhitespace();
+    scanName();  // the root element
+    skipWhitespace();
+    String publicID = "";
+    char c = readChar();
+    if (c == 'P') {
+      if (!checkLiteral("UBLIC")) {
+        XMLUtil.errorExpectedInput(systemID, getLineNr(), "PUBLIC");
+      }
+      skipWhitespace();
+      publicID = scanQuoted();
+      skipWhitespace();
+      scanQuoted();
+      skipWhitespace();
+      c = readChar();
+    } else if (c == 'S') {
+      if (!checkLiteral("YSTEM")) {
+        XMLUtil.errorExpectedInput(systemID, getLineNr(), "SYSTEM");
+      }
+      skipWhitespace();
+      scanQuoted();
+      skipWhitespace();
+      c = readChar();
+    }
+
+    String subset = null;
+    if (c == '[') {
+      subset = scanSubset();
+      try {
+        StdXMLReader dtd = new StdXMLReader(new StringReader(subset + ']'));
+        validator.parseDTD(publicID, dtd, resolver, false);
+      } catch (XMLException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new XMLException(e);
+      }
+      entities.clear();
+      rawEntities.clear();
+      skipWhitespace();
+      c = readChar();
+    }
+    if (c != '>') {
+      XMLUtil.errorExpectedInput(systemID, getLineNr(), "`>'");
+    }
+    if (subset != null) {
+      char[] chars = subset.toCharArray();
+      setText(chars, 0, chars.length);
+    }
+    return DOCTYPE;
+  }
+
+
+  /**
+   * The internal subset of the DOCTYPE, up to the ']' that closes it,
+   * which can't be inside a quoted string or a comment.
+   */
+  private String scanSubset() throws IOException, XMLException {
+    StringBuilder sb = new StringBuilder();
+    char quote = 0;
+    int dashes = 0;
+    boolean comment = false;
+    for (;;) {
+      char c = readChar();
+      if (comment) {
+        if (c == '>' && dashes >= 2) {
+          comment = false;
+        }
+        dashes = (c == '-') ? dashes + 1 : 0;
+      } else if (quote != 0) {
+        if (c == quote) quote = 0;
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == ']') {
+        return sb.toString();
+      } else if (c == '-' && sb.length() >= 3 &&
+                 sb.substring(sb.length() - 3).equals("<!-")) {
+        comment = true;
+        dashes = 0;
+      }
+      sb.append(c);
+    }
+  }
+
+
+  private String scanQuoted() throws IOException, XMLException {
+    char quote = readChar();
+    if (quote != '"' && quote != '\'') {
+      XMLUtil.errorExpectedInput(systemID, getLineNr(), "delimited string");
+    }
+    StringBuilder sb = new StringBuilder();
+    char c;
+    while ((c = readChar()) != quote) {
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+
+  /**
+   * An element or attribute name, shared with earlier ones that had
+   * the same characters.
+   */
+  private String scanName() throws IOException {
+    boolean own = (mark == -1);
+    if (own) mark = pos;
+    int start = pos;
+    int p = pos;
+    for (;;) {
+      if (p == limit) {
+        pos = p;
+        int before = mark;
+        if (!fill()) break;
+        start -= before - mark;
+        p = pos;
+      }
+      char c = buf[p];
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+          (c >= '0' && c <= '9') || c == '_' || c == ':' || c == '-' ||
+          c == '.' || c > '~') {
+        p++;
+      } else {
+        break;
+      }
+    }
+    pos = p;
+    if (own) mark = -1;
+    return cachedName(buf, start, p - start);
+  }
+
+
+  private String cachedName(char[] b, int start, int length) {
+    int hash = 0;
+    for (int i = start; i < start + length; i++) {
+      hash = 31*hash + b[i];
+    }
+    int slot = (hash ^ (hash >>> 10)) & (NAME_CACHE_SIZE - 1);
+    String found = nameCache[slot];
+    if (found != null && found.hashCode() == hash &&
+        found.length() == length) {
+      int i = 0;
+      while (i < length && found.charAt(i) == b[start + i]) i++;
+      if (i == length) {
+        return found;
+      }
+    }
+    found = new String(b, start, length);
+    nameCache[slot] = found;
+    return found;
+  }
+
+
+  /**
+   * A quoted attribute value, with entities and character references
+   * replaced, and tabs and line breaks turned into spaces.
+   */
+  private String scanAttributeValue() throws IOException, XMLException {
+    char quote = readChar();
+    if (quote != '"' && quote != '\'') {
+      XMLUtil.errorExpectedInput(systemID, getLineNr(), "delimited string");
+    }
+    boolean copied = false;
+    scratchLength = 0;
+    mark = pos;
+    int p = pos;
+    for (;;) {
+      if (p == limit) {
+        pos = p;
+        if (!fill()) {
+          mark = -1;
+          throw new XMLParseException(systemID, getLineNr(),
+                                      "Unexpected EOF");
+        }
+        p = pos;
+      }
+      char c = buf[p];
+      if (c == quote) {
+        break;
+
+      } else if (c == '&' || c == '\t' || c == '\n' || c == '\r') {
+        appendScratch(buf, mark, p - mark);
+        copied = true;
+        pos = p;
+        if (c == '&') {
+          appendReference(false);
+        } else {
+          appendScratch(' ');
+          pos++;
+          if (c == '\r') {
+            mark = pos;
+            if ((pos < limit || fill()) && buf[pos] == '\n') {
+              pos++;
+            }
+          }
+        }
+        p = pos;
+        mark = p;
+
+      } else {
+        p++;
+      }
+    }
+    String value;
+    if (copied) {
+      appendScratch(buf, mark, p - mark);
+      value = new String(scratch, 0, scratchLength);
+    } else {
+      value = new String(buf, mark, p - mark);
+    }
+    pos = p + 1;
+    mark = -1;
+    return value;
+  }
+
+
+  /**
+   * Read the entity or character reference at pos, and add what it
+   * stands for to the scratch text. Between tags, an entity with markup
+   * (or references to other entities) in it is read as if its replacement
+   * text was there instead of the reference, so its elements are found.
+   * @return true if that's what happened, and nothing was added
+   */
+  private boolean appendReference(boolean inContent) throws IOException,
+                                                            XMLException {
+    pos++;  // the '&'
+    StringBuilder sb = new StringBuilder();
+    char c;
+    while ((c = readChar()) != ';') {
+      sb.append(c);
+    }
+    String ref = sb.toString();
+    if (ref.length() > 0 && ref.charAt(0) == '#') {
+      appendScratch(characterReference(ref));
+      return false;
+    }
+    if (inContent) {
+      String raw = rawEntity(ref);
+      if (hasMarkup(raw)) {
+        pushInput(ref, raw);
+        return true;
+      }
+    }
+    String value = entity(ref, 0);
+    appendScratch(value.toCharArray(), 0, value.length());
+    return false;
+  }
+
+
+  /**
+   * True for tags, or references to entities other than characters.
+   */
+  static private boolean hasMarkup(String raw) {
+    int index = -1;
+    while ((index = raw.indexOf('&', index + 1)) != -1) {
+      if (index + 1 == raw.length() || raw.charAt(index + 1) != '#') {
+        return true;
+      }
+    }
+    return raw.indexOf('<') != -1;
+  }
+
+
+  /**
+   * Read the replacement text of an entity next, and then go back to the
+   * current input (from fill()) when it's used up.
+   */
+  private void pushInput(String entityName,
+                         String text) throws XMLException {
+    if (inputCount == MAX_ENTITY_DEPTH) {
+      throw new XMLParseException(systemID, getLineNr(),
+                                  "Entities nested too deeply: `&" +
+                                  entityName + ";'");
+    }
+    Input in = new Input();
+    in.buf = buf;
+    in.pos = pos;
+    in.limit = limit;
+    in.reader = reader;
+    in.lineNr = getLineNr();
+    in.lineScan = lineScan;
+    in.afterCR = afterCR;
+    inputs[inputCount++] = in;
+
+    buf = text.toCharArray();
+    pos = 0;
+    limit = buf.length;
+    reader = null;
+    lineScan = 0;
+  }
+
+
+  static private class Input {
+    char[] buf;
+    int pos, limit;
+    Reader reader;
+    int lineNr, lineScan;
+    boolean afterCR;
+  }
+
+
+  private char[] characterReference(String ref) throws XMLException {
+    try {
+      int code = (ref.length() > 1 && ref.charAt(1) == 'x') ?
+        Integer.parseInt(ref.substring(2), 16) :
+        Integer.parseInt(ref.substring(1), 10);
+      return Character.toChars(code);
+    } catch (IllegalArgumentException e) {
+      throw new XMLParseException(systemID, getLineNr(),
+                                  "Invalid character reference: `&" +
+                                  ref + ";'");
+    }
+  }
+
+
+  /**
+   * What an entity stands for, with the references inside it replaced.
+   */
+  private String entity(String entityName,
+                        int level) throws IOException, XMLException {
+    String value = entities.get(entityName);
+    if (value != null) {
+      return value;
+    }
+    if (level == MAX_ENTITY_DEPTH) {
+      throw new XMLParseException(systemID, getLineNr(),
+                                  "Entities nested too deeply: `&" +
+                                  entityName + ";'");
+    }
+    String raw = rawEntity(entityName);
+
+    StringBuilder sb = new StringBuilder(raw.length());
+    int index = 0;
+    while (index < raw.length()) {
+      char c = raw.charAt(index++);
+      if (c == '&') {
+        int semi = raw.indexOf(";", index);
+        if (semi == -1) {
+          XMLUtil.errorInvalidEntity(systemID, getLineNr(),
+                                     raw.substring(index));
+        }
+        String ref = raw.substring(index, semi);
+        index = semi + 1;
+        if (ref.length() > 0 && ref.charAt(0) == '#') {
+          sb.append(characterReference(ref));
+        } else {
+          sb.append(entity(ref, level + 1));
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    value = sb.toString();
+    entities.put(entityName, value);
+    return value;
+  }
+
+
+  /**
+   * The replacement text of an entity, as it was declared.
+   */
+  private String rawEntity(String entityName) throws IOException,
+                                                     XMLException {
+    String raw = rawEntities.get(entityName);
+    if (raw != null) {
+      return raw;
+    }
+    if (entityReader == null) {
+      entityReader = new StdXMLReader(new StringReader(""));
+    }
+    Reader r = resolver.getEntity(entityReader, entityName);
+    if (r == null) {
+      XMLUtil.errorInvalidEntity(systemID, getLineNr(), entityName);
+    }
+    StringBuilder sb = new StringBuilder();
+    char[] chunk = new char[256];
+    int count;
+    while ((count = r.read(chunk)) != -1) {
+      sb.append(chunk, 0, count);
+    }
+    r.close();
+    raw = sb.toString();
+    rawEntities.put(entityName, raw);
+    return raw;
+  }
+
+
+  private void appendScratch(char c) {
+    if (scratchLength == scratch.length) {
+      scratch = expand(scratch, scratchLength + 1);
+    }
+    scratch[scratchLength++] = c;
+  }
+
+
+  private void appendScratch(char[] c) {
+    appendScratch(c, 0, c.length);
+  }
+
+
+  private void appendScratch(char[] source, int start, int length) {
+    if (scratchLength + length > scratch.length) {
+      scratch = expand(scratch, scratchLength + length);
+    }
+    System.arraycopy(source, start, scratch, scratchLength, length);
+    scratchLength += length;
+  }
+
+
+  private boolean checkLiteral(String literal) throws IOException,
+                                                      XMLException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (readChar() != literal.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  private void skipWhitespace() throws IOException {
+    for (;;) {
+      if (pos == limit && !fill()) {
+        return;
+      }
+      char c = buf[pos];
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+
+  private char readChar() throws IOException, XMLException {
+    if (pos == limit && !fill()) {
+      throw new XMLParseException(systemID, getLineNr(), "Unexpected EOF");
+    }
+    return buf[pos++];
+  }
+
+
+  /**
+   * Read more of the input, keeping everything from 'mark' on (or from
+   * pos, if there's no mark). Everything kept moves to the start of the
+   * buffer, and pos and mark move with it. At the end of an entity's
+   * replacement text, go back to where its reference was, unless there's
+   * a mark, since nothing but text can go on past the end of an entity.
+   * @return false if there's nothing more to read
+   */
+  private boolean fill() throws IOException {
+    if (reader == null) {
+      if (inputCount == 0 || mark != -1) {
+        return false;
+      }
+      Input in = inputs[--inputCount];
+      inputs[inputCount] = null;
+      buf = in.buf;
+      pos = in.pos;
+      limit = in.limit;
+      reader = in.reader;
+      lineNr = in.lineNr;
+      lineScan = in.lineScan;
+      afterCR = in.afterCR;
+      return pos < limit || fill();
+    }
+    int keep = (mark == -1) ? pos : mark;
+    countLines(keep);
+    if (keep > 0) {
+      System.arraycopy(buf, keep, buf, 0, limit - keep);
+      pos -= keep;
+      limit -= keep;
+      lineScan -= keep;
+      if (mark != -1) mark -= keep;
+    }
+    if (limit == buf.length) {
+      char[] temp = new char[buf.length << 1];
+      System.arraycopy(buf, 0, temp, 0, limit);
+      buf = temp;
+    }
+    int count;
+    do {
+      count = reader.read(buf, limit, buf.length - limit);
+    } while (count == 0);
+    if (count == -1) {
+      reader.close();
+      reader = null;
+      return false;
+    }
+    limit += count;
+    return true;
+  }
+
+
+  private void countLines(int upTo) {
+    for (int i = lineScan; i < upTo; i++) {
+      char c = buf[i];
+      if (c == '\n') {
+        if (!afterCR) lineNr++;
+        afterCR = false;
+      } else if (c == '\r') {
+        lineNr++;
+        afterCR = true;
+      } else {
+        afterCR = false;
+      }
+    }
+    if (upTo > lineScan) {
+      lineScan = upTo;
+    }
+  }
+
+
+  static private String[] expand(String[] list) {
+    String[] temp = new String[list.length << 1];
+    System.arraycopy(list, 0, temp, 0, list.length);
+    return temp;
+  }
+
+
+  static private char[] expand(char[] list, int minimum) {
+    char[] temp = new char[Math.max(minimum, list.length << 1)];
+    System.arraycopy(list, 0, temp, 0, list.length);
+    return temp;
+  }
+
+
+  static private int[] expand(int[] list) {
+    int[] temp = new int[list.length << 1];
+    System.arraycopy(list, 0, temp, 0, list.length);
+    return temp;
+  }
+}